@@ -35,4 +35,16 @@ public interface ContextElement {
    * @return the associated object's attributes
    */
   Map<String, Object> attributes();
+
+  /**
+   * A single attribute of the associated Java object.
+   * <p>
+   * Unlike {@link #attributes()} this need not realize the values of the other attributes.
+   *
+   * @param name the attribute name
+   * @return the attribute value, or {@code null} if there is no such attribute
+   */
+  default Object attribute(String name) {
+    return attributes().get(name);
+  }
 }
@@ -46,6 +46,12 @@ class LazyContextElement implements ContextElement {
     return Collections.unmodifiableMap(realized);
   }
 
+  @Override
+  public Object attribute(String name) {
+    AttributeGetter<Object> getter = attributes.get(name);
+    return getter == null ? null : getter.get();
+  }
+
   @Override
   public String toString() {
     return identifier() + " " + attributes();
@@ -0,0 +1,301 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.statistics;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * A snapshot of a {@link TableValueStatistic} held in columnar form.
+ * <p>
+ * The row and column layout is computed once by the statistic and shared by all its snapshots. The cell values are
+ * held in primitive arrays, so a snapshot can be refreshed in place. Cells are exposed through views over these
+ * arrays, which are created with the snapshot and kept across refreshes.
+ * <p>
+ * A new snapshot reads its cells in its constructor, so like an immutable object it can be handed to another thread
+ * even through a data race. A snapshot refreshed in place gets no such guarantee, and must be handed over safely.
+ * <p>
+ * A lazy snapshot reads each cell only when it is first accessed, and then keeps that value, so a consumer only pays
+ * for the cells it actually reads.
+ * <p>
+ * A snapshot serializes as a plain {@link Table}.
+ */
+final class ColumnarTable extends Table {
+
+  private static final long serialVersionUID = 1L;
+
+  private static final byte ABSENT = 0;
+  private static final byte LONG = 1;
+  private static final byte DOUBLE = 2;
+  private static final byte OBJECT = 3;
+
+  private final transient Layout layout;
+  private final transient long[] longs;
+  private final transient double[] doubles;
+  private final transient Serializable[] objects;
+  private final transient boolean[] evaluated;
+
+  private final transient Map<String, ValueStatistic<? extends Serializable>[]> cells;
+
+  private ColumnarTable(Layout layout, boolean lazy) {
+    super(layout.names);
+    this.layout = layout;
+    this.longs = new long[layout.longCount];
+    this.doubles = new double[layout.doubleCount];
+    this.objects = new Serializable[layout.objectCount];
+    this.evaluated = lazy ? new boolean[layout.kinds.length] : null;
+    this.cells = new LinkedHashMap<>();
+    int columns = layout.names.length;
+    for (Map.Entry<String, Integer> row : layout.rows.entrySet()) {
+      int base = row.getValue() * columns;
+      ValueStatistic<? extends Serializable>[] values = new ValueStatistic<?>[columns];
+      for (int column = 0; column < columns; column++) {
+        values[column] = cell(base + column);
+      }
+      cells.put(row.getKey(), values);
+    }
+    if (!lazy) {
+      readAll();
+    }
+  }
+
+  Layout layout() {
+    return layout;
+  }
+
+  /**
+   * Reads every cell of the table, or for a lazy table forgets every value read so far.
+   */
+  ColumnarTable refresh() {
+    if (evaluated == null) {
+      readAll();
+    } else {
+      synchronized (this) {
+        Arrays.fill(evaluated, false);
+      }
+    }
+    return this;
+  }
+
+  private void readAll() {
+    for (int i = 0; i < layout.kinds.length; i++) {
+      read(i);
+    }
+  }
+
+  private void read(int index) {
+    int slot = layout.slots[index];
+    switch (layout.kinds[index]) {
+      case LONG:
+        longs[slot] = ((LongValueStatistic) layout.accessors[index]).longValue();
+        break;
+      case DOUBLE:
+        doubles[slot] = ((DoubleValueStatistic) layout.accessors[index]).doubleValue();
+        break;
+      case OBJECT:
+        objects[slot] = layout.accessors[index].value();
+        break;
+      default:
+        break;
+    }
+  }
+
+  private void evaluate(int index) {
+    if (evaluated != null) {
+      synchronized (this) {
+        if (!evaluated[index]) {
+          read(index);
+          evaluated[index] = true;
+        }
+      }
+    }
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return layout.rows.isEmpty();
+  }
+
+  @Override
+  public int getRowCount() {
+    return layout.rows.size();
+  }
+
+  @Override
+  public Collection<String> getRowLabels() {
+    return Collections.unmodifiableSet(layout.rows.keySet());
+  }
+
+  @Override
+  public ValueStatistic<? extends Serializable>[] getStatistics(String row) {
+    return getStatistics().get(row);
+  }
+
+  @Override
+  public Map<String, ValueStatistic<? extends Serializable>[]> getStatistics() {
+    return cells;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public <T extends Serializable> Optional<ValueStatistic<T>> getStatistic(String row, String statisticName) {
+    Integer index = layout.rows.get(row);
+    int column = Arrays.binarySearch(layout.names, statisticName);
+    if (index == null || column < 0) {
+      return Optional.empty();
+    }
+    return Optional.ofNullable((ValueStatistic<T>) getStatistics().get(row)[column]);
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + "{" +
+        "statistics=" + getStatistics() +
+        ", rowCount=" + getRowCount() +
+        ", rowLabels=" + getRowLabels() +
+        '}';
+  }
+
+  private ValueStatistic<? extends Serializable> cell(int index) {
+    StatisticType type = layout.types[index];
+    int slot = layout.slots[index];
+    switch (layout.kinds[index]) {
+      case LONG:
+        return new LongValueStatistic() {
+          @Override
+          public long longValue() {
+            evaluate(index);
+            return longs[slot];
+          }
+
+          @Override
+          public StatisticType type() {
+            return type;
+          }
+        };
+      case DOUBLE:
+        return new DoubleValueStatistic() {
+          @Override
+          public double doubleValue() {
+            evaluate(index);
+            return doubles[slot];
+          }
+
+          @Override
+          public StatisticType type() {
+            return type;
+          }
+        };
+      case OBJECT:
+        return new ValueStatistic<Serializable>() {
+          @Override
+          public Serializable value() {
+            evaluate(index);
+            return objects[slot];
+          }
+
+          @Override
+          public StatisticType type() {
+            return type;
+          }
+        };
+      default:
+        return null;
+    }
+  }
+
+  private Object writeReplace() throws ObjectStreamException {
+    Table.Builder builder = Table.newBuilder(layout.names);
+    for (Map.Entry<String, ValueStatistic<? extends Serializable>[]> row : getStatistics().entrySet()) {
+      ValueStatistic<? extends Serializable>[] values = row.getValue();
+      for (int column = 0; column < values.length; column++) {
+        if (values[column] != null) {
+          builder.setStatistic(row.getKey(), layout.names[column], values[column].type(), values[column].value());
+        }
+      }
+    }
+    return builder.build();
+  }
+
+  /**
+   * The fixed shape of the snapshots of a table statistic: the column index, the row index and the kind of each cell.
+   */
+  static final class Layout {
+
+    private final String[] names;
+    private final Map<String, Integer> rows;
+    private final ValueStatistic<? extends Serializable>[] accessors;
+    private final StatisticType[] types;
+    private final byte[] kinds;
+    private final int[] slots;
+    private final int longCount;
+    private final int doubleCount;
+    private final int objectCount;
+
+    /**
+     * @param names      the sorted column names
+     * @param statistics the cell accessors of each row, in row order
+     */
+    Layout(String[] names, Map<String, ValueStatistic<? extends Serializable>[]> statistics) {
+      this.names = names;
+      this.rows = new LinkedHashMap<>();
+      int size = statistics.size() * names.length;
+      this.accessors = new ValueStatistic<?>[size];
+      this.types = new StatisticType[size];
+      this.kinds = new byte[size];
+      this.slots = new int[size];
+      int longCount = 0;
+      int doubleCount = 0;
+      int objectCount = 0;
+      int index = 0;
+      for (Map.Entry<String, ValueStatistic<? extends Serializable>[]> row : statistics.entrySet()) {
+        rows.put(row.getKey(), rows.size());
+        for (ValueStatistic<? extends Serializable> accessor : row.getValue()) {
+          accessors[index] = accessor;
+          if (accessor instanceof LongValueStatistic) {
+            kinds[index] = LONG;
+            slots[index] = longCount++;
+          } else if (accessor instanceof DoubleValueStatistic) {
+            kinds[index] = DOUBLE;
+            slots[index] = doubleCount++;
+          } else if (accessor != null) {
+            kinds[index] = OBJECT;
+            slots[index] = objectCount++;
+          }
+          types[index] = accessor == null ? null : accessor.type();
+          index++;
+        }
+      }
+      this.longCount = longCount;
+      this.doubleCount = doubleCount;
+      this.objectCount = objectCount;
+    }
+
+    ColumnarTable snapshot() {
+      return new ColumnarTable(this, false);
+    }
+
+    ColumnarTable lazySnapshot() {
+      return new ColumnarTable(this, true);
+    }
+  }
+}
@@ -20,7 +20,7 @@ import java.io.Serializable;
 /**
  * @author cdennis
  */
-public class ConstantValueStatistic<T extends Serializable> implements ValueStatistic<T>, Serializable {
+public class ConstantValueStatistic<T extends Serializable> implements VersionedStatistic<T>, Serializable {
 
   private static final long serialVersionUID = 1L;
   private final T value;
@@ -40,4 +40,9 @@ public class ConstantValueStatistic<T extends Serializable> implements ValueStat
   public StatisticType type() {
     return type;
   }
+
+  @Override
+  public long version() {
+    return 0;
+  }
 }
@@ -0,0 +1,207 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.statistics;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * A table statistic whose rows are read from a live source each time it is sampled.
+ * <p>
+ * Rows are keyed by the elements of a collection, for example the tiers of a cache or the results of a context query,
+ * and each column is a function that creates the cell statistic for a row. Cells are only created when the set of rows
+ * changes. A snapshot from {@link #value()} reads every cell when it is taken, so it can be archived and read later.
+ * Wide tables can avoid reading what is not needed by selecting some columns with {@link #select(String...)}, or by
+ * taking a {@link #lazyValue() lazy snapshot}.
+ *
+ * @param <K> the row key type
+ */
+public class DynamicTableValueStatistic<K> implements ValueStatistic<Table> {
+
+  private final Supplier<? extends Collection<? extends K>> rows;
+  private final Function<? super K, String> labels;
+  private final Map<String, Function<? super K, ? extends ValueStatistic<? extends Serializable>>> columns;
+  private final Selection all;
+
+  /**
+   * @param rows the supplier of the current row labels
+   * @return a table builder
+   */
+  public static Builder<String> newBuilder(Supplier<? extends Collection<String>> rows) {
+    return new Builder<>(rows, Function.identity());
+  }
+
+  /**
+   * @param rows   the supplier of the current row keys
+   * @param labels the function giving the label of a row key
+   * @param <K>    the row key type
+   * @return a table builder
+   */
+  public static <K> Builder<K> newBuilder(Supplier<? extends Collection<? extends K>> rows, Function<? super K, String> labels) {
+    return new Builder<>(rows, labels);
+  }
+
+  private DynamicTableValueStatistic(Builder<K> builder) {
+    this.rows = builder.rows;
+    this.labels = builder.labels;
+    this.columns = new TreeMap<>(builder.columns);
+    this.all = new Selection(this.columns.keySet().toArray(new String[0]));
+  }
+
+  @Override
+  public StatisticType type() {
+    return StatisticType.TABLE;
+  }
+
+  /**
+   * @return a snapshot of all the columns of the current rows
+   * @throws IllegalStateException if two rows have the same label
+   */
+  @Override
+  public Table value() {
+    return all.value();
+  }
+
+  /**
+   * Returns a snapshot that reads each cell only when it is first accessed, and then keeps its value.
+   * <p>
+   * The values of such a snapshot are not those at the time it was taken, so it must be read straight away and must not
+   * be archived.
+   *
+   * @return a lazily evaluated snapshot of all the columns of the current rows
+   * @throws IllegalStateException if two rows have the same label
+   */
+  public Table lazyValue() {
+    return all.layout().lazySnapshot();
+  }
+
+  /**
+   * Returns a view of this table restricted to the given columns. Its snapshots read the selected columns when they are
+   * taken, and the cells of the other columns are never created nor read through the view.
+   *
+   * @param columns the columns to select
+   * @return a table statistic over the selected columns
+   * @throws IllegalArgumentException if a column is unknown
+   */
+  public ValueStatistic<Table> select(String... columns) {
+    for (String column : columns) {
+      if (!this.columns.containsKey(column)) {
+        throw new IllegalArgumentException("Illegal inner statistic: " + column + ". Allowed: " + this.columns.keySet());
+      }
+    }
+    String[] names = columns.clone();
+    Arrays.sort(names);
+    return new Selection(names);
+  }
+
+  /**
+   * A selection of columns, caching its layout until the rows change.
+   */
+  private final class Selection implements ValueStatistic<Table> {
+
+    private final String[] names;
+    private volatile Rows current;
+
+    Selection(String[] names) {
+      this.names = names;
+    }
+
+    @Override
+    public StatisticType type() {
+      return StatisticType.TABLE;
+    }
+
+    @Override
+    public Table value() {
+      return layout().snapshot();
+    }
+
+    ColumnarTable.Layout layout() {
+      List<K> keys = new ArrayList<>(rows.get());
+      Rows cached = current;
+      if (cached == null || !cached.keys.equals(keys)) {
+        current = cached = new Rows(keys, layout(keys));
+      }
+      return cached.layout;
+    }
+
+    private ColumnarTable.Layout layout(List<K> keys) {
+      Map<String, ValueStatistic<? extends Serializable>[]> cells = new LinkedHashMap<>();
+      for (K key : keys) {
+        ValueStatistic<? extends Serializable>[] row = new ValueStatistic<?>[names.length];
+        for (int i = 0; i < names.length; i++) {
+          row[i] = columns.get(names[i]).apply(key);
+        }
+        String label = labels.apply(key);
+        if (cells.putIfAbsent(label, row) != null) {
+          throw new IllegalStateException("Found duplicate row " + label);
+        }
+      }
+      return new ColumnarTable.Layout(names, cells);
+    }
+  }
+
+  private final class Rows {
+
+    private final List<K> keys;
+    private final ColumnarTable.Layout layout;
+
+    Rows(List<K> keys, ColumnarTable.Layout layout) {
+      this.keys = keys;
+      this.layout = layout;
+    }
+  }
+
+  public static class Builder<K> {
+
+    private final Supplier<? extends Collection<? extends K>> rows;
+    private final Function<? super K, String> labels;
+    private final Map<String, Function<? super K, ? extends ValueStatistic<? extends Serializable>>> columns = new LinkedHashMap<>();
+
+    private Builder(Supplier<? extends Collection<? extends K>> rows, Function<? super K, String> labels) {
+      this.rows = Objects.requireNonNull(rows);
+      this.labels = Objects.requireNonNull(labels);
+    }
+
+    /**
+     * Adds a column.
+     *
+     * @param statisticName the column name
+     * @param cell          the function creating the cell statistic of a row, which may return {@code null} if the row
+     *                      has no such statistic
+     * @return this builder
+     */
+    public Builder<K> withColumn(String statisticName, Function<? super K, ? extends ValueStatistic<? extends Serializable>> cell) {
+      if (columns.putIfAbsent(statisticName, Objects.requireNonNull(cell)) != null) {
+        throw new IllegalArgumentException("Found duplicate inner statistic " + statisticName);
+      }
+      return this;
+    }
+
+    public DynamicTableValueStatistic<K> build() {
+      return new DynamicTableValueStatistic<>(this);
+    }
+  }
+}
@@ -0,0 +1,36 @@
+/*
+ * All content copyright Terracotta, Inc., unless otherwise indicated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.statistics;
+
+/**
+ * A {@link ValueStatistic} over a primitive {@code long}, that can be read without boxing.
+ */
+public interface LongValueStatistic extends ValueStatistic<Long> {
+
+  /**
+   * @return The current statistic value
+   */
+  long longValue();
+
+  /**
+   * @return The current statistic value, boxed
+   */
+  @Override
+  default Long value() {
+    return longValue();
+  }
+
+}
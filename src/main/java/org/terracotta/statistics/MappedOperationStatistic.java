@@ -68,12 +68,12 @@ public class MappedOperationStatistic<S extends Enum<S>, D extends Enum<D>> impl
   }
 
   @Override
-  public ValueStatistic<Long> statistic(D result) {
+  public LongValueStatistic statistic(D result) {
     return mapper.statistic(result);
   }
 
   @Override
-  public ValueStatistic<Long> statistic(Set<D> results) {
+  public LongValueStatistic statistic(Set<D> results) {
     return mapper.statistic(results);
   }
 
@@ -20,7 +20,7 @@ import org.terracotta.statistics.observer.OperationObserver;
 
 import java.util.Set;
 
-import static org.terracotta.statistics.ValueStatistics.counter;
+import static org.terracotta.statistics.ValueStatistics.longCounter;
 
 /**
  * @author cdennis
@@ -30,17 +30,17 @@ public interface OperationStatistic<T extends Enum<T>> extends OperationObserver
   Class<T> type();
 
   /**
-   * Return a {@link ValueStatistic} returning the count for the given result.
+   * Return a {@link LongValueStatistic} returning the count for the given result.
    *
    * @param result the result of interest
-   * @return a {@code ValueStatistic} instance
+   * @return a {@code LongValueStatistic} instance
    */
-  default ValueStatistic<Long> statistic(T result) {
-    return counter(() -> count(result));
+  default LongValueStatistic statistic(T result) {
+    return longCounter(() -> count(result));
   }
 
-  default ValueStatistic<Long> statistic(Set<T> results) {
-    return counter(() -> sum(results));
+  default LongValueStatistic statistic(Set<T> results) {
+    return longCounter(() -> sum(results));
   }
 
   /**
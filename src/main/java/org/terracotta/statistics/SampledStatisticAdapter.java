@@ -30,7 +30,7 @@ public class SampledStatisticAdapter<T extends Serializable> implements SampledS
   private final LongSupplier timeSource;
   private final ValueStatistic<T> statistic;
 
-  private SampledStatisticAdapter(ValueStatistic<T> statistic, LongSupplier timeSource) {
+  SampledStatisticAdapter(ValueStatistic<T> statistic, LongSupplier timeSource) {
     this.statistic = Objects.requireNonNull(statistic);
     this.timeSource = Objects.requireNonNull(timeSource);
   }
@@ -56,8 +56,30 @@ public class SampledStatisticAdapter<T extends Serializable> implements SampledS
     return statistic.type();
   }
 
+  /**
+   * Adapts a statistic to a single sample history. The adapter is a {@link VersionedStatistic} if the statistic is.
+   */
   public static <T extends Serializable> SampledStatistic<T> sample(ValueStatistic<T> accessor, LongSupplier timeSource) {
-    return new SampledStatisticAdapter<>(accessor, timeSource);
+    if (accessor instanceof VersionedStatistic) {
+      return new Versioned<>((VersionedStatistic<T>) accessor, timeSource);
+    } else {
+      return new SampledStatisticAdapter<>(accessor, timeSource);
+    }
+  }
+
+  private static class Versioned<T extends Serializable> extends SampledStatisticAdapter<T> implements VersionedStatistic<T> {
+
+    private final VersionedStatistic<T> statistic;
+
+    Versioned(VersionedStatistic<T> statistic, LongSupplier timeSource) {
+      super(statistic, timeSource);
+      this.statistic = statistic;
+    }
+
+    @Override
+    public long version() {
+      return statistic.version();
+    }
   }
 
 }
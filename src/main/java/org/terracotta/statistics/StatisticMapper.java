@@ -82,12 +82,12 @@ public class StatisticMapper<SOURCE extends Enum<SOURCE>, TARGET extends Enum<TA
   }
 
   @Override
-  public ValueStatistic<Long> statistic(TARGET result) {
+  public LongValueStatistic statistic(TARGET result) {
     return statistic.statistic(translation.get(result));
   }
 
   @Override
-  public ValueStatistic<Long> statistic(Set<TARGET> results) {
+  public LongValueStatistic statistic(Set<TARGET> results) {
     Set<SOURCE> translated = EnumSet.noneOf(sourceType);
     for (TARGET result : results) {
       translated.addAll(translation.get(result));
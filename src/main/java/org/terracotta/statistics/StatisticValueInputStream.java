@@ -0,0 +1,81 @@
+/*
+ * All content copyright Terracotta, Inc., unless otherwise indicated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.statistics;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Set;
+
+/**
+ * An object input stream that only resolves the classes that statistic values are made of: {@link Sample}s, boxed
+ * primitives, big numbers, strings, enums, {@link Table}s and arrays of these. Enums are safe to resolve since their
+ * deserialization only looks up an existing constant.
+ * <p>
+ * Serialized statistic values are read back from files and from the wire, so resolving arbitrary classes would let a
+ * crafted stream instantiate any serializable class on the classpath.
+ */
+public class StatisticValueInputStream extends ObjectInputStream {
+
+  private static final Set<String> ALLOWED = new HashSet<>(Arrays.asList(
+      Boolean.class.getName(), Byte.class.getName(), Short.class.getName(), Character.class.getName(),
+      Integer.class.getName(), Long.class.getName(), Float.class.getName(), Double.class.getName(),
+      Number.class.getName(), BigInteger.class.getName(), BigDecimal.class.getName(),
+      String.class.getName(), Enum.class.getName(),
+      HashMap.class.getName(), LinkedHashMap.class.getName(),
+      Sample.class.getName(), StatisticType.class.getName(), ValueStatistic.class.getName(),
+      ConstantValueStatistic.class.getName(), TableSkeleton.class.getName(), Table.class.getName()
+  ));
+
+  public StatisticValueInputStream(InputStream in) throws IOException {
+    super(in);
+  }
+
+  @Override
+  protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+    String name = desc.getName();
+    // strip array dimensions, primitive arrays are always allowed
+    int dimensions = 0;
+    while (name.charAt(dimensions) == '[') {
+      dimensions++;
+    }
+    if (dimensions > 0) {
+      name = name.charAt(dimensions) == 'L' ? name.substring(dimensions + 1, name.length() - 1) : null;
+    }
+    Class<?> resolved = super.resolveClass(desc);
+    if (name != null && !ALLOWED.contains(name) && !isEnum(resolved)) {
+      throw new InvalidClassException(desc.getName(), "Not a statistic value class");
+    }
+    return resolved;
+  }
+
+  private static boolean isEnum(Class<?> type) {
+    Class<?> component = type;
+    while (component.isArray()) {
+      component = component.getComponentType();
+    }
+    // constants with a body are anonymous subclasses of their enum
+    return component.isEnum() || (component.getSuperclass() != null && component.getSuperclass().isEnum());
+  }
+}
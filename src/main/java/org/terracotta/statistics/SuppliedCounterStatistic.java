@@ -0,0 +1,36 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.statistics;
+
+import java.util.function.Supplier;
+
+import static org.terracotta.statistics.StatisticType.COUNTER;
+
+/**
+ * A supplied counter. A counter only moves when it counts, so its current count is its version stamp.
+ */
+class SuppliedCounterStatistic<T extends Number> extends SuppliedValueStatistic<T> implements VersionedStatistic<T> {
+
+  SuppliedCounterStatistic(Supplier<T> supplier) {
+    super(COUNTER, supplier);
+  }
+
+  @Override
+  public long version() {
+    T value = value();
+    return value == null ? Long.MIN_VALUE : value.longValue();
+  }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.statistics;
+
+import java.util.Objects;
+import java.util.function.DoubleSupplier;
+
+/**
+ * A {@link DoubleValueStatistic} whose value is given by a {@link DoubleSupplier}.
+ */
+class SuppliedDoubleValueStatistic implements DoubleValueStatistic {
+
+  private final DoubleSupplier supplier;
+  private final StatisticType type;
+
+  SuppliedDoubleValueStatistic(StatisticType type, DoubleSupplier supplier) {
+    this.type = Objects.requireNonNull(type);
+    this.supplier = Objects.requireNonNull(supplier);
+  }
+
+  @Override
+  public double doubleValue() {
+    return supplier.getAsDouble();
+  }
+
+  @Override
+  public StatisticType type() {
+    return type;
+  }
+}
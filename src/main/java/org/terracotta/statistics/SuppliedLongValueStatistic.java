@@ -0,0 +1,58 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.statistics;
+
+import java.util.Objects;
+import java.util.function.LongSupplier;
+
+/**
+ * A {@link LongValueStatistic} whose value is given by a {@link LongSupplier}.
+ */
+class SuppliedLongValueStatistic implements LongValueStatistic {
+
+  private final LongSupplier supplier;
+  private final StatisticType type;
+
+  SuppliedLongValueStatistic(StatisticType type, LongSupplier supplier) {
+    this.type = Objects.requireNonNull(type);
+    this.supplier = Objects.requireNonNull(supplier);
+  }
+
+  @Override
+  public long longValue() {
+    return supplier.getAsLong();
+  }
+
+  @Override
+  public StatisticType type() {
+    return type;
+  }
+
+  /**
+   * A supplied primitive counter, versioned by its count like {@link SuppliedCounterStatistic}.
+   */
+  static final class Counter extends SuppliedLongValueStatistic implements VersionedStatistic<Long> {
+
+    Counter(LongSupplier supplier) {
+      super(StatisticType.COUNTER, supplier);
+    }
+
+    @Override
+    public long version() {
+      return longValue();
+    }
+  }
+}
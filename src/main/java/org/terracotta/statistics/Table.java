@@ -35,7 +35,7 @@ public class Table extends TableSkeleton implements Serializable {
     return new Builder(innerStatisticNames);
   }
 
-  private Table(String... innerStatisticNames) {
+  Table(String... innerStatisticNames) {
     super(innerStatisticNames);
   }
 
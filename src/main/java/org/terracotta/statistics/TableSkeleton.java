@@ -78,7 +78,7 @@ public abstract class TableSkeleton implements Serializable {
     if (idx < 0) {
       return Optional.empty();
     }
-    return Optional.of((ValueStatistic<T>) statistics[idx]);
+    return Optional.ofNullable((ValueStatistic<T>) statistics[idx]);
   }
 
   @Override
@@ -0,0 +1,59 @@
+/*
+ * All content copyright Terracotta, Inc., unless otherwise indicated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.statistics;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Takes snapshots of {@link TableValueStatistic} instances, refreshing in place the snapshot it took of the same
+ * statistic the previous time.
+ * <p>
+ * The snapshots are owned by this instance: a snapshot must no longer be in use once the same statistic is snapshotted
+ * again, and must not be handed to other code. This class is meant for a single consumer that periodically reads the
+ * same tables, such as an exporter, and is not thread-safe.
+ */
+public final class TableSnapshots {
+
+  private Map<TableValueStatistic, Table> taken = new IdentityHashMap<>();
+  private Map<TableValueStatistic, Table> previous = new IdentityHashMap<>();
+
+  /**
+   * Takes a snapshot of the statistic, refreshing its previous snapshot in place if there is one.
+   *
+   * @param statistic the statistic to snapshot
+   * @return the snapshot, valid until the next snapshot of the same statistic
+   */
+  public Table snapshot(TableValueStatistic statistic) {
+    Table reuse = taken.get(statistic);
+    if (reuse == null) {
+      reuse = previous.remove(statistic);
+    }
+    Table snapshot = statistic.snapshot(reuse);
+    taken.put(statistic, snapshot);
+    return snapshot;
+  }
+
+  /**
+   * Forgets the snapshots of the statistics that have not been snapshotted since the previous call.
+   */
+  public void retainTaken() {
+    Map<TableValueStatistic, Table> forgotten = previous;
+    forgotten.clear();
+    previous = taken;
+    taken = forgotten;
+  }
+}
@@ -29,6 +29,8 @@ public class TableValueStatistic extends TableSkeleton implements ValueStatistic
 
   private static final long serialVersionUID = 1L;
 
+  private transient volatile ColumnarTable.Layout layout;
+
   public static TableValueStatistic.Builder newBuilder(String... innerStatisticNames) {
     return new TableValueStatistic.Builder(innerStatisticNames);
   }
@@ -44,15 +46,40 @@ public class TableValueStatistic extends TableSkeleton implements ValueStatistic
 
   @Override
   public Table value() {
-    String[] statisticNames = getStatisticNames();
-    return Table.newBuilder(statisticNames)
-        .withRows(getRowLabels(), (row, rowBuilder) -> {
-          ValueStatistic<? extends Serializable>[] vals = getStatistics(row);
-          for (int i = 0; i < vals.length; i++) {
-            rowBuilder.setStatistic(statisticNames[i], vals[i].type(), vals[i].value());
-          }
-        })
-        .build();
+    return snapshot(null);
+  }
+
+  /**
+   * Takes a snapshot of the table, refreshing {@code reuse} in place if it is an earlier snapshot of this statistic.
+   * <p>
+   * Snapshots share a row and column layout that is computed once, and hold their values in primitive arrays, so
+   * refreshing a snapshot does not allocate. A refreshed snapshot is overwritten, so it and any cells read from it must
+   * no longer be in use elsewhere: this is why reuse is only offered to callers through {@link TableSnapshots}.
+   *
+   * @param reuse an earlier snapshot to refresh, or {@code null}
+   * @return the snapshot
+   */
+  Table snapshot(Table reuse) {
+    ColumnarTable.Layout current = layout();
+    if (reuse instanceof ColumnarTable && ((ColumnarTable) reuse).layout() == current) {
+      return ((ColumnarTable) reuse).refresh();
+    } else {
+      return current.snapshot();
+    }
+  }
+
+  private ColumnarTable.Layout layout() {
+    ColumnarTable.Layout current = layout;
+    if (current == null) {
+      layout = current = new ColumnarTable.Layout(getStatisticNames(), getStatistics());
+    }
+    return current;
+  }
+
+  @Override
+  protected <T extends Serializable> void insert(String rowName, String statisticName, ValueStatistic<T> accessor) {
+    super.insert(rowName, statisticName, accessor);
+    layout = null;
   }
 
   public static class Builder {
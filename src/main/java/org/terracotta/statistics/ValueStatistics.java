@@ -17,9 +17,10 @@ package org.terracotta.statistics;
 
 import java.io.Serializable;
 import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
 import java.util.function.Supplier;
 
-import static org.terracotta.statistics.StatisticType.COUNTER;
 import static org.terracotta.statistics.StatisticType.GAUGE;
 import static org.terracotta.statistics.StatisticType.RATE;
 import static org.terracotta.statistics.StatisticType.RATIO;
@@ -46,18 +47,49 @@ public class ValueStatistics {
     return supply(GAUGE, supplier);
   }
 
+  public static LongValueStatistic longGauge(LongSupplier supplier) {
+    return new SuppliedLongValueStatistic(GAUGE, supplier);
+  }
+
+  public static DoubleValueStatistic doubleGauge(DoubleSupplier supplier) {
+    return new SuppliedDoubleValueStatistic(GAUGE, supplier);
+  }
+
+  /**
+   * Returns a counter over the supplied value.
+   * <p>
+   * The returned statistic is a {@link VersionedStatistic}, versioned by its count.
+   */
   public static <T extends Number> ValueStatistic<T> counter(Supplier<T> supplier) {
-    return supply(COUNTER, supplier);
+    return new SuppliedCounterStatistic<>(supplier);
+  }
+
+  /**
+   * Returns a counter over the supplied primitive value, that can be read without boxing.
+   * <p>
+   * This is not an overload of {@link #counter(Supplier)}, as that would make many existing lambdas ambiguous. The
+   * returned statistic is a {@link VersionedStatistic}, versioned by its count.
+   */
+  public static LongValueStatistic longCounter(LongSupplier supplier) {
+    return new SuppliedLongValueStatistic.Counter(supplier);
   }
 
   public static <T extends Number> ValueStatistic<T> rate(Supplier<T> supplier) {
     return supply(RATE, supplier);
   }
 
+  public static DoubleValueStatistic doubleRate(DoubleSupplier supplier) {
+    return new SuppliedDoubleValueStatistic(RATE, supplier);
+  }
+
   public static <T extends Number> ValueStatistic<T> ratio(Supplier<T> supplier) {
     return supply(RATIO, supplier);
   }
 
+  public static DoubleValueStatistic doubleRatio(DoubleSupplier supplier) {
+    return new SuppliedDoubleValueStatistic(RATIO, supplier);
+  }
+
   public static <T extends Table> ValueStatistic<T> table(Supplier<T> supplier) {
     return supply(TABLE, supplier);
   }
@@ -0,0 +1,34 @@
+/*
+ * All content copyright Terracotta, Inc., unless otherwise indicated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.statistics;
+
+import java.io.Serializable;
+
+/**
+ * A statistic that can cheaply report whether it has changed.
+ * <p>
+ * The version changes whenever the value, or for a {@link SampledStatistic} the history, may have changed. It may
+ * change without the statistic having changed, but never the reverse, so equal versions read at two instants mean
+ * there is nothing new to extract. Versions are only comparable between reads of the same statistic instance.
+ */
+public interface VersionedStatistic<T extends Serializable> extends ValueStatistic<T> {
+
+  /**
+   * @return the current version stamp
+   */
+  long version();
+
+}
@@ -0,0 +1,240 @@
+/*
+ * All content copyright Terracotta, Inc., unless otherwise indicated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.statistics.archive;
+
+import org.terracotta.statistics.DoubleValueStatistic;
+import org.terracotta.statistics.LongValueStatistic;
+import org.terracotta.statistics.Sample;
+import org.terracotta.statistics.Time;
+import org.terracotta.statistics.ValueStatistic;
+
+import java.io.Serializable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+import static org.terracotta.statistics.ValueStatistics.doubleGauge;
+import static org.terracotta.statistics.ValueStatistics.doubleRatio;
+import static org.terracotta.statistics.ValueStatistics.longCounter;
+import static org.terracotta.statistics.ValueStatistics.longGauge;
+
+/**
+ * A sampler that coarsens its sampling period to keep the cost of sampling within a CPU budget.
+ * <p>
+ * The time taken by each call to {@link ValueStatistic#value()} is measured and smoothed. Whenever the smoothed cost
+ * exceeds the budgeted fraction of the current period the period is doubled, up to a maximum coarsening of the
+ * requested period. The period is halved again once the halved period would use no more than half the budget. Each
+ * sample is scheduled only after the previous one completes, so an expensive statistic never queues up work on a
+ * shared executor.
+ * <p>
+ * Coarsening is reported through {@link #samplingPeriodStatistic()} and {@link #skippedSamplesStatistic()}, the count
+ * of requested samples that were not taken, and the cost of sampling through {@link #samplingCostStatistic()} and
+ * {@link #cpuUsageStatistic()}. A sample whose statistic or sink throws is counted by
+ * {@link #failedSamplesStatistic()} and sampling continues at the current period.
+ */
+public class AdaptiveStatisticSampler<T extends Serializable> {
+
+  private static final double SMOOTHING = 0.25;
+
+  private final boolean exclusiveExecutor;
+  private final ScheduledExecutorService executor;
+  private final ValueStatistic<T> statistic;
+  private final Consumer<Sample<T>> sink;
+  private final LongSupplier timeSupplier;
+  private final double budget;
+  private final int maximumCoarsening;
+  private final LongAdder skipped = new LongAdder();
+  private final LongAdder failed = new LongAdder();
+
+  private volatile long basePeriod;
+  private volatile long period;
+  private volatile double cost = Double.NaN;
+
+  private ScheduledFuture<?> currentExecution;
+  private boolean running;
+  // identifies the current sampling chain, so that a sample in flight across a restart does not reschedule
+  private long generation;
+
+  /**
+   * @param time              the requested sampling period
+   * @param unit              period unit
+   * @param budget            the fraction of a single CPU that sampling may consume
+   * @param maximumCoarsening the largest multiple of the requested period that sampling may be coarsened to
+   * @param statistic         the statistic to sample
+   * @param sink              the sample consumer
+   * @param timeSupplier      the supplier of sample timestamps
+   */
+  public AdaptiveStatisticSampler(long time, TimeUnit unit, double budget, int maximumCoarsening, ValueStatistic<T> statistic, Consumer<Sample<T>> sink, LongSupplier timeSupplier) {
+    this(null, time, unit, budget, maximumCoarsening, statistic, sink, timeSupplier);
+  }
+
+  /**
+   * @param executor          the executor to sample on, or {@code null} to use an exclusive thread
+   * @param time              the requested sampling period
+   * @param unit              period unit
+   * @param budget            the fraction of a single CPU that sampling may consume
+   * @param maximumCoarsening the largest multiple of the requested period that sampling may be coarsened to
+   * @param statistic         the statistic to sample
+   * @param sink              the sample consumer
+   * @param timeSupplier      the supplier of sample timestamps
+   */
+  public AdaptiveStatisticSampler(ScheduledExecutorService executor, long time, TimeUnit unit, double budget, int maximumCoarsening, ValueStatistic<T> statistic, Consumer<Sample<T>> sink, LongSupplier timeSupplier) {
+    if (!(budget > 0 && budget <= 1)) {
+      throw new IllegalArgumentException("Budget must be in (0, 1]: " + budget);
+    }
+    if (maximumCoarsening < 1) {
+      throw new IllegalArgumentException("Maximum coarsening must be at least 1: " + maximumCoarsening);
+    }
+    if (executor == null) {
+      this.exclusiveExecutor = true;
+      this.executor = Executors.newSingleThreadScheduledExecutor(new StatisticSampler.SamplerThreadFactory());
+    } else {
+      this.exclusiveExecutor = false;
+      this.executor = executor;
+    }
+    this.budget = budget;
+    this.maximumCoarsening = maximumCoarsening;
+    this.statistic = statistic;
+    this.sink = sink;
+    this.timeSupplier = timeSupplier;
+    this.basePeriod = this.period = unit.toNanos(time);
+  }
+
+  /**
+   * Sets the requested sampling period, discarding any coarsening.
+   *
+   * @param time the requested sampling period
+   * @param unit period unit
+   */
+  public synchronized void setPeriod(long time, TimeUnit unit) {
+    this.basePeriod = this.period = unit.toNanos(time);
+    if (running) {
+      stop();
+      start();
+    }
+  }
+
+  public synchronized void start() {
+    if (running) {
+      throw new IllegalStateException("Sampler is already running");
+    }
+    running = true;
+    long chain = ++generation;
+    currentExecution = executor.schedule(() -> run(chain), period, TimeUnit.NANOSECONDS);
+  }
+
+  public synchronized void stop() {
+    if (!running) {
+      throw new IllegalStateException("Sampler is not running");
+    }
+    running = false;
+    generation++;
+    currentExecution.cancel(false);
+  }
+
+  public synchronized void shutdown() throws InterruptedException {
+    if (exclusiveExecutor) {
+      executor.shutdown();
+      if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+        throw new IllegalStateException("Exclusive ScheduledExecutorService failed to terminate promptly");
+      }
+    } else {
+      throw new IllegalStateException("ScheduledExecutorService was supplied externally - it must be shutdown directly");
+    }
+  }
+
+  /**
+   * @return the current sampling period in nanoseconds
+   */
+  public LongValueStatistic samplingPeriodStatistic() {
+    return longGauge(() -> period);
+  }
+
+  /**
+   * @return the number of samples at the requested period that were not taken due to coarsening
+   */
+  public LongValueStatistic skippedSamplesStatistic() {
+    return longCounter(skipped::sum);
+  }
+
+  /**
+   * @return the number of samples that failed because the statistic or the sink threw
+   */
+  public LongValueStatistic failedSamplesStatistic() {
+    return longCounter(failed::sum);
+  }
+
+  /**
+   * @return the smoothed cost of taking a sample in nanoseconds
+   */
+  public DoubleValueStatistic samplingCostStatistic() {
+    return doubleGauge(() -> cost);
+  }
+
+  /**
+   * @return the fraction of a single CPU consumed by sampling at the current period
+   */
+  public DoubleValueStatistic cpuUsageStatistic() {
+    return doubleRatio(() -> cost / period);
+  }
+
+  private void run(long chain) {
+    long delay = period;
+    try {
+      delay = sample();
+    } catch (RuntimeException e) {
+      failed.increment();
+    } finally {
+      synchronized (this) {
+        if (running && generation == chain) {
+          currentExecution = executor.schedule(() -> run(chain), delay, TimeUnit.NANOSECONDS);
+        }
+      }
+    }
+  }
+
+  /**
+   * Takes a sample and adapts the period to its cost.
+   *
+   * @return the delay until the next sample in nanoseconds
+   */
+  long sample() {
+    long start = Time.time();
+    T value = statistic.value();
+    long duration = Time.time() - start;
+    sink.accept(new Sample<>(timeSupplier.getAsLong(), value));
+
+    long base = basePeriod;
+    long current = period;
+    skipped.add(current / base - 1);
+
+    double smoothed = Double.isNaN(cost) ? duration : cost + SMOOTHING * (duration - cost);
+    long maximum = base * maximumCoarsening;
+    while (smoothed > budget * current && current < maximum) {
+      current = Math.min(maximum, current * 2);
+    }
+    while (current > base && smoothed <= budget * (current / 4)) {
+      current = Math.max(base, current / 2);
+    }
+    cost = smoothed;
+    period = current;
+    return current;
+  }
+}
@@ -0,0 +1,70 @@
+/*
+ * All content copyright Terracotta, Inc., unless otherwise indicated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.statistics.archive;
+
+import org.terracotta.statistics.Sample;
+import org.terracotta.statistics.SampledStatistic;
+import org.terracotta.statistics.StatisticType;
+import org.terracotta.statistics.VersionedStatistic;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A statistic whose history is the content of a {@link StatisticArchive}, e.g. one filled by a
+ * {@link StatisticSampler}.
+ * <p>
+ * The statistic is versioned by the archive's {@link StatisticArchive#version() stamp}, so a
+ * {@link org.terracotta.statistics.registry.StatisticRegistry#queryChanges change query} only searches the archive
+ * when a sample has been added since its previous poll.
+ */
+public class ArchivedStatistic<T extends Serializable> implements SampledStatistic<T>, VersionedStatistic<T> {
+
+  private final StatisticType type;
+  private final StatisticArchive<T> archive;
+
+  public ArchivedStatistic(StatisticType type, StatisticArchive<T> archive) {
+    this.type = Objects.requireNonNull(type);
+    this.archive = Objects.requireNonNull(archive);
+  }
+
+  @Override
+  public T value() {
+    Sample<T> latest = archive.latest();
+    return latest == null ? null : latest.getSample();
+  }
+
+  @Override
+  public StatisticType type() {
+    return type;
+  }
+
+  @Override
+  public long version() {
+    return archive.version();
+  }
+
+  @Override
+  public List<Sample<T>> history() {
+    return archive.getArchive();
+  }
+
+  @Override
+  public List<Sample<T>> history(long since) {
+    return archive.getArchive(since);
+  }
+}
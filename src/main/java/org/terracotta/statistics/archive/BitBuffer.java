@@ -0,0 +1,105 @@
+/*
+ * All content copyright Terracotta, Inc., unless otherwise indicated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.statistics.archive;
+
+import java.util.Arrays;
+
+/**
+ * A growable append-only sequence of bits, packed least significant bit first in to {@code long} words.
+ */
+final class BitBuffer {
+
+  private long[] words;
+  private long length;
+
+  BitBuffer(int initialWords) {
+    this.words = new long[Math.max(1, initialWords)];
+  }
+
+  private BitBuffer(long[] words, long length) {
+    this.words = words;
+    this.length = length;
+  }
+
+  /**
+   * Appends the low {@code count} bits of {@code value}.
+   */
+  void write(long value, int count) {
+    if (count < Long.SIZE) {
+      value &= (1L << count) - 1;
+    }
+    int index = (int) (length >>> 6);
+    int offset = (int) (length & 63);
+    if (index + 1 >= words.length) {
+      words = Arrays.copyOf(words, words.length * 2);
+    }
+    words[index] |= value << offset;
+    if (offset + count > Long.SIZE) {
+      words[index + 1] |= value >>> (Long.SIZE - offset);
+    }
+    length += count;
+  }
+
+  void writeBit(boolean bit) {
+    write(bit ? 1 : 0, 1);
+  }
+
+  long length() {
+    return length;
+  }
+
+  /**
+   * Returns an independent buffer holding the bits written so far in the minimum number of words.
+   */
+  BitBuffer trimmedCopy() {
+    return new BitBuffer(Arrays.copyOf(words, (int) ((length + 63) >>> 6)), length);
+  }
+
+  Reader reader() {
+    return new Reader();
+  }
+
+  final class Reader {
+
+    private long position;
+
+    long read(int count) {
+      int index = (int) (position >>> 6);
+      int offset = (int) (position & 63);
+      long value = words[index] >>> offset;
+      if (offset + count > Long.SIZE) {
+        value |= words[index + 1] << (Long.SIZE - offset);
+      }
+      position += count;
+      if (count < Long.SIZE) {
+        value &= (1L << count) - 1;
+      }
+      return value;
+    }
+
+    /**
+     * Reads {@code count} bits as a two's complement signed value.
+     */
+    long readSigned(int count) {
+      int shift = Long.SIZE - count;
+      return (read(count) << shift) >> shift;
+    }
+
+    boolean readBit() {
+      return read(1) != 0;
+    }
+  }
+}
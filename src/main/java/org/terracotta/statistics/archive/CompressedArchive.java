@@ -0,0 +1,369 @@
+/*
+ * All content copyright Terracotta, Inc., unless otherwise indicated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.statistics.archive;
+
+import org.terracotta.statistics.Sample;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.LongFunction;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * An archive of numeric samples compressed in to fixed size blocks.
+ * <p>
+ * Timestamps are stored as variable length delta-of-deltas, so samples taken at a fixed period cost a single bit per
+ * timestamp. {@code long} values are stored as zig-zag varint deltas, a repeated value costing a single bit, and
+ * {@code double} values are XOR encoded against their predecessor. Each block is self-contained: once a block fills
+ * it is sealed, and once the archive is full the oldest sealed block is evicted whole. An archive therefore holds
+ * between {@code (blocks - 1) * blockSize} and {@code blocks * blockSize} of the most recent samples.
+ * <p>
+ * Readers take a snapshot of the blocks and then decode it as they go, without blocking writers.
+ *
+ * @param <T> the sample type
+ */
+public class CompressedArchive<T extends Number> {
+
+  /*
+   * Delta-of-delta buckets: a unary prefix selects the width of the two's complement value that follows.
+   */
+  private static final int[] DOD_WIDTHS = {7, 9, 12, 32};
+
+  private final Encoding<T> encoding;
+  private final int blockSize;
+  private final int blocks;
+
+  private final ArrayDeque<Block> sealed = new ArrayDeque<>();
+  private BlockWriter open;
+
+  private CompressedArchive(Encoding<T> encoding, int blockSize, int blocks) {
+    if (blockSize <= 0) {
+      throw new IllegalArgumentException("Block size must be positive");
+    }
+    if (blocks <= 0) {
+      throw new IllegalArgumentException("Block count must be positive");
+    }
+    this.encoding = encoding;
+    this.blockSize = blockSize;
+    this.blocks = blocks;
+  }
+
+  /**
+   * Creates an archive of {@code long} samples.
+   *
+   * @param blockSize the number of samples in each block
+   * @param blocks    the number of blocks retained
+   * @return a compressed archive
+   */
+  public static CompressedArchive<Long> longs(int blockSize, int blocks) {
+    return new CompressedArchive<>(Encoding.LONGS, blockSize, blocks);
+  }
+
+  /**
+   * Creates an archive of {@code double} samples.
+   *
+   * @param blockSize the number of samples in each block
+   * @param blocks    the number of blocks retained
+   * @return a compressed archive
+   */
+  public static CompressedArchive<Double> doubles(int blockSize, int blocks) {
+    return new CompressedArchive<>(Encoding.DOUBLES, blockSize, blocks);
+  }
+
+  public int capacity() {
+    return blockSize * blocks;
+  }
+
+  public synchronized int size() {
+    return sealed.size() * blockSize + (open == null ? 0 : open.count);
+  }
+
+  public synchronized void add(Sample<T> sample) {
+    if (open == null) {
+      open = new BlockWriter(encoding.writer.get(), sample.getTimestamp(), encoding.toBits.applyAsLong(sample.getSample()));
+    } else {
+      open.append(sample.getTimestamp(), encoding.toBits.applyAsLong(sample.getSample()));
+    }
+    if (open.count == blockSize) {
+      if (sealed.size() == blocks - 1) {
+        sealed.removeFirst();
+      }
+      sealed.addLast(open.seal());
+      open = null;
+    }
+  }
+
+  public synchronized void clear() {
+    sealed.clear();
+    open = null;
+  }
+
+  public List<Sample<T>> getArchive() {
+    return getArchive(Long.MIN_VALUE);
+  }
+
+  public List<Sample<T>> getArchive(long since) {
+    List<Block> snapshot;
+    synchronized (this) {
+      snapshot = new ArrayList<>(sealed.size() + 1);
+      snapshot.addAll(sealed);
+      if (open != null) {
+        snapshot.add(open.seal());
+      }
+    }
+
+    List<Sample<T>> samples = new ArrayList<>();
+    for (Block block : snapshot) {
+      if (block.lastTimestamp >= since) {
+        BlockReader reader = new BlockReader(block, encoding.reader.get());
+        while (reader.next()) {
+          if (reader.timestamp >= since) {
+            samples.add(new Sample<>(reader.timestamp, encoding.fromBits.apply(reader.value)));
+          }
+        }
+      }
+    }
+    return Collections.unmodifiableList(samples);
+  }
+
+  private static final class Block {
+
+    private final BitBuffer bits;
+    private final int count;
+    private final long lastTimestamp;
+
+    Block(BitBuffer bits, int count, long lastTimestamp) {
+      this.bits = bits;
+      this.count = count;
+      this.lastTimestamp = lastTimestamp;
+    }
+  }
+
+  private static final class BlockWriter {
+
+    private final BitBuffer bits = new BitBuffer(4);
+    private final ValueWriter values;
+
+    private int count;
+    private long timestamp;
+    private long delta;
+    private long value;
+
+    BlockWriter(ValueWriter values, long timestamp, long value) {
+      this.values = values;
+      this.bits.write(timestamp, Long.SIZE);
+      this.bits.write(value, Long.SIZE);
+      this.count = 1;
+      this.timestamp = timestamp;
+      this.value = value;
+    }
+
+    void append(long timestamp, long value) {
+      long delta = timestamp - this.timestamp;
+      writeDeltaOfDelta(bits, delta - this.delta);
+      values.write(bits, this.value, value);
+      this.count++;
+      this.timestamp = timestamp;
+      this.delta = delta;
+      this.value = value;
+    }
+
+    Block seal() {
+      return new Block(bits.trimmedCopy(), count, timestamp);
+    }
+  }
+
+  private static final class BlockReader {
+
+    private final BitBuffer.Reader bits;
+    private final ValueReader values;
+    private int remaining;
+    private boolean started;
+
+    private long timestamp;
+    private long delta;
+    private long value;
+
+    BlockReader(Block block, ValueReader values) {
+      this.bits = block.bits.reader();
+      this.values = values;
+      this.remaining = block.count;
+    }
+
+    boolean next() {
+      if (remaining == 0) {
+        return false;
+      }
+      remaining--;
+      if (started) {
+        delta += readDeltaOfDelta(bits);
+        timestamp += delta;
+        value = values.read(bits, value);
+      } else {
+        timestamp = bits.read(Long.SIZE);
+        value = bits.read(Long.SIZE);
+        started = true;
+      }
+      return true;
+    }
+  }
+
+  private static void writeDeltaOfDelta(BitBuffer bits, long dod) {
+    if (dod == 0) {
+      bits.writeBit(false);
+      return;
+    }
+    for (int width : DOD_WIDTHS) {
+      bits.writeBit(true);
+      if (dod >= -(1L << (width - 1)) && dod < (1L << (width - 1))) {
+        bits.writeBit(false);
+        bits.write(dod, width);
+        return;
+      }
+    }
+    bits.writeBit(true);
+    bits.write(dod, Long.SIZE);
+  }
+
+  private static long readDeltaOfDelta(BitBuffer.Reader bits) {
+    if (!bits.readBit()) {
+      return 0;
+    }
+    for (int width : DOD_WIDTHS) {
+      if (!bits.readBit()) {
+        return bits.readSigned(width);
+      }
+    }
+    return bits.read(Long.SIZE);
+  }
+
+  @FunctionalInterface
+  private interface ValueWriter {
+    void write(BitBuffer bits, long previous, long current);
+  }
+
+  @FunctionalInterface
+  private interface ValueReader {
+    long read(BitBuffer.Reader bits, long previous);
+  }
+
+  private static final class Encoding<T> {
+
+    static final Encoding<Long> LONGS = new Encoding<>(Long::longValue, Long::valueOf,
+        () -> CompressedArchive::writeLongDelta, () -> CompressedArchive::readLongDelta);
+    static final Encoding<Double> DOUBLES = new Encoding<>(Double::doubleToRawLongBits, Double::longBitsToDouble,
+        XorWriter::new, XorReader::new);
+
+    private final ToLongFunction<T> toBits;
+    private final LongFunction<T> fromBits;
+    private final Supplier<ValueWriter> writer;
+    private final Supplier<ValueReader> reader;
+
+    Encoding(ToLongFunction<T> toBits, LongFunction<T> fromBits, Supplier<ValueWriter> writer, Supplier<ValueReader> reader) {
+      this.toBits = toBits;
+      this.fromBits = fromBits;
+      this.writer = writer;
+      this.reader = reader;
+    }
+  }
+
+  private static void writeLongDelta(BitBuffer bits, long previous, long current) {
+    long delta = current - previous;
+    if (delta == 0) {
+      bits.writeBit(false);
+    } else {
+      bits.writeBit(true);
+      long zigzag = (delta << 1) ^ (delta >> 63);
+      while ((zigzag & ~0x7FL) != 0) {
+        bits.write((zigzag & 0x7F) | 0x80, 8);
+        zigzag >>>= 7;
+      }
+      bits.write(zigzag, 8);
+    }
+  }
+
+  private static long readLongDelta(BitBuffer.Reader bits, long previous) {
+    if (!bits.readBit()) {
+      return previous;
+    } else {
+      long zigzag = 0;
+      for (int shift = 0; ; shift += 7) {
+        long b = bits.read(8);
+        zigzag |= (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) {
+          break;
+        }
+      }
+      return previous + ((zigzag >>> 1) ^ -(zigzag & 1));
+    }
+  }
+
+  /**
+   * Gorilla style XOR encoding: an unchanged value costs one bit, and a change whose significant bits fall within the
+   * window of the previous change reuses that window.
+   */
+  private static final class XorWriter implements ValueWriter {
+
+    private int leading = -1;
+    private int trailing;
+
+    @Override
+    public void write(BitBuffer bits, long previous, long current) {
+      long xor = previous ^ current;
+      if (xor == 0) {
+        bits.writeBit(false);
+      } else {
+        bits.writeBit(true);
+        int leading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+        int trailing = Long.numberOfTrailingZeros(xor);
+        if (this.leading >= 0 && leading >= this.leading && trailing >= this.trailing) {
+          bits.writeBit(false);
+          bits.write(xor >>> this.trailing, Long.SIZE - this.leading - this.trailing);
+        } else {
+          int significant = Long.SIZE - leading - trailing;
+          bits.writeBit(true);
+          bits.write(leading, 5);
+          bits.write(significant - 1, 6);
+          bits.write(xor >>> trailing, significant);
+          this.leading = leading;
+          this.trailing = trailing;
+        }
+      }
+    }
+  }
+
+  private static final class XorReader implements ValueReader {
+
+    private int leading;
+    private int trailing;
+
+    @Override
+    public long read(BitBuffer.Reader bits, long previous) {
+      if (!bits.readBit()) {
+        return previous;
+      } else {
+        if (bits.readBit()) {
+          leading = (int) bits.read(5);
+          trailing = Long.SIZE - leading - ((int) bits.read(6) + 1);
+        }
+        return previous ^ (bits.read(Long.SIZE - leading - trailing) << trailing);
+      }
+    }
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * All content copyright Terracotta, Inc., unless otherwise indicated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.statistics.archive;
+
+/**
+ * An archive of {@code double} samples held in parallel primitive arrays, stored as their raw long bits.
+ *
+ * @see LongArchive
+ */
+public class DoubleArchive extends PrimitiveArchive<Double> {
+
+  public DoubleArchive(int size) {
+    super(size);
+  }
+
+  public void add(long timestamp, double value) {
+    insert(timestamp, Double.doubleToRawLongBits(value));
+  }
+
+  @Override
+  long encode(Number value) {
+    return Double.doubleToRawLongBits(value.doubleValue());
+  }
+
+  @Override
+  Double decode(long value) {
+    return Double.longBitsToDouble(value);
+  }
+
+  public Cursor cursor() {
+    return cursor(Long.MIN_VALUE);
+  }
+
+  /**
+   * @param since the earliest sample timestamp
+   * @return a cursor positioned before the first sample not older than {@code since}
+   */
+  public Cursor cursor(long since) {
+    return new Cursor(ringCursor(since));
+  }
+
+  /**
+   * A forward-only cursor over the archived samples.
+   */
+  public static final class Cursor {
+
+    private final PrimitiveRing.Cursor cursor;
+
+    private Cursor(PrimitiveRing.Cursor cursor) {
+      this.cursor = cursor;
+    }
+
+    /**
+     * Advances to the next sample.
+     *
+     * @return {@code false} if there are no more samples
+     */
+    public boolean next() {
+      return cursor.next();
+    }
+
+    public long timestamp() {
+      return cursor.timestamp();
+    }
+
+    public double value() {
+      return Double.longBitsToDouble(cursor.value());
+    }
+  }
+}
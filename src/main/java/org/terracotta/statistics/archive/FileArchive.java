@@ -0,0 +1,447 @@
+/*
+ * All content copyright Terracotta, Inc., unless otherwise indicated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.statistics.archive;
+
+import org.terracotta.statistics.Sample;
+import org.terracotta.statistics.StatisticValueInputStream;
+import org.terracotta.statistics.Time;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * A persistent, append-only archive of named sample series.
+ * <p>
+ * Samples are appended to fixed size memory-mapped segment files. When a segment fills a new one is started, and once
+ * there are more than the configured number of segments the oldest is deleted, bounding the disk usage. Every segment
+ * is self-contained so the surviving segments of a crashed process can be replayed with
+ * {@link #replay(Path, long, long, SampleVisitor)}. Mapped pages are forced to disk at most once per sync interval
+ * while samples are being written, and on {@link #sync()} and {@link #close()}.
+ * <p>
+ * Each record is written before its leading kind byte, and a segment is zero filled when created, so a reader stops
+ * at the end of the last complete record. A record that runs past the end of its segment, or declares a length that
+ * cannot fit in it, is treated as a torn tail and ends the scan of that segment. {@code Long} and {@code Double} samples are stored in a fixed
+ * 21 byte record; all other values are stored in their serialized form, and are read back through a
+ * {@link StatisticValueInputStream} so only the classes statistic values are made of can be resolved.
+ * <p>
+ * Only the segment being written stays mapped. Segments are unmapped as soon as they are rotated out or have been
+ * scanned, where the JVM allows it; otherwise their mappings are released when garbage collected.
+ * <p>
+ * A series sink can be used directly as a {@link StatisticSampler} sink, or as the overspill of a
+ * {@link StatisticArchive} to persist only the samples it discards:
+ * <pre>{@code
+ *   new StatisticArchive<>(60, fileArchive.sink("cache:hits"))
+ * }</pre>
+ */
+public class FileArchive implements Closeable {
+
+  private static final String SEGMENT_PREFIX = "segment-";
+  private static final String SEGMENT_SUFFIX = ".stats";
+
+  private static final byte END = 0;
+  private static final byte NAME = 1;
+  private static final byte LONG = 2;
+  private static final byte DOUBLE = 3;
+  private static final byte OBJECT = 4;
+  private static final byte NULL = 5;
+
+  private static final int HEADER = Byte.BYTES + Integer.BYTES + Long.BYTES;
+  private static final int FIXED_RECORD = HEADER + Long.BYTES;
+
+  private static final Consumer<ByteBuffer> UNMAPPER = unmapper();
+
+  private final Path directory;
+  private final int segmentSize;
+  private final int maxSegments;
+  private final long syncInterval;
+
+  private final ArrayDeque<Path> segments = new ArrayDeque<>();
+  private final Map<String, Integer> names = new HashMap<>();
+  private long nextSegment;
+  private MappedByteBuffer active;
+  private long lastSync;
+  private boolean closed;
+
+  /**
+   * Opens an archive in the given directory.
+   * <p>
+   * Segments left by a previous process are retained (subject to {@code maxSegments}) and new samples are written to
+   * a fresh segment.
+   *
+   * @param directory    the segment directory
+   * @param segmentSize  the size of each segment file in bytes
+   * @param maxSegments  the maximum number of segments retained
+   * @param syncInterval the maximum interval between forcing written samples to disk
+   * @param unit         the sync interval unit
+   * @throws IOException if the directory cannot be read or the first segment cannot be created
+   */
+  public FileArchive(Path directory, int segmentSize, int maxSegments, long syncInterval, TimeUnit unit) throws IOException {
+    if (segmentSize < FIXED_RECORD) {
+      throw new IllegalArgumentException("Segment size too small: " + segmentSize);
+    }
+    if (maxSegments <= 0) {
+      throw new IllegalArgumentException("Segment count must be positive");
+    }
+    this.directory = Files.createDirectories(directory);
+    this.segmentSize = segmentSize;
+    this.maxSegments = maxSegments;
+    this.syncInterval = unit.toNanos(syncInterval);
+
+    segments.addAll(segments(directory));
+    Path last = segments.peekLast();
+    this.nextSegment = last == null ? 0 : sequence(last) + 1;
+    rotate();
+  }
+
+  /**
+   * Returns a sink appending samples to the named series.
+   *
+   * @param name the series name
+   * @param <T>  the sample type
+   * @return a sample sink
+   */
+  public <T extends Serializable> Consumer<Sample<T>> sink(String name) {
+    return sample -> {
+      if (sample != null) {
+        try {
+          append(name, sample);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }
+    };
+  }
+
+  /**
+   * Appends a sample to the named series.
+   *
+   * @param name   the series name
+   * @param sample the sample
+   * @throws IOException if a new segment was needed and could not be created
+   */
+  public synchronized void append(String name, Sample<?> sample) throws IOException {
+    if (closed) {
+      throw new IllegalStateException("Archive is closed");
+    }
+    Object value = sample.getSample();
+    byte[] serialized = null;
+    int length = FIXED_RECORD;
+    if (value == null) {
+      length = HEADER;
+    } else if (!(value instanceof Long || value instanceof Double)) {
+      serialized = serialize(value);
+      length = HEADER + Integer.BYTES + serialized.length;
+    }
+
+    Integer id = names.get(name);
+    byte[] encodedName = id == null ? name.getBytes(StandardCharsets.UTF_8) : null;
+    if (active.remaining() < nameRecordLength(encodedName) + length) {
+      if (encodedName == null) {
+        encodedName = name.getBytes(StandardCharsets.UTF_8);
+      }
+      if (nameRecordLength(encodedName) + length > segmentSize) {
+        throw new IllegalArgumentException("Sample too large for segment: " + (nameRecordLength(encodedName) + length) + " bytes");
+      }
+      rotate();
+      id = null;
+    }
+    if (id == null) {
+      id = names.size();
+      names.put(name, id);
+      int position = active.position();
+      active.position(position + Byte.BYTES);
+      active.putInt(id).putInt(encodedName.length).put(encodedName);
+      active.put(position, NAME);
+    }
+
+    int position = active.position();
+    active.position(position + Byte.BYTES);
+    active.putInt(id).putLong(sample.getTimestamp());
+    byte kind;
+    if (value == null) {
+      kind = NULL;
+    } else if (value instanceof Long) {
+      kind = LONG;
+      active.putLong((Long) value);
+    } else if (value instanceof Double) {
+      kind = DOUBLE;
+      active.putDouble((Double) value);
+    } else {
+      kind = OBJECT;
+      active.putInt(serialized.length).put(serialized);
+    }
+    active.put(position, kind);
+
+    long now = Time.time();
+    if (now - lastSync >= syncInterval) {
+      active.force();
+      lastSync = now;
+    }
+  }
+
+  /**
+   * Forces all written samples to disk.
+   */
+  public synchronized void sync() {
+    if (!closed) {
+      active.force();
+      lastSync = Time.time();
+    }
+  }
+
+  /**
+   * Returns the samples of the named series not older than {@code since} held in the retained segments.
+   *
+   * @param name  the series name
+   * @param since the earliest sample timestamp
+   * @param <T>   the sample type
+   * @return the samples, oldest first
+   * @throws IOException if a segment cannot be read
+   */
+  @SuppressWarnings("unchecked")
+  public synchronized <T extends Serializable> List<Sample<T>> getArchive(String name, long since) throws IOException {
+    List<Sample<T>> samples = new ArrayList<>();
+    for (Path segment : segments) {
+      scan(segment, since, Long.MAX_VALUE, (series, sample) -> {
+        if (series.equals(name)) {
+          samples.add((Sample<T>) sample);
+        }
+      });
+    }
+    return Collections.unmodifiableList(samples);
+  }
+
+  @Override
+  public synchronized void close() {
+    if (!closed) {
+      active.force();
+      UNMAPPER.accept(active);
+      active = null;
+      closed = true;
+    }
+  }
+
+  /**
+   * Replays the samples held in the segments of an archive directory, oldest segment first.
+   * <p>
+   * This does not require (or create) a {@code FileArchive}, and so can be used on the directory of a crashed process.
+   *
+   * @param directory the segment directory
+   * @param from      the earliest sample timestamp (inclusive)
+   * @param to        the latest sample timestamp (exclusive)
+   * @param visitor   the sample visitor
+   * @throws IOException if a segment cannot be read
+   */
+  public static void replay(Path directory, long from, long to, SampleVisitor visitor) throws IOException {
+    for (Path segment : segments(directory)) {
+      scan(segment, from, to, visitor);
+    }
+  }
+
+  /**
+   * A visitor of replayed samples.
+   */
+  @FunctionalInterface
+  public interface SampleVisitor {
+
+    /**
+     * @param name   the series name
+     * @param sample the sample
+     */
+    void visit(String name, Sample<? extends Serializable> sample);
+  }
+
+  private void rotate() throws IOException {
+    Path segment = directory.resolve(String.format("%s%016d%s", SEGMENT_PREFIX, nextSegment++, SEGMENT_SUFFIX));
+    MappedByteBuffer next;
+    try (FileChannel channel = FileChannel.open(segment, CREATE_NEW, READ, WRITE)) {
+      next = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+    }
+    if (active != null) {
+      active.force();
+      UNMAPPER.accept(active);
+    }
+    active = next;
+    segments.addLast(segment);
+    while (segments.size() > maxSegments) {
+      Files.deleteIfExists(segments.removeFirst());
+    }
+    names.clear();
+    lastSync = Time.time();
+  }
+
+  private static int nameRecordLength(byte[] encodedName) {
+    return encodedName == null ? 0 : Byte.BYTES + 2 * Integer.BYTES + encodedName.length;
+  }
+
+  private static void scan(Path segment, long from, long to, SampleVisitor visitor) throws IOException {
+    ByteBuffer buffer;
+    try (FileChannel channel = FileChannel.open(segment, READ)) {
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    Map<Integer, String> names = new HashMap<>();
+    try {
+      // everything read is copied out of the buffer, so it can be unmapped once the scan completes
+      while (buffer.hasRemaining()) {
+        byte kind = buffer.get();
+        if (kind == END) {
+          return;
+        } else if (kind == NAME) {
+          int id = buffer.getInt();
+          int length = buffer.getInt();
+          if (length < 0 || length > buffer.remaining()) {
+            return;
+          }
+          byte[] name = new byte[length];
+          buffer.get(name);
+          names.put(id, new String(name, StandardCharsets.UTF_8));
+        } else {
+          String name = names.get(buffer.getInt());
+          long timestamp = buffer.getLong();
+          Serializable value;
+          switch (kind) {
+            case NULL:
+              value = null;
+              break;
+            case LONG:
+              value = buffer.getLong();
+              break;
+            case DOUBLE:
+              value = buffer.getDouble();
+              break;
+            case OBJECT:
+              int length = buffer.getInt();
+              if (length < 0 || length > buffer.remaining()) {
+                return;
+              }
+              byte[] serialized = new byte[length];
+              buffer.get(serialized);
+              value = deserialize(serialized);
+              break;
+            default:
+              throw new IOException("Corrupt segment " + segment + ": unknown record kind " + kind);
+          }
+          if (name == null) {
+            throw new IOException("Corrupt segment " + segment + ": undefined series");
+          }
+          if (timestamp >= from && timestamp < to) {
+            visitor.visit(name, new Sample<>(timestamp, value));
+          }
+        }
+      }
+    } catch (BufferUnderflowException e) {
+      // a torn tail
+    } finally {
+      UNMAPPER.accept(buffer);
+    }
+  }
+
+  private static List<Path> segments(Path directory) throws IOException {
+    List<Path> segments = new ArrayList<>();
+    if (Files.isDirectory(directory)) {
+      try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+        stream.forEach(segments::add);
+      }
+    }
+    segments.sort(null);
+    return segments;
+  }
+
+  private static long sequence(Path segment) {
+    String name = segment.getFileName().toString();
+    return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+  }
+
+  private static byte[] serialize(Object value) throws IOException {
+    ByteArrayOutputStream bout = new ByteArrayOutputStream();
+    try (ObjectOutputStream oout = new ObjectOutputStream(bout)) {
+      oout.writeObject(value);
+    }
+    return bout.toByteArray();
+  }
+
+  private static Serializable deserialize(byte[] serialized) throws IOException {
+    try (StatisticValueInputStream oin = new StatisticValueInputStream(new ByteArrayInputStream(serialized))) {
+      return (Serializable) oin.readObject();
+    } catch (ClassNotFoundException e) {
+      throw new IOException(e);
+    }
+  }
+
+  /**
+   * Returns a function releasing the mapping of a mapped buffer, which must not be accessed afterwards.
+   * <p>
+   * There is no public API to unmap a buffer before Java 19, so this uses {@code sun.misc.Unsafe.invokeCleaner} on
+   * Java 9 and later, the buffer's cleaner on Java 8, or does nothing if neither is accessible.
+   */
+  private static Consumer<ByteBuffer> unmapper() {
+    try {
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+      Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+      theUnsafe.setAccessible(true);
+      Object unsafe = theUnsafe.get(null);
+      return buffer -> {
+        try {
+          invokeCleaner.invoke(unsafe, buffer);
+        } catch (ReflectiveOperationException e) {
+          // left to the garbage collector
+        }
+      };
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      try {
+        Method cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+        Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+        return buffer -> {
+          try {
+            clean.invoke(cleaner.invoke(buffer));
+          } catch (ReflectiveOperationException | RuntimeException f) {
+            // left to the garbage collector
+          }
+        };
+      } catch (ReflectiveOperationException | RuntimeException f) {
+        return buffer -> {};
+      }
+    }
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * All content copyright Terracotta, Inc., unless otherwise indicated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.statistics.archive;
+
+import java.util.ConcurrentModificationException;
+
+/**
+ * An archive of {@code long} samples held in parallel primitive arrays.
+ * <p>
+ * Unlike {@link StatisticArchive} no object is retained per sample. Writers are serialized against each other but
+ * never block readers. {@link #getArchive()} returns a view over the archive rather than a copy; the view fails with
+ * a {@link ConcurrentModificationException} if an element is read after it has been overwritten. {@link #cursor()}
+ * iterates without allocating, skipping any samples overwritten while it is in use.
+ */
+public class LongArchive extends PrimitiveArchive<Long> {
+
+  public LongArchive(int size) {
+    super(size);
+  }
+
+  public void add(long timestamp, long value) {
+    insert(timestamp, value);
+  }
+
+  @Override
+  long encode(Number value) {
+    return value.longValue();
+  }
+
+  @Override
+  Long decode(long value) {
+    return value;
+  }
+
+  public Cursor cursor() {
+    return cursor(Long.MIN_VALUE);
+  }
+
+  /**
+   * @param since the earliest sample timestamp
+   * @return a cursor positioned before the first sample not older than {@code since}
+   */
+  public Cursor cursor(long since) {
+    return new Cursor(ringCursor(since));
+  }
+
+  /**
+   * A forward-only cursor over the archived samples.
+   */
+  public static final class Cursor {
+
+    private final PrimitiveRing.Cursor cursor;
+
+    private Cursor(PrimitiveRing.Cursor cursor) {
+      this.cursor = cursor;
+    }
+
+    /**
+     * Advances to the next sample.
+     *
+     * @return {@code false} if there are no more samples
+     */
+    public boolean next() {
+      return cursor.next();
+    }
+
+    public long timestamp() {
+      return cursor.timestamp();
+    }
+
+    public long value() {
+      return cursor.value();
+    }
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ * All content copyright Terracotta, Inc., unless otherwise indicated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.statistics.archive;
+
+import org.terracotta.statistics.Sample;
+
+import java.util.List;
+
+/**
+ * The type independent part of the primitive archives: a {@link PrimitiveRing} of raw {@code long} values and the
+ * capacity, search and view logic over it. Subclasses only define how their values are stored in a {@code long}.
+ *
+ * @param <T> the boxed sample type
+ */
+abstract class PrimitiveArchive<T extends Number> {
+
+  private volatile PrimitiveRing ring;
+
+  PrimitiveArchive(int size) {
+    this.ring = new PrimitiveRing(size);
+  }
+
+  public synchronized void setCapacity(int samples) {
+    if (samples != ring.capacity()) {
+      PrimitiveRing newRing = new PrimitiveRing(samples);
+      ring.copyTo(newRing);
+      ring = newRing;
+    }
+  }
+
+  public int capacity() {
+    return ring.capacity();
+  }
+
+  public int size() {
+    return ring.size();
+  }
+
+  public void add(Sample<? extends Number> sample) {
+    insert(sample.getTimestamp(), encode(sample.getSample()));
+  }
+
+  public synchronized void clear() {
+    ring = new PrimitiveRing(ring.capacity());
+  }
+
+  public List<Sample<T>> getArchive() {
+    return getArchive(Long.MIN_VALUE);
+  }
+
+  public List<Sample<T>> getArchive(long since) {
+    PrimitiveRing read = ring;
+    long end = read.writeSequence();
+    return new PrimitiveRing.View<Sample<T>>(read, read.firstSequenceSince(since, end), end) {
+      @Override
+      protected Sample<T> element(long timestamp, long value) {
+        return new Sample<>(timestamp, decode(value));
+      }
+    };
+  }
+
+  synchronized void insert(long timestamp, long value) {
+    ring.insert(timestamp, value);
+  }
+
+  PrimitiveRing.Cursor ringCursor(long since) {
+    PrimitiveRing read = ring;
+    return new PrimitiveRing.Cursor(read, read.firstSequenceSince(since, read.writeSequence()));
+  }
+
+  abstract long encode(Number value);
+
+  abstract T decode(long value);
+}
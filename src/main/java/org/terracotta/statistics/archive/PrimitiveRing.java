@@ -0,0 +1,197 @@
+/*
+ * All content copyright Terracotta, Inc., unless otherwise indicated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.statistics.archive;
+
+import java.util.AbstractList;
+import java.util.ConcurrentModificationException;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed capacity ring of timestamped primitive values held in parallel arrays.
+ * <p>
+ * Writes must be externally serialized. Reads never block: a writer first claims the next sequence, then fills its
+ * slot and finally publishes it by advancing the write sequence. A reader validates after reading a slot that no
+ * writer has since claimed it. Since slot accesses are volatile, a reader that observes an overwritten slot is
+ * guaranteed to also observe the claim that preceded it.
+ */
+final class PrimitiveRing {
+
+  private final int capacity;
+  private final AtomicLongArray timestamps;
+  private final AtomicLongArray values;
+  private volatile long claimSequence;
+  private volatile long writeSequence;
+
+  PrimitiveRing(int capacity) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Capacity must be positive");
+    }
+    this.capacity = capacity;
+    this.timestamps = new AtomicLongArray(capacity);
+    this.values = new AtomicLongArray(capacity);
+  }
+
+  int capacity() {
+    return capacity;
+  }
+
+  int size() {
+    return (int) Math.min(writeSequence, capacity);
+  }
+
+  long writeSequence() {
+    return writeSequence;
+  }
+
+  void insert(long timestamp, long value) {
+    long sequence = writeSequence;
+    int index = (int) (sequence % capacity);
+    claimSequence = sequence + 1;
+    timestamps.set(index, timestamp);
+    values.set(index, value);
+    writeSequence = sequence + 1;
+  }
+
+  /**
+   * Copies the most recent samples of this ring in to {@code target}, oldest first.
+   */
+  void copyTo(PrimitiveRing target) {
+    long end = writeSequence;
+    for (long sequence = Math.max(0, end - Math.min(capacity, target.capacity)); sequence < end; sequence++) {
+      int index = (int) (sequence % capacity);
+      target.insert(timestamps.get(index), values.get(index));
+    }
+  }
+
+  /**
+   * Returns the sequence of the first readable sample with a timestamp not before {@code since}.
+   */
+  long firstSequenceSince(long since, long end) {
+    while (true) {
+      // skip any slot a writer is part way through overwriting
+      long low = Math.max(end - capacity, Math.max(0, claimSequence - capacity));
+      if (low >= end) {
+        return end;
+      }
+      long first = low;
+      long high = end;
+      while (first < high) {
+        long mid = (first + high) >>> 1;
+        if (timestamps.get((int) (mid % capacity)) < since) {
+          first = mid + 1;
+        } else {
+          high = mid;
+        }
+      }
+      if (!isOverwritten(low)) {
+        return first;
+      }
+    }
+  }
+
+  boolean isOverwritten(long sequence) {
+    return claimSequence - capacity > sequence;
+  }
+
+  long timestamp(long sequence) {
+    return timestamps.get((int) (sequence % capacity));
+  }
+
+  long value(long sequence) {
+    return values.get((int) (sequence % capacity));
+  }
+
+  /**
+   * A forward-only cursor over the samples of a ring.
+   * <p>
+   * If writers overtake the cursor it skips forward to the oldest sample still held.
+   */
+  static final class Cursor {
+
+    private final PrimitiveRing ring;
+    private long next;
+    private long timestamp;
+    private long value;
+
+    Cursor(PrimitiveRing ring, long first) {
+      this.ring = ring;
+      this.next = first;
+    }
+
+    boolean next() {
+      while (next < ring.writeSequence) {
+        long sequence = next;
+        timestamp = ring.timestamp(sequence);
+        value = ring.value(sequence);
+        if (ring.isOverwritten(sequence)) {
+          next = ring.claimSequence - ring.capacity;
+        } else {
+          next = sequence + 1;
+          return true;
+        }
+      }
+      return false;
+    }
+
+    long timestamp() {
+      return timestamp;
+    }
+
+    long value() {
+      return value;
+    }
+  }
+
+  /**
+   * A fixed range view over the samples of a ring, failing with a {@link ConcurrentModificationException} if an
+   * element is read after it has been overwritten.
+   *
+   * @param <E> the element type
+   */
+  abstract static class View<E> extends AbstractList<E> {
+
+    private final PrimitiveRing ring;
+    private final long start;
+    private final int size;
+
+    View(PrimitiveRing ring, long start, long end) {
+      this.ring = ring;
+      this.start = start;
+      this.size = (int) (end - start);
+    }
+
+    @Override
+    public E get(int index) {
+      if (index < 0 || index >= size) {
+        throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+      }
+      long sequence = start + index;
+      long timestamp = ring.timestamp(sequence);
+      long value = ring.value(sequence);
+      if (ring.isOverwritten(sequence)) {
+        throw new ConcurrentModificationException("Archive wrapped while being read");
+      }
+      return element(timestamp, value);
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+
+    protected abstract E element(long timestamp, long value);
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * All content copyright Terracotta, Inc., unless otherwise indicated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.statistics.archive;
+
+import java.util.Objects;
+
+/**
+ * A run of consecutive samples folded in to a single value by a {@link RollupArchive}.
+ * <p>
+ * The numeric value of a rollup is its aggregated value, the extremes and number of the folded samples are retained
+ * alongside it.
+ */
+public final class Rollup extends Number {
+
+  private static final long serialVersionUID = 1L;
+
+  private final Number value;
+  private final double minimum;
+  private final double maximum;
+  private final long count;
+
+  public Rollup(Number value, double minimum, double maximum, long count) {
+    this.value = Objects.requireNonNull(value);
+    this.minimum = minimum;
+    this.maximum = maximum;
+    this.count = count;
+  }
+
+  /**
+   * @return the aggregated value
+   */
+  public Number getValue() {
+    return value;
+  }
+
+  /**
+   * @return the smallest of the folded samples
+   */
+  public double getMinimum() {
+    return minimum;
+  }
+
+  /**
+   * @return the largest of the folded samples
+   */
+  public double getMaximum() {
+    return maximum;
+  }
+
+  /**
+   * @return the number of folded samples
+   */
+  public long getCount() {
+    return count;
+  }
+
+  @Override
+  public int intValue() {
+    return value.intValue();
+  }
+
+  @Override
+  public long longValue() {
+    return value.longValue();
+  }
+
+  @Override
+  public float floatValue() {
+    return value.floatValue();
+  }
+
+  @Override
+  public double doubleValue() {
+    return value.doubleValue();
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (!(o instanceof Rollup)) return false;
+    Rollup rollup = (Rollup) o;
+    return Double.compare(rollup.minimum, minimum) == 0 &&
+        Double.compare(rollup.maximum, maximum) == 0 &&
+        count == rollup.count &&
+        value.equals(rollup.value);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(value, minimum, maximum, count);
+  }
+
+  @Override
+  public String toString() {
+    return value + " [" + minimum + ", " + maximum + "] x" + count;
+  }
+}
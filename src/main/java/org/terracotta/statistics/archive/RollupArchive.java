@@ -0,0 +1,235 @@
+/*
+ * All content copyright Terracotta, Inc., unless otherwise indicated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.statistics.archive;
+
+import org.terracotta.statistics.Sample;
+import org.terracotta.statistics.StatisticType;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A multi-resolution archive of numeric samples.
+ * <p>
+ * The most recent samples are held at full resolution. Samples overspilling the raw archive are folded in to the
+ * first, finest, tier as one {@link Rollup} per tier interval, and rollups overspilling each tier are folded in turn
+ * in to the next coarser tier. This gives a long history in bounded memory: a day of one second samples can be held
+ * in a few hundred slots across second, minute and hour tiers.
+ * <p>
+ * Folding is type aware: a {@link StatisticType#COUNTER} rolls up to its last value, while other types roll up to the
+ * count weighted average of the folded samples. Every rollup also retains the minimum and maximum of the samples it
+ * covers. Rollups are timestamped with the timestamp of the last sample they cover.
+ *
+ * @param <T> the sample type
+ */
+public class RollupArchive<T extends Number> {
+
+  private final StatisticType type;
+  private final StatisticArchive<T> raw;
+  private final Level[] levels;
+
+  /**
+   * Creates a rollup archive.
+   *
+   * @param type        the type of the archived statistic
+   * @param rawCapacity the number of full resolution samples retained
+   * @param tiers       the tiers, in order of increasing resolution
+   */
+  public RollupArchive(StatisticType type, int rawCapacity, Tier... tiers) {
+    if (type == StatisticType.TABLE) {
+      throw new IllegalArgumentException("Table statistics cannot be rolled up");
+    }
+    if (tiers.length == 0) {
+      throw new IllegalArgumentException("At least one tier is required");
+    }
+    for (int i = 1; i < tiers.length; i++) {
+      if (tiers[i].resolution <= tiers[i - 1].resolution) {
+        throw new IllegalArgumentException("Tier resolutions must be increasing: " + tiers[i - 1] + " then " + tiers[i]);
+      }
+    }
+    this.type = type;
+    this.levels = new Level[tiers.length];
+    for (int i = tiers.length - 1; i >= 0; i--) {
+      Level next = i + 1 < tiers.length ? levels[i + 1] : null;
+      levels[i] = new Level(tiers[i], type == StatisticType.COUNTER, next);
+    }
+    Level first = levels[0];
+    this.raw = new StatisticArchive<>(rawCapacity, sample -> {
+      if (sample != null) {
+        first.fold(sample.getTimestamp(), sample.getSample(), sample.getSample().doubleValue(), sample.getSample().doubleValue(), 1);
+      }
+    });
+  }
+
+  /**
+   * Creates a tier description.
+   *
+   * @param resolution the length of the interval covered by each rollup
+   * @param unit       the resolution unit
+   * @param capacity   the number of rollups retained
+   * @return a tier description
+   */
+  public static Tier tier(long resolution, TimeUnit unit, int capacity) {
+    if (resolution <= 0) {
+      throw new IllegalArgumentException("Resolution must be positive");
+    }
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Capacity must be positive");
+    }
+    return new Tier(unit.toMillis(resolution), capacity);
+  }
+
+  public StatisticType type() {
+    return type;
+  }
+
+  public synchronized void add(Sample<T> sample) {
+    raw.add(sample);
+  }
+
+  public synchronized void clear() {
+    raw.clear();
+    for (Level level : levels) {
+      level.clear();
+    }
+  }
+
+  public List<Sample<Number>> getArchive() {
+    return getArchive(Long.MIN_VALUE);
+  }
+
+  /**
+   * Returns the archived samples not older than {@code since}, oldest first.
+   * <p>
+   * Samples from coarser tiers precede those from finer tiers and are instances of {@link Rollup}. Each tier also
+   * contributes its partially folded current interval, if any.
+   *
+   * @param since the earliest sample timestamp
+   * @return the merged samples
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  public synchronized List<Sample<Number>> getArchive(long since) {
+    List<Sample<Number>> merged = new ArrayList<>();
+    for (int i = levels.length - 1; i >= 0; i--) {
+      Level level = levels[i];
+      merged.addAll((List) level.archive.view(since));
+      Sample<Rollup> pending = level.pending();
+      if (pending != null && pending.getTimestamp() >= since) {
+        merged.add((Sample) pending);
+      }
+    }
+    merged.addAll((List) raw.view(since));
+    return Collections.unmodifiableList(merged);
+  }
+
+  /**
+   * Returns the rollups not older than {@code since} held in the given tier, excluding its current interval.
+   *
+   * @param tier  the tier index, the finest tier being {@code 0}
+   * @param since the earliest sample timestamp
+   * @return the tier rollups
+   */
+  public List<Sample<Rollup>> getTier(int tier, long since) {
+    return levels[tier].archive.getArchive(since);
+  }
+
+  /**
+   * The description of a single resolution tier.
+   */
+  public static final class Tier {
+
+    private final long resolution;
+    private final int capacity;
+
+    private Tier(long resolution, int capacity) {
+      this.resolution = resolution;
+      this.capacity = capacity;
+    }
+
+    @Override
+    public String toString() {
+      return capacity + " x " + resolution + "ms";
+    }
+  }
+
+  private static final class Level {
+
+    private final long resolution;
+    private final boolean lastValue;
+    private final StatisticArchive<Rollup> archive;
+
+    private long interval;
+    private long count;
+    private double sum;
+    private double minimum;
+    private double maximum;
+    private Number last;
+    private long timestamp;
+
+    Level(Tier tier, boolean lastValue, Level next) {
+      this.resolution = tier.resolution;
+      this.lastValue = lastValue;
+      if (next == null) {
+        this.archive = new StatisticArchive<>(tier.capacity);
+      } else {
+        this.archive = new StatisticArchive<>(tier.capacity, sample -> {
+          if (sample != null) {
+            Rollup rollup = sample.getSample();
+            next.fold(sample.getTimestamp(), rollup.getValue(), rollup.getMinimum(), rollup.getMaximum(), rollup.getCount());
+          }
+        });
+      }
+    }
+
+    void fold(long timestamp, Number value, double minimum, double maximum, long count) {
+      long interval = Math.floorDiv(timestamp, resolution);
+      if (this.count > 0 && interval != this.interval) {
+        archive.add(pending());
+        this.count = 0;
+      }
+      if (this.count == 0) {
+        this.interval = interval;
+        this.sum = 0;
+        this.minimum = minimum;
+        this.maximum = maximum;
+      } else {
+        this.minimum = Math.min(this.minimum, minimum);
+        this.maximum = Math.max(this.maximum, maximum);
+      }
+      this.count += count;
+      this.sum += value.doubleValue() * count;
+      this.last = value;
+      this.timestamp = timestamp;
+    }
+
+    Sample<Rollup> pending() {
+      if (count == 0) {
+        return null;
+      } else {
+        Number value = lastValue ? last : sum / count;
+        return new Sample<>(timestamp, new Rollup(value, minimum, maximum, count));
+      }
+    }
+
+    void clear() {
+      archive.clear();
+      count = 0;
+      last = null;
+    }
+  }
+}
@@ -0,0 +1,145 @@
+/*
+ * All content copyright Terracotta, Inc., unless otherwise indicated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.statistics.archive;
+
+import org.terracotta.statistics.Sample;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A fixed capacity ring of samples that is read in place.
+ * <p>
+ * Writes must be externally serialized. Reads never block: a writer first claims the next sequence, then fills its
+ * slot and finally publishes it by advancing the write sequence. Readers search the live ring and validate afterwards
+ * that no writer has since claimed any of the slots they read, retrying the search if one has. Since slot accesses
+ * are volatile, a reader that observes an overwritten slot is guaranteed to also observe the claim that preceded it.
+ */
+final class SampleRing<T extends Serializable> {
+
+  private final int capacity;
+  private final AtomicReferenceArray<Sample<T>> samples;
+  private volatile long claimSequence;
+  private volatile long writeSequence;
+
+  SampleRing(int capacity) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Capacity must be positive");
+    }
+    this.capacity = capacity;
+    this.samples = new AtomicReferenceArray<>(capacity);
+  }
+
+  int capacity() {
+    return capacity;
+  }
+
+  /**
+   * Inserts a sample, returning the sample it displaced or {@code null} if the ring was not yet full.
+   */
+  Sample<T> insert(Sample<T> sample) {
+    long sequence = writeSequence;
+    claimSequence = sequence + 1;
+    Sample<T> old = samples.getAndSet((int) (sequence % capacity), sample);
+    writeSequence = sequence + 1;
+    return old;
+  }
+
+  /**
+   * Returns the most recently inserted sample, or {@code null} if the ring is empty.
+   */
+  Sample<T> latest() {
+    long end = writeSequence;
+    return end == 0 ? null : samples.get((int) ((end - 1) % capacity));
+  }
+
+  /**
+   * Returns a view of the samples not older than {@code since}.
+   */
+  List<Sample<T>> since(long since) {
+    while (true) {
+      long end = writeSequence;
+      // skip any slot a writer is part way through overwriting
+      long low = Math.max(0, claimSequence - capacity);
+      long first = low;
+      if (since != Long.MIN_VALUE) {
+        long high = end;
+        while (first < high) {
+          long mid = (first + high) >>> 1;
+          if (samples.get((int) (mid % capacity)).getTimestamp() < since) {
+            first = mid + 1;
+          } else {
+            high = mid;
+          }
+        }
+      }
+      if (low <= end && !isOverwritten(low)) {
+        return new View(first, end);
+      }
+      // a writer lapped the search - start again against the new end
+    }
+  }
+
+  /**
+   * Returns a copy of the samples not older than {@code since}.
+   */
+  List<Sample<T>> copySince(long since) {
+    while (true) {
+      try {
+        return new ArrayList<>(since(since));
+      } catch (ConcurrentModificationException e) {
+        // a writer lapped the copy - start again
+      }
+    }
+  }
+
+  private boolean isOverwritten(long sequence) {
+    return claimSequence - capacity > sequence;
+  }
+
+  private final class View extends AbstractList<Sample<T>> {
+
+    private final long start;
+    private final int size;
+
+    View(long start, long end) {
+      this.start = start;
+      this.size = (int) (end - start);
+    }
+
+    @Override
+    public Sample<T> get(int index) {
+      if (index < 0 || index >= size) {
+        throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+      }
+      long sequence = start + index;
+      Sample<T> sample = samples.get((int) (sequence % capacity));
+      if (isOverwritten(sequence)) {
+        throw new ConcurrentModificationException("Archive wrapped while being read");
+      }
+      return sample;
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+  }
+}
@@ -0,0 +1,333 @@
+/*
+ * All content copyright Terracotta, Inc., unless otherwise indicated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.statistics.archive;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.terracotta.statistics.DoubleValueStatistic;
+import org.terracotta.statistics.LongValueStatistic;
+import org.terracotta.statistics.Sample;
+import org.terracotta.statistics.ValueStatistic;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import java.util.function.LongSupplier;
+
+import static org.terracotta.statistics.ValueStatistics.longCounter;
+
+/**
+ * Samples any number of statistics from a single thread using a hashed timer wheel.
+ * <p>
+ * Sampling periods are rounded up to a whole number of ticks and aligned to multiples of the period, so statistics
+ * sharing a period are always due on the same tick. All the statistics due on a tick are sampled as one batch and
+ * stamped with a single shared timestamp. Sampling that is expensive can be marked as parallel, in which case it is
+ * run on the supplied executor, if any, and the batch completes when all its samples are taken.
+ * <p>
+ * A sampling whose statistic or sink throws stays scheduled. Its failures are counted, both per
+ * {@link Registration#getFailureCount() registration} and in the scheduler's {@link #failures()} statistic, and the
+ * first failure of each registration is logged.
+ */
+public class SamplingScheduler {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(SamplingScheduler.class);
+
+  private static final int WHEEL_SIZE = 512;
+
+  private final long tick;
+  private final LongSupplier timeSupplier;
+  private final Executor parallelExecutor;
+  private final Registration[] wheel = new Registration[WHEEL_SIZE];
+  private final LongAdder failures = new LongAdder();
+
+  private ScheduledThreadPoolExecutor driver;
+  private long lastTick = Long.MIN_VALUE;
+
+  /**
+   * @param tick         the wheel resolution
+   * @param unit         resolution unit
+   * @param timeSupplier the supplier of sample timestamps, in ms
+   */
+  public SamplingScheduler(long tick, TimeUnit unit, LongSupplier timeSupplier) {
+    this(tick, unit, timeSupplier, null);
+  }
+
+  /**
+   * @param tick             the wheel resolution
+   * @param unit             resolution unit
+   * @param timeSupplier     the supplier of sample timestamps, in ms
+   * @param parallelExecutor the executor for parallel sampling, or {@code null} to sample everything on the wheel
+   *                         thread
+   */
+  public SamplingScheduler(long tick, TimeUnit unit, LongSupplier timeSupplier, Executor parallelExecutor) {
+    this.tick = Math.max(1, unit.toMillis(tick));
+    this.timeSupplier = timeSupplier;
+    this.parallelExecutor = parallelExecutor;
+  }
+
+  /**
+   * Schedules the periodic sampling of a statistic.
+   *
+   * @param time      the sampling period
+   * @param unit      period unit
+   * @param statistic the statistic to sample
+   * @param sink      the sample consumer
+   * @param parallel  {@code true} if the statistic is expensive to sample
+   * @param <T>       the statistic value type
+   * @return the registration, used to cancel the sampling
+   */
+  public <T extends Serializable> Registration schedule(long time, TimeUnit unit, ValueStatistic<T> statistic, Consumer<Sample<T>> sink, boolean parallel) {
+    return schedule(time, unit, parallel, timestamp -> sink.accept(new Sample<>(timestamp, statistic.value())));
+  }
+
+  /**
+   * Schedules the periodic sampling of a primitive statistic in to a primitive archive, without boxing.
+   *
+   * @param time      the sampling period
+   * @param unit      period unit
+   * @param statistic the statistic to sample
+   * @param archive   the archive to sample in to
+   * @param parallel  {@code true} if the statistic is expensive to sample
+   * @return the registration, used to cancel the sampling
+   */
+  public Registration schedule(long time, TimeUnit unit, LongValueStatistic statistic, LongArchive archive, boolean parallel) {
+    return schedule(time, unit, parallel, timestamp -> archive.add(timestamp, statistic.longValue()));
+  }
+
+  /**
+   * Schedules the periodic sampling of a primitive statistic in to a primitive archive, without boxing.
+   *
+   * @param time      the sampling period
+   * @param unit      period unit
+   * @param statistic the statistic to sample
+   * @param archive   the archive to sample in to
+   * @param parallel  {@code true} if the statistic is expensive to sample
+   * @return the registration, used to cancel the sampling
+   */
+  public Registration schedule(long time, TimeUnit unit, DoubleValueStatistic statistic, DoubleArchive archive, boolean parallel) {
+    return schedule(time, unit, parallel, timestamp -> archive.add(timestamp, statistic.doubleValue()));
+  }
+
+  Registration schedule(long time, TimeUnit unit, boolean parallel, LongConsumer sampling) {
+    long periodTicks = Math.max(1, (unit.toMillis(time) + tick - 1) / tick);
+    Registration registration = new Registration(this, periodTicks, parallel, sampling);
+    synchronized (this) {
+      long current = Math.floorDiv(timeSupplier.getAsLong(), tick);
+      if (lastTick == Long.MIN_VALUE) {
+        lastTick = current;
+      }
+      registration.dueTick = nextAligned(Math.max(current, lastTick), periodTicks);
+      insert(registration);
+    }
+    return registration;
+  }
+
+  /**
+   * @return the number of samplings that have failed across all registrations
+   */
+  public LongValueStatistic failures() {
+    return longCounter(failures::sum);
+  }
+
+  /**
+   * Starts the wheel thread.
+   *
+   * @throws IllegalStateException if the scheduler is already running
+   */
+  public synchronized void start() {
+    if (driver != null) {
+      throw new IllegalStateException("Scheduler is already running");
+    }
+    driver = new ScheduledThreadPoolExecutor(1, new StatisticSampler.SamplerThreadFactory());
+    driver.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    scheduleNextTick();
+  }
+
+  /**
+   * Stops the wheel thread.
+   *
+   * @throws InterruptedException if interrupted while waiting for the thread to terminate
+   */
+  public void shutdown() throws InterruptedException {
+    ScheduledExecutorService executor;
+    synchronized (this) {
+      executor = driver;
+      driver = null;
+    }
+    if (executor != null) {
+      executor.shutdown();
+      if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+        throw new IllegalStateException("Sampling scheduler thread failed to terminate promptly");
+      }
+    }
+  }
+
+  private synchronized void scheduleNextTick() {
+    if (driver != null) {
+      // fire just after the next tick boundary so that ticks stay aligned regardless of drift
+      long delay = tick - Math.floorMod(timeSupplier.getAsLong(), tick);
+      driver.schedule(this::runTick, delay, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private void runTick() {
+    try {
+      tick();
+    } finally {
+      scheduleNextTick();
+    }
+  }
+
+  /**
+   * Samples every statistic due by the current time.
+   */
+  void tick() {
+    long now = timeSupplier.getAsLong();
+    long current = Math.floorDiv(now, tick);
+    List<Registration> batch = new ArrayList<>();
+    synchronized (this) {
+      if (lastTick == Long.MIN_VALUE || current <= lastTick) {
+        lastTick = Math.max(lastTick, current);
+        return;
+      }
+      // after a long stall every slot is visited once
+      long first = Math.max(lastTick + 1, current - WHEEL_SIZE + 1);
+      for (long t = first; t <= current; t++) {
+        collectDue((int) Math.floorMod(t, (long) WHEEL_SIZE), current, batch);
+      }
+      lastTick = current;
+    }
+
+    List<CompletableFuture<Void>> pending = null;
+    for (Registration registration : batch) {
+      if (registration.parallel && parallelExecutor != null) {
+        if (pending == null) {
+          pending = new ArrayList<>();
+        }
+        pending.add(CompletableFuture.runAsync(() -> registration.sample(now), parallelExecutor));
+      } else {
+        registration.sample(now);
+      }
+    }
+    if (pending != null) {
+      CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])).join();
+    }
+
+    synchronized (this) {
+      for (Registration registration : batch) {
+        if (!registration.cancelled) {
+          registration.dueTick = nextAligned(current, registration.periodTicks);
+          insert(registration);
+        }
+      }
+    }
+  }
+
+  private void collectDue(int slot, long current, List<Registration> due) {
+    Registration previous = null;
+    Registration registration = wheel[slot];
+    while (registration != null) {
+      Registration next = registration.next;
+      if (registration.cancelled || registration.dueTick <= current) {
+        if (previous == null) {
+          wheel[slot] = next;
+        } else {
+          previous.next = next;
+        }
+        registration.next = null;
+        if (!registration.cancelled) {
+          due.add(registration);
+        }
+      } else {
+        previous = registration;
+      }
+      registration = next;
+    }
+  }
+
+  private void insert(Registration registration) {
+    int slot = (int) Math.floorMod(registration.dueTick, (long) WHEEL_SIZE);
+    registration.next = wheel[slot];
+    wheel[slot] = registration;
+  }
+
+  private static long nextAligned(long tick, long periodTicks) {
+    return (Math.floorDiv(tick, periodTicks) + 1) * periodTicks;
+  }
+
+  /**
+   * A scheduled sampling.
+   */
+  public static final class Registration {
+
+    private final SamplingScheduler scheduler;
+    private final long periodTicks;
+    private final boolean parallel;
+    private final LongConsumer sampling;
+    private final LongAdder failures = new LongAdder();
+
+    private volatile boolean cancelled;
+    private long dueTick;
+    private Registration next;
+
+    private Registration(SamplingScheduler scheduler, long periodTicks, boolean parallel, LongConsumer sampling) {
+      this.scheduler = scheduler;
+      this.periodTicks = periodTicks;
+      this.parallel = parallel;
+      this.sampling = sampling;
+    }
+
+    /**
+     * Cancels this sampling. A sample already being taken may still be delivered.
+     */
+    public void cancel() {
+      cancelled = true;
+    }
+
+    public boolean isCancelled() {
+      return cancelled;
+    }
+
+    /**
+     * @return the number of times this sampling has failed
+     */
+    public long getFailureCount() {
+      return failures.sum();
+    }
+
+    private void sample(long timestamp) {
+      if (!cancelled) {
+        try {
+          sampling.accept(timestamp);
+        } catch (RuntimeException e) {
+          if (failures.sum() == 0) {
+            LOGGER.warn("Sampling failed, further failures of this sampling will only be counted", e);
+          }
+          failures.increment();
+          scheduler.failures.increment();
+        }
+      }
+    }
+  }
+}
@@ -18,23 +18,28 @@ package org.terracotta.statistics.archive;
 import org.terracotta.statistics.Sample;
 
 import java.io.Serializable;
-import java.util.Arrays;
 import java.util.Collections;
-import java.util.Comparator;
+import java.util.ConcurrentModificationException;
 import java.util.List;
 import java.util.function.Consumer;
 
 /**
+ * A fixed capacity archive of samples.
+ * <p>
+ * Writers are serialized against each other but never block readers. {@link #getArchive(long)} returns an
+ * unmodifiable copy of the requested range. {@link #view(long)} searches the live archive and returns a view of just
+ * the requested range instead; the view fails with a {@link ConcurrentModificationException} if an element is read
+ * after it has been overwritten, so callers should consume it promptly.
+ *
  * @author cdennis
  */
 public class StatisticArchive<T extends Serializable> {
 
-  private static final Comparator<Sample<?>> TIMESTAMPED_COMPARATOR = Comparator.comparingLong(Sample::getTimestamp);
-
   private final Consumer<? super Sample<T>> overspill;
 
   private volatile int size;
-  private volatile CircularBuffer<Sample<T>> buffer;
+  private volatile SampleRing<T> ring;
+  private volatile long version;
 
   public StatisticArchive(int size) {
     this(size, sample -> {});
@@ -48,54 +53,71 @@ public class StatisticArchive<T extends Serializable> {
   public synchronized void setCapacity(int samples) {
     if (samples != size) {
       size = samples;
-      if (buffer != null) {
-        CircularBuffer<Sample<T>> newBuffer = new CircularBuffer<>(size);
-        for (Sample<T> sample : getArchive()) {
-          overspill.accept(newBuffer.insert(sample));
+      if (ring != null) {
+        SampleRing<T> newRing = new SampleRing<>(size);
+        for (Sample<T> sample : view(Long.MIN_VALUE)) {
+          overspill.accept(newRing.insert(sample));
         }
-        buffer = newBuffer;
+        ring = newRing;
+        version++;
       }
     }
   }
 
   public synchronized void add(Sample<T> object) {
-    if (buffer == null) {
-      buffer = new CircularBuffer<>(size);
+    if (ring == null) {
+      ring = new SampleRing<>(size);
     }
-    overspill.accept(buffer.insert(object));
+    overspill.accept(ring.insert(object));
+    version++;
   }
 
   public synchronized void clear() {
-    buffer = null;
+    ring = null;
+    version++;
+  }
+
+  /**
+   * Returns a stamp that changes whenever the archive contents change, used as the version of an
+   * {@link ArchivedStatistic} over this archive.
+   */
+  public long version() {
+    return version;
+  }
+
+  Sample<T> latest() {
+    SampleRing<T> read = ring;
+    return read == null ? null : read.latest();
   }
 
-  @SuppressWarnings("unchecked")
   public List<Sample<T>> getArchive() {
-    CircularBuffer<Sample<T>> read = buffer;
+    return getArchive(Long.MIN_VALUE);
+  }
+
+  public List<Sample<T>> getArchive(long since) {
+    SampleRing<T> read = ring;
     if (read == null) {
       return Collections.emptyList();
     } else {
-      return Collections.unmodifiableList(Arrays.<Sample<T>>asList(read.toArray(Sample[].class)));
+      return Collections.unmodifiableList(read.copySince(since));
     }
   }
 
-  public List<Sample<T>> getArchive(long since) {
-    CircularBuffer<Sample<T>> read = buffer;
+  /**
+   * Returns a view of the archived samples not older than {@code since}, without copying them.
+   * <p>
+   * The view is not serializable and fails with a {@link ConcurrentModificationException} if an element is read after
+   * it has been overwritten.
+   *
+   * @param since the earliest sample timestamp
+   * @return a view of the samples
+   */
+  public List<Sample<T>> view(long since) {
+    SampleRing<T> read = ring;
     if (read == null) {
       return Collections.emptyList();
     } else {
-      Sample<T> e = new Sample<>(since, null);
-      @SuppressWarnings("unchecked")
-      Sample<T>[] array = (Sample<T>[]) read.toArray(Sample[].class);
-      int pos = Arrays.binarySearch(array, e, TIMESTAMPED_COMPARATOR);
-      if (pos < 0) {
-        pos = -pos - 1;
-      }
-      if (pos >= array.length) {
-        return Collections.emptyList();
-      } else {
-        return Collections.unmodifiableList(Arrays.asList(Arrays.copyOfRange(array, pos, array.length)));
-      }
+      return read.since(since);
     }
   }
 
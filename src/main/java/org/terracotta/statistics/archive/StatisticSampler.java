@@ -15,6 +15,8 @@
  */
 package org.terracotta.statistics.archive;
 
+import org.terracotta.statistics.DoubleValueStatistic;
+import org.terracotta.statistics.LongValueStatistic;
 import org.terracotta.statistics.Sample;
 import org.terracotta.statistics.ValueStatistic;
 
@@ -25,18 +27,26 @@ import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
+import java.util.function.LongConsumer;
 import java.util.function.LongSupplier;
 
 /**
+ * Periodically samples a statistic in to a sink.
+ * <p>
+ * A {@link LongValueStatistic} or {@link DoubleValueStatistic} can be sampled directly in to a {@link LongArchive} or
+ * {@link DoubleArchive}, in which case no sample is ever boxed.
+ *
  * @author cdennis
  */
 public class StatisticSampler<T extends Serializable> {
 
   private final boolean exclusiveExecutor;
   private final ScheduledExecutorService executor;
-  private final SamplingTask<T> task;
+  private final SamplingScheduler scheduler;
+  private final SamplingTask task;
 
   private ScheduledFuture<?> currentExecution;
+  private SamplingScheduler.Registration currentRegistration;
   private long period;
 
   public StatisticSampler(long time, TimeUnit unit, ValueStatistic<T> statistic, Consumer<Sample<T>> sink, LongSupplier timeSupplier) {
@@ -44,6 +54,38 @@ public class StatisticSampler<T extends Serializable> {
   }
 
   public StatisticSampler(ScheduledExecutorService executor, long time, TimeUnit unit, ValueStatistic<T> statistic, Consumer<Sample<T>> sink, LongSupplier timeSupplier) {
+    this(executor, time, unit, timestamp -> sink.accept(new Sample<>(timestamp, statistic.value())), timeSupplier);
+  }
+
+  /**
+   * Creates a sampler of a primitive statistic in to a primitive archive.
+   *
+   * @param executor     the executor to sample on, or {@code null} to use an exclusive thread
+   * @param time         the sampling period
+   * @param unit         period unit
+   * @param statistic    the statistic to sample
+   * @param archive      the archive to sample in to
+   * @param timeSupplier the supplier of sample timestamps
+   */
+  public StatisticSampler(ScheduledExecutorService executor, long time, TimeUnit unit, LongValueStatistic statistic, LongArchive archive, LongSupplier timeSupplier) {
+    this(executor, time, unit, timestamp -> archive.add(timestamp, statistic.longValue()), timeSupplier);
+  }
+
+  /**
+   * Creates a sampler of a primitive statistic in to a primitive archive.
+   *
+   * @param executor     the executor to sample on, or {@code null} to use an exclusive thread
+   * @param time         the sampling period
+   * @param unit         period unit
+   * @param statistic    the statistic to sample
+   * @param archive      the archive to sample in to
+   * @param timeSupplier the supplier of sample timestamps
+   */
+  public StatisticSampler(ScheduledExecutorService executor, long time, TimeUnit unit, DoubleValueStatistic statistic, DoubleArchive archive, LongSupplier timeSupplier) {
+    this(executor, time, unit, timestamp -> archive.add(timestamp, statistic.doubleValue()), timeSupplier);
+  }
+
+  private StatisticSampler(ScheduledExecutorService executor, long time, TimeUnit unit, LongConsumer sampling, LongSupplier timeSupplier) {
     if (executor == null) {
       this.exclusiveExecutor = true;
       this.executor = Executors.newSingleThreadScheduledExecutor(new SamplerThreadFactory());
@@ -51,36 +93,90 @@ public class StatisticSampler<T extends Serializable> {
       this.exclusiveExecutor = false;
       this.executor = executor;
     }
+    this.scheduler = null;
+    this.period = unit.toNanos(time);
+    this.task = new SamplingTask(sampling, timeSupplier);
+  }
+
+  /**
+   * Creates a sampler driven by a shared scheduler, which stamps the samples with its own time source.
+   *
+   * @param scheduler the sampling scheduler
+   * @param time      the sampling period
+   * @param unit      period unit
+   * @param statistic the statistic to sample
+   * @param sink      the sample consumer
+   */
+  public StatisticSampler(SamplingScheduler scheduler, long time, TimeUnit unit, ValueStatistic<T> statistic, Consumer<Sample<T>> sink) {
+    this(scheduler, time, unit, timestamp -> sink.accept(new Sample<>(timestamp, statistic.value())));
+  }
+
+  /**
+   * Creates a sampler of a primitive statistic in to a primitive archive, driven by a shared scheduler.
+   *
+   * @param scheduler the sampling scheduler
+   * @param time      the sampling period
+   * @param unit      period unit
+   * @param statistic the statistic to sample
+   * @param archive   the archive to sample in to
+   */
+  public StatisticSampler(SamplingScheduler scheduler, long time, TimeUnit unit, LongValueStatistic statistic, LongArchive archive) {
+    this(scheduler, time, unit, timestamp -> archive.add(timestamp, statistic.longValue()));
+  }
+
+  /**
+   * Creates a sampler of a primitive statistic in to a primitive archive, driven by a shared scheduler.
+   *
+   * @param scheduler the sampling scheduler
+   * @param time      the sampling period
+   * @param unit      period unit
+   * @param statistic the statistic to sample
+   * @param archive   the archive to sample in to
+   */
+  public StatisticSampler(SamplingScheduler scheduler, long time, TimeUnit unit, DoubleValueStatistic statistic, DoubleArchive archive) {
+    this(scheduler, time, unit, timestamp -> archive.add(timestamp, statistic.doubleValue()));
+  }
+
+  private StatisticSampler(SamplingScheduler scheduler, long time, TimeUnit unit, LongConsumer sampling) {
+    this.exclusiveExecutor = false;
+    this.executor = null;
+    this.scheduler = scheduler;
     this.period = unit.toNanos(time);
-    this.task = new SamplingTask<>(statistic, sink, timeSupplier);
+    this.task = new SamplingTask(sampling, null);
   }
 
   public synchronized void setPeriod(long time, TimeUnit unit) {
     this.period = unit.toNanos(time);
-    if (currentExecution != null && !currentExecution.isDone()) {
+    if (isRunning()) {
       stop();
       start();
     }
   }
 
   public synchronized void start() {
-    if (currentExecution == null || currentExecution.isDone()) {
+    if (isRunning()) {
+      throw new IllegalStateException("Sampler is already running");
+    } else if (scheduler == null) {
       currentExecution = executor.scheduleAtFixedRate(task, period, period, TimeUnit.NANOSECONDS);
     } else {
-      throw new IllegalStateException("Sampler is already running");
+      currentRegistration = scheduler.schedule(period, TimeUnit.NANOSECONDS, false, task.sampling);
     }
   }
 
   public synchronized void stop() {
-    if (currentExecution == null || currentExecution.isDone()) {
+    if (!isRunning()) {
       throw new IllegalStateException("Sampler is not running");
-    } else {
+    } else if (scheduler == null) {
       currentExecution.cancel(false);
+    } else {
+      currentRegistration.cancel();
     }
   }
 
   public synchronized void shutdown() throws InterruptedException {
-    if (exclusiveExecutor) {
+    if (scheduler != null) {
+      throw new IllegalStateException("SamplingScheduler was supplied externally - it must be shutdown directly");
+    } else if (exclusiveExecutor) {
       executor.shutdown();
       if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
         throw new IllegalStateException("Exclusive ScheduledExecutorService failed to terminate promptly");
@@ -90,21 +186,27 @@ public class StatisticSampler<T extends Serializable> {
     }
   }
 
-  static class SamplingTask<T extends Serializable> implements Runnable {
+  private boolean isRunning() {
+    if (scheduler == null) {
+      return currentExecution != null && !currentExecution.isDone();
+    } else {
+      return currentRegistration != null && !currentRegistration.isCancelled();
+    }
+  }
+
+  static class SamplingTask implements Runnable {
 
-    private final ValueStatistic<T> statistic;
-    private final Consumer<Sample<T>> sink;
+    private final LongConsumer sampling;
     private final LongSupplier timeSupplier;
 
-    SamplingTask(ValueStatistic<T> statistic, Consumer<Sample<T>> sink, LongSupplier timeSupplier) {
-      this.statistic = statistic;
-      this.sink = sink;
+    SamplingTask(LongConsumer sampling, LongSupplier timeSupplier) {
+      this.sampling = sampling;
       this.timeSupplier = timeSupplier;
     }
 
     @Override
     public void run() {
-      sink.accept(new Sample<>(timeSupplier.getAsLong(), statistic.value()));
+      sampling.accept(timeSupplier.getAsLong());
     }
   }
 
@@ -0,0 +1,116 @@
+/*
+ * All content copyright Terracotta, Inc., unless otherwise indicated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.statistics.derived;
+
+import org.terracotta.statistics.StatisticType;
+import org.terracotta.statistics.ValueStatistic;
+import org.terracotta.statistics.observer.ChainedEventObserver;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.terracotta.statistics.Time.time;
+
+/**
+ * An exponentially weighted moving average of an event rate, in the style of the UNIX load averages.
+ * <p>
+ * Events are counted in a striped {@link LongAdder}. The count is folded into the average at fixed tick boundaries,
+ * lazily, by the first reader to observe that one or more ticks have elapsed. State is constant in size regardless of
+ * the averaging time constant.
+ */
+public class EventRateExponentialMovingAverage implements ChainedEventObserver, ValueStatistic<Double> {
+
+  private static final int TICKS_PER_WINDOW = 12;
+
+  private final LongAdder uncounted = new LongAdder();
+  private final AtomicLong lastTick;
+  private final long tickInterval;
+  private final double window;
+
+  private volatile boolean initialized;
+  private volatile double rate;
+
+  /**
+   * Creates an average with the given time constant, folded twelve times per time constant.
+   * <p>
+   * A one minute time constant therefore ticks every five seconds.
+   *
+   * @param time averaging time constant
+   * @param unit time constant unit
+   */
+  public EventRateExponentialMovingAverage(long time, TimeUnit unit) {
+    this(time, unit, Math.max(1, unit.toNanos(time) / TICKS_PER_WINDOW), TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Creates an average with the given time constant and tick interval.
+   *
+   * @param time averaging time constant
+   * @param unit time constant unit
+   * @param tick interval at which new events are folded into the average
+   * @param tickUnit tick interval unit
+   */
+  public EventRateExponentialMovingAverage(long time, TimeUnit unit, long tick, TimeUnit tickUnit) {
+    this.window = unit.toNanos(time);
+    this.tickInterval = tickUnit.toNanos(tick);
+    if (window <= 0 || tickInterval <= 0) {
+      throw new IllegalArgumentException("Time constant and tick interval must be positive");
+    }
+    this.lastTick = new AtomicLong(time());
+  }
+
+  @Override
+  public void event(long time, long latency) {
+    uncounted.increment();
+  }
+
+  @Override
+  public Double value() {
+    return rateUsingSeconds();
+  }
+
+  @Override
+  public StatisticType type() {
+    return StatisticType.RATE;
+  }
+
+  public Double rateUsingSeconds() {
+    tickIfNecessary(time());
+    return rate;
+  }
+
+  public Double rate(TimeUnit base) {
+    return rateUsingSeconds() * ((double) base.toNanos(1) / TimeUnit.SECONDS.toNanos(1));
+  }
+
+  private void tickIfNecessary(long now) {
+    long last = lastTick.get();
+    long ticks = (now - last) / tickInterval;
+    if (ticks > 0 && lastTick.compareAndSet(last, last + ticks * tickInterval)) {
+      long span = ticks * tickInterval;
+      double spanRate = ((double) (TimeUnit.SECONDS.toNanos(1) * uncounted.sumThenReset())) / span;
+      if (initialized) {
+        // exact for a constant rate over the whole span: equivalent to folding each elapsed tick in turn
+        double decay = Math.exp(-span / window);
+        rate = rate * decay + spanRate * (1.0 - decay);
+      } else {
+        rate = spanRate;
+        initialized = true;
+      }
+    }
+  }
+}
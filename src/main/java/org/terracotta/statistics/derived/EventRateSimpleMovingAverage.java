@@ -19,37 +19,50 @@ import org.terracotta.statistics.StatisticType;
 import org.terracotta.statistics.ValueStatistic;
 import org.terracotta.statistics.observer.ChainedEventObserver;
 
-import java.util.Iterator;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.atomic.LongAdder;
 
 import static org.terracotta.statistics.Time.time;
 
 /**
+ * An event rate maintained over a sliding time window.
+ * <p>
+ * The window is divided into a {@link SlotRing} of counters, so neither recording an event nor reading the rate
+ * allocates.
+ *
  * @author cdennis
  */
 public class EventRateSimpleMovingAverage implements ChainedEventObserver, ValueStatistic<Double> {
 
   private static final int PARTITION_COUNT = 10;
 
-  private final Queue<CounterPartition> archive = new ConcurrentLinkedQueue<>();
-  private final AtomicReference<CounterPartition> activePartition;
-
-  private volatile long windowSize;
-  private volatile long partitionSize;
+  private volatile SlotRing<CounterPartition> partitions;
 
   public EventRateSimpleMovingAverage(long time, TimeUnit unit) {
-    this.windowSize = unit.toNanos(time);
-    this.partitionSize = windowSize / PARTITION_COUNT;
-    this.activePartition = new AtomicReference<>(new CounterPartition(time(), partitionSize));
+    this.partitions = new SlotRing<>(unit.toNanos(time), PARTITION_COUNT, CounterPartition::new);
   }
 
-  public void setWindow(long time, TimeUnit unit) {
-    this.windowSize = unit.toNanos(time);
-    this.partitionSize = windowSize / PARTITION_COUNT;
+  /**
+   * Changes the size of the averaging window.
+   * <p>
+   * Events already recorded are carried over into the resized window, each counted at the start of the partition it
+   * was recorded in.
+   *
+   * @param time the new window size
+   * @param unit the window size unit
+   */
+  public synchronized void setWindow(long time, TimeUnit unit) {
+    SlotRing<CounterPartition> current = partitions;
+    SlotRing<CounterPartition> resized = new SlotRing<>(unit.toNanos(time), PARTITION_COUNT, CounterPartition::new);
+    for (int i = 0; i < current.length(); i++) {
+      CounterPartition partition = current.get(i);
+      long slot = partition.slot();
+      long sum = partition.sum();
+      if (slot != Long.MIN_VALUE && sum != 0) {
+        add(resized, slot * current.partitionSize(), sum);
+      }
+    }
+    partitions = resized;
   }
 
   @Override
@@ -63,27 +76,20 @@ public class EventRateSimpleMovingAverage implements ChainedEventObserver, Value
   }
 
   public Double rateUsingSeconds() {
-    final long endTime = time();
-    final long startTime = endTime - windowSize;
+    SlotRing<CounterPartition> ring = partitions;
+    long endTime = time();
+    long startTime = endTime - ring.windowSize();
 
-    CounterPartition current = activePartition.get();
-    long count;
+    long count = 0;
     long actualStartTime = startTime;
-    if (current.isBefore(startTime)) {
-      count = 0;
-    } else {
-      count = current.sum();
-      actualStartTime = Math.min(actualStartTime, current.start());
-    }
-    for (Iterator<CounterPartition> it = archive.iterator(); it.hasNext(); ) {
-      CounterPartition partition = it.next();
-      if (partition == current) {
-        break;
-      } else if (partition.isBefore(startTime)) {
-        it.remove();
-      } else {
-        actualStartTime = Math.min(actualStartTime, partition.start());
-        count += partition.sum();
+    for (int i = 0; i < ring.length(); i++) {
+      CounterPartition partition = ring.get(i);
+      if (ring.inWindow(partition, endTime)) {
+        long sum = partition.sum();
+        if (sum != 0) {
+          count += sum;
+          actualStartTime = Math.min(actualStartTime, partition.slot() * ring.partitionSize());
+        }
       }
     }
 
@@ -100,59 +106,31 @@ public class EventRateSimpleMovingAverage implements ChainedEventObserver, Value
 
   @Override
   public void event(long time, long latency) {
-    while (true) {
-      CounterPartition partition = activePartition.get();
-      if (partition.targetFor(time)) {
-        partition.increment();
-        return;
-      } else {
-        CounterPartition newPartition = new CounterPartition(time, partitionSize);
-        if (activePartition.compareAndSet(partition, newPartition)) {
-          archive(partition);
-          newPartition.increment();
-          return;
-        }
-      }
-    }
+    add(partitions, time, 1);
   }
 
-  private void archive(CounterPartition partition) {
-    archive.add(partition);
-
-    long startTime = partition.end() - windowSize;
-    for (CounterPartition earliest = archive.peek(); earliest != null && earliest.isBefore(startTime); earliest = archive.peek()) {
-      if (archive.remove(earliest)) {
-        break;
-      }
+  private static void add(SlotRing<CounterPartition> ring, long time, long count) {
+    CounterPartition partition = ring.claim(time);
+    if (partition != null) {
+      partition.add(count);
     }
   }
 
-  static class CounterPartition extends LongAdder {
-
-    private static final long serialVersionUID = 1L;
+  private static final class CounterPartition extends SlotRing.Partition {
 
-    private final long start;
-    private final long end;
-
-    CounterPartition(long start, long length) {
-      this.start = start;
-      this.end = start + length;
-    }
-
-    public boolean targetFor(long time) {
-      return end > time;
-    }
+    private final LongAdder adder = new LongAdder();
 
-    public boolean isBefore(long time) {
-      return end < time;
+    void add(long count) {
+      adder.add(count);
     }
 
-    public long start() {
-      return start;
+    long sum() {
+      return adder.sum();
     }
 
-    public long end() {
-      return end;
+    @Override
+    protected void reset() {
+      adder.reset();
     }
   }
 }
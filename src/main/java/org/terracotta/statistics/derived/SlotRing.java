@@ -0,0 +1,127 @@
+/*
+ * All content copyright Terracotta, Inc., unless otherwise indicated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.statistics.derived;
+
+import java.util.function.Supplier;
+
+/**
+ * A fixed ring of partitions indexed by time slot, covering a sliding time window.
+ * <p>
+ * Partitions are allocated once and are reset in place when their slot is reused, so neither recording in to nor
+ * reading the ring allocates. This is shared by the windowed statistics of this package and its sub-packages, which is
+ * why it is public; it is not intended for use outside this library.
+ *
+ * @param <P> the partition type
+ */
+public final class SlotRing<P extends SlotRing.Partition> {
+
+  private final long windowSize;
+  private final long partitionSize;
+  private final Partition[] partitions;
+
+  /**
+   * @param windowSize     the window length in nanoseconds
+   * @param partitionCount the number of partitions the window is divided in to
+   * @param factory        the partition factory
+   */
+  public SlotRing(long windowSize, int partitionCount, Supplier<? extends P> factory) {
+    this.windowSize = windowSize;
+    this.partitionSize = Math.max(1, windowSize / partitionCount);
+    // an unaligned window overlaps one more partition than it contains
+    this.partitions = new Partition[partitionCount + 1];
+    for (int i = 0; i < partitions.length; i++) {
+      partitions[i] = factory.get();
+    }
+  }
+
+  public long windowSize() {
+    return windowSize;
+  }
+
+  public long partitionSize() {
+    return partitionSize;
+  }
+
+  /**
+   * Returns the partition for the slot containing the given time, resetting it first if it held an older slot.
+   *
+   * @param time the event time in nanoseconds
+   * @return the partition, or {@code null} if the event is older than the whole ring
+   */
+  public P claim(long time) {
+    long slot = Math.floorDiv(time, partitionSize);
+    P partition = get((int) Math.floorMod(slot, (long) partitions.length));
+    return ((Partition) partition).claim(slot) ? partition : null;
+  }
+
+  /**
+   * @return the number of partitions in the ring
+   */
+  public int length() {
+    return partitions.length;
+  }
+
+  @SuppressWarnings("unchecked")
+  public P get(int index) {
+    return (P) partitions[index];
+  }
+
+  /**
+   * @param partition a partition of this ring
+   * @param now       the current time in nanoseconds
+   * @return {@code true} if the partition holds a slot within the window ending now
+   */
+  public boolean inWindow(Partition partition, long now) {
+    long slot = partition.slot();
+    return slot >= Math.floorDiv(now - windowSize, partitionSize) && slot <= Math.floorDiv(now, partitionSize);
+  }
+
+  /**
+   * A partition of the ring, holding the counts of a single time slot.
+   */
+  public abstract static class Partition {
+
+    private volatile long slot = Long.MIN_VALUE;
+
+    /**
+     * @return the slot held, or {@link Long#MIN_VALUE} if the partition has never been used
+     */
+    public final long slot() {
+      return slot;
+    }
+
+    /**
+     * Clears the counts of the partition before it is reused for a newer slot.
+     */
+    protected abstract void reset();
+
+    private boolean claim(long slot) {
+      long current = this.slot;
+      if (current < slot) {
+        synchronized (this) {
+          if (this.slot < slot) {
+            // reset before publishing the new slot so readers never see stale counts against it
+            reset();
+            this.slot = slot;
+          }
+        }
+        current = this.slot;
+      }
+      // an event older than the whole ring finds its slot recycled and is dropped
+      return current == slot;
+    }
+  }
+}
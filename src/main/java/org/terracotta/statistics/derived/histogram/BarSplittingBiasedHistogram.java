@@ -155,6 +155,61 @@ public class BarSplittingBiasedHistogram implements Histogram {
     }
   }
 
+  /**
+   * Record {@code count} events evenly spread over the range {@code [minimum, maximum]} occurring at the given
+   * {@code time}.
+   * <p>
+   * The range is inserted from the bottom up in bulk slices, each bounded by the bar it falls in and by a fixed fraction
+   * of {@code count}, so that bars still split as the events accumulate. The cost of this call is therefore bounded by
+   * the number of bars rather than by {@code count}.
+   *
+   * @param minimum lowest event value
+   * @param maximum highest event value
+   * @param count event count
+   * @param time event time
+   * @throws IllegalArgumentException if count is negative or the range is inverted
+   */
+  public void event(double minimum, double maximum, long count, long time) throws IllegalArgumentException {
+    if (count < 0) {
+      throw new IllegalArgumentException("negative count");
+    } else if (maximum < minimum) {
+      throw new IllegalArgumentException("inverted range");
+    }
+    double span = maximum - minimum;
+    long slice = span == 0.0 ? count : Math.max(1, (count + barCount - 1) / barCount);
+    double low = minimum;
+    long remaining = count;
+    while (remaining > 0) {
+      int barIndex = getBarIndex(low);
+      Bar bar = bars.get(barIndex);
+      if (barIndex < bars.size() - 1 && !(low < bar.maximum())) {
+        // the value falls in a gap above this bar, so extend the bar above instead
+        bar = bars.get(++barIndex);
+      }
+      double high = (bar.maximum() <= maximum && bar.maximum() > low) ? nextDown(bar.maximum()) : maximum;
+      long share = (high == maximum) ? remaining : Math.min(remaining, Math.round(count * (high - low) / span));
+      if (share > slice) {
+        share = slice;
+        high = low + (span * share / count);
+        if (high >= maximum) {
+          high = maximum;
+          share = remaining;
+        }
+      }
+      if (share > 0) {
+        long before = bar.count();
+        bar.insert(low, high, time, share);
+        long after = bar.count();
+        size += (after - before);
+        remaining -= share;
+        if (after > maxBarSize(barIndex)) {
+          split(bar, barIndex);
+        }
+      }
+      low = nextUp(high);
+    }
+  }
+
   /**
    * Expire old events from all buckets.
    *
@@ -392,6 +447,16 @@ public class BarSplittingBiasedHistogram implements Histogram {
       eh.insert(time);
     }
 
+    void insert(double low, double high, long time, long count) {
+      if (!(low >= minimum)) {
+        minimum = low;
+      }
+      if (!(high < maximum)) {
+        maximum = nextUp(high);
+      }
+      eh.insert(time, count);
+    }
+
     long expire(long time) {
       return eh.expire(time);
     }
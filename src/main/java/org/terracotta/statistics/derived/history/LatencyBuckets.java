@@ -0,0 +1,104 @@
+/*
+ * All content copyright Terracotta, Inc., unless otherwise indicated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.statistics.derived.history;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * A lock-free, fixed-size latency histogram with log-linear buckets.
+ * <p>
+ * Each power of two is split in to {@code 2^SUB_BUCKET_BITS} linear sub-buckets, bounding the relative error of a
+ * quantile at {@code 2^-SUB_BUCKET_BITS}. Values below {@code 2^SUB_BUCKET_BITS} are counted exactly.
+ */
+final class LatencyBuckets {
+
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int BUCKET_COUNT = SUB_BUCKETS + (Long.SIZE - 1 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+  private final LongAccumulator minimum = new LongAccumulator(Math::min, Long.MAX_VALUE);
+  private final LongAccumulator maximum = new LongAccumulator(Math::max, Long.MIN_VALUE);
+
+  void record(long value) {
+    long v = Math.max(0, value);
+    counts.incrementAndGet(index(v));
+    minimum.accumulate(v);
+    maximum.accumulate(v);
+  }
+
+  boolean isEmpty() {
+    return maximum.get() == Long.MIN_VALUE;
+  }
+
+  /**
+   * Returns the inclusive upper bound of the bucket containing the given quantile, clamped to the observed range.
+   *
+   * @param quantile the quantile (0.0-1.0)
+   * @return the quantile upper bound
+   */
+  long quantile(double quantile) {
+    long min = minimum.get();
+    long max = maximum.get();
+    if (quantile <= 0.0) {
+      return min;
+    }
+    long total = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      total += counts.get(i);
+    }
+    long rank = Math.max(1, (long) Math.ceil(quantile * total));
+    long seen = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      seen += counts.get(i);
+      if (seen >= rank) {
+        return Math.max(min, Math.min(max, upperBound(i)));
+      }
+    }
+    return max;
+  }
+
+  void reset() {
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      counts.lazySet(i, 0);
+    }
+    minimum.reset();
+    maximum.reset();
+  }
+
+  static int index(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    } else {
+      int shift = (Long.SIZE - 1 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+      int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+      return SUB_BUCKETS + shift * SUB_BUCKETS + subBucket;
+    }
+  }
+
+  static long upperBound(int index) {
+    if (index < SUB_BUCKETS) {
+      return index;
+    } else {
+      int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+      long subBucket = (index - SUB_BUCKETS) % SUB_BUCKETS;
+      long next = (SUB_BUCKETS + subBucket + 1) << shift;
+      // the top bucket would overflow
+      return next < 0 ? Long.MAX_VALUE : next - 1;
+    }
+  }
+}
@@ -0,0 +1,85 @@
+/*
+ * All content copyright Terracotta, Inc., unless otherwise indicated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.statistics.derived.history;
+
+import org.terracotta.statistics.StatisticType;
+
+import java.io.Serializable;
+
+/**
+ * Reduces the events of one period to a fixed number of primitive values.
+ * <p>
+ * A reducer creates mutable, resettable {@link Accumulator}s. {@link WindowedHistory} allocates a fixed number of
+ * these up front and reuses them for every period, so accumulators must support concurrent accumulation.
+ *
+ * @param <T> the type of the reduced values
+ */
+public interface Reducer<T extends Serializable> {
+
+  /**
+   * @return the type of the reduced statistic
+   */
+  StatisticType type();
+
+  /**
+   * @return the number of values each period is reduced to
+   */
+  default int width() {
+    return 1;
+  }
+
+  /**
+   * @return a new, empty accumulator
+   */
+  Accumulator accumulator();
+
+  /**
+   * Converts a reduced primitive value in to its statistic value.
+   *
+   * @param reduced a value written by {@link Accumulator#reduce(long, long[], int)}
+   * @return the statistic value
+   */
+  T decode(long reduced);
+
+  interface Accumulator {
+
+    /**
+     * Accumulates an event.
+     *
+     * @param latency the event latency in ns
+     */
+    void accumulate(long latency);
+
+    /**
+     * @return {@code true} if no events have been accumulated since the last reset
+     */
+    boolean isEmpty();
+
+    /**
+     * Writes {@link Reducer#width()} reduced values in to {@code target}.
+     *
+     * @param length the length of the period in ns
+     * @param target the target array
+     * @param offset the offset of the first value
+     */
+    void reduce(long length, long[] target, int offset);
+
+    /**
+     * Returns this accumulator to its empty state.
+     */
+    void reset();
+  }
+}
@@ -0,0 +1,268 @@
+/*
+ * All content copyright Terracotta, Inc., unless otherwise indicated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.statistics.derived.history;
+
+import org.terracotta.statistics.StatisticType;
+
+import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import static org.terracotta.statistics.StatisticType.COUNTER;
+import static org.terracotta.statistics.StatisticType.GAUGE;
+import static org.terracotta.statistics.StatisticType.RATE;
+
+/**
+ * The standard {@link Reducer}s.
+ */
+public final class Reducers {
+
+  private Reducers() {
+    //static
+  }
+
+  /**
+   * @return a reducer to the maximum latency of each period
+   */
+  public static Reducer<Long> maximum() {
+    return longReducer(GAUGE, () -> new ExtremumAccumulator(new LongAccumulator(Math::max, Long.MIN_VALUE)));
+  }
+
+  /**
+   * @return a reducer to the minimum latency of each period
+   */
+  public static Reducer<Long> minimum() {
+    return longReducer(GAUGE, () -> new ExtremumAccumulator(new LongAccumulator(Math::min, Long.MAX_VALUE)));
+  }
+
+  /**
+   * @return a reducer to the number of events in each period
+   */
+  public static Reducer<Long> count() {
+    return longReducer(COUNTER, () -> new CountAccumulator() {
+      @Override
+      public void reduce(long length, long[] target, int offset) {
+        target[offset] = count.sum();
+      }
+    });
+  }
+
+  /**
+   * @return a reducer to the average latency of each period
+   */
+  public static Reducer<Double> average() {
+    return doubleReducer(GAUGE, () -> new CountAccumulator() {
+
+      private final LongAdder total = new LongAdder();
+
+      @Override
+      public void accumulate(long latency) {
+        super.accumulate(latency);
+        total.add(latency);
+      }
+
+      @Override
+      public void reduce(long length, long[] target, int offset) {
+        target[offset] = Double.doubleToLongBits(((double) total.sum()) / count.sum());
+      }
+
+      @Override
+      public void reset() {
+        super.reset();
+        total.reset();
+      }
+    });
+  }
+
+  /**
+   * @return a reducer to the event rate, per second, of each period
+   */
+  public static Reducer<Double> rate() {
+    return doubleReducer(RATE, () -> new CountAccumulator() {
+      @Override
+      public void reduce(long length, long[] target, int offset) {
+        target[offset] = Double.doubleToLongBits(((double) TimeUnit.SECONDS.toNanos(1) * count.sum()) / length);
+      }
+    });
+  }
+
+  /**
+   * Returns a reducer to the given latency percentile of each period.
+   * <p>
+   * The reduced value is the inclusive upper bound of the range containing the percentile, with a relative error of
+   * at most 12.5%.
+   *
+   * @param percent the percentage (0.0-1.0)
+   * @return a percentile reducer
+   */
+  public static Reducer<Long> percentile(double percent) {
+    return percentiles(percent);
+  }
+
+  /**
+   * Returns a reducer to several latency percentiles of each period, in the order given.
+   *
+   * @param percents the percentages (0.0-1.0)
+   * @return a percentile reducer
+   * @see #percentile(double)
+   */
+  public static Reducer<Long> percentiles(double... percents) {
+    double[] quantiles = percents.clone();
+    for (double quantile : quantiles) {
+      if (quantile > 1.0 || quantile < 0.0) {
+        throw new IllegalArgumentException("Invalid percentile requested: " + quantile);
+      }
+    }
+    return new Reducer<Long>() {
+      @Override
+      public StatisticType type() {
+        return GAUGE;
+      }
+
+      @Override
+      public int width() {
+        return quantiles.length;
+      }
+
+      @Override
+      public Accumulator accumulator() {
+        return new Accumulator() {
+
+          private final LatencyBuckets buckets = new LatencyBuckets();
+
+          @Override
+          public void accumulate(long latency) {
+            buckets.record(latency);
+          }
+
+          @Override
+          public boolean isEmpty() {
+            return buckets.isEmpty();
+          }
+
+          @Override
+          public void reduce(long length, long[] target, int offset) {
+            for (int i = 0; i < quantiles.length; i++) {
+              target[offset + i] = buckets.quantile(quantiles[i]);
+            }
+          }
+
+          @Override
+          public void reset() {
+            buckets.reset();
+          }
+        };
+      }
+
+      @Override
+      public Long decode(long reduced) {
+        return reduced;
+      }
+    };
+  }
+
+  private static Reducer<Long> longReducer(StatisticType type, Supplier<Reducer.Accumulator> accumulator) {
+    return new SimpleReducer<Long>(type, accumulator) {
+      @Override
+      public Long decode(long reduced) {
+        return reduced;
+      }
+    };
+  }
+
+  private static Reducer<Double> doubleReducer(StatisticType type, Supplier<Reducer.Accumulator> accumulator) {
+    return new SimpleReducer<Double>(type, accumulator) {
+      @Override
+      public Double decode(long reduced) {
+        return Double.longBitsToDouble(reduced);
+      }
+    };
+  }
+
+  private abstract static class SimpleReducer<T extends Serializable> implements Reducer<T> {
+
+    private final StatisticType type;
+    private final Supplier<Accumulator> accumulator;
+
+    SimpleReducer(StatisticType type, Supplier<Accumulator> accumulator) {
+      this.type = type;
+      this.accumulator = accumulator;
+    }
+
+    @Override
+    public StatisticType type() {
+      return type;
+    }
+
+    @Override
+    public Accumulator accumulator() {
+      return accumulator.get();
+    }
+  }
+
+  private abstract static class CountAccumulator implements Reducer.Accumulator {
+
+    protected final LongAdder count = new LongAdder();
+
+    @Override
+    public void accumulate(long latency) {
+      count.increment();
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return count.sum() == 0;
+    }
+
+    @Override
+    public void reset() {
+      count.reset();
+    }
+  }
+
+  private static final class ExtremumAccumulator implements Reducer.Accumulator {
+
+    private final LongAccumulator extremum;
+    private final long identity;
+
+    ExtremumAccumulator(LongAccumulator extremum) {
+      this.extremum = extremum;
+      this.identity = extremum.get();
+    }
+
+    @Override
+    public void accumulate(long latency) {
+      extremum.accumulate(latency);
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return extremum.get() == identity;
+    }
+
+    @Override
+    public void reduce(long length, long[] target, int offset) {
+      target[offset] = extremum.get();
+    }
+
+    @Override
+    public void reset() {
+      extremum.reset();
+    }
+  }
+}
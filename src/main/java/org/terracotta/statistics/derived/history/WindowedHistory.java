@@ -0,0 +1,407 @@
+/*
+ * All content copyright Terracotta, Inc., unless otherwise indicated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.statistics.derived.history;
+
+import org.terracotta.statistics.Sample;
+import org.terracotta.statistics.SampledStatistic;
+import org.terracotta.statistics.StatisticType;
+import org.terracotta.statistics.Time;
+import org.terracotta.statistics.observer.ChainedEventObserver;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+
+/**
+ * A history of events reduced per fixed-length period by a pluggable {@link Reducer}.
+ * <p>
+ * Periods are aligned to multiples of the period length. Events are accumulated in to one of two reusable
+ * accumulators, alternating by period, so a period can be closed without racing the events of its successor. When a
+ * period can no longer receive events it is reduced in to a primitive ring buffer and its accumulator is reset.
+ * Periods in which no events occur are not recorded. A period is timestamped with its start, or optionally with the
+ * time of its first event.
+ * <p>
+ * Closing a period first claims the next sequence of the ring, then fills its slot and finally publishes it by
+ * advancing the write sequence. {@link #history()} and {@link #history(long)} copy the ring without blocking, and start
+ * the copy again if a period is closed over a slot they have read.
+ * <p>
+ * When the reducer produces more than one value per period, {@link #column(int)} exposes each value as its own
+ * statistic. This statistic is column zero.
+ *
+ * @param <T> the type of the reduced values
+ */
+public class WindowedHistory<T extends Serializable> implements ChainedEventObserver, SampledStatistic<T> {
+
+  private final Reducer<T> reducer;
+  private final int width;
+  private final long periodNs;
+  private final LongSupplier timeSupplier;
+  private final boolean firstEventStamps;
+  private final Slot[] slots = new Slot[2];
+
+  private final int capacity;
+  private final AtomicLongArray starts;
+  private final AtomicLongArray timestamps;
+  private final AtomicLongArray values;
+  private final long[] reduced;
+  private volatile long claimSequence;
+  private volatile long writeSequence;
+
+  private volatile long drift;
+
+  /**
+   * @param reducer      the reduction applied to each period
+   * @param historySize  the number of periods to keep, including the current one
+   * @param period       the length of each period
+   * @param periodUnit   period length unit
+   * @param timeSupplier the supplier of sample timestamps, in ms
+   */
+  public WindowedHistory(Reducer<T> reducer, int historySize, long period, TimeUnit periodUnit, LongSupplier timeSupplier) {
+    this(reducer, historySize, period, periodUnit, timeSupplier, false);
+  }
+
+  /**
+   * @param reducer          the reduction applied to each period
+   * @param historySize      the number of periods to keep, including the current one
+   * @param period           the length of each period
+   * @param periodUnit       period length unit
+   * @param timeSupplier     the supplier of sample timestamps, in ms
+   * @param firstEventStamps {@code true} to timestamp each period with its first event rather than its start
+   */
+  protected WindowedHistory(Reducer<T> reducer, int historySize, long period, TimeUnit periodUnit, LongSupplier timeSupplier, boolean firstEventStamps) {
+    if (historySize <= 0) {
+      throw new IllegalArgumentException("History size must be positive");
+    }
+    this.reducer = reducer;
+    this.width = reducer.width();
+    this.periodNs = Math.max(1, periodUnit.toNanos(period));
+    this.timeSupplier = timeSupplier;
+    this.firstEventStamps = firstEventStamps;
+    for (int i = 0; i < slots.length; i++) {
+      slots[i] = new Slot(reducer.accumulator());
+    }
+    this.capacity = historySize;
+    this.starts = new AtomicLongArray(capacity);
+    this.timestamps = new AtomicLongArray(capacity);
+    this.values = new AtomicLongArray(capacity * width);
+    this.reduced = new long[width];
+    this.drift = Time.time() - timeSupplier.getAsLong() * 1_000_000;
+  }
+
+  @Override
+  public void event(long timeNs, long latencyNs) {
+    long period = Math.floorDiv(timeNs, periodNs);
+    Slot slot = slots[(int) (period & 1)];
+    if (slot.period < period) {
+      rollover(slot, period);
+    }
+    // an event for a period that has already been closed is dropped
+    if (slot.period == period) {
+      slot.accumulator.accumulate(latencyNs);
+      if (firstEventStamps) {
+        long first = slot.first.get();
+        if (timeNs < first) {
+          slot.first.compareAndSet(first, timeNs);
+        }
+      }
+    }
+  }
+
+  @Override
+  public StatisticType type() {
+    return reducer.type();
+  }
+
+  @Override
+  public T value() {
+    return value(0);
+  }
+
+  @Override
+  public List<Sample<T>> history() {
+    return history(0, Long.MIN_VALUE);
+  }
+
+  @Override
+  public List<Sample<T>> history(long sinceMillis) {
+    return history(0, sinceMillis);
+  }
+
+  /**
+   * Returns the statistic for the given reduced value of each period.
+   *
+   * @param column the value index, less than {@link Reducer#width()}
+   * @return the column statistic
+   */
+  public SampledStatistic<T> column(int column) {
+    if (column < 0 || column >= width) {
+      throw new IndexOutOfBoundsException("Column " + column + " of " + width);
+    }
+    return new SampledStatistic<T>() {
+      @Override
+      public List<Sample<T>> history() {
+        return WindowedHistory.this.history(column, Long.MIN_VALUE);
+      }
+
+      @Override
+      public List<Sample<T>> history(long since) {
+        return WindowedHistory.this.history(column, since);
+      }
+
+      @Override
+      public StatisticType type() {
+        return reducer.type();
+      }
+
+      @Override
+      public T value() {
+        return WindowedHistory.this.value(column);
+      }
+    };
+  }
+
+  private T value(int column) {
+    long now = Time.time();
+    long period = Math.floorDiv(now, periodNs);
+    Slot slot = slots[(int) (period & 1)];
+    if (slot.period != period || slot.accumulator.isEmpty()) {
+      return null;
+    }
+    long[] reduced = new long[width];
+    slot.accumulator.reduce(Math.max(1, now - period * periodNs), reduced, 0);
+    return reducer.decode(reduced[column]);
+  }
+
+  private List<Sample<T>> history(int column, long sinceMillis) {
+    while (true) {
+      try {
+        return new ArrayList<>(view(column, sinceMillis));
+      } catch (ConcurrentModificationException e) {
+        // a period was closed over the copy - start again
+      }
+    }
+  }
+
+  private List<Sample<T>> view(int column, long sinceMillis) {
+    long now = Time.time();
+    long currentPeriod = Math.floorDiv(now, periodNs);
+    while (true) {
+      long sequence = writeSequence;
+      long lastClosed = lastClosed(sequence);
+      long drift = this.drift;
+
+      // at most two periods are still open
+      Slot a = slots[0];
+      Slot b = slots[1];
+      if (a.period > b.period) {
+        a = slots[1];
+        b = slots[0];
+      }
+      Sample<T> first = openSample(a, lastClosed, currentPeriod, now, drift, column);
+      Sample<T> second = openSample(b, lastClosed, currentPeriod, now, drift, column);
+      if (first == null) {
+        first = second;
+        second = null;
+      }
+
+      if (writeSequence == sequence) {
+        int open = (first == null ? 0 : 1) + (second == null ? 0 : 1);
+        if (open > capacity) {
+          first = second;
+          second = null;
+          open = 1;
+        }
+        long low = Math.max(Math.max(0, sequence - (capacity - open)), claimSequence - capacity);
+        long start = firstSequenceSince(low, sequence, sinceMillis);
+        if (low < sequence && isOverwritten(low)) {
+          // a period was closed over the search - start again
+          continue;
+        }
+        if (second != null && second.getTimestamp() < sinceMillis) {
+          first = null;
+          second = null;
+        } else if (first != null && first.getTimestamp() < sinceMillis) {
+          first = second;
+          second = null;
+        }
+        return new HistoryView(column, start, sequence, first, second);
+      }
+    }
+  }
+
+  private Sample<T> openSample(Slot slot, long lastClosed, long currentPeriod, long now, long drift, int column) {
+    long period = slot.period;
+    if (period <= lastClosed || period > currentPeriod || slot.accumulator.isEmpty()) {
+      return null;
+    }
+    long start = period * periodNs;
+    long[] reduced = new long[width];
+    slot.accumulator.reduce(Math.max(1, Math.min(periodNs, now - start)), reduced, 0);
+    long stamp = stamp(slot, period);
+    if (slot.period != period) {
+      // recycled while we were reading it
+      return null;
+    }
+    return new Sample<>((stamp - drift) / 1_000_000, reducer.decode(reduced[column]));
+  }
+
+  private long stamp(Slot slot, long period) {
+    long first = slot.first.get();
+    return first == Long.MAX_VALUE ? period * periodNs : first;
+  }
+
+  private long lastClosed(long sequence) {
+    return sequence == 0 ? Long.MIN_VALUE : Math.floorDiv(starts.get((int) ((sequence - 1) % capacity)), periodNs);
+  }
+
+  private boolean isOverwritten(long sequence) {
+    return claimSequence - capacity > sequence;
+  }
+
+  private long firstSequenceSince(long start, long end, long sinceMillis) {
+    long low = start;
+    long high = end;
+    while (low < high) {
+      long mid = (low + high) >>> 1;
+      if (timestamps.get((int) (mid % capacity)) < sinceMillis) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  private synchronized void rollover(Slot slot, long period) {
+    if (slot.period >= period) {
+      return;
+    }
+    // close every open period that can no longer receive events, oldest first
+    Slot a = slots[0];
+    Slot b = slots[1];
+    if (a.period > b.period) {
+      a = slots[1];
+      b = slots[0];
+    }
+    close(a, period);
+    close(b, period);
+
+    // The difference between system time and nano time needs to be recomputed
+    // in case the computer went to sleep. In this case, the system time advance but not the nano time.
+    this.drift = Time.time() - timeSupplier.getAsLong() * 1_000_000;
+    slot.accumulator.reset();
+    slot.first.set(Long.MAX_VALUE);
+    slot.period = period;
+  }
+
+  private void close(Slot slot, long period) {
+    long closing = slot.period;
+    long sequence = writeSequence;
+    if (closing < period - 1 && closing > lastClosed(sequence) && !slot.accumulator.isEmpty()) {
+      int index = (int) (sequence % capacity);
+      long stamp = stamp(slot, closing);
+      slot.accumulator.reduce(periodNs, reduced, 0);
+      claimSequence = sequence + 1;
+      starts.set(index, stamp);
+      timestamps.set(index, (stamp - drift) / 1_000_000);
+      for (int i = 0; i < width; i++) {
+        values.set(index * width + i, reduced[i]);
+      }
+      writeSequence = sequence + 1;
+
+      // with the new period open the history now holds one closed period less than its capacity
+      long dropped = sequence + 1 - capacity;
+      if (dropped >= 0) {
+        int droppedIndex = (int) (dropped % capacity);
+        for (int i = 0; i < width; i++) {
+          reduced[i] = values.get(droppedIndex * width + i);
+        }
+        discarded(starts.get(droppedIndex), periodNs, reduced);
+      }
+    }
+  }
+
+  /**
+   * Called when a period falls out of the history. The default implementation does nothing.
+   * <p>
+   * This is called while holding the lock that closes periods, so implementations should be quick.
+   *
+   * @param startNs  the start of the period, or its first event if periods are timestamped by their first event, in ns
+   * @param lengthNs the length of the period, in ns
+   * @param reduced  the {@link Reducer#width()} reduced values of the period, only valid for the duration of the call
+   */
+  protected void discarded(long startNs, long lengthNs, long[] reduced) {
+  }
+
+  private static final class Slot {
+
+    private final Reducer.Accumulator accumulator;
+    private final AtomicLong first = new AtomicLong(Long.MAX_VALUE);
+    private volatile long period = Long.MIN_VALUE;
+
+    Slot(Reducer.Accumulator accumulator) {
+      this.accumulator = accumulator;
+    }
+  }
+
+  private final class HistoryView extends AbstractList<Sample<T>> {
+
+    private final int column;
+    private final long start;
+    private final int closed;
+    private final Sample<T> first;
+    private final Sample<T> second;
+
+    HistoryView(int column, long start, long end, Sample<T> first, Sample<T> second) {
+      this.column = column;
+      this.start = start;
+      this.closed = (int) (end - start);
+      this.first = first;
+      this.second = second;
+    }
+
+    @Override
+    public Sample<T> get(int index) {
+      if (index < 0 || index >= size()) {
+        throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+      } else if (index < closed) {
+        long sequence = start + index;
+        int slot = (int) (sequence % capacity);
+        long timestamp = timestamps.get(slot);
+        long value = values.get(slot * width + column);
+        if (isOverwritten(sequence)) {
+          throw new ConcurrentModificationException("History wrapped while being read");
+        }
+        return new Sample<>(timestamp, reducer.decode(value));
+      } else if (index == closed) {
+        return first;
+      } else {
+        return second;
+      }
+    }
+
+    @Override
+    public int size() {
+      return closed + (first == null ? 0 : 1) + (second == null ? 0 : 1);
+    }
+  }
+}
@@ -0,0 +1,58 @@
+/*
+ * All content copyright Terracotta, Inc., unless otherwise indicated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.statistics.derived.latency;
+
+import org.terracotta.statistics.observer.ChainedEventObserver;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Corrects the latencies recorded by a load generator issuing operations at a fixed rate for coordinated omission.
+ * <p>
+ * When a client stalls for longer than its expected interval between operations, the operations it should have issued
+ * during the stall are never measured. This observer forwards each event to its delegate and, when the latency
+ * exceeds the expected interval, also records the missing operations: one for each elapsed interval, with latencies
+ * decreasing by the interval from {@code latency - interval} down to no less than {@code interval}. The missing
+ * operations are recorded as a single {@link LatencySeriesObserver#events(long, long, long, long) series} rather than
+ * as individual events.
+ */
+public class CoordinatedOmissionCorrection implements ChainedEventObserver {
+
+  private final long expectedInterval;
+  private final LatencySeriesObserver delegate;
+
+  /**
+   * @param expectedInterval the expected interval between operations
+   * @param unit             interval unit
+   * @param delegate         the latency observer to correct
+   */
+  public CoordinatedOmissionCorrection(long expectedInterval, TimeUnit unit, LatencySeriesObserver delegate) {
+    if (expectedInterval <= 0) {
+      throw new IllegalArgumentException("Expected interval must be positive");
+    }
+    this.expectedInterval = unit.toNanos(expectedInterval);
+    this.delegate = delegate;
+  }
+
+  @Override
+  public void event(long time, long latency) {
+    delegate.event(time, latency);
+    long missing = latency / expectedInterval - 1;
+    if (missing > 0) {
+      delegate.events(time, latency - missing * expectedInterval, latency - expectedInterval, missing);
+    }
+  }
+}
@@ -18,7 +18,6 @@ package org.terracotta.statistics.derived.latency;
 import org.terracotta.statistics.Time;
 import org.terracotta.statistics.derived.histogram.BarSplittingBiasedHistogram;
 import org.terracotta.statistics.derived.histogram.Histogram;
-import org.terracotta.statistics.observer.ChainedEventObserver;
 
 import java.time.Duration;
 import java.util.List;
@@ -30,7 +29,7 @@ import static java.lang.Math.nextDown;
 /**
  * @author Mathieu Carbou
  */
-public class DefaultLatencyHistogramStatistic implements LatencyHistogramStatistic, ChainedEventObserver {
+public class DefaultLatencyHistogramStatistic implements LatencyHistogramStatistic, LatencySeriesObserver {
 
   private final BarSplittingBiasedHistogram histogram;
   private final LongSupplier timeSupplier;
@@ -149,6 +148,12 @@ public class DefaultLatencyHistogramStatistic implements LatencyHistogramStatist
     tryExpire(false, () -> time);
   }
 
+  @Override
+  public synchronized void events(long time, long minimumLatency, long maximumLatency, long count) {
+    histogram.event(minimumLatency, maximumLatency, count, time);
+    tryExpire(false, () -> time);
+  }
+
   @Override
   public synchronized <T> T query(Function<LatencyHistogramQuery, T> fn) {
     tryExpire(true, timeSupplier);
@@ -15,8 +15,6 @@
  */
 package org.terracotta.statistics.derived.latency;
 
-import org.terracotta.statistics.observer.ChainedEventObserver;
-
 import java.util.concurrent.atomic.LongAccumulator;
 import java.util.concurrent.atomic.LongAdder;
 
@@ -28,7 +26,7 @@ import java.util.concurrent.atomic.LongAdder;
  *
  * @author Mathieu Carbou
  */
-public class LatencyAccumulator implements LatencyStatistic, ChainedEventObserver {
+public class LatencyAccumulator implements LatencyStatistic, LatencySeriesObserver {
 
   private static final long DEFAULT_MIN = Long.MAX_VALUE;
   private static final long DEFAULT_MAX = Long.MIN_VALUE;
@@ -51,6 +49,33 @@ public class LatencyAccumulator implements LatencyStatistic, ChainedEventObserve
     maximum.accumulate(latency);
   }
 
+  /**
+   * Accumulates {@code count} latencies evenly spaced from {@code minimum} to {@code maximum} inclusive.
+   *
+   * @param minimum the lowest latency
+   * @param maximum the highest latency
+   * @param count   the number of latencies
+   */
+  public void accumulate(long minimum, long maximum, long count) {
+    if (count > 0) {
+      this.count.add(count);
+      total.add(seriesTotal(minimum, maximum, count));
+      this.minimum.accumulate(minimum);
+      this.maximum.accumulate(maximum);
+    }
+  }
+
+  /**
+   * The sum of an arithmetic series, saturated at the bounds of a {@code long}.
+   */
+  private static long seriesTotal(long minimum, long maximum, long count) {
+    try {
+      return Math.addExact(Math.multiplyExact(minimum, count), Math.multiplyExact(Math.subtractExact(maximum, minimum), count) / 2);
+    } catch (ArithmeticException e) {
+      return (minimum / 2 + maximum / 2) < 0 ? Long.MIN_VALUE : Long.MAX_VALUE;
+    }
+  }
+
   public void accumulate(LatencyAccumulator accumulator) {
     count.add(accumulator.count());
     total.add(accumulator.total());
@@ -58,6 +83,19 @@ public class LatencyAccumulator implements LatencyStatistic, ChainedEventObserve
     maximum.accumulate(accumulator.maximum());
   }
 
+  /**
+   * Resets this accumulator to its empty state.
+   * <p>
+   * This is not atomic with respect to concurrent accumulations: values accumulated concurrently with a reset may be
+   * partially retained.
+   */
+  public void reset() {
+    count.reset();
+    total.reset();
+    minimum.reset();
+    maximum.reset();
+  }
+
   public long count() {
     return count.sum();
   }
@@ -75,6 +113,11 @@ public class LatencyAccumulator implements LatencyStatistic, ChainedEventObserve
     accumulate(latency);
   }
 
+  @Override
+  public void events(long time, long minimumLatency, long maximumLatency, long count) {
+    accumulate(minimumLatency, maximumLatency, count);
+  }
+
   @Override
   public Long maximum() {
     return isEmpty() ? null : maximum.get();
@@ -90,6 +133,20 @@ public class LatencyAccumulator implements LatencyStatistic, ChainedEventObserve
     return ((double) total.sum()) / count.sum();
   }
 
+  /**
+   * @return the raw minimum, {@code Long.MAX_VALUE} if empty
+   */
+  long rawMinimum() {
+    return minimum.get();
+  }
+
+  /**
+   * @return the raw maximum, {@code Long.MIN_VALUE} if empty
+   */
+  long rawMaximum() {
+    return maximum.get();
+  }
+
   @Override
   public String toString() {
     return "LatencyAccumulator{" +
@@ -109,4 +166,16 @@ public class LatencyAccumulator implements LatencyStatistic, ChainedEventObserve
     return new LatencyAccumulator();
   }
 
+  /**
+   * @return an accumulator holding the given summary of some latencies
+   */
+  static LatencyAccumulator summary(long minimum, long maximum, long count, long total) {
+    LatencyAccumulator accumulator = new LatencyAccumulator();
+    accumulator.count.add(count);
+    accumulator.total.add(total);
+    accumulator.minimum.accumulate(minimum);
+    accumulator.maximum.accumulate(maximum);
+    return accumulator;
+  }
+
 }
@@ -0,0 +1,117 @@
+/*
+ * All content copyright Terracotta, Inc., unless otherwise indicated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.statistics.derived.latency;
+
+import org.terracotta.statistics.StatisticType;
+import org.terracotta.statistics.ValueStatistic;
+import org.terracotta.statistics.observer.ChainedEventObserver;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.terracotta.statistics.Time.time;
+
+/**
+ * An exponentially weighted moving average of latency.
+ * <p>
+ * Latencies are summed in striped {@link LongAdder}s. At fixed tick boundaries, lazily, the first reader to observe
+ * that one or more ticks have elapsed decays the weighted count and total and folds in the new latencies. The average
+ * is weighted by event count, so a busy tick moves the average more than a quiet one, and an idle period leaves the
+ * average unchanged.
+ */
+public class LatencyExponentialMovingAverage implements ChainedEventObserver, ValueStatistic<Double> {
+
+  private static final int TICKS_PER_WINDOW = 12;
+
+  private final LongAdder count = new LongAdder();
+  private final LongAdder total = new LongAdder();
+  private final AtomicLong lastTick;
+  private final long tickInterval;
+  private final double window;
+
+  private volatile double weightedCount;
+  private volatile double weightedTotal;
+  private volatile double average = Double.NaN;
+
+  /**
+   * Creates an average with the given time constant, folded twelve times per time constant.
+   *
+   * @param time averaging time constant
+   * @param unit time constant unit
+   */
+  public LatencyExponentialMovingAverage(long time, TimeUnit unit) {
+    this(time, unit, Math.max(1, unit.toNanos(time) / TICKS_PER_WINDOW), TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Creates an average with the given time constant and tick interval.
+   *
+   * @param time averaging time constant
+   * @param unit time constant unit
+   * @param tick interval at which new latencies are folded into the average
+   * @param tickUnit tick interval unit
+   */
+  public LatencyExponentialMovingAverage(long time, TimeUnit unit, long tick, TimeUnit tickUnit) {
+    this.window = unit.toNanos(time);
+    this.tickInterval = tickUnit.toNanos(tick);
+    if (window <= 0 || tickInterval <= 0) {
+      throw new IllegalArgumentException("Time constant and tick interval must be positive");
+    }
+    this.lastTick = new AtomicLong(time());
+  }
+
+  @Override
+  public void event(long time, long latency) {
+    count.increment();
+    total.add(latency);
+  }
+
+  @Override
+  public Double value() {
+    return average();
+  }
+
+  @Override
+  public StatisticType type() {
+    return StatisticType.GAUGE;
+  }
+
+  /**
+   * @return The average in ns or NaN if no value
+   */
+  public double average() {
+    tickIfNecessary(time());
+    return average;
+  }
+
+  private void tickIfNecessary(long now) {
+    long last = lastTick.get();
+    long ticks = (now - last) / tickInterval;
+    if (ticks > 0 && lastTick.compareAndSet(last, last + ticks * tickInterval)) {
+      long span = ticks * tickInterval;
+      double decay = Math.exp(-span / window);
+      // new latencies are taken as spread evenly over the elapsed span rather than all arriving at its end
+      double weight = (1.0 - decay) * window / span;
+      double c = weightedCount * decay + count.sumThenReset() * weight;
+      double t = weightedTotal * decay + total.sumThenReset() * weight;
+      weightedCount = c;
+      weightedTotal = t;
+      // once the weights underflow after a very long idle period there is nothing left to average
+      average = c == 0.0 ? Double.NaN : t / c;
+    }
+  }
+}
@@ -0,0 +1,70 @@
+/*
+ * All content copyright Terracotta, Inc., unless otherwise indicated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.statistics.derived.latency;
+
+import org.terracotta.statistics.SampledStatistic;
+import org.terracotta.statistics.derived.history.Reducers;
+import org.terracotta.statistics.derived.history.WindowedHistory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * A history of latency percentiles computed per period, e.g. a timeline of the 99th percentile of each 10 second
+ * window.
+ * <p>
+ * Each period's latencies are recorded in a small lock-free histogram which is reduced to the configured percentiles
+ * when the period closes. The percentile statistics are {@link SampledStatistic}s and so can be registered directly
+ * in a {@link org.terracotta.statistics.registry.StatisticRegistry} without a sampler. This statistic is the first
+ * configured percentile.
+ */
+public class LatencyPercentileHistory extends WindowedHistory<Long> {
+
+  private final double[] percentiles;
+
+  /**
+   * @param historySize    The number of periods to keep
+   * @param windowSize     The length of each period
+   * @param windowSizeUnit Period length unit
+   * @param timeSupplier   The supplier of sample timestamps, in ms
+   * @param percentiles    The percentages (0.0-1.0) to compute for each period
+   */
+  public LatencyPercentileHistory(int historySize, long windowSize, TimeUnit windowSizeUnit, LongSupplier timeSupplier, double... percentiles) {
+    super(Reducers.percentiles(percentiles), historySize, windowSize, windowSizeUnit, timeSupplier);
+    if (percentiles.length == 0) {
+      throw new IllegalArgumentException("At least one percentile is required");
+    }
+    this.percentiles = percentiles.clone();
+  }
+
+  /**
+   * @param percent a configured percentage (0.0-1.0)
+   * @return the history of the given percentile
+   * @throws IllegalArgumentException if the percentile was not configured
+   */
+  public SampledStatistic<Long> percentileStatistic(double percent) {
+    for (int i = 0; i < percentiles.length; i++) {
+      if (percentiles[i] == percent) {
+        return column(i);
+      }
+    }
+    throw new IllegalArgumentException("Percentile " + percent + " is not tracked");
+  }
+
+  public double[] getPercentiles() {
+    return percentiles.clone();
+  }
+}
@@ -32,6 +32,12 @@ public class LatencyPeriodAccumulator implements LatencyStatistic, ChainedEventO
     accumulator = LatencyAccumulator.accumulator(latencies);
   }
 
+  LatencyPeriodAccumulator(long start, long length, LatencyAccumulator accumulator) {
+    this.start = start;
+    this.end = start + length;
+    this.accumulator = accumulator;
+  }
+
   public boolean isBefore(long time) {
     return end <= time;
   }
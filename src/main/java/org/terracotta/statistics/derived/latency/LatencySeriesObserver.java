@@ -0,0 +1,36 @@
+/*
+ * All content copyright Terracotta, Inc., unless otherwise indicated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.statistics.derived.latency;
+
+import org.terracotta.statistics.observer.ChainedEventObserver;
+
+/**
+ * A latency observer that can record a series of evenly spaced latencies in a single operation.
+ * @see CoordinatedOmissionCorrection
+ */
+public interface LatencySeriesObserver extends ChainedEventObserver {
+
+  /**
+   * Called to indicate that {@code count} events happened with latencies evenly spaced from {@code minimumLatency} to
+   * {@code maximumLatency} inclusive.
+   *
+   * @param time           the clock at event completion in ns
+   * @param minimumLatency the lowest event latency in ns
+   * @param maximumLatency the highest event latency in ns
+   * @param count          the number of events
+   */
+  void events(long time, long minimumLatency, long maximumLatency, long count);
+}
@@ -15,138 +15,100 @@
  */
 package org.terracotta.statistics.derived.latency;
 
-import org.terracotta.statistics.observer.ChainedEventObserver;
+import org.terracotta.statistics.derived.SlotRing;
 
-import java.util.Iterator;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicReference;
 
 import static org.terracotta.statistics.Time.time;
 
 /**
+ * A simple moving average of latencies maintained over a sliding time window.
+ * <p>
+ * The window is divided into a fixed ring of partitions indexed by time slot. Partitions are allocated once and are
+ * reset in place when their slot is reused, so recording an event never allocates.
+ *
  * @author cdennis
  * @author Mathieu Carbou
  */
-public class LatencySimpleMovingAverage implements ChainedEventObserver, LatencyStatistic {
+public class LatencySimpleMovingAverage implements LatencySeriesObserver, LatencyStatistic {
 
   private static final int PARTITION_COUNT = 10;
 
-  private final Queue<LatencyPeriodAccumulator> archive = new ConcurrentLinkedQueue<>();
-  private final AtomicReference<LatencyPeriodAccumulator> activePartition;
-
-  private final long windowSize;
-  private final long partitionSize;
+  private final SlotRing<Partition> partitions;
 
   public LatencySimpleMovingAverage(long time, TimeUnit unit) {
     this(time, unit, PARTITION_COUNT);
   }
 
   public LatencySimpleMovingAverage(long time, TimeUnit unit, int partitionCount) {
-    this.windowSize = unit.toNanos(time);
-    this.partitionSize = windowSize / partitionCount;
-    this.activePartition = new AtomicReference<>(new LatencyPeriodAccumulator(Long.MIN_VALUE, partitionSize));
+    this.partitions = new SlotRing<>(unit.toNanos(time), partitionCount, Partition::new);
   }
 
   @Override
   public final double average() {
-    long startTime = time() - windowSize;
-
-    LatencyPeriodAccumulator current = activePartition.get();
-    if (current.isBefore(startTime)) {
-      return Double.NaN;
-    } else {
-      long total = current.accumulator().total();
-      long count = current.accumulator().count();
-
-      for (Iterator<LatencyPeriodAccumulator> it = archive.iterator(); it.hasNext(); ) {
-        LatencyPeriodAccumulator partition = it.next();
-        if (partition == current) {
-          break;
-        } else if (partition.isBefore(startTime)) {
-          it.remove();
-        } else {
-          total += partition.accumulator().total();
-          count += partition.accumulator().count();
-        }
-      }
-
-      return ((double) total) / count;
-    }
+    return snapshot().average();
   }
 
   @Override
   public final Long maximum() {
-    long startTime = time() - windowSize;
-
-    LatencyPeriodAccumulator current = activePartition.get();
-    if (current.isBefore(startTime)) {
-      return null;
-    } else {
-      long maximum = current.maximum();
-      for (Iterator<LatencyPeriodAccumulator> it = archive.iterator(); it.hasNext(); ) {
-        LatencyPeriodAccumulator partition = it.next();
-        if (partition == current) {
-          break;
-        } else if (partition.isBefore(startTime)) {
-          it.remove();
-        } else {
-          maximum = Math.max(maximum, partition.maximum());
-        }
-      }
-
-      return maximum;
-    }
+    return snapshot().maximum();
   }
 
   @Override
   public final Long minimum() {
-    long startTime = time() - windowSize;
-
-    LatencyPeriodAccumulator current = activePartition.get();
-    if (current.isBefore(startTime)) {
-      return null;
-    } else {
-      long minimum = current.minimum();
-      for (Iterator<LatencyPeriodAccumulator> it = archive.iterator(); it.hasNext(); ) {
-        LatencyPeriodAccumulator partition = it.next();
-        if (partition == current) {
-          break;
-        } else if (partition.isBefore(startTime)) {
-          it.remove();
-        } else {
-          minimum = Math.min(minimum, partition.minimum());
+    return snapshot().minimum();
+  }
+
+  /**
+   * Returns the count, average, minimum and maximum over the current window, computed in a single pass.
+   *
+   * @return a snapshot of the current window
+   */
+  public LatencySnapshot snapshot() {
+    long now = time();
+    long count = 0;
+    long total = 0;
+    long minimum = Long.MAX_VALUE;
+    long maximum = Long.MIN_VALUE;
+    for (int i = 0; i < partitions.length(); i++) {
+      Partition partition = partitions.get(i);
+      if (partitions.inWindow(partition, now)) {
+        LatencyAccumulator accumulator = partition.accumulator;
+        long partitionCount = accumulator.count();
+        if (partitionCount > 0) {
+          count += partitionCount;
+          total += accumulator.total();
+          minimum = Math.min(minimum, accumulator.rawMinimum());
+          maximum = Math.max(maximum, accumulator.rawMaximum());
         }
       }
-
-      return minimum;
     }
+    return LatencySnapshot.snapshot(count, total, minimum, maximum);
   }
 
   @Override
   public void event(long timeNs, long latencyNs) {
-    while (true) {
-      LatencyPeriodAccumulator partition = activePartition.get();
-      if (partition.tryAccumulate(timeNs, latencyNs)) {
-        return;
-      } else {
-        if (activePartition.compareAndSet(partition, new LatencyPeriodAccumulator(timeNs, partitionSize, latencyNs))) {
-          archive(partition);
-          return;
-        }
-      }
+    Partition partition = partitions.claim(timeNs);
+    if (partition != null) {
+      partition.accumulator.accumulate(latencyNs);
     }
   }
 
-  private void archive(LatencyPeriodAccumulator partition) {
-    archive.add(partition);
-    long startTime = partition.end() - windowSize;
-    for (LatencyPeriodAccumulator earliest = archive.peek(); earliest != null && earliest.isBefore(startTime); earliest = archive.peek()) {
-      if (archive.remove(earliest)) {
-        break;
-      }
+  @Override
+  public void events(long timeNs, long minimumLatencyNs, long maximumLatencyNs, long count) {
+    Partition partition = partitions.claim(timeNs);
+    if (partition != null) {
+      partition.accumulator.accumulate(minimumLatencyNs, maximumLatencyNs, count);
     }
   }
 
+  private static final class Partition extends SlotRing.Partition {
+
+    private final LatencyAccumulator accumulator = LatencyAccumulator.empty();
+
+    @Override
+    protected void reset() {
+      accumulator.reset();
+    }
+  }
 }
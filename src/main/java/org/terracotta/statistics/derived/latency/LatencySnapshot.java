@@ -0,0 +1,82 @@
+/*
+ * All content copyright Terracotta, Inc., unless otherwise indicated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.statistics.derived.latency;
+
+/**
+ * An immutable, consistent view of the count, total, minimum and maximum of a set of latencies.
+ */
+public final class LatencySnapshot implements LatencyStatistic {
+
+  private static final LatencySnapshot EMPTY = new LatencySnapshot(0, 0, Long.MAX_VALUE, Long.MIN_VALUE);
+
+  private final long count;
+  private final long total;
+  private final long minimum;
+  private final long maximum;
+
+  private LatencySnapshot(long count, long total, long minimum, long maximum) {
+    this.count = count;
+    this.total = total;
+    this.minimum = minimum;
+    this.maximum = maximum;
+  }
+
+  public long count() {
+    return count;
+  }
+
+  public long total() {
+    return total;
+  }
+
+  public boolean isEmpty() {
+    return count == 0;
+  }
+
+  @Override
+  public Long minimum() {
+    return isEmpty() ? null : minimum;
+  }
+
+  @Override
+  public Long maximum() {
+    return isEmpty() ? null : maximum;
+  }
+
+  @Override
+  public double average() {
+    return ((double) total) / count;
+  }
+
+  @Override
+  public String toString() {
+    return "LatencySnapshot{" +
+        "count=" + count +
+        ", total=" + total +
+        ", minimum=" + minimum() +
+        ", maximum=" + maximum() +
+        ", average=" + average() +
+        '}';
+  }
+
+  static LatencySnapshot snapshot(long count, long total, long minimum, long maximum) {
+    return count == 0 ? EMPTY : new LatencySnapshot(count, total, minimum, maximum);
+  }
+
+  public static LatencySnapshot empty() {
+    return EMPTY;
+  }
+}
@@ -0,0 +1,253 @@
+/*
+ * All content copyright Terracotta, Inc., unless otherwise indicated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.statistics.derived.latency;
+
+import org.terracotta.statistics.ValueStatistic;
+import org.terracotta.statistics.ValueStatistics;
+import org.terracotta.statistics.derived.SlotRing;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.terracotta.statistics.Time.time;
+
+/**
+ * Counts the latencies exceeding a fixed set of thresholds over a sliding time window.
+ * <p>
+ * Each event is compared against the ascending thresholds until one is not exceeded, and is then counted once against
+ * the highest threshold it exceeds. The exceedances of a threshold are the sum of its count and those of every higher
+ * threshold. Counts are kept in striped adders in a {@link SlotRing}, so recording an event neither locks nor
+ * allocates.
+ * <p>
+ * This is intended for latency objectives such as "fraction of gets slower than 2ms over the last 5 minutes", see
+ * {@link #ratioStatistic(long, TimeUnit)} and {@link #burnRateStatistic(long, TimeUnit, double)}.
+ */
+public class LatencyThresholdCounter implements LatencySeriesObserver {
+
+  private static final int PARTITION_COUNT = 10;
+
+  private final long[] thresholds;
+  private final SlotRing<Partition> partitions;
+
+  /**
+   * @param time          the window length
+   * @param unit          window length unit
+   * @param thresholdUnit threshold unit
+   * @param thresholds    the latency thresholds
+   */
+  public LatencyThresholdCounter(long time, TimeUnit unit, TimeUnit thresholdUnit, long... thresholds) {
+    this(time, unit, PARTITION_COUNT, thresholdUnit, thresholds);
+  }
+
+  /**
+   * @param time           the window length
+   * @param unit           window length unit
+   * @param partitionCount the number of partitions the window is divided in to
+   * @param thresholdUnit  threshold unit
+   * @param thresholds     the latency thresholds
+   */
+  public LatencyThresholdCounter(long time, TimeUnit unit, int partitionCount, TimeUnit thresholdUnit, long... thresholds) {
+    if (thresholds.length == 0) {
+      throw new IllegalArgumentException("At least one threshold is required");
+    }
+    this.thresholds = Arrays.stream(thresholds).map(thresholdUnit::toNanos).sorted().distinct().toArray();
+    int thresholdCount = this.thresholds.length;
+    this.partitions = new SlotRing<>(unit.toNanos(time), partitionCount, () -> new Partition(thresholdCount));
+  }
+
+  @Override
+  public void event(long timeNs, long latencyNs) {
+    int exceeded = 0;
+    while (exceeded < thresholds.length && latencyNs > thresholds[exceeded]) {
+      exceeded++;
+    }
+    Partition partition = partitions.claim(timeNs);
+    if (partition != null) {
+      partition.accumulate(exceeded);
+    }
+  }
+
+  @Override
+  public void events(long timeNs, long minimumLatencyNs, long maximumLatencyNs, long count) {
+    if (count > 0) {
+      Partition partition = partitions.claim(timeNs);
+      if (partition != null) {
+        partition.accumulate(minimumLatencyNs, maximumLatencyNs, count, thresholds);
+      }
+    }
+  }
+
+  /**
+   * @return the number of events in the current window
+   */
+  public long count() {
+    return counts()[0];
+  }
+
+  /**
+   * @param threshold a tracked threshold
+   * @param unit      threshold unit
+   * @return the number of events in the current window slower than the threshold
+   */
+  public long exceedances(long threshold, TimeUnit unit) {
+    return exceedances(indexOf(threshold, unit));
+  }
+
+  /**
+   * Returns the fraction of the events in the current window that are slower than the given threshold, or
+   * {@code NaN} if there are none.
+   *
+   * @param threshold a tracked threshold
+   * @param unit      threshold unit
+   * @return the exceedance ratio
+   */
+  public double ratio(long threshold, TimeUnit unit) {
+    return ratio(indexOf(threshold, unit));
+  }
+
+  /**
+   * @param threshold a tracked threshold
+   * @param unit      threshold unit
+   * @return a statistic of the exceedance ratio
+   * @see #ratio(long, TimeUnit)
+   */
+  public ValueStatistic<Double> ratioStatistic(long threshold, TimeUnit unit) {
+    int index = indexOf(threshold, unit);
+    return ValueStatistics.ratio(() -> ratio(index));
+  }
+
+  /**
+   * Returns a statistic of the rate at which the given latency objective's error budget is being consumed.
+   * <p>
+   * A burn rate of one consumes exactly the budget over the objective's period, higher values exhaust it early.
+   *
+   * @param threshold a tracked threshold
+   * @param unit      threshold unit
+   * @param objective the fraction of events that should not exceed the threshold (0.0-1.0, exclusive)
+   * @return a burn rate statistic
+   */
+  public ValueStatistic<Double> burnRateStatistic(long threshold, TimeUnit unit, double objective) {
+    if (objective < 0.0 || objective >= 1.0) {
+      throw new IllegalArgumentException("Invalid objective: " + objective);
+    }
+    int index = indexOf(threshold, unit);
+    double budget = 1.0 - objective;
+    return ValueStatistics.gauge(() -> ratio(index) / budget);
+  }
+
+  private double ratio(int index) {
+    long[] counts = counts();
+    if (counts[0] == 0) {
+      return Double.NaN;
+    } else {
+      return ((double) exceedances(counts, index)) / counts[0];
+    }
+  }
+
+  private long exceedances(int index) {
+    return exceedances(counts(), index);
+  }
+
+  private static long exceedances(long[] counts, int index) {
+    long exceedances = 0;
+    for (int i = index + 1; i < counts.length; i++) {
+      exceedances += counts[i];
+    }
+    return exceedances;
+  }
+
+  /**
+   * Returns the total count followed by the count of events exceeding each threshold but not the next.
+   */
+  private long[] counts() {
+    long now = time();
+    long[] counts = new long[thresholds.length + 1];
+    for (int i = 0; i < partitions.length(); i++) {
+      Partition partition = partitions.get(i);
+      if (partitions.inWindow(partition, now)) {
+        partition.sumTo(counts);
+      }
+    }
+    return counts;
+  }
+
+  private int indexOf(long threshold, TimeUnit unit) {
+    int index = Arrays.binarySearch(thresholds, unit.toNanos(threshold));
+    if (index < 0) {
+      throw new IllegalArgumentException("Threshold " + threshold + " " + unit + " is not tracked");
+    }
+    return index;
+  }
+
+  private static final class Partition extends SlotRing.Partition {
+
+    private final LongAdder total = new LongAdder();
+    private final LongAdder[] exceeded;
+
+    Partition(int thresholds) {
+      this.exceeded = new LongAdder[thresholds];
+      for (int i = 0; i < exceeded.length; i++) {
+        exceeded[i] = new LongAdder();
+      }
+    }
+
+    void accumulate(int thresholds) {
+      total.increment();
+      if (thresholds > 0) {
+        exceeded[thresholds - 1].increment();
+      }
+    }
+
+    void accumulate(long minimum, long maximum, long count, long[] thresholds) {
+      total.add(count);
+      long above = above(thresholds[0], minimum, maximum, count);
+      for (int i = 0; i < exceeded.length && above > 0; i++) {
+        long aboveNext = i + 1 < thresholds.length ? above(thresholds[i + 1], minimum, maximum, count) : 0;
+        exceeded[i].add(above - aboveNext);
+        above = aboveNext;
+      }
+    }
+
+    /**
+     * Returns the number of the evenly spaced latencies from minimum to maximum that exceed the threshold.
+     */
+    private static long above(long threshold, long minimum, long maximum, long count) {
+      if (threshold < minimum) {
+        return count;
+      } else if (threshold >= maximum) {
+        return 0;
+      } else {
+        return count - 1 - (long) ((threshold - minimum) * ((double) (count - 1)) / (maximum - minimum));
+      }
+    }
+
+    @Override
+    protected void reset() {
+      total.reset();
+      for (LongAdder adder : exceeded) {
+        adder.reset();
+      }
+    }
+
+    void sumTo(long[] counts) {
+      counts[0] += total.sum();
+      for (int i = 0; i < exceeded.length; i++) {
+        counts[i + 1] += exceeded[i].sum();
+      }
+    }
+  }
+}
@@ -15,20 +15,13 @@
  */
 package org.terracotta.statistics.derived.latency;
 
-import org.terracotta.statistics.Sample;
-import org.terracotta.statistics.SampledStatistic;
 import org.terracotta.statistics.StatisticType;
-import org.terracotta.statistics.Time;
-import org.terracotta.statistics.observer.ChainedEventObserver;
+import org.terracotta.statistics.derived.history.Reducer;
+import org.terracotta.statistics.derived.history.WindowedHistory;
 
-import java.util.List;
-import java.util.Queue;
-import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 import java.util.function.LongSupplier;
-import java.util.stream.Collectors;
 
 /**
  * Keeps a history of the maximum operation latencies over a specific window.
@@ -38,17 +31,15 @@ import java.util.stream.Collectors;
  * If you set a history to 100 samples and a window of 500ms, you won't have a complete
  * time-frame of 10 seconds. You can have a sample at t0, then another one at t0 + 1 sec depending
  * on when the operations occur.
+ * <p>
+ * Windows are aligned to multiples of the window size, and each sample is timestamped with the
+ * first operation of its window.
  *
  * @author Mathieu Carbou
  */
-public class MaximumLatencyHistory implements ChainedEventObserver, SampledStatistic<Long> {
+public class MaximumLatencyHistory extends WindowedHistory<Long> {
 
-  private final AtomicReference<LatencyPeriodAccumulator> latestAccumulator = new AtomicReference<>();
-  private final Queue<LatencyPeriodAccumulator> archive;
-  private final long windowSizeNs;
   private final Consumer<LatencyPeriodAccumulator> sink;
-  private final LongSupplier timeSupplier;
-  private volatile long drift;
 
   public MaximumLatencyHistory(int historySize, long windowSize, TimeUnit windowSizeUnit, LongSupplier timeSupplier) {
     this(historySize, windowSize, windowSizeUnit, timeSupplier, accumulator -> {});
@@ -61,72 +52,65 @@ public class MaximumLatencyHistory implements ChainedEventObserver, SampledStati
    * @param sink           The sink used to collect the old values that are discarded from the history.
    */
   public MaximumLatencyHistory(int historySize, long windowSize, TimeUnit windowSizeUnit, LongSupplier timeSupplier, Consumer<LatencyPeriodAccumulator> sink) {
-    this.archive = new ArrayBlockingQueue<>(historySize);
-    this.windowSizeNs = TimeUnit.NANOSECONDS.convert(windowSize, windowSizeUnit);
+    super(new LatencyReducer(), historySize, windowSize, windowSizeUnit, timeSupplier, true);
     this.sink = sink;
-    this.timeSupplier = timeSupplier;
-    this.drift = Time.time() - timeSupplier.getAsLong() * 1_000_000;
   }
 
   @Override
-  public void event(long timeNs, long latencyNs) {
-    while (true) {
-      LatencyPeriodAccumulator accumulator = latestAccumulator.get();
-      if (accumulator != null && accumulator.tryAccumulate(timeNs, latencyNs)) {
-        return;
-      }
-      LatencyPeriodAccumulator newAccumulator = new LatencyPeriodAccumulator(timeNs, windowSizeNs, latencyNs);
-      if (latestAccumulator.compareAndSet(accumulator, newAccumulator)) {
-        // The difference between system time and nano time needs to be recomputed
-        // in case the computer went to sleep. In this case, the system time advance but not the nano time.
-        this.drift = Time.time() - timeSupplier.getAsLong() * 1_000_000;
-        // Insertion will in theory be in order because for whole duration of the new window, 
-        // there cannot be another thread that will try to insert at the same time.
-        insert(newAccumulator);
-        return;
-      }
-    }
+  protected void discarded(long startNs, long lengthNs, long[] reduced) {
+    sink.accept(new LatencyPeriodAccumulator(startNs, lengthNs, LatencyAccumulator.summary(reduced[1], reduced[0], reduced[2], reduced[3])));
   }
 
-  @Override
-  public Long value() {
-    LatencyPeriodAccumulator accumulator = latestAccumulator.get();
-    if (accumulator == null || accumulator.end() <= Time.time()) {
-      return null;
+  /**
+   * Reduces each window to its maximum, minimum, count and total latency, so that a discarded window can be handed
+   * to the sink in full. Only the maximum is exposed by the history.
+   */
+  private static final class LatencyReducer implements Reducer<Long> {
+
+    @Override
+    public StatisticType type() {
+      return StatisticType.GAUGE;
     }
-    return accumulator.maximum();
-  }
 
-  @Override
-  public StatisticType type() {
-    return StatisticType.GAUGE;
-  }
+    @Override
+    public int width() {
+      return 4;
+    }
 
-  @Override
-  public List<Sample<Long>> history() {
-    long drift = this.drift;
-    return archive.stream()
-        .map(acumulator -> new Sample<>((acumulator.start() - drift) / 1_000_000, acumulator.maximum()))
-        .collect(Collectors.toList());
-  }
+    @Override
+    public Accumulator accumulator() {
+      return new Accumulator() {
 
-  @Override
-  public List<Sample<Long>> history(long sinceMillis) {
-    long drift = this.drift;
-    long sinceNs = sinceMillis * 1_000_000 + drift;
-    return archive.stream()
-        .filter(acumulator -> acumulator.start() >= sinceNs)
-        .map(acumulator -> new Sample<>((acumulator.start() - drift) / 1_000_000, acumulator.maximum()))
-        .collect(Collectors.toList());
-  }
+        private final LatencyAccumulator accumulator = LatencyAccumulator.empty();
+
+        @Override
+        public void accumulate(long latency) {
+          accumulator.accumulate(latency);
+        }
 
-  private void insert(LatencyPeriodAccumulator newAccumulator) {
-    while (!archive.offer(newAccumulator)) {
-      LatencyPeriodAccumulator removed = archive.poll();
-      if (removed != null) {
-        sink.accept(removed);
-      }
+        @Override
+        public boolean isEmpty() {
+          return accumulator.isEmpty();
+        }
+
+        @Override
+        public void reduce(long length, long[] target, int offset) {
+          target[offset] = accumulator.rawMaximum();
+          target[offset + 1] = accumulator.rawMinimum();
+          target[offset + 2] = accumulator.count();
+          target[offset + 3] = accumulator.total();
+        }
+
+        @Override
+        public void reset() {
+          accumulator.reset();
+        }
+      };
     }
-  }
 
+    @Override
+    public Long decode(long reduced) {
+      return reduced;
+    }
+  }
 }
@@ -0,0 +1,251 @@
+/*
+ * All content copyright Terracotta, Inc., unless otherwise indicated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.statistics.derived.latency;
+
+import org.terracotta.statistics.StatisticType;
+import org.terracotta.statistics.Table;
+import org.terracotta.statistics.Time;
+import org.terracotta.statistics.ValueStatistic;
+import org.terracotta.statistics.observer.ChainedOperationObserver;
+
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Tracks the slowest operations observed over a sliding window, along with an optional caller supplied exemplar such
+ * as a key hash or a trace id.
+ * <p>
+ * The window is divided into two alternating periods each holding a bounded top-K heap in primitive arrays. Once a
+ * period's heap is full, an operation no slower than its fastest entry is rejected with a single volatile read, so
+ * the common path neither locks nor allocates. The exemplar supplier is only invoked, on the operation thread, for
+ * operations that pass this check.
+ * <p>
+ * The statistic value is a {@link Table} with one row per operation, slowest first, covering the current and the
+ * previous period. Rows are labelled {@code "1"} to {@code "K"} and have the columns {@value #LATENCY},
+ * {@value #TIMESTAMP} (ms), {@value #OUTCOME} (the outcome name) and {@value #EXEMPLAR} ({@code null} if no exemplar
+ * supplier is configured).
+ *
+ * @param <T> the operation outcome type
+ */
+public class SlowestOperationsTracker<T extends Enum<T>> implements ChainedOperationObserver<T>, ValueStatistic<Table> {
+
+  public static final String LATENCY = "latency";
+  public static final String TIMESTAMP = "timestamp";
+  public static final String OUTCOME = "outcome";
+  public static final String EXEMPLAR = "exemplar";
+
+  private final Set<T> targets;
+  private final int size;
+  private final long periodNs;
+  private final LongSupplier timeSupplier;
+  private final LongSupplier exemplarSupplier;
+  private final Period[] periods = new Period[2];
+
+  private volatile long drift;
+
+  /**
+   * @param targets      the outcomes to track
+   * @param size         the number of operations to keep
+   * @param window       the window over which the slowest operations are kept
+   * @param unit         window unit
+   * @param timeSupplier the supplier of timestamps, in ms
+   */
+  public SlowestOperationsTracker(Set<T> targets, int size, long window, TimeUnit unit, LongSupplier timeSupplier) {
+    this(targets, size, window, unit, timeSupplier, null);
+  }
+
+  /**
+   * @param targets          the outcomes to track
+   * @param size             the number of operations to keep
+   * @param window           the window over which the slowest operations are kept
+   * @param unit             window unit
+   * @param timeSupplier     the supplier of timestamps, in ms
+   * @param exemplarSupplier the supplier of exemplars, called on the operation thread
+   */
+  public SlowestOperationsTracker(Set<T> targets, int size, long window, TimeUnit unit, LongSupplier timeSupplier, LongSupplier exemplarSupplier) {
+    if (size <= 0) {
+      throw new IllegalArgumentException("Size must be positive");
+    }
+    this.targets = EnumSet.copyOf(targets);
+    this.size = size;
+    this.periodNs = Math.max(1, unit.toNanos(window) / 2);
+    this.timeSupplier = timeSupplier;
+    this.exemplarSupplier = exemplarSupplier;
+    for (int i = 0; i < periods.length; i++) {
+      periods[i] = new Period(size);
+    }
+    this.drift = Time.time() - timeSupplier.getAsLong() * 1_000_000;
+  }
+
+  @Override
+  public void begin(long time) {
+    //no-op
+  }
+
+  @Override
+  public void end(long time, long latency, T result) {
+    if (targets.contains(result)) {
+      long period = Math.floorDiv(time, periodNs);
+      Period p = periods[(int) (period & 1)];
+      if (p.period != period || latency > p.threshold) {
+        long exemplar = exemplarSupplier == null ? 0L : exemplarSupplier.getAsLong();
+        if (p.offer(period, time, latency, result, exemplar)) {
+          // The difference between system time and nano time needs to be recomputed
+          // in case the computer went to sleep. In this case, the system time advance but not the nano time.
+          drift = Time.time() - timeSupplier.getAsLong() * 1_000_000;
+        }
+      }
+    }
+  }
+
+  @Override
+  public StatisticType type() {
+    return StatisticType.TABLE;
+  }
+
+  @Override
+  public Table value() {
+    long current = Math.floorDiv(Time.time(), periodNs);
+    long drift = this.drift;
+
+    int count = 0;
+    long[] latencies = new long[size * 2];
+    long[] timestamps = new long[size * 2];
+    long[] exemplars = new long[size * 2];
+    Object[] outcomes = new Object[size * 2];
+    for (Period p : periods) {
+      count = p.copyTo(current - 1, current, latencies, timestamps, outcomes, exemplars, count);
+    }
+
+    // insertion sort, slowest first: there are at most 2K entries
+    int[] order = new int[count];
+    for (int i = 0; i < count; i++) {
+      int j = i;
+      while (j > 0 && latencies[order[j - 1]] < latencies[i]) {
+        order[j] = order[j - 1];
+        j--;
+      }
+      order[j] = i;
+    }
+
+    Table.Builder builder = Table.newBuilder(LATENCY, TIMESTAMP, OUTCOME, EXEMPLAR);
+    for (int rank = 0; rank < Math.min(size, count); rank++) {
+      int i = order[rank];
+      builder.withRow(Integer.toString(rank + 1), row -> row
+          .setStatistic(LATENCY, StatisticType.GAUGE, latencies[i])
+          .setStatistic(TIMESTAMP, StatisticType.GAUGE, (timestamps[i] - drift) / 1_000_000)
+          .setStatistic(OUTCOME, StatisticType.GAUGE, ((Enum<?>) outcomes[i]).name())
+          .setStatistic(EXEMPLAR, StatisticType.GAUGE, exemplarSupplier == null ? null : exemplars[i]));
+    }
+    return builder.build();
+  }
+
+  public Set<T> getTargets() {
+    return EnumSet.copyOf(targets);
+  }
+
+  private static final class Period {
+
+    private final long[] latencies;
+    private final long[] timestamps;
+    private final long[] exemplars;
+    private final Object[] outcomes;
+    private int count;
+
+    private volatile long period = Long.MIN_VALUE;
+    private volatile long threshold = Long.MIN_VALUE;
+
+    Period(int size) {
+      this.latencies = new long[size];
+      this.timestamps = new long[size];
+      this.exemplars = new long[size];
+      this.outcomes = new Object[size];
+    }
+
+    /**
+     * @return {@code true} if this period was recycled
+     */
+    synchronized boolean offer(long period, long time, long latency, Enum<?> outcome, long exemplar) {
+      boolean recycled = period > this.period;
+      if (recycled) {
+        count = 0;
+        threshold = Long.MIN_VALUE;
+        this.period = period;
+      } else if (period < this.period) {
+        return false;
+      }
+
+      if (count < latencies.length) {
+        // sift up into the min-heap
+        int i = count++;
+        while (i > 0 && latencies[(i - 1) >>> 1] > latency) {
+          move((i - 1) >>> 1, i);
+          i = (i - 1) >>> 1;
+        }
+        set(i, time, latency, outcome, exemplar);
+      } else if (latency > latencies[0]) {
+        // replace the fastest entry and sift down
+        int i = 0;
+        while (true) {
+          int child = 2 * i + 1;
+          if (child >= count) {
+            break;
+          }
+          if (child + 1 < count && latencies[child + 1] < latencies[child]) {
+            child++;
+          }
+          if (latencies[child] >= latency) {
+            break;
+          }
+          move(child, i);
+          i = child;
+        }
+        set(i, time, latency, outcome, exemplar);
+      }
+      if (count == latencies.length) {
+        threshold = latencies[0];
+      }
+      return recycled;
+    }
+
+    synchronized int copyTo(long from, long to, long[] latencies, long[] timestamps, Object[] outcomes, long[] exemplars, int offset) {
+      if (period < from || period > to) {
+        return offset;
+      }
+      System.arraycopy(this.latencies, 0, latencies, offset, count);
+      System.arraycopy(this.timestamps, 0, timestamps, offset, count);
+      System.arraycopy(this.outcomes, 0, outcomes, offset, count);
+      System.arraycopy(this.exemplars, 0, exemplars, offset, count);
+      return offset + count;
+    }
+
+    private void move(int from, int to) {
+      latencies[to] = latencies[from];
+      timestamps[to] = timestamps[from];
+      outcomes[to] = outcomes[from];
+      exemplars[to] = exemplars[from];
+    }
+
+    private void set(int i, long time, long latency, Enum<?> outcome, long exemplar) {
+      latencies[i] = latency;
+      timestamps[i] = time;
+      outcomes[i] = outcome;
+      exemplars[i] = exemplar;
+    }
+  }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.statistics.registry;
+
+/**
+ * The reactive-streams interfaces of {@code java.util.concurrent.Flow}, for use on Java 8.
+ * <p>
+ * These mirror the Java 9 interfaces method for method and carry the same contracts, so a subscriber written against
+ * them adapts to {@code java.util.concurrent.Flow} by delegation.
+ */
+public final class Flow {
+
+  private Flow() {
+  }
+
+  /**
+   * A producer of items received by subscribers.
+   */
+  @FunctionalInterface
+  public interface Publisher<T> {
+
+    /**
+     * Adds the subscriber, which will receive {@link Subscriber#onSubscribe(Subscription)} before any other signal.
+     *
+     * @param subscriber the subscriber
+     */
+    void subscribe(Subscriber<? super T> subscriber);
+  }
+
+  /**
+   * A receiver of items. Signals to a subscriber are never concurrent.
+   */
+  public interface Subscriber<T> {
+
+    void onSubscribe(Subscription subscription);
+
+    void onNext(T item);
+
+    void onError(Throwable throwable);
+
+    void onComplete();
+  }
+
+  /**
+   * The link between a publisher and one of its subscribers.
+   */
+  public interface Subscription {
+
+    /**
+     * Adds {@code n} items to the demand of the subscriber. A non-positive {@code n} fails the subscription.
+     *
+     * @param n the additional demand
+     */
+    void request(long n);
+
+    /**
+     * Stops the delivery of items, possibly after some already in flight.
+     */
+    void cancel();
+  }
+}
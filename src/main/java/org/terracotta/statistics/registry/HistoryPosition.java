@@ -0,0 +1,66 @@
+/*
+ * All content copyright Terracotta, Inc., unless otherwise indicated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.statistics.registry;
+
+import org.terracotta.statistics.Sample;
+import org.terracotta.statistics.SampledStatistic;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The position of a consumer in the history of a {@link SampledStatistic}, so that each poll only returns what the
+ * consumer has not seen yet.
+ * <p>
+ * The latest sample of a history may still be updated: a windowed history publishes its in-progress window as a sample
+ * stamped with the window start, and keeps updating it until the window closes. The position is therefore the
+ * timestamp of the latest sample returned, and that sample is returned again if its value has changed since.
+ */
+final class HistoryPosition {
+
+  private final SampledStatistic<?> statistic;
+  private long since;
+  private Sample<?> latest;
+
+  HistoryPosition(SampledStatistic<?> statistic) {
+    this.statistic = statistic;
+  }
+
+  SampledStatistic<?> statistic() {
+    return statistic;
+  }
+
+  /**
+   * Extracts the samples not returned yet, and moves past them.
+   *
+   * @return the new samples, or an empty statistic if there are none
+   */
+  <T extends Serializable> Statistic<T> extract(SampledStatistic<T> statistic, long now) {
+    Statistic<T> extracted = Statistic.extract(statistic, since, now);
+    List<Sample<T>> samples = extracted.getSamples();
+    if (!samples.isEmpty() && samples.get(0).equals(latest)) {
+      // the latest sample returned has not changed
+      samples = new ArrayList<>(samples.subList(1, samples.size()));
+      extracted = new Statistic<>(extracted.getType(), samples);
+    }
+    if (!samples.isEmpty()) {
+      latest = samples.get(samples.size() - 1);
+      since = latest.getTimestamp();
+    }
+    return extracted;
+  }
+}
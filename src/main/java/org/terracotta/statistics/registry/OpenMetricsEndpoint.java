@@ -0,0 +1,96 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.statistics.registry;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Objects;
+
+/**
+ * An embedded HTTP endpoint serving the exposition of an {@link OpenMetricsExporter}.
+ * <p>
+ * The endpoint answers {@code GET} and {@code HEAD} requests on its path from a single dispatcher thread, so scrapes
+ * are serialized and the exporter's buffer is never contended.
+ */
+public class OpenMetricsEndpoint implements Closeable {
+
+  private final OpenMetricsExporter exporter;
+  private final HttpServer server;
+
+  /**
+   * Starts serving on {@code /metrics}.
+   *
+   * @param exporter the exporter to serve
+   * @param address  the address to bind, with port 0 for an ephemeral port
+   * @throws IOException if the server cannot be bound
+   */
+  public OpenMetricsEndpoint(OpenMetricsExporter exporter, InetSocketAddress address) throws IOException {
+    this(exporter, address, "/metrics");
+  }
+
+  /**
+   * Starts serving on the given path.
+   *
+   * @param exporter the exporter to serve
+   * @param address  the address to bind, with port 0 for an ephemeral port
+   * @param path     the path to serve
+   * @throws IOException if the server cannot be bound
+   */
+  public OpenMetricsEndpoint(OpenMetricsExporter exporter, InetSocketAddress address, String path) throws IOException {
+    this.exporter = Objects.requireNonNull(exporter);
+    this.server = HttpServer.create(address, 0);
+    server.createContext(path, this::handle);
+    server.start();
+  }
+
+  /**
+   * @return the bound address
+   */
+  public InetSocketAddress getAddress() {
+    return server.getAddress();
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    try {
+      String method = exchange.getRequestMethod();
+      if ("GET".equals(method)) {
+        exchange.getResponseHeaders().set("Content-Type", OpenMetricsExporter.CONTENT_TYPE);
+        exchange.sendResponseHeaders(200, 0);
+        try (OutputStream out = exchange.getResponseBody()) {
+          exporter.export(out);
+        }
+      } else if ("HEAD".equals(method)) {
+        exchange.getResponseHeaders().set("Content-Type", OpenMetricsExporter.CONTENT_TYPE);
+        exchange.sendResponseHeaders(200, -1);
+      } else {
+        exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+        exchange.sendResponseHeaders(405, -1);
+      }
+    } finally {
+      exchange.close();
+    }
+  }
+}
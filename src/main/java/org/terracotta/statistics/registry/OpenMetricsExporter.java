@@ -0,0 +1,441 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.statistics.registry;
+
+import org.terracotta.statistics.DoubleValueStatistic;
+import org.terracotta.statistics.LongValueStatistic;
+import org.terracotta.statistics.StatisticType;
+import org.terracotta.statistics.Table;
+import org.terracotta.statistics.TableSnapshots;
+import org.terracotta.statistics.TableValueStatistic;
+import org.terracotta.statistics.ValueStatistic;
+import org.terracotta.statistics.derived.histogram.Histogram;
+import org.terracotta.statistics.derived.latency.LatencyHistogramQuery;
+import org.terracotta.statistics.derived.latency.LatencyHistogramStatistic;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Exposes the contents of a {@link StatisticRegistry}, and any number of latency histograms, in the OpenMetrics text
+ * format.
+ * <p>
+ * Each export streams the current values straight into a buffer that is reused across exports, without extracting
+ * {@link Statistic} or sample instances. The encoded metric family headers, names and labels of each statistic are
+ * cached and only rebuilt for statistics that are new since the previous export. Numbers are formatted in place, except
+ * for non-integral doubles which are formatted by {@link Double#toString(double)}. Each {@link TableValueStatistic} is
+ * read by refreshing its snapshot from the previous export in place.
+ * <p>
+ * Statistic names are sanitized to OpenMetrics names. Counters are exposed as {@code counter} families, tables as one
+ * family per column with a {@code row} label, latency histograms as {@code gaugehistogram} families over their sliding
+ * window, and everything else as {@code gauge} families. Statistics whose value is not a number are skipped. When a
+ * name sanitizes to the name of a family that is already exposed, a numeric suffix is appended to keep the family names
+ * unique.
+ */
+public class OpenMetricsExporter {
+
+  /**
+   * The content type of the exposition.
+   */
+  public static final String CONTENT_TYPE = "application/openmetrics-text; version=1.0.0; charset=utf-8";
+
+  private static final byte[] EOF = ascii("# EOF\n");
+  private static final byte[] NAN = ascii("NaN");
+  private static final byte[] POSITIVE_INFINITY = ascii("+Inf");
+  private static final byte[] NEGATIVE_INFINITY = ascii("-Inf");
+  private static final byte[] LABEL_END = ascii("\"} ");
+
+  private final StatisticRegistry registry;
+  private final String labels;
+  private final Map<String, LatencyHistogramStatistic> histograms = new ConcurrentSkipListMap<>();
+
+  // guarded by this
+  private final Map<String, Family> families = new HashMap<>();
+  private final Set<String> familyNames = new HashSet<>();
+  private final TableSnapshots snapshots = new TableSnapshots();
+  private final byte[] digits = new byte[20];
+  private byte[] buffer = new byte[8192];
+  private int position;
+  private long generation;
+
+  /**
+   * @param registry the registry to expose
+   */
+  public OpenMetricsExporter(StatisticRegistry registry) {
+    this(registry, Collections.emptyMap());
+  }
+
+  /**
+   * @param registry the registry to expose
+   * @param labels   the labels to add to every exposed metric
+   */
+  public OpenMetricsExporter(StatisticRegistry registry, Map<String, String> labels) {
+    this.registry = Objects.requireNonNull(registry);
+    StringBuilder encoded = new StringBuilder();
+    for (Map.Entry<String, String> label : new TreeMap<>(labels).entrySet()) {
+      encoded.append(encoded.length() == 0 ? "" : ",").append(sanitize(label.getKey(), false)).append("=\"");
+      escape(label.getValue(), encoded);
+      encoded.append('"');
+    }
+    this.labels = encoded.toString();
+  }
+
+  /**
+   * Exposes a latency histogram under the given name.
+   *
+   * @throws IllegalArgumentException if a histogram is already exposed under that name
+   */
+  public void registerHistogram(String fullStatName, LatencyHistogramStatistic histogram) {
+    if (histograms.putIfAbsent(fullStatName, Objects.requireNonNull(histogram)) != null) {
+      throw new IllegalArgumentException("Found duplicate histogram " + fullStatName);
+    }
+  }
+
+  /**
+   * @return {@code true} if a histogram was exposed under that name
+   */
+  public boolean unregisterHistogram(String fullStatName) {
+    return histograms.remove(fullStatName) != null;
+  }
+
+  /**
+   * Writes the current exposition to the stream, in a single write.
+   *
+   * @param out the stream to write to
+   * @throws IOException if the stream fails
+   */
+  public synchronized void export(OutputStream out) throws IOException {
+    position = 0;
+    generation++;
+    registry.visitStatistics("", this::writeStatistic);
+    for (Map.Entry<String, LatencyHistogramStatistic> e : histograms.entrySet()) {
+      writeHistogram(e.getKey(), e.getValue());
+    }
+    write(EOF);
+    // forget the statistics that have been unregistered
+    long current = generation;
+    for (Iterator<Family> it = families.values().iterator(); it.hasNext(); ) {
+      Family family = it.next();
+      if (family.generation != current) {
+        it.remove();
+        familyNames.remove(family.name);
+      }
+    }
+    snapshots.retainTaken();
+    out.write(buffer, 0, position);
+  }
+
+  private void writeStatistic(String name, ValueStatistic<? extends Serializable> statistic) {
+    Serializable value = isPrimitive(statistic) ? null : value(statistic);
+    if (value instanceof Table) {
+      writeTable(name, (Table) value);
+    } else if (value instanceof Number || isPrimitive(statistic)) {
+      Family family = family(name, name, Kind.PLAIN, statistic.type());
+      write(family.header);
+      write(family.sample);
+      writeValue(statistic, value);
+      writeByte('\n');
+    }
+  }
+
+  /**
+   * Reads a statistic, refreshing the previous export's snapshot of a table statistic in place.
+   */
+  private Serializable value(ValueStatistic<? extends Serializable> statistic) {
+    if (statistic instanceof TableValueStatistic) {
+      return snapshots.snapshot((TableValueStatistic) statistic);
+    } else {
+      return statistic.value();
+    }
+  }
+
+  private void writeTable(String name, Table table) {
+    String[] columns = table.getStatisticNames();
+    Map<String, ValueStatistic<? extends Serializable>[]> rows = table.getStatistics();
+    for (int column = 0; column < columns.length; column++) {
+      Family family = null;
+      for (Map.Entry<String, ValueStatistic<? extends Serializable>[]> row : rows.entrySet()) {
+        ValueStatistic<? extends Serializable> cell = row.getValue()[column];
+        Serializable value = cell == null || isPrimitive(cell) ? null : cell.value();
+        if (value instanceof Number || isPrimitive(cell)) {
+          if (family == null) {
+            family = family(name + '\u0000' + columns[column], name + '_' + columns[column], Kind.ROW, cell.type());
+            write(family.header);
+          }
+          write(family.sample);
+          writeEscaped(row.getKey());
+          write(LABEL_END);
+          writeValue(cell, value);
+          writeByte('\n');
+        }
+      }
+    }
+  }
+
+  private void writeHistogram(String name, LatencyHistogramStatistic histogram) {
+    Family family = family(name, name, Kind.HISTOGRAM, null);
+    write(family.header);
+    histogram.query((LatencyHistogramQuery query) -> {
+      long count = query.count();
+      if (count > 0) {
+        List<Histogram.Bucket> buckets = query.buckets();
+        double cumulative = 0;
+        for (int i = 0; i < buckets.size() - 1; i++) {
+          Histogram.Bucket bucket = buckets.get(i);
+          cumulative += bucket.count();
+          write(family.sample);
+          writeDouble(bucket.maximum(), true);
+          write(LABEL_END);
+          writeLong(Math.min(count, Math.round(cumulative)));
+          writeByte('\n');
+        }
+      }
+      write(family.sample);
+      write(POSITIVE_INFINITY);
+      write(LABEL_END);
+      writeLong(count);
+      writeByte('\n');
+      write(family.total);
+      writeLong(count);
+      writeByte('\n');
+      return null;
+    });
+  }
+
+  private Family family(String key, String name, Kind kind, StatisticType type) {
+    Family family = families.get(key);
+    if (family == null || family.kind != kind || family.type != type) {
+      if (family != null) {
+        familyNames.remove(family.name);
+      }
+      family = new Family(uniqueName(sanitize(name, true)), kind, type, labels);
+      families.put(key, family);
+    }
+    family.generation = generation;
+    return family;
+  }
+
+  /**
+   * Claims a family name, suffixing it if another statistic already exposes a family under that name.
+   */
+  private String uniqueName(String name) {
+    String unique = name;
+    for (int i = 2; !familyNames.add(unique); i++) {
+      unique = name + '_' + i;
+    }
+    return unique;
+  }
+
+  private static boolean isPrimitive(ValueStatistic<?> statistic) {
+    return statistic instanceof LongValueStatistic || statistic instanceof DoubleValueStatistic;
+  }
+
+  /**
+   * Writes the value of a statistic, reading primitive statistics without boxing.
+   */
+  private void writeValue(ValueStatistic<?> statistic, Serializable value) {
+    if (statistic instanceof LongValueStatistic) {
+      writeLong(((LongValueStatistic) statistic).longValue());
+    } else if (statistic instanceof DoubleValueStatistic) {
+      writeDouble(((DoubleValueStatistic) statistic).doubleValue(), false);
+    } else {
+      writeNumber((Number) value);
+    }
+  }
+
+  private void writeNumber(Number value) {
+    if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+      writeLong(value.longValue());
+    } else {
+      writeDouble(value.doubleValue(), false);
+    }
+  }
+
+  private void writeDouble(double value, boolean canonical) {
+    if (Double.isNaN(value)) {
+      write(NAN);
+    } else if (Double.isInfinite(value)) {
+      write(value > 0 ? POSITIVE_INFINITY : NEGATIVE_INFINITY);
+    } else if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+      writeLong((long) value);
+      if (canonical) {
+        writeByte('.');
+        writeByte('0');
+      }
+    } else {
+      writeAscii(Double.toString(value));
+    }
+  }
+
+  private void writeLong(long value) {
+    if (value == Long.MIN_VALUE) {
+      writeAscii(Long.toString(value));
+      return;
+    }
+    if (value < 0) {
+      writeByte('-');
+      value = -value;
+    }
+    int index = digits.length;
+    do {
+      digits[--index] = (byte) ('0' + value % 10);
+      value /= 10;
+    } while (value != 0);
+    ensureCapacity(digits.length - index);
+    System.arraycopy(digits, index, buffer, position, digits.length - index);
+    position += digits.length - index;
+  }
+
+  private void writeEscaped(String value) {
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '\\' || c == '"') {
+        writeByte('\\');
+        writeByte(c);
+      } else if (c == '\n') {
+        writeByte('\\');
+        writeByte('n');
+      } else if (c < 0x80) {
+        writeByte(c);
+      } else {
+        int codePoint = value.codePointAt(i);
+        i += Character.charCount(codePoint) - 1;
+        writeUtf8(codePoint);
+      }
+    }
+  }
+
+  private void writeUtf8(int codePoint) {
+    if (codePoint < 0x800) {
+      writeByte(0xc0 | (codePoint >> 6));
+    } else if (codePoint < 0x10000) {
+      writeByte(0xe0 | (codePoint >> 12));
+      writeByte(0x80 | ((codePoint >> 6) & 0x3f));
+    } else {
+      writeByte(0xf0 | (codePoint >> 18));
+      writeByte(0x80 | ((codePoint >> 12) & 0x3f));
+      writeByte(0x80 | ((codePoint >> 6) & 0x3f));
+    }
+    writeByte(0x80 | (codePoint & 0x3f));
+  }
+
+  private void writeAscii(String value) {
+    ensureCapacity(value.length());
+    for (int i = 0; i < value.length(); i++) {
+      buffer[position++] = (byte) value.charAt(i);
+    }
+  }
+
+  private void write(byte[] bytes) {
+    ensureCapacity(bytes.length);
+    System.arraycopy(bytes, 0, buffer, position, bytes.length);
+    position += bytes.length;
+  }
+
+  private void writeByte(int b) {
+    ensureCapacity(1);
+    buffer[position++] = (byte) b;
+  }
+
+  private void ensureCapacity(int length) {
+    if (position + length > buffer.length) {
+      buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + length));
+    }
+  }
+
+  static String sanitize(String name, boolean metric) {
+    StringBuilder sanitized = new StringBuilder(name.length());
+    for (int i = 0; i < name.length(); i++) {
+      char c = name.charAt(i);
+      boolean valid = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_'
+          || (i > 0 && c >= '0' && c <= '9') || (metric && c == ':');
+      sanitized.append(valid ? c : '_');
+    }
+    return sanitized.toString();
+  }
+
+  private static void escape(String value, StringBuilder out) {
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '\\' || c == '"') {
+        out.append('\\').append(c);
+      } else if (c == '\n') {
+        out.append("\\n");
+      } else {
+        out.append(c);
+      }
+    }
+  }
+
+  private static byte[] ascii(String value) {
+    return value.getBytes(StandardCharsets.US_ASCII);
+  }
+
+  private static byte[] utf8(String value) {
+    return value.getBytes(StandardCharsets.UTF_8);
+  }
+
+  private enum Kind {
+    PLAIN, ROW, HISTOGRAM
+  }
+
+  /**
+   * The cached encoding of a metric family: its header, the start of each of its samples, and for a histogram the start
+   * of its count sample. Row and histogram bucket samples leave their last label value open.
+   */
+  private static final class Family {
+
+    private final String name;
+    private final Kind kind;
+    private final StatisticType type;
+    private final byte[] header;
+    private final byte[] sample;
+    private final byte[] total;
+    private long generation;
+
+    Family(String name, Kind kind, StatisticType type, String labels) {
+      this.name = name;
+      this.kind = kind;
+      this.type = type;
+      String open = labels.isEmpty() ? "{" : "{" + labels + ",";
+      String closed = labels.isEmpty() ? " " : "{" + labels + "} ";
+      if (kind == Kind.HISTOGRAM) {
+        this.header = utf8("# TYPE " + name + " gaugehistogram\n");
+        this.sample = utf8(name + "_bucket" + open + "le=\"");
+        this.total = utf8(name + "_gcount" + closed);
+      } else {
+        boolean counter = type == StatisticType.COUNTER;
+        String sampleName = counter ? name + "_total" : name;
+        this.header = utf8("# TYPE " + name + (counter ? " counter\n" : " gauge\n"));
+        this.sample = utf8(kind == Kind.ROW ? sampleName + open + "row=\"" : sampleName + closed);
+        this.total = null;
+      }
+    }
+  }
+}
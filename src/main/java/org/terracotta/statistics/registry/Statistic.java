@@ -37,6 +37,7 @@ public class Statistic<T extends Serializable> implements Serializable {
 
   private final StatisticType type;
   private final List<Sample<T>> samples;
+  private final boolean timedOut;
 
   public Statistic(StatisticType type) {
     this(type, Collections.emptyList());
@@ -47,8 +48,20 @@ public class Statistic<T extends Serializable> implements Serializable {
   }
 
   public Statistic(StatisticType type, List<Sample<T>> samples) {
+    this(type, samples, false);
+  }
+
+  private Statistic(StatisticType type, List<Sample<T>> samples, boolean timedOut) {
     this.type = type;
     this.samples = samples;
+    this.timedOut = timedOut;
+  }
+
+  /**
+   * Creates an empty statistic standing in for one whose extraction missed its deadline.
+   */
+  public static <T extends Serializable> Statistic<T> timedOut(StatisticType type) {
+    return new Statistic<>(type, Collections.emptyList(), true);
   }
 
   public StatisticType getType() {
@@ -59,6 +72,13 @@ public class Statistic<T extends Serializable> implements Serializable {
     return samples.isEmpty();
   }
 
+  /**
+   * @return {@code true} if this statistic is empty because its extraction missed its deadline
+   */
+  public boolean isTimedOut() {
+    return timedOut;
+  }
+
   public List<Sample<T>> getSamples() {
     return samples;
   }
@@ -76,6 +96,7 @@ public class Statistic<T extends Serializable> implements Serializable {
     return "Statistic{" +
         "" + "type=" + type +
         ", samples=" + samples +
+        (timedOut ? ", timedOut" : "") +
         '}';
   }
 
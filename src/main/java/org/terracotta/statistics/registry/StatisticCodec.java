@@ -0,0 +1,419 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.statistics.registry;
+
+import org.terracotta.statistics.DoubleValueStatistic;
+import org.terracotta.statistics.LongValueStatistic;
+import org.terracotta.statistics.Sample;
+import org.terracotta.statistics.StatisticType;
+import org.terracotta.statistics.StatisticValueInputStream;
+import org.terracotta.statistics.Table;
+import org.terracotta.statistics.ValueStatistic;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact binary encoding of {@link Statistic}, {@link Sample} and {@link Table} instances.
+ * <p>
+ * Every message starts with a version byte. Samples are encoded with their timestamp as a zigzag varint delta against
+ * the previous sample of the same statistic, followed by a type tag and the value. Long and integer values are zigzag
+ * varints, long values being delta coded against the previous long value of the same statistic, and doubles are
+ * encoded as their raw 8 bytes. Strings and tables have their own encodings; any other value falls back to Java
+ * serialization, and is decoded through a {@link StatisticValueInputStream} so that only the classes statistic values
+ * are made of can be resolved.
+ * <p>
+ * Encoding writes at the buffer's position and fails with a {@link BufferOverflowException} if the buffer is too
+ * small, in which case the buffer position is undefined and the message should be encoded again into a larger buffer.
+ * Decoding reads at the buffer's position and leaves it after the message. Truncated input fails with a
+ * {@link BufferUnderflowException}, and malformed input with an {@link IllegalArgumentException}. Lengths and counts
+ * are checked against the remaining input before anything is allocated for them.
+ */
+public final class StatisticCodec {
+
+  /**
+   * The version of the encoding written by this codec.
+   */
+  public static final byte VERSION = 1;
+
+  private static final byte NULL = 0;
+  private static final byte LONG = 1;
+  private static final byte DOUBLE = 2;
+  private static final byte INTEGER = 3;
+  private static final byte STRING = 4;
+  private static final byte TABLE = 5;
+  private static final byte FALSE = 6;
+  private static final byte TRUE = 7;
+  private static final byte SERIALIZED = 8;
+
+  private static final byte ABSENT = -1;
+
+  private static final int TIMED_OUT = 1;
+
+  // wire codes of the statistic types, by code
+  private static final StatisticType[] TYPES = {
+      StatisticType.COUNTER, StatisticType.RATE, StatisticType.RATIO, StatisticType.GAUGE, StatisticType.TABLE
+  };
+
+  private StatisticCodec() {
+  }
+
+  /**
+   * Encodes statistics keyed by name, as returned by the registry queries.
+   */
+  public static void encodeStatistics(Map<String, Statistic<? extends Serializable>> statistics, ByteBuffer buffer) {
+    buffer.put(VERSION);
+    writeVarLong(buffer, statistics.size());
+    for (Map.Entry<String, Statistic<? extends Serializable>> e : statistics.entrySet()) {
+      writeString(buffer, e.getKey());
+      writeStatistic(buffer, e.getValue());
+    }
+  }
+
+  /**
+   * Decodes statistics encoded by {@link #encodeStatistics(Map, ByteBuffer)}.
+   */
+  public static Map<String, Statistic<? extends Serializable>> decodeStatistics(ByteBuffer buffer) {
+    readVersion(buffer);
+    // a name and a statistic take at least four bytes
+    int count = readCount(buffer, 4);
+    Map<String, Statistic<? extends Serializable>> statistics = new HashMap<>();
+    for (int i = 0; i < count; i++) {
+      String name = readString(buffer);
+      statistics.put(name, readStatistic(buffer));
+    }
+    return statistics;
+  }
+
+  public static void encode(Statistic<? extends Serializable> statistic, ByteBuffer buffer) {
+    buffer.put(VERSION);
+    writeStatistic(buffer, statistic);
+  }
+
+  public static Statistic<? extends Serializable> decodeStatistic(ByteBuffer buffer) {
+    readVersion(buffer);
+    return readStatistic(buffer);
+  }
+
+  public static void encode(Sample<? extends Serializable> sample, ByteBuffer buffer) {
+    buffer.put(VERSION);
+    writeSample(buffer, sample, new Delta());
+  }
+
+  public static Sample<? extends Serializable> decodeSample(ByteBuffer buffer) {
+    readVersion(buffer);
+    return readSample(buffer, new Delta());
+  }
+
+  public static void encode(Table table, ByteBuffer buffer) {
+    buffer.put(VERSION);
+    writeTable(buffer, table);
+  }
+
+  public static Table decodeTable(ByteBuffer buffer) {
+    readVersion(buffer);
+    return readTable(buffer);
+  }
+
+  private static void readVersion(ByteBuffer buffer) {
+    byte version = buffer.get();
+    if (version != VERSION) {
+      throw new IllegalArgumentException("Unsupported encoding version: " + version);
+    }
+  }
+
+  private static void writeStatistic(ByteBuffer buffer, Statistic<? extends Serializable> statistic) {
+    writeType(buffer, statistic.getType());
+    buffer.put((byte) (statistic.isTimedOut() ? TIMED_OUT : 0));
+    List<? extends Sample<? extends Serializable>> samples = statistic.getSamples();
+    writeVarLong(buffer, samples.size());
+    Delta delta = new Delta();
+    for (Sample<? extends Serializable> sample : samples) {
+      writeSample(buffer, sample, delta);
+    }
+  }
+
+  private static Statistic<? extends Serializable> readStatistic(ByteBuffer buffer) {
+    StatisticType type = readType(buffer);
+    byte flags = buffer.get();
+    // a timestamp and a value tag take at least two bytes
+    int count = readCount(buffer, 2);
+    List<Sample<Serializable>> samples = new ArrayList<>(count);
+    Delta delta = new Delta();
+    for (int i = 0; i < count; i++) {
+      samples.add(readSample(buffer, delta));
+    }
+    if ((flags & TIMED_OUT) != 0) {
+      return Statistic.timedOut(type);
+    } else {
+      return new Statistic<>(type, samples);
+    }
+  }
+
+  private static void writeSample(ByteBuffer buffer, Sample<? extends Serializable> sample, Delta delta) {
+    writeVarLong(buffer, zigzag(sample.getTimestamp() - delta.timestamp));
+    delta.timestamp = sample.getTimestamp();
+    writeValue(buffer, sample.getSample(), delta);
+  }
+
+  private static Sample<Serializable> readSample(ByteBuffer buffer, Delta delta) {
+    long timestamp = delta.timestamp + unzigzag(readVarLong(buffer));
+    delta.timestamp = timestamp;
+    return new Sample<>(timestamp, readValue(buffer, delta));
+  }
+
+  private static void writeValue(ByteBuffer buffer, Serializable value, Delta delta) {
+    if (value == null) {
+      buffer.put(NULL);
+    } else if (value instanceof Long) {
+      writeLong(buffer, (Long) value, delta);
+    } else if (value instanceof Double) {
+      writeDouble(buffer, (Double) value);
+    } else if (value instanceof Integer) {
+      buffer.put(INTEGER);
+      writeVarLong(buffer, zigzag((Integer) value));
+    } else if (value instanceof String) {
+      buffer.put(STRING);
+      writeString(buffer, (String) value);
+    } else if (value instanceof Table) {
+      buffer.put(TABLE);
+      writeTable(buffer, (Table) value);
+    } else if (value instanceof Boolean) {
+      buffer.put((Boolean) value ? TRUE : FALSE);
+    } else {
+      buffer.put(SERIALIZED);
+      byte[] bytes = serialize(value);
+      writeVarLong(buffer, bytes.length);
+      buffer.put(bytes);
+    }
+  }
+
+  private static void writeLong(ByteBuffer buffer, long value, Delta delta) {
+    buffer.put(LONG);
+    writeVarLong(buffer, zigzag(value - delta.value));
+    delta.value = value;
+  }
+
+  private static void writeDouble(ByteBuffer buffer, double value) {
+    buffer.put(DOUBLE);
+    buffer.putDouble(value);
+  }
+
+  private static Serializable readValue(ByteBuffer buffer, Delta delta) {
+    byte tag = buffer.get();
+    switch (tag) {
+      case NULL:
+        return null;
+      case LONG:
+        delta.value += unzigzag(readVarLong(buffer));
+        return delta.value;
+      case DOUBLE:
+        return buffer.getDouble();
+      case INTEGER:
+        return (int) unzigzag(readVarLong(buffer));
+      case STRING:
+        return readString(buffer);
+      case TABLE:
+        return readTable(buffer);
+      case FALSE:
+        return Boolean.FALSE;
+      case TRUE:
+        return Boolean.TRUE;
+      case SERIALIZED:
+        byte[] bytes = new byte[readCount(buffer, 1)];
+        buffer.get(bytes);
+        return deserialize(bytes);
+      default:
+        throw new IllegalArgumentException("Unknown value tag: " + tag);
+    }
+  }
+
+  private static void writeTable(ByteBuffer buffer, Table table) {
+    String[] names = table.getStatisticNames();
+    writeVarLong(buffer, names.length);
+    for (String name : names) {
+      writeString(buffer, name);
+    }
+    writeVarLong(buffer, table.getRowCount());
+    for (Map.Entry<String, ValueStatistic<? extends Serializable>[]> row : table.getStatistics().entrySet()) {
+      writeString(buffer, row.getKey());
+      Delta delta = new Delta();
+      for (ValueStatistic<? extends Serializable> cell : row.getValue()) {
+        if (cell == null) {
+          buffer.put(ABSENT);
+        } else {
+          writeType(buffer, cell.type());
+          // primitive cells, as held by snapshots of columnar tables, are written without boxing
+          if (cell instanceof LongValueStatistic) {
+            writeLong(buffer, ((LongValueStatistic) cell).longValue(), delta);
+          } else if (cell instanceof DoubleValueStatistic) {
+            writeDouble(buffer, ((DoubleValueStatistic) cell).doubleValue());
+          } else {
+            writeValue(buffer, cell.value(), delta);
+          }
+        }
+      }
+    }
+  }
+
+  private static Table readTable(ByteBuffer buffer) {
+    String[] names = new String[readCount(buffer, 1)];
+    for (int i = 0; i < names.length; i++) {
+      names[i] = readString(buffer);
+    }
+    Table.Builder builder = Table.newBuilder(names);
+    int rows = readLength(buffer);
+    for (int r = 0; r < rows; r++) {
+      String row = readString(buffer);
+      Delta delta = new Delta();
+      for (String name : names) {
+        byte code = buffer.get();
+        if (code != ABSENT) {
+          builder.setStatistic(row, name, type(code), readValue(buffer, delta));
+        }
+      }
+    }
+    return builder.build();
+  }
+
+  private static void writeType(ByteBuffer buffer, StatisticType type) {
+    for (byte code = 0; code < TYPES.length; code++) {
+      if (TYPES[code] == type) {
+        buffer.put(code);
+        return;
+      }
+    }
+    throw new AssertionError("Unknown statistic type: " + type);
+  }
+
+  private static StatisticType readType(ByteBuffer buffer) {
+    return type(buffer.get());
+  }
+
+  private static StatisticType type(byte code) {
+    if (code < 0 || code >= TYPES.length) {
+      throw new IllegalArgumentException("Unknown statistic type code: " + code);
+    }
+    return TYPES[code];
+  }
+
+  private static void writeString(ByteBuffer buffer, String value) {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    writeVarLong(buffer, bytes.length);
+    buffer.put(bytes);
+  }
+
+  private static String readString(ByteBuffer buffer) {
+    int length = readLength(buffer);
+    if (length > buffer.remaining()) {
+      throw new BufferUnderflowException();
+    }
+    if (buffer.hasArray()) {
+      String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+      buffer.position(buffer.position() + length);
+      return value;
+    } else {
+      byte[] bytes = new byte[length];
+      buffer.get(bytes);
+      return new String(bytes, StandardCharsets.UTF_8);
+    }
+  }
+
+  private static void writeVarLong(ByteBuffer buffer, long value) {
+    while ((value & ~0x7fL) != 0) {
+      buffer.put((byte) ((value & 0x7f) | 0x80));
+      value >>>= 7;
+    }
+    buffer.put((byte) value);
+  }
+
+  private static long readVarLong(ByteBuffer buffer) {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      byte b = buffer.get();
+      value |= (long) (b & 0x7f) << shift;
+      if (b >= 0) {
+        return value;
+      }
+    }
+    throw new IllegalArgumentException("Malformed varint");
+  }
+
+  private static int readLength(ByteBuffer buffer) {
+    long length = readVarLong(buffer);
+    if (length < 0 || length > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Malformed length: " + length);
+    }
+    return (int) length;
+  }
+
+  /**
+   * Reads the count of the elements that follow, each at least {@code minimumBytes} long.
+   */
+  private static int readCount(ByteBuffer buffer, int minimumBytes) {
+    int count = readLength(buffer);
+    if (count > buffer.remaining() / minimumBytes) {
+      throw new BufferUnderflowException();
+    }
+    return count;
+  }
+
+  private static long zigzag(long value) {
+    return (value << 1) ^ (value >> 63);
+  }
+
+  private static long unzigzag(long value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  private static byte[] serialize(Serializable value) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(value);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return bytes.toByteArray();
+  }
+
+  private static Serializable deserialize(byte[] bytes) {
+    try (StatisticValueInputStream in = new StatisticValueInputStream(new ByteArrayInputStream(bytes))) {
+      return (Serializable) in.readObject();
+    } catch (IOException | ClassNotFoundException | ClassCastException e) {
+      throw new IllegalArgumentException("Malformed serialized value", e);
+    }
+  }
+
+  /**
+   * The previous timestamp and long value of the samples being coded.
+   */
+  private static final class Delta {
+    private long timestamp;
+    private long value;
+  }
+}
@@ -0,0 +1,338 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.statistics.registry;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.terracotta.statistics.LongValueStatistic;
+import org.terracotta.statistics.SampledStatistic;
+import org.terracotta.statistics.ValueStatistic;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.terracotta.statistics.ValueStatistics.longCounter;
+
+/**
+ * Pushes periodic batches of statistics from a {@link StatisticRegistry} to any number of subscribers.
+ * <p>
+ * Subscribers that share a period share a schedule: on each tick every statistic selected by at least one of them is
+ * extracted once, and each subscriber receives the batch of the statistics it selected, keyed by full name. Sampled
+ * statistics contribute the samples taken since the previous tick, and their latest sample again if its value has
+ * changed since, as it does while a window is in progress.
+ * <p>
+ * Backpressure is by conflation. A subscriber without outstanding demand keeps only the most recent undelivered batch,
+ * which is delivered as soon as it requests more; the batches it replaced are counted by
+ * {@link #droppedBatchesStatistic()}. A statistic whose extraction throws fails the subscriptions that selected it, and
+ * a subscriber that throws from {@link Flow.Subscriber#onNext(Object)} is cancelled. A subscriber that throws from
+ * any signal never affects the other subscribers of its period.
+ */
+public class StatisticPublisher {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(StatisticPublisher.class);
+
+  private final StatisticRegistry registry;
+  private final boolean exclusiveExecutor;
+  private final ScheduledExecutorService executor;
+  private final Map<Long, Channel> channels = new HashMap<>();
+  private final LongAdder dropped = new LongAdder();
+
+  private boolean shutdown;
+
+  /**
+   * @param registry the registry to publish from
+   */
+  public StatisticPublisher(StatisticRegistry registry) {
+    this(registry, null);
+  }
+
+  /**
+   * @param registry the registry to publish from
+   * @param executor the executor to extract and deliver on, or {@code null} to use an exclusive thread
+   */
+  public StatisticPublisher(StatisticRegistry registry, ScheduledExecutorService executor) {
+    this.registry = Objects.requireNonNull(registry);
+    if (executor == null) {
+      this.exclusiveExecutor = true;
+      this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "Statistic Publisher");
+        t.setDaemon(true);
+        return t;
+      });
+    } else {
+      this.exclusiveExecutor = false;
+      this.executor = executor;
+    }
+  }
+
+  /**
+   * Returns a publisher of the statistics whose full name starts with one of the given prefixes. A full statistic name
+   * is a prefix that selects that statistic.
+   *
+   * @param period   the publication period
+   * @param unit     period unit
+   * @param prefixes the full name prefixes to select
+   * @return the publisher
+   */
+  public Flow.Publisher<Map<String, Statistic<? extends Serializable>>> publisher(long period, TimeUnit unit, Collection<String> prefixes) {
+    long periodNanos = unit.toNanos(period);
+    if (periodNanos <= 0) {
+      throw new IllegalArgumentException("Period must be positive: " + period + " " + unit);
+    }
+    List<String> selection = new ArrayList<>(prefixes);
+    return subscriber -> subscribe(periodNanos, selection, subscriber);
+  }
+
+  /**
+   * @return the number of batches discarded because a subscriber had no outstanding demand
+   */
+  public LongValueStatistic droppedBatchesStatistic() {
+    return longCounter(dropped::sum);
+  }
+
+  /**
+   * Stops publishing and completes every subscription.
+   *
+   * @throws InterruptedException if interrupted while waiting for an exclusive thread to terminate
+   */
+  public void shutdown() throws InterruptedException {
+    List<Feed> feeds = new ArrayList<>();
+    synchronized (this) {
+      shutdown = true;
+      for (Channel channel : channels.values()) {
+        channel.future.cancel(false);
+        feeds.addAll(channel.feeds);
+      }
+      channels.clear();
+    }
+    for (Feed feed : feeds) {
+      feed.complete();
+    }
+    if (exclusiveExecutor) {
+      executor.shutdown();
+      if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+        throw new IllegalStateException("Exclusive ScheduledExecutorService failed to terminate promptly");
+      }
+    }
+  }
+
+  private void subscribe(long period, List<String> prefixes, Flow.Subscriber<? super Map<String, Statistic<? extends Serializable>>> subscriber) {
+    Feed feed = new Feed(period, prefixes, Objects.requireNonNull(subscriber));
+    subscriber.onSubscribe(feed);
+    boolean closed;
+    synchronized (this) {
+      closed = shutdown;
+      if (!closed && !feed.cancelled) {
+        channels.computeIfAbsent(period, Channel::new).feeds.add(feed);
+      }
+    }
+    if (closed) {
+      feed.complete();
+    }
+  }
+
+  private synchronized void remove(Feed feed) {
+    Channel channel = channels.get(feed.period);
+    if (channel != null && channel.feeds.remove(feed) && channel.feeds.isEmpty()) {
+      channel.future.cancel(false);
+      channels.remove(feed.period);
+    }
+  }
+
+  /**
+   * The subscribers of a period, and their shared schedule.
+   */
+  private final class Channel {
+
+    private final List<Feed> feeds = new CopyOnWriteArrayList<>();
+    private final ScheduledFuture<?> future;
+    // only touched by ticks, which never overlap
+    private final Map<String, HistoryPosition> positions = new HashMap<>();
+    private long since;
+
+    Channel(long period) {
+      this.future = executor.scheduleAtFixedRate(this::tick, period, period, NANOSECONDS);
+    }
+
+    private void tick() {
+      long now = registry.time();
+      Map<String, Statistic<? extends Serializable>> extracted = new HashMap<>();
+      for (Feed feed : feeds) {
+        try {
+          publish(feed, extracted, now);
+        } catch (RuntimeException e) {
+          // never let one feed cancel the schedule shared by the others
+          LOGGER.warn("Publishing to a subscriber failed, cancelling its subscription", e);
+          feed.cancel();
+        }
+      }
+      since = now + 1;
+      // forget the sampled statistics that are no longer selected
+      positions.keySet().retainAll(extracted.keySet());
+    }
+
+    private Statistic<? extends Serializable> extract(String name, ValueStatistic<? extends Serializable> statistic, long now) {
+      if (statistic instanceof SampledStatistic) {
+        HistoryPosition position = positions.get(name);
+        if (position == null || position.statistic() != statistic) {
+          position = new HistoryPosition((SampledStatistic<?>) statistic);
+          positions.put(name, position);
+        }
+        return position.extract((SampledStatistic<? extends Serializable>) statistic, now);
+      } else {
+        return Statistic.extract(statistic, since, now);
+      }
+    }
+
+    private void publish(Feed feed, Map<String, Statistic<? extends Serializable>> extracted, long now) {
+      Map<String, Statistic<? extends Serializable>> batch = new HashMap<>();
+      try {
+        for (String prefix : feed.prefixes) {
+          registry.visitStatistics(prefix, (name, statistic) ->
+              batch.put(name, extracted.computeIfAbsent(name, n -> extract(n, statistic, now))));
+        }
+      } catch (RuntimeException e) {
+        feed.fail(e);
+        return;
+      }
+      feed.offer(batch);
+    }
+  }
+
+  /**
+   * A subscription. Signals are serialized by a drain loop: whichever thread finds the loop idle delivers on behalf of
+   * all the others.
+   */
+  private final class Feed implements Flow.Subscription {
+
+    private final long period;
+    private final List<String> prefixes;
+    private final Flow.Subscriber<? super Map<String, Statistic<? extends Serializable>>> subscriber;
+    private final AtomicLong demand = new AtomicLong();
+    private final AtomicReference<Map<String, Statistic<? extends Serializable>>> pending = new AtomicReference<>();
+    private final AtomicInteger wip = new AtomicInteger();
+
+    private volatile boolean cancelled;
+    private volatile boolean done;
+    private volatile Throwable error;
+
+    Feed(long period, List<String> prefixes, Flow.Subscriber<? super Map<String, Statistic<? extends Serializable>>> subscriber) {
+      this.period = period;
+      this.prefixes = prefixes;
+      this.subscriber = subscriber;
+    }
+
+    @Override
+    public void request(long n) {
+      if (n <= 0) {
+        fail(new IllegalArgumentException("Non-positive request: " + n));
+      } else {
+        demand.getAndUpdate(d -> d + n < 0 ? Long.MAX_VALUE : d + n);
+        drain();
+      }
+    }
+
+    @Override
+    public void cancel() {
+      cancelled = true;
+      remove(this);
+    }
+
+    void offer(Map<String, Statistic<? extends Serializable>> batch) {
+      if (pending.getAndSet(batch) != null) {
+        dropped.increment();
+      }
+      drain();
+    }
+
+    void fail(Throwable throwable) {
+      error = throwable;
+      done = true;
+      remove(this);
+      drain();
+    }
+
+    void complete() {
+      done = true;
+      drain();
+    }
+
+    private void drain() {
+      if (wip.getAndIncrement() != 0) {
+        return;
+      }
+      int missed = 1;
+      try {
+        do {
+          while (!cancelled) {
+            Throwable failure = error;
+            Map<String, Statistic<? extends Serializable>> batch;
+            if (failure != null) {
+              cancelled = true;
+              try {
+                subscriber.onError(failure);
+              } catch (RuntimeException e) {
+                LOGGER.warn("Subscriber failed handling an error", e);
+              }
+            } else if (demand.get() > 0 && (batch = pending.getAndSet(null)) != null) {
+              if (demand.get() != Long.MAX_VALUE) {
+                demand.decrementAndGet();
+              }
+              try {
+                subscriber.onNext(batch);
+              } catch (RuntimeException e) {
+                cancel();
+              }
+            } else if (done) {
+              // undelivered batches are discarded on completion
+              cancelled = true;
+              pending.set(null);
+              try {
+                subscriber.onComplete();
+              } catch (RuntimeException e) {
+                LOGGER.warn("Subscriber failed handling completion", e);
+              }
+            } else {
+              break;
+            }
+          }
+          missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+      } finally {
+        if (missed != 0) {
+          // the loop was abandoned: stop delivering but leave the feed drainable
+          cancelled = true;
+          wip.set(0);
+        }
+      }
+    }
+  }
+}
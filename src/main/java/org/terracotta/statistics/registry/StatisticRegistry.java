@@ -15,34 +15,47 @@
  */
 package org.terracotta.statistics.registry;
 
+import org.terracotta.context.ContextElement;
 import org.terracotta.context.ContextManager;
 import org.terracotta.context.TreeNode;
-import org.terracotta.context.query.Matcher;
-import org.terracotta.context.query.Matchers;
 import org.terracotta.statistics.OperationStatistic;
+import org.terracotta.statistics.SampledStatistic;
 import org.terracotta.statistics.StatisticType;
 import org.terracotta.statistics.Table;
 import org.terracotta.statistics.ValueStatistic;
+import org.terracotta.statistics.VersionedStatistic;
 
 import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
+import java.util.EnumMap;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.NavigableSet;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 import java.util.function.LongSupplier;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
-import static org.terracotta.context.query.Matchers.attributes;
-import static org.terracotta.context.query.Matchers.context;
-import static org.terracotta.context.query.Matchers.hasAttribute;
-import static org.terracotta.context.query.Matchers.identifier;
-import static org.terracotta.context.query.Matchers.subclassOf;
-import static org.terracotta.context.query.QueryBuilder.queryBuilder;
 import static org.terracotta.statistics.ValueStatistics.counter;
 import static org.terracotta.statistics.ValueStatistics.gauge;
 import static org.terracotta.statistics.ValueStatistics.supply;
@@ -57,7 +70,9 @@ import static org.terracotta.statistics.ValueStatistics.table;
  * <p>
  * This class also support the generation of management metadata from the discovered statistics.
  * <p>
- * Non thread-safe.
+ * Thread-safe: statistics can be registered and unregistered while queries are running. Statistics are indexed by
+ * name, in sorted order for prefix queries, and by type, so that a prefix or type query only visits the matching
+ * statistics. A query running concurrently with registrations sees some consistent subset of them.
  *
  * @author Mathieu Carbou
  */
@@ -65,15 +80,25 @@ public class StatisticRegistry {
 
   private final Object contextObject;
   private final LongSupplier timeSource;
-  private final Map<String, ValueStatistic<? extends Serializable>> statistics = new HashMap<>();
+  private final ConcurrentMap<String, ValueStatistic<? extends Serializable>> statistics = new ConcurrentHashMap<>();
+  private final NavigableSet<String> names = new ConcurrentSkipListSet<>();
+  private final Map<StatisticType, Set<String>> types = new EnumMap<>(StatisticType.class);
+  // the parallel extractions that are queued or running, by statistic name
+  private final ConcurrentMap<String, Extraction> extractions = new ConcurrentHashMap<>();
 
   public StatisticRegistry(Object contextObject, LongSupplier timeSource) {
     this.contextObject = contextObject;
     this.timeSource = Objects.requireNonNull(timeSource);
+    for (StatisticType type : StatisticType.values()) {
+      types.put(type, ConcurrentHashMap.newKeySet());
+    }
   }
 
+  /**
+   * Returns an unmodifiable view of the registered statistics.
+   */
   protected Map<String, ValueStatistic<? extends Serializable>> getStatistics() {
-    return statistics;
+    return Collections.unmodifiableMap(statistics);
   }
 
   /**
@@ -105,16 +130,213 @@ public class StatisticRegistry {
     return statistics.entrySet().stream().collect(Collectors.toMap(Map.Entry::getKey, e -> Statistic.extract(e.getValue(), sinceMillis, now)));
   }
 
+  /**
+   * Query all statistics, extracting them in parallel on the given executor.
+   * <p>
+   * Each extraction has its own deadline of {@code timeout} from when it starts running, and must start within
+   * {@code timeout} of the query. A statistic whose extraction misses its deadline is returned as an empty statistic
+   * marked {@link Statistic#isTimedOut() timed out}, and its extraction is cancelled and interrupted. A statistic whose
+   * extraction from a previous query is still queued or running is not extracted again, and is returned as timed out.
+   * If the calling thread is interrupted, all statistics not yet extracted are returned as timed out and the interrupt
+   * status is restored.
+   *
+   * @param sinceMillis the earliest sample timestamp
+   * @param executor    the executor to extract on, e.g. a {@link java.util.concurrent.ForkJoinPool}
+   * @param timeout     the extraction deadline
+   * @param unit        the deadline unit
+   * @return the statistics, by full name
+   */
+  public Map<String, Statistic<? extends Serializable>> queryStatistics(long sinceMillis, Executor executor, long timeout, TimeUnit unit) {
+    long now = timeSource.getAsLong();
+    long queried = System.nanoTime();
+    long timeoutNs = unit.toNanos(timeout);
+
+    Map<String, Statistic<? extends Serializable>> result = new HashMap<>();
+    Map<String, Extraction> submitted = new HashMap<>();
+    for (Map.Entry<String, ValueStatistic<? extends Serializable>> e : statistics.entrySet()) {
+      ValueStatistic<? extends Serializable> statistic = e.getValue();
+      Extraction extraction = new Extraction(e.getKey(), statistic, () -> Statistic.extract(statistic, sinceMillis, now));
+      if (extractions.putIfAbsent(e.getKey(), extraction) == null) {
+        try {
+          executor.execute(extraction);
+        } catch (RuntimeException | Error ex) {
+          extractions.remove(e.getKey(), extraction);
+          throw ex;
+        }
+        submitted.put(e.getKey(), extraction);
+      } else {
+        result.put(e.getKey(), Statistic.timedOut(statistic.type()));
+      }
+    }
+
+    boolean interrupted = false;
+    for (Map.Entry<String, Extraction> e : submitted.entrySet()) {
+      Extraction extraction = e.getValue();
+      try {
+        if (interrupted) {
+          throw new TimeoutException();
+        }
+        result.put(e.getKey(), extraction.await(queried, timeoutNs));
+      } catch (TimeoutException | InterruptedException ex) {
+        interrupted |= ex instanceof InterruptedException;
+        extraction.cancel(true);
+        result.put(e.getKey(), Statistic.timedOut(extraction.type));
+      } catch (ExecutionException ex) {
+        Throwable cause = ex.getCause();
+        if (cause instanceof RuntimeException) {
+          throw (RuntimeException) cause;
+        } else if (cause instanceof Error) {
+          throw (Error) cause;
+        } else {
+          throw new IllegalStateException(cause);
+        }
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    return result;
+  }
+
+  /**
+   * Creates a cursor for {@link #queryChanges(Cursor)} that has seen nothing yet.
+   */
+  public Cursor cursor() {
+    return new Cursor();
+  }
+
+  /**
+   * Query the statistics that changed since the cursor's previous poll, and advance the cursor.
+   * <p>
+   * A {@link VersionedStatistic} is only extracted if its version moved since the cursor last saw it, so idle statistics
+   * cost a version read rather than an extraction. The history of a {@link SampledStatistic} is returned once: each
+   * poll returns only the samples newer than those already returned, and a sampled statistic with no newer samples is
+   * omitted. The latest sample returned is returned again if its value has changed since, so the final value of an
+   * in-progress window is not lost. A statistic that is neither versioned nor sampled is returned on every poll. A statistic registered after
+   * the previous poll, or re-registered under the same name, is returned in full.
+   *
+   * @param cursor the cursor of the previous poll
+   * @return the changed statistics, by full name
+   */
+  public Map<String, Statistic<? extends Serializable>> queryChanges(Cursor cursor) {
+    long now = timeSource.getAsLong();
+    long poll = ++cursor.poll;
+    Map<String, Statistic<? extends Serializable>> result = new HashMap<>();
+    for (Map.Entry<String, ValueStatistic<? extends Serializable>> e : statistics.entrySet()) {
+      ValueStatistic<? extends Serializable> statistic = e.getValue();
+      Cursor.Mark mark = cursor.marks.get(e.getKey());
+      if (mark == null || mark.statistic != statistic) {
+        mark = new Cursor.Mark(statistic);
+        cursor.marks.put(e.getKey(), mark);
+      } else if (statistic instanceof VersionedStatistic && ((VersionedStatistic<?>) statistic).version() == mark.version) {
+        mark.poll = poll;
+        continue;
+      }
+      mark.poll = poll;
+      if (statistic instanceof VersionedStatistic) {
+        // read the version first so that a change racing with the extraction is seen by the next poll
+        mark.version = ((VersionedStatistic<?>) statistic).version();
+      }
+      if (statistic instanceof SampledStatistic) {
+        if (mark.position == null) {
+          mark.position = new HistoryPosition((SampledStatistic<?>) statistic);
+        }
+        Statistic<? extends Serializable> extracted = mark.position.extract((SampledStatistic<? extends Serializable>) statistic, now);
+        if (!extracted.isEmpty()) {
+          result.put(e.getKey(), extracted);
+        }
+      } else {
+        result.put(e.getKey(), Statistic.extract(statistic, 0, now));
+      }
+    }
+    // forget the statistics that have been unregistered
+    cursor.marks.values().removeIf(mark -> mark.poll != poll);
+    return result;
+  }
+
+  /**
+   * Query the statistics whose full name starts with the given prefix, visiting only the matching statistics.
+   */
+  public Map<String, Statistic<? extends Serializable>> queryStatistics(String prefix, long sinceMillis) {
+    long now = timeSource.getAsLong();
+    Map<String, Statistic<? extends Serializable>> result = new HashMap<>();
+    visitStatistics(prefix, (name, statistic) -> result.put(name, Statistic.extract(statistic, sinceMillis, now)));
+    return result;
+  }
+
+  /**
+   * Visits the registered statistics whose full name starts with the given prefix, in name order.
+   */
+  void visitStatistics(String prefix, BiConsumer<String, ValueStatistic<? extends Serializable>> visitor) {
+    for (String name : names.tailSet(prefix, true)) {
+      if (!name.startsWith(prefix)) {
+        break;
+      }
+      ValueStatistic<? extends Serializable> statistic = statistics.get(name);
+      if (statistic != null) {
+        visitor.accept(name, statistic);
+      }
+    }
+  }
+
+  long time() {
+    return timeSource.getAsLong();
+  }
+
+  /**
+   * Query the statistics of the given type, visiting only the matching statistics.
+   */
+  public Map<String, Statistic<? extends Serializable>> queryStatistics(StatisticType type, long sinceMillis) {
+    long now = timeSource.getAsLong();
+    Map<String, Statistic<? extends Serializable>> result = new HashMap<>();
+    for (String name : types.get(type)) {
+      ValueStatistic<? extends Serializable> statistic = statistics.get(name);
+      if (statistic != null) {
+        result.put(name, Statistic.extract(statistic, sinceMillis, now));
+      }
+    }
+    return result;
+  }
+
   public <T extends Serializable> void registerStatistic(String fullStatName, StatisticType type, Supplier<T> accessor) {
     registerStatistic(fullStatName, supply(type, accessor));
   }
 
   public <T extends Serializable> void registerStatistic(String fullStatName, ValueStatistic<T> accessor) {
-    if (statistics.put(fullStatName, accessor) != null) {
+    Objects.requireNonNull(accessor);
+    boolean[] duplicate = new boolean[1];
+    // the indexes are maintained under the map's per-key lock so they never disagree with it for long
+    statistics.compute(fullStatName, (name, existing) -> {
+      if (existing == null) {
+        names.add(name);
+        types.get(accessor.type()).add(name);
+        return accessor;
+      } else {
+        duplicate[0] = true;
+        return existing;
+      }
+    });
+    if (duplicate[0]) {
       throw new IllegalArgumentException("Found duplicate statistic " + fullStatName);
     }
   }
 
+  /**
+   * Unregisters a statistic.
+   *
+   * @return {@code true} if the statistic was registered
+   */
+  public boolean unregisterStatistic(String fullStatName) {
+    boolean[] removed = new boolean[1];
+    statistics.computeIfPresent(fullStatName, (name, existing) -> {
+      names.remove(name);
+      types.get(existing.type()).remove(name);
+      removed[0] = true;
+      return null;
+    });
+    return removed[0];
+  }
+
   /**
    * Directly register a TABLE stat with its accessors
    */
@@ -136,92 +358,197 @@ public class StatisticRegistry {
     registerStatistic(fullStatName, counter(accessor));
   }
 
-  @SuppressWarnings("unchecked")
   public <T extends Serializable> boolean registerStatistic(String statNameSuffix, ValueStatisticDescriptor descriptor) {
+    return !registerStatistics(new Registrations().value(statNameSuffix, descriptor)).isEmpty();
+  }
+
+  public <T extends Enum<T>> boolean registerStatistic(String statNameSuffix, final OperationStatisticDescriptor<T> descriptor, final EnumSet<T> outcomes) {
+    return !registerStatistics(new Registrations().operation(statNameSuffix, descriptor, outcomes)).isEmpty();
+  }
+
+  /**
+   * Registers the statistics matched by a batch of descriptors in a single traversal of the context tree.
+   * <p>
+   * The descriptors are indexed by observer name, so each statistic node costs one attribute lookup, and only the nodes
+   * whose name is in the index have their remaining attributes realized.
+   *
+   * @param registrations the descriptors to register
+   * @return the name suffixes of the registrations that matched at least one statistic
+   */
+  public Set<String> registerStatistics(Registrations registrations) {
     // ignore registering through descriptors if we do not have a context object to find in the tree
     if (contextObject == null) {
-      return false;
+      return Collections.emptySet();
     }
     TreeNode treeNode = ContextManager.nodeFor(contextObject);
     if (treeNode == null) {
-      return false;
+      return Collections.emptySet();
     }
 
-    Set<TreeNode> result = queryBuilder()
-        .descendants()
-        .filter(context(attributes(Matchers.allOf(
-            hasAttribute("name", descriptor.getObserverName()),
-            hasTags(descriptor.getTags())))))
-        .filter(context(identifier(subclassOf(ValueStatistic.class))))
-        .build().execute(Collections.singleton(treeNode));
+    Set<String> matched = new HashSet<>();
+    Set<TreeNode> visited = new HashSet<>();
+    Deque<TreeNode> pending = new ArrayDeque<>(treeNode.getChildren());
+    while (!pending.isEmpty()) {
+      TreeNode node = pending.pop();
+      if (!visited.add(node)) {
+        continue;
+      }
+      pending.addAll(node.getChildren());
 
-    if (!result.isEmpty()) {
-      for (TreeNode node : result) {
-        String discriminator = null;
+      ContextElement context = node.getContext();
+      if (!ValueStatistic.class.isAssignableFrom(context.identifier()) && !OperationStatistic.class.isAssignableFrom(context.identifier())) {
+        continue;
+      }
+      Object name = context.attribute("name");
+      List<Registration> candidates = name == null ? null : registrations.byObserverName.get(name);
+      if (candidates == null) {
+        continue;
+      }
+      Object tags = context.attribute("tags");
+      if (!(tags instanceof Collection)) {
+        continue;
+      }
+      for (Registration registration : candidates) {
+        if (registration.matches(context, (Collection<?>) tags)) {
+          String discriminator = null;
 
-        Map<String, Object> properties = (Map<String, Object>) node.getContext().attributes().get("properties");
-        if (properties != null && properties.containsKey("discriminator")) {
-          discriminator = properties.get("discriminator").toString();
+          Map<?, ?> properties = (Map<?, ?>) context.attribute("properties");
+          if (properties != null && properties.containsKey("discriminator")) {
+            discriminator = properties.get("discriminator").toString();
+          }
+
+          String fullStatName = (discriminator == null ? "" : (discriminator + ":")) + registration.suffix;
+          registerStatistic(fullStatName, registration.adapter.apply(context.attribute("this")));
+          matched.add(registration.suffix);
         }
+      }
+    }
+    return matched;
+  }
+
+
+  /**
+   * A parallel extraction, which can be interrupted by cancellation and knows when it started running.
+   */
+  private final class Extraction extends FutureTask<Statistic<? extends Serializable>> {
+
+    private final String name;
+    private final StatisticType type;
+    private volatile boolean started;
+    private volatile long start;
 
-        String fullStatName = (discriminator == null ? "" : (discriminator + ":")) + statNameSuffix;
-        ValueStatistic<T> statistic = (ValueStatistic<T>) node.getContext().attributes().get("this");
+    Extraction(String name, ValueStatistic<? extends Serializable> statistic, Callable<Statistic<? extends Serializable>> extraction) {
+      super(extraction);
+      this.name = name;
+      this.type = statistic.type();
+    }
 
-        registerStatistic(fullStatName, statistic);
+    @Override
+    public void run() {
+      start = System.nanoTime();
+      started = true;
+      try {
+        super.run();
+      } finally {
+        extractions.remove(name, this);
+      }
+    }
+
+    /**
+     * Waits until {@code timeout} after this extraction started, or after the query if it has not started yet.
+     */
+    Statistic<? extends Serializable> await(long queried, long timeout) throws InterruptedException, ExecutionException, TimeoutException {
+      while (true) {
+        boolean running = started;
+        long deadline = (running ? start : queried) + timeout;
+        try {
+          return get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+          if (running || !started) {
+            throw e;
+          }
+          // started while queued, its own deadline now applies
+        }
       }
-      return true;
-    } else {
-      return false;
     }
   }
 
-  @SuppressWarnings("unchecked")
-  public <T extends Enum<T>> boolean registerStatistic(String statNameSuffix, final OperationStatisticDescriptor<T> descriptor, final EnumSet<T> outcomes) {
-    // ignore registering through descriptors if we do not have a context object to find in the tree
-    if (contextObject == null) {
-      return false;
+  /**
+   * The position of a {@link #queryChanges(Cursor)} poller: the version and newest sample it has seen of each
+   * statistic. A cursor is updated in place by each poll and must not be used by concurrent polls.
+   */
+  public static final class Cursor {
+
+    private final Map<String, Mark> marks = new HashMap<>();
+    private long poll;
+
+    private Cursor() {
     }
-    TreeNode treeNode = ContextManager.nodeFor(contextObject);
-    if (treeNode == null) {
-      return false;
+
+    private static final class Mark {
+
+      private final ValueStatistic<? extends Serializable> statistic;
+      private long version;
+      private HistoryPosition position;
+      private long poll;
+
+      Mark(ValueStatistic<? extends Serializable> statistic) {
+        this.statistic = statistic;
+      }
     }
+  }
 
-    Set<TreeNode> result = queryBuilder()
-        .descendants()
-        .filter(context(attributes(Matchers.allOf(
-            hasAttribute("type", descriptor.getType()),
-            hasAttribute("name", descriptor.getObserverName()),
-            hasTags(descriptor.getTags())))))
-        .filter(context(identifier(subclassOf(OperationStatistic.class))))
-        .build().execute(Collections.singleton(treeNode));
+  /**
+   * A batch of descriptor registrations for {@link #registerStatistics(Registrations)}.
+   */
+  public static final class Registrations {
 
-    if (!result.isEmpty()) {
-      for (TreeNode node : result) {
-        String discriminator = null;
+    private final Map<String, List<Registration>> byObserverName = new HashMap<>();
 
-        Map<String, Object> properties = (Map<String, Object>) node.getContext().attributes().get("properties");
-        if (properties != null && properties.containsKey("discriminator")) {
-          discriminator = properties.get("discriminator").toString();
-        }
+    /**
+     * Adds the registration of the value statistics matching the descriptor.
+     */
+    public Registrations value(String statNameSuffix, ValueStatisticDescriptor descriptor) {
+      return add(descriptor.getObserverName(), new Registration(statNameSuffix, descriptor.getTags(), ValueStatistic.class, null,
+          statistic -> (ValueStatistic<?>) statistic));
+    }
 
-        String fullStatName = (discriminator == null ? "" : (discriminator + ":")) + statNameSuffix;
-        final OperationStatistic<T> statistic = (OperationStatistic<T>) node.getContext().attributes().get("this");
+    /**
+     * Adds the registration of the given outcomes of the operation statistics matching the descriptor.
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends Enum<T>> Registrations operation(String statNameSuffix, OperationStatisticDescriptor<T> descriptor, EnumSet<T> outcomes) {
+      return add(descriptor.getObserverName(), new Registration(statNameSuffix, descriptor.getTags(), OperationStatistic.class, descriptor.getType(),
+          statistic -> ((OperationStatistic<T>) statistic).statistic(outcomes)));
+    }
 
-        registerStatistic(fullStatName, statistic.statistic(outcomes));
-      }
-      return true;
-    } else {
-      return false;
+    private Registrations add(String observerName, Registration registration) {
+      byObserverName.computeIfAbsent(observerName, name -> new ArrayList<>()).add(registration);
+      return this;
     }
   }
 
-  private Matcher<Map<String, Object>> hasTags(final Collection<String> tags) {
-    return hasAttribute("tags", new Matcher<Collection<String>>() {
-      @Override
-      protected boolean matchesSafely(Collection<String> object) {
-        return object.containsAll(tags);
-      }
-    });
+  private static final class Registration {
+
+    private final String suffix;
+    private final Set<String> tags;
+    private final Class<?> kind;
+    private final Class<?> type;
+    private final Function<Object, ValueStatistic<? extends Serializable>> adapter;
+
+    Registration(String suffix, Set<String> tags, Class<?> kind, Class<?> type, Function<Object, ValueStatistic<? extends Serializable>> adapter) {
+      this.suffix = suffix;
+      this.tags = tags;
+      this.kind = kind;
+      this.type = type;
+      this.adapter = adapter;
+    }
+
+    boolean matches(ContextElement context, Collection<?> nodeTags) {
+      return kind.isAssignableFrom(context.identifier())
+          && nodeTags.containsAll(tags)
+          && (type == null || type.equals(context.attribute("type")));
+    }
   }
 
 }
@@ -0,0 +1,192 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.statistics;
+
+import org.junit.Test;
+import org.terracotta.statistics.archive.StatisticArchive;
+import org.terracotta.statistics.registry.StatisticRegistry;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.terracotta.statistics.ValueStatistics.longCounter;
+import static org.terracotta.statistics.ValueStatistics.supply;
+
+public class DynamicTableValueStatisticTest {
+
+  private final Map<String, AtomicLong> tiers = new LinkedHashMap<>();
+  private final AtomicInteger created = new AtomicInteger();
+  private final AtomicInteger reads = new AtomicInteger();
+
+  private final DynamicTableValueStatistic<Map.Entry<String, AtomicLong>> statistic = DynamicTableValueStatistic
+      .newBuilder(tiers::entrySet, Map.Entry::getKey)
+      .withColumn("Hits", tier -> {
+        created.incrementAndGet();
+        return longCounter(() -> {
+          reads.incrementAndGet();
+          return tier.getValue().get();
+        });
+      })
+      .withColumn("Name", tier -> supply(StatisticType.GAUGE, () -> {
+        reads.incrementAndGet();
+        return tier.getKey().toLowerCase();
+      }))
+      .withColumn("Missing", tier -> null)
+      .build();
+
+  @Test
+  public void testRowsFollowSource() {
+    tiers.put("OnHeap", new AtomicLong(1));
+    tiers.put("OffHeap", new AtomicLong(2));
+    Table table = statistic.value();
+    assertThat(new ArrayList<>(table.getRowLabels()), equalTo(Arrays.asList("OnHeap", "OffHeap")));
+    assertThat(table.getStatisticNames(), equalTo(new String[]{"Hits", "Missing", "Name"}));
+    assertThat(table.<Long>getStatistic("OffHeap", "Hits").get().value(), is(2L));
+    assertThat(table.getStatistic("OffHeap", "Missing").isPresent(), is(false));
+
+    tiers.remove("OnHeap");
+    tiers.put("Disk", new AtomicLong(3));
+    table = statistic.value();
+    assertThat(new ArrayList<>(table.getRowLabels()), equalTo(Arrays.asList("OffHeap", "Disk")));
+    assertThat(table.<Long>getStatistic("Disk", "Hits").get().value(), is(3L));
+    assertThat(table.getStatistic("OnHeap", "Hits").isPresent(), is(false));
+
+    tiers.clear();
+    assertThat(statistic.value().isEmpty(), is(true));
+  }
+
+  @Test
+  public void testCellsCreatedOnlyWhenRowsChange() {
+    tiers.put("OnHeap", new AtomicLong(1));
+    statistic.value();
+    statistic.value();
+    assertThat(created.get(), is(1));
+    tiers.put("OffHeap", new AtomicLong(2));
+    statistic.value();
+    assertThat(created.get(), is(3));
+  }
+
+  @Test
+  public void testCellsReadWhenSnapshotTaken() {
+    tiers.put("OnHeap", new AtomicLong(1));
+    Table table = statistic.value();
+    assertThat(reads.get(), is(2));
+    tiers.get("OnHeap").set(5);
+    assertThat(table.<Long>getStatistic("OnHeap", "Hits").get().value(), is(1L));
+    assertThat(reads.get(), is(2));
+  }
+
+  @Test
+  public void testArchivedSnapshotsMatchTheirTimestamps() {
+    tiers.put("OnHeap", new AtomicLong());
+    StatisticArchive<Table> archive = new StatisticArchive<>(4);
+    for (long time = 1; time <= 3; time++) {
+      tiers.get("OnHeap").set(time * 10);
+      archive.add(new Sample<>(time, statistic.value()));
+    }
+    tiers.get("OnHeap").set(-1);
+    for (Sample<Table> sample : archive.getArchive()) {
+      assertThat(sample.getSample().<Long>getStatistic("OnHeap", "Hits").get().value(), is(sample.getTimestamp() * 10));
+    }
+  }
+
+  @Test
+  public void testCellsReadLazily() {
+    tiers.put("OnHeap", new AtomicLong(1));
+    tiers.put("OffHeap", new AtomicLong(2));
+    Table table = statistic.lazyValue();
+    assertThat(reads.get(), is(0));
+
+    ValueStatistic<Long> hits = table.<Long>getStatistic("OnHeap", "Hits").get();
+    assertThat(hits.value(), is(1L));
+    assertThat(reads.get(), is(1));
+
+    // a snapshot keeps the values it has read
+    tiers.get("OnHeap").set(5);
+    assertThat(hits.value(), is(1L));
+    assertThat(reads.get(), is(1));
+    assertThat(statistic.lazyValue().<Long>getStatistic("OnHeap", "Hits").get().value(), is(5L));
+    assertThat(reads.get(), is(2));
+  }
+
+  @Test
+  public void testSelectedColumns() {
+    tiers.put("OnHeap", new AtomicLong(1));
+    Table table = statistic.select("Name").value();
+    assertThat(table.getStatisticNames(), equalTo(new String[]{"Name"}));
+    assertThat(table.<String>getStatistic("OnHeap", "Name").get().value(), is("onheap"));
+    assertThat(table.getStatistic("OnHeap", "Hits").isPresent(), is(false));
+    assertThat(created.get(), is(0));
+    assertThat(reads.get(), is(1));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testDuplicateRowLabel() {
+    tiers.put("OnHeap", new AtomicLong(1));
+    tiers.put("onheap", new AtomicLong(2));
+    DynamicTableValueStatistic.newBuilder(tiers::keySet, String::toLowerCase)
+        .withColumn("Hits", tier -> longCounter(() -> 0L))
+        .build()
+        .value();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownColumnSelection() {
+    statistic.select("Misses");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testDuplicateColumn() {
+    DynamicTableValueStatistic.newBuilder(tiers::keySet)
+        .withColumn("Hits", tier -> null)
+        .withColumn("Hits", tier -> null);
+  }
+
+  @Test
+  public void testSnapshotSerializesAsTable() throws Exception {
+    tiers.put("OnHeap", new AtomicLong(7));
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(statistic.value());
+    }
+    try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+      Table table = (Table) in.readObject();
+      assertThat(table.getClass(), equalTo(Table.class));
+      assertThat(table.<Long>getStatistic("OnHeap", "Hits").get().value(), is(7L));
+      assertThat(table.<String>getStatistic("OnHeap", "Name").get().value(), is("onheap"));
+    }
+  }
+
+  @Test
+  public void testRegistry() {
+    StatisticRegistry registry = new StatisticRegistry(this, Time::absoluteTime);
+    registry.registerStatistic("Cache:Tiers", statistic);
+    tiers.put("OnHeap", new AtomicLong(4));
+    Table table = registry.<Table>queryStatistic("Cache:Tiers").get().getLatestSampleValue().get();
+    assertThat(table.<Long>getStatistic("OnHeap", "Hits").get().value(), is(4L));
+  }
+}
@@ -72,6 +72,18 @@ public class GeneralOperationStatisticTest {
     assertThat(statistic.sum(EnumSet.allOf(Outcome.class)), is(3L));
   }
 
+  @Test
+  public void primitiveStatistic() {
+    LongValueStatistic bad = statistic.statistic(Outcome.BAD);
+    LongValueStatistic all = statistic.statistic(EnumSet.allOf(Outcome.class));
+    addStats();
+
+    assertThat(bad.type(), is(StatisticType.COUNTER));
+    assertThat(bad.longValue(), is(2L));
+    assertThat(all.longValue(), is(3L));
+    assertThat(all.value(), is(3L));
+  }
+
   @Test
   public void testToString() {
     addStats();
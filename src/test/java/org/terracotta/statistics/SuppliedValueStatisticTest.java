@@ -18,12 +18,20 @@ package org.terracotta.statistics;
 import org.junit.Test;
 
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static java.lang.Thread.sleep;
 import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.not;
 import static org.junit.Assert.assertThat;
+import static org.terracotta.statistics.SampledStatisticAdapter.sample;
+import static org.terracotta.statistics.ValueStatistics.counter;
+import static org.terracotta.statistics.ValueStatistics.doubleRatio;
 import static org.terracotta.statistics.ValueStatistics.gauge;
+import static org.terracotta.statistics.ValueStatistics.longCounter;
+import static org.terracotta.statistics.ValueStatistics.longGauge;
 import static org.terracotta.statistics.ValueStatistics.memoize;
 
 /**
@@ -43,4 +51,45 @@ public class SuppliedValueStatisticTest {
     assertThat(now, not(equalTo(nowAgain)));
   }
 
-}
\ No newline at end of file
+  @Test
+  public void test_counterIsVersioned() {
+    AtomicLong count = new AtomicLong();
+    ValueStatistic<Long> s = counter(count::get);
+    assertThat(s, instanceOf(VersionedStatistic.class));
+    VersionedStatistic<Long> versioned = (VersionedStatistic<Long>) s;
+    long version = versioned.version();
+    assertThat(versioned.version(), is(version));
+    count.incrementAndGet();
+    assertThat(versioned.version(), not(equalTo(version)));
+  }
+
+  @Test
+  public void test_sampledVersionedStatisticIsVersioned() {
+    assertThat(sample(counter(() -> 1L), Time::absoluteTime), instanceOf(VersionedStatistic.class));
+    assertThat(sample(gauge(() -> 1L), Time::absoluteTime), not(instanceOf(VersionedStatistic.class)));
+  }
+
+  @Test
+  public void test_primitiveStatistics() {
+    AtomicLong count = new AtomicLong(3);
+    LongValueStatistic counter = longCounter(count::get);
+    assertThat(counter.type(), is(StatisticType.COUNTER));
+    assertThat(counter.longValue(), is(3L));
+    assertThat(counter.value(), is(3L));
+    assertThat(counter, instanceOf(VersionedStatistic.class));
+    long version = ((VersionedStatistic<?>) counter).version();
+    count.incrementAndGet();
+    assertThat(((VersionedStatistic<?>) counter).version(), not(equalTo(version)));
+
+    LongValueStatistic gauge = longGauge(count::get);
+    assertThat(gauge.type(), is(StatisticType.GAUGE));
+    assertThat(gauge.longValue(), is(4L));
+    assertThat(gauge, not(instanceOf(VersionedStatistic.class)));
+
+    DoubleValueStatistic ratio = doubleRatio(() -> 0.25);
+    assertThat(ratio.type(), is(StatisticType.RATIO));
+    assertThat(ratio.doubleValue(), is(0.25));
+    assertThat(ratio.value(), is(0.25));
+  }
+
+}
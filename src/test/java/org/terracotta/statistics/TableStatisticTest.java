@@ -20,20 +20,32 @@ import org.junit.Test;
 import org.terracotta.statistics.registry.Statistic;
 import org.terracotta.statistics.registry.StatisticRegistry;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Supplier;
 
 import static java.util.stream.Collectors.toMap;
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.hasItems;
+import static org.hamcrest.CoreMatchers.instanceOf;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.junit.Assert.assertThat;
 import static org.terracotta.statistics.StatisticType.COUNTER;
 import static org.terracotta.statistics.StatisticType.GAUGE;
 import static org.terracotta.statistics.ValueStatistics.counter;
+import static org.terracotta.statistics.ValueStatistics.doubleRatio;
+import static org.terracotta.statistics.ValueStatistics.longCounter;
+import static org.terracotta.statistics.ValueStatistics.supply;
 
 public class TableStatisticTest {
 
@@ -106,6 +118,95 @@ public class TableStatisticTest {
     assertThat(table.<Long>getStatistic("prepared-query-1", "total-exec-time").get().type(), is(StatisticType.GAUGE));
   }
 
+  @Test
+  public void test_snapshot_reuse() {
+    AtomicLong hits = new AtomicLong(1);
+    TableValueStatistic.Builder builder = TableValueStatistic.newBuilder("hits", "ratio", "name")
+        .withRow("heap", row -> row
+            .registerStatistic("hits", longCounter(hits::get))
+            .registerStatistic("ratio", doubleRatio(() -> hits.get() / 4.0))
+            .registerStatistic("name", supply(GAUGE, () -> "heap-" + hits.get())))
+        .withRow("offheap", row -> row
+            .registerStatistic("hits", counter(() -> hits.get() * 10)));
+    TableValueStatistic statistic = (TableValueStatistic) builder.build();
+
+    Table table = statistic.value();
+    assertThat(table.getRowCount(), is(2));
+    assertThat(new ArrayList<>(table.getRowLabels()), equalTo(Arrays.asList("heap", "offheap")));
+    assertThat(table.getStatisticNames(), equalTo(new String[]{"hits", "name", "ratio"}));
+    assertThat(table.<Long>getStatistic("heap", "hits").get().value(), is(1L));
+    assertThat(table.<Long>getStatistic("heap", "hits").get(), instanceOf(LongValueStatistic.class));
+    assertThat(table.<Double>getStatistic("heap", "ratio").get().value(), is(0.25));
+    assertThat(table.<Double>getStatistic("heap", "ratio").get().type(), is(StatisticType.RATIO));
+    assertThat(table.<String>getStatistic("heap", "name").get().value(), is("heap-1"));
+    assertThat(table.<Long>getStatistic("offheap", "hits").get().value(), is(10L));
+    assertThat(table.getStatistic("offheap", "ratio").isPresent(), is(false));
+    assertThat(table.getStatistic("missing", "hits").isPresent(), is(false));
+
+    hits.set(2);
+    assertThat(table.<Long>getStatistic("heap", "hits").get().value(), is(1L));
+    ValueStatistic<Long> cell = table.<Long>getStatistic("heap", "hits").get();
+    Table refreshed = statistic.snapshot(table);
+    assertThat(refreshed, sameInstance(table));
+    assertThat(cell.value(), is(2L));
+    assertThat(table.<Long>getStatistic("offheap", "hits").get().value(), is(20L));
+    assertThat(table.<String>getStatistic("heap", "name").get().value(), is("heap-2"));
+
+    // a table that is not one of its snapshots, or a snapshot of an older layout, is not reused
+    assertThat(statistic.snapshot(Table.newBuilder("hits").build()), not(sameInstance(table)));
+    builder.withRow("disk", row -> row.registerStatistic("hits", longCounter(() -> 3L)));
+    Table resized = statistic.snapshot(table);
+    assertThat(resized, not(sameInstance(table)));
+    assertThat(resized.getRowCount(), is(3));
+    assertThat(table.getRowCount(), is(2));
+  }
+
+  @Test
+  public void test_table_snapshots() {
+    AtomicLong hits = new AtomicLong(1);
+    TableValueStatistic first = (TableValueStatistic) TableValueStatistic.newBuilder("hits")
+        .withRow("heap", row -> row.registerStatistic("hits", longCounter(hits::get)))
+        .build();
+    TableValueStatistic second = (TableValueStatistic) TableValueStatistic.newBuilder("hits")
+        .withRow("heap", row -> row.registerStatistic("hits", longCounter(() -> 7L)))
+        .build();
+    TableSnapshots snapshots = new TableSnapshots();
+
+    Table table = snapshots.snapshot(first);
+    Table other = snapshots.snapshot(second);
+    snapshots.retainTaken();
+    hits.set(2);
+    assertThat(snapshots.snapshot(first), sameInstance(table));
+    assertThat(table.<Long>getStatistic("heap", "hits").get().value(), is(2L));
+
+    // the snapshot of a statistic that was not taken since the last round is forgotten
+    snapshots.retainTaken();
+    snapshots.retainTaken();
+    assertThat(snapshots.snapshot(second), not(sameInstance(other)));
+    assertThat(snapshots.snapshot(first), not(sameInstance(table)));
+  }
+
+  @Test
+  public void test_snapshot_serializes_as_table() throws Exception {
+    ValueStatistic<Table> statistic = TableValueStatistic.newBuilder("hits", "ratio")
+        .withRow("heap", row -> row
+            .registerStatistic("hits", longCounter(() -> 42L))
+            .registerStatistic("ratio", doubleRatio(() -> 0.5)))
+        .build();
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(statistic.value());
+    }
+    try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+      Table table = (Table) in.readObject();
+      assertThat(table.getClass(), equalTo(Table.class));
+      assertThat(table.<Long>getStatistic("heap", "hits").get().value(), is(42L));
+      assertThat(table.<Double>getStatistic("heap", "ratio").get().value(), is(0.5));
+      assertThat(table.<Double>getStatistic("heap", "ratio").get().type(), is(StatisticType.RATIO));
+    }
+  }
+
   private void assertTable(Table table) {
     assertThat(table.getRowLabels(), hasItems("prepared-query-1", "prepared-query-2"));
 
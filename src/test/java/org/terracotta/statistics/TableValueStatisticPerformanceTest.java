@@ -0,0 +1,96 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.statistics;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+import static org.terracotta.statistics.StatisticType.COUNTER;
+import static org.terracotta.statistics.ValueStatistics.longCounter;
+
+/**
+ * Compares sampling a per-tier {@link TableValueStatistic} through the {@link Table} builder with columnar snapshots,
+ * both fresh and refreshed in place, in time and allocation per sample.
+ */
+@Ignore
+public class TableValueStatisticPerformanceTest {
+
+  private static final String[] COLUMNS = {"Hits", "Misses", "Puts", "Removals", "Evictions", "Expirations", "Mappings", "OccupiedBytes"};
+  private static final String[] TIERS = {"OnHeap", "OffHeap", "Disk", "Clustered"};
+  private static final int SAMPLES = 100_000;
+
+  @Test
+  public void testSampling() {
+    TableValueStatistic statistic = (TableValueStatistic) TableValueStatistic.newBuilder(COLUMNS)
+        .withRows(Arrays.asList(TIERS), (tier, row) -> {
+          for (int i = 0; i < COLUMNS.length; i++) {
+            long value = i;
+            row.registerStatistic(COLUMNS[i], longCounter(() -> value));
+          }
+        })
+        .build();
+
+    long blackhole = 0;
+    for (int round = 0; round < 5; round++) {
+      long allocated = allocatedBytes();
+      long start = System.nanoTime();
+      for (int i = 0; i < SAMPLES; i++) {
+        blackhole += viaBuilder(statistic).getRowCount();
+      }
+      System.out.println("Table builder: " + (System.nanoTime() - start) / SAMPLES + "ns, "
+          + (allocatedBytes() - allocated) / SAMPLES + "B per sample");
+
+      allocated = allocatedBytes();
+      start = System.nanoTime();
+      for (int i = 0; i < SAMPLES; i++) {
+        blackhole += statistic.value().getRowCount();
+      }
+      System.out.println("Columnar snapshot: " + (System.nanoTime() - start) / SAMPLES + "ns, "
+          + (allocatedBytes() - allocated) / SAMPLES + "B per sample");
+
+      Table snapshot = null;
+      allocated = allocatedBytes();
+      start = System.nanoTime();
+      for (int i = 0; i < SAMPLES; i++) {
+        snapshot = statistic.snapshot(snapshot);
+        blackhole += snapshot.getRowCount();
+      }
+      System.out.println("Reused columnar snapshot: " + (System.nanoTime() - start) / SAMPLES + "ns, "
+          + (allocatedBytes() - allocated) / SAMPLES + "B per sample");
+    }
+    System.out.println(blackhole);
+  }
+
+  private static Table viaBuilder(TableValueStatistic statistic) {
+    String[] statisticNames = statistic.getStatisticNames();
+    return Table.newBuilder(statisticNames)
+        .withRows(statistic.getRowLabels(), (row, rowBuilder) -> {
+          ValueStatistic<? extends Serializable>[] vals = statistic.getStatistics(row);
+          for (int i = 0; i < vals.length; i++) {
+            rowBuilder.setStatistic(statisticNames[i], COUNTER, vals[i].value());
+          }
+        })
+        .build();
+  }
+
+  private static long allocatedBytes() {
+    return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+}
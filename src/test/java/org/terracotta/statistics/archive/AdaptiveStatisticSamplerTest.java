@@ -0,0 +1,206 @@
+/*
+ * All content copyright Terracotta, Inc., unless otherwise indicated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.statistics.archive;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+import org.terracotta.statistics.MutableTimeSource;
+import org.terracotta.statistics.Sample;
+import org.terracotta.statistics.StatisticType;
+import org.terracotta.statistics.Time;
+import org.terracotta.statistics.TimeMocking;
+import org.terracotta.statistics.ValueStatistic;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.number.IsCloseTo.closeTo;
+import static org.junit.Assert.assertThat;
+import static org.terracotta.statistics.ValueStatistics.gauge;
+
+public class AdaptiveStatisticSamplerTest {
+
+  private static final MutableTimeSource SOURCE = TimeMocking.push(new MutableTimeSource());
+
+  @AfterClass
+  public static void removeTimeSource() {
+    TimeMocking.pop();
+  }
+
+  @Test
+  public void testCheapStatisticKeepsRequestedPeriod() throws InterruptedException {
+    AtomicLong cost = new AtomicLong(10_000);
+    AdaptiveStatisticSampler<Long> sampler = new AdaptiveStatisticSampler<>(1, SECONDS, 0.01, 64, costing(cost), sample -> {}, Time::absoluteTime);
+    try {
+      for (int i = 0; i < 10; i++) {
+        assertThat(sampler.sample(), is(SECONDS.toNanos(1)));
+      }
+      assertThat(sampler.skippedSamplesStatistic().value(), is(0L));
+      assertThat(sampler.samplingCostStatistic().value(), closeTo(10_000, 0.1));
+      assertThat(sampler.cpuUsageStatistic().value(), closeTo(0.00001, 1e-9));
+      assertThat(sampler.cpuUsageStatistic().type(), is(StatisticType.RATIO));
+    } finally {
+      sampler.shutdown();
+    }
+  }
+
+  @Test
+  public void testExpensiveStatisticIsCoarsenedAndRecovers() throws InterruptedException {
+    // 50ms per sample against a 1% budget needs a 5s period
+    AtomicLong cost = new AtomicLong(MILLISECONDS.toNanos(50));
+    List<Sample<Long>> samples = new ArrayList<>();
+    AdaptiveStatisticSampler<Long> sampler = new AdaptiveStatisticSampler<>(1, SECONDS, 0.01, 64, costing(cost), samples::add, Time::absoluteTime);
+    try {
+      assertThat(sampler.sample(), is(SECONDS.toNanos(8)));
+      assertThat(sampler.samplingPeriodStatistic().value(), is(SECONDS.toNanos(8)));
+      assertThat(sampler.skippedSamplesStatistic().value(), is(0L));
+      assertThat(sampler.sample(), is(SECONDS.toNanos(8)));
+      // the second sample came after 8 requested periods
+      assertThat(sampler.skippedSamplesStatistic().value(), is(7L));
+      assertThat(samples.size(), is(2));
+
+      cost.set(MILLISECONDS.toNanos(1));
+      long period = SECONDS.toNanos(8);
+      for (int i = 0; i < 20; i++) {
+        period = sampler.sample();
+      }
+      assertThat(period, is(SECONDS.toNanos(1)));
+    } finally {
+      sampler.shutdown();
+    }
+  }
+
+  @Test
+  public void testCoarseningIsBounded() throws InterruptedException {
+    AtomicLong cost = new AtomicLong(SECONDS.toNanos(10));
+    AdaptiveStatisticSampler<Long> sampler = new AdaptiveStatisticSampler<>(1, SECONDS, 0.01, 16, costing(cost), sample -> {}, Time::absoluteTime);
+    try {
+      assertThat(sampler.sample(), is(SECONDS.toNanos(16)));
+      assertThat(sampler.sample(), is(SECONDS.toNanos(16)));
+      assertThat(sampler.skippedSamplesStatistic().value(), is(15L));
+    } finally {
+      sampler.shutdown();
+    }
+  }
+
+  @Test
+  public void testSetPeriodDiscardsCoarsening() throws InterruptedException {
+    AtomicLong cost = new AtomicLong(MILLISECONDS.toNanos(50));
+    AdaptiveStatisticSampler<Long> sampler = new AdaptiveStatisticSampler<>(1, SECONDS, 0.01, 64, costing(cost), sample -> {}, Time::absoluteTime);
+    try {
+      sampler.sample();
+      sampler.setPeriod(10, SECONDS);
+      assertThat(sampler.samplingPeriodStatistic().value(), is(SECONDS.toNanos(10)));
+    } finally {
+      sampler.shutdown();
+    }
+  }
+
+  @Test
+  public void testScheduledSampling() throws InterruptedException {
+    List<Sample<Long>> samples = new ArrayList<>();
+    AdaptiveStatisticSampler<Long> sampler = new AdaptiveStatisticSampler<>(10, MILLISECONDS, 0.01, 64, gauge(() -> 42L), sample -> {
+      synchronized (samples) {
+        samples.add(sample);
+      }
+    }, System::currentTimeMillis);
+    try {
+      sampler.start();
+      MILLISECONDS.sleep(200);
+      sampler.stop();
+    } finally {
+      sampler.shutdown();
+    }
+    synchronized (samples) {
+      assertThat(samples.isEmpty(), is(false));
+    }
+  }
+
+  @Test
+  public void testSetPeriodDuringSampleKeepsOneChain() throws Exception {
+    ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+    CountDownLatch sampling = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    AdaptiveStatisticSampler<Long> sampler = new AdaptiveStatisticSampler<>(executor, 10, MILLISECONDS, 1, 1, gauge(() -> {
+      sampling.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        throw new AssertionError(e);
+      }
+      return 42L;
+    }), sample -> {}, System::currentTimeMillis);
+    try {
+      sampler.start();
+      assertThat(sampling.await(10, SECONDS), is(true));
+      sampler.setPeriod(1, TimeUnit.HOURS);
+      release.countDown();
+      while (executor.getCompletedTaskCount() == 0) {
+        MILLISECONDS.sleep(10);
+      }
+      // only the restarted chain is scheduled, the sample in flight did not reschedule itself
+      assertThat(executor.getQueue().size(), is(1));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testFailingSampleKeepsSampling() throws InterruptedException {
+    AtomicLong calls = new AtomicLong();
+    List<Sample<Long>> samples = new ArrayList<>();
+    AdaptiveStatisticSampler<Long> sampler = new AdaptiveStatisticSampler<>(10, MILLISECONDS, 1, 1, gauge(() -> {
+      if (calls.getAndIncrement() == 0) {
+        throw new IllegalStateException();
+      }
+      return 42L;
+    }), sample -> {
+      synchronized (samples) {
+        samples.add(sample);
+      }
+    }, System::currentTimeMillis);
+    try {
+      sampler.start();
+      MILLISECONDS.sleep(200);
+      sampler.stop();
+    } finally {
+      sampler.shutdown();
+    }
+    assertThat(sampler.failedSamplesStatistic().longValue(), is(1L));
+    synchronized (samples) {
+      assertThat(samples.isEmpty(), is(false));
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testBudgetMustBePositive() {
+    new AdaptiveStatisticSampler<>(1, SECONDS, 0, 64, gauge(() -> 1L), sample -> {}, Time::absoluteTime);
+  }
+
+  private static ValueStatistic<Long> costing(AtomicLong cost) {
+    return gauge(() -> {
+      SOURCE.advanceTime(cost.get(), TimeUnit.NANOSECONDS);
+      return 42L;
+    });
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * All content copyright Terracotta, Inc., unless otherwise indicated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.statistics.archive;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.terracotta.statistics.Sample;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Compares the footprint of {@link CompressedArchive} with a {@link StatisticArchive} for a slowly changing counter and
+ * a noisy gauge sampled once a second.
+ */
+@Ignore
+public class CompressedArchivePerformanceTest {
+
+  private static final int SAMPLES = 86_400;
+  private static final int ARCHIVES = 10;
+
+  @Test
+  public void testCounterMemory() {
+    long generic = footprint(() -> {
+      StatisticArchive<Long> archive = new StatisticArchive<>(SAMPLES);
+      counter(archive::add);
+      return archive;
+    });
+    long compressed = footprint(() -> {
+      CompressedArchive<Long> archive = CompressedArchive.longs(3_600, 25);
+      counter(archive::add);
+      return archive;
+    });
+    System.out.println("Counter StatisticArchive<Long> bytes/sample: " + ((double) generic) / (ARCHIVES * SAMPLES));
+    System.out.println("Counter CompressedArchive<Long> bytes/sample: " + ((double) compressed) / (ARCHIVES * SAMPLES));
+  }
+
+  @Test
+  public void testGaugeMemory() {
+    long generic = footprint(() -> {
+      StatisticArchive<Double> archive = new StatisticArchive<>(SAMPLES);
+      gauge(archive::add);
+      return archive;
+    });
+    long compressed = footprint(() -> {
+      CompressedArchive<Double> archive = CompressedArchive.doubles(3_600, 25);
+      gauge(archive::add);
+      return archive;
+    });
+    System.out.println("Gauge StatisticArchive<Double> bytes/sample: " + ((double) generic) / (ARCHIVES * SAMPLES));
+    System.out.println("Gauge CompressedArchive<Double> bytes/sample: " + ((double) compressed) / (ARCHIVES * SAMPLES));
+  }
+
+  @Test
+  public void testReadThroughput() {
+    CompressedArchive<Long> archive = CompressedArchive.longs(3_600, 25);
+    counter(archive::add);
+    for (int round = 0; round < 5; round++) {
+      long start = System.nanoTime();
+      int read = 0;
+      for (int i = 0; i < 20; i++) {
+        read += archive.getArchive(SAMPLES * 500L).size();
+      }
+      long duration = System.nanoTime() - start;
+      System.out.println("CompressedArchive.getArchive(since) samples/s: " + ((double) read) / duration * 1_000_000_000L);
+    }
+  }
+
+  private static void counter(Consumer<Sample<Long>> sink) {
+    Random rndm = new Random(42);
+    long value = 1_000_000;
+    for (long t = 0; t < SAMPLES; t++) {
+      if (rndm.nextInt(10) == 0) {
+        value += rndm.nextInt(50);
+      }
+      // sampler jitter of a millisecond either way
+      sink.accept(new Sample<>(1_500_000_000_000L + t * 1_000 + rndm.nextInt(3) - 1, value));
+    }
+  }
+
+  private static void gauge(Consumer<Sample<Double>> sink) {
+    Random rndm = new Random(42);
+    for (long t = 0; t < SAMPLES; t++) {
+      sink.accept(new Sample<>(1_500_000_000_000L + t * 1_000, (double) (500 + rndm.nextInt(20))));
+    }
+  }
+
+  private static long footprint(Supplier<Object> factory) {
+    List<Object> retained = new ArrayList<>();
+    long before = usedMemory();
+    for (int i = 0; i < ARCHIVES; i++) {
+      retained.add(factory.get());
+    }
+    long after = usedMemory();
+    if (retained.hashCode() == 42) {
+      System.out.println();
+    }
+    return after - before;
+  }
+
+  private static long usedMemory() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 5; i++) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+}
@@ -0,0 +1,150 @@
+/*
+ * All content copyright Terracotta, Inc., unless otherwise indicated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.statistics.archive;
+
+import org.hamcrest.collection.IsEmptyCollection;
+import org.junit.Test;
+import org.terracotta.statistics.Sample;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.collection.IsIterableContainingInOrder.contains;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class CompressedArchiveTest {
+
+  @Test
+  public void testEmptyArchive() {
+    CompressedArchive<Long> archive = CompressedArchive.longs(4, 2);
+    assertThat(archive.getArchive(), IsEmptyCollection.empty());
+    assertThat(archive.size(), is(0));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testOccupiedArchive() {
+    CompressedArchive<Long> archive = CompressedArchive.longs(4, 2);
+    archive.add(new Sample<>(1_000, 42L));
+    archive.add(new Sample<>(2_000, 43L));
+    assertThat(archive.getArchive(), contains(new Sample<>(1_000, 42L), new Sample<>(2_000, 43L)));
+  }
+
+  @Test
+  public void testLongRoundTrip() {
+    Random rndm = new Random(42);
+    List<Sample<Long>> expected = new ArrayList<>();
+    long timestamp = -5_000;
+    for (int i = 0; i < 1_000; i++) {
+      switch (i % 5) {
+        case 0:
+          timestamp += 1_000;
+          break;
+        case 1:
+          timestamp += rndm.nextInt(5_000);
+          break;
+        case 2:
+          timestamp += rndm.nextInt(Integer.MAX_VALUE) * 64L;
+          break;
+        case 3:
+          timestamp -= rndm.nextInt(100);
+          break;
+        default:
+          timestamp += 1;
+      }
+      long value = i % 7 == 0 ? rndm.nextLong() : i % 3 == 0 ? i : i / 10;
+      expected.add(new Sample<>(timestamp, value));
+    }
+    expected.add(new Sample<>(Long.MAX_VALUE, Long.MIN_VALUE));
+    expected.add(new Sample<>(Long.MIN_VALUE, Long.MAX_VALUE));
+
+    CompressedArchive<Long> archive = CompressedArchive.longs(64, 100);
+    expected.forEach(archive::add);
+    assertThat(archive.getArchive(), is(expected));
+  }
+
+  @Test
+  public void testDoubleRoundTrip() {
+    Random rndm = new Random(42);
+    List<Sample<Double>> expected = new ArrayList<>();
+    double[] specials = {0.0, -0.0, Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.MIN_VALUE, Double.MAX_VALUE};
+    for (int i = 0; i < 1_000; i++) {
+      double value;
+      if (i % 11 == 0) {
+        value = specials[(i / 11) % specials.length];
+      } else if (i % 3 == 0) {
+        value = rndm.nextDouble();
+      } else {
+        value = 12.5 + (i / 20);
+      }
+      expected.add(new Sample<>(i * 1_000L, value));
+    }
+
+    CompressedArchive<Double> archive = CompressedArchive.doubles(64, 100);
+    expected.forEach(archive::add);
+    List<Sample<Double>> actual = archive.getArchive();
+    assertThat(actual.size(), is(expected.size()));
+    for (int i = 0; i < expected.size(); i++) {
+      assertThat(actual.get(i).getTimestamp(), is(expected.get(i).getTimestamp()));
+      assertThat(Double.doubleToRawLongBits(actual.get(i).getSample()), is(Double.doubleToRawLongBits(expected.get(i).getSample())));
+    }
+  }
+
+  @Test
+  public void testOldestBlockEvictedWhole() {
+    CompressedArchive<Long> archive = CompressedArchive.longs(4, 3);
+    for (long i = 0; i < 12; i++) {
+      archive.add(new Sample<>(i, i));
+    }
+    assertThat(archive.size(), is(8));
+    assertThat(timestamps(archive.getArchive()), contains(4L, 5L, 6L, 7L, 8L, 9L, 10L, 11L));
+
+    archive.add(new Sample<>(12, 12L));
+    assertThat(archive.size(), is(9));
+    assertThat(timestamps(archive.getArchive()), contains(4L, 5L, 6L, 7L, 8L, 9L, 10L, 11L, 12L));
+  }
+
+  @Test
+  public void testSince() {
+    CompressedArchive<Long> archive = CompressedArchive.longs(4, 3);
+    for (long i = 0; i < 10; i++) {
+      archive.add(new Sample<>(i * 10, i));
+    }
+    assertThat(timestamps(archive.getArchive(55)), contains(60L, 70L, 80L, 90L));
+    assertThat(timestamps(archive.getArchive(90)), contains(90L));
+    assertThat(archive.getArchive(91), IsEmptyCollection.empty());
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testClear() {
+    CompressedArchive<Double> archive = CompressedArchive.doubles(4, 3);
+    for (long i = 0; i < 10; i++) {
+      archive.add(new Sample<>(i, 1.0));
+    }
+    archive.clear();
+    assertThat(archive.getArchive(), IsEmptyCollection.empty());
+    archive.add(new Sample<>(20, 2.0));
+    assertThat(archive.getArchive(), contains(new Sample<>(20, 2.0)));
+  }
+
+  private static <T extends Number> List<Long> timestamps(List<Sample<T>> samples) {
+    return samples.stream().map(Sample::getTimestamp).collect(toList());
+  }
+}
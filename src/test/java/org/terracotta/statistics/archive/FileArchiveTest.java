@@ -0,0 +1,175 @@
+/*
+ * All content copyright Terracotta, Inc., unless otherwise indicated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.statistics.archive;
+
+import org.hamcrest.collection.IsEmptyCollection;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.terracotta.statistics.Sample;
+import org.terracotta.statistics.Table;
+
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.collection.IsIterableContainingInOrder.contains;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.terracotta.statistics.StatisticType.COUNTER;
+
+public class FileArchiveTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testSeriesRoundTrip() throws IOException {
+    try (FileArchive archive = new FileArchive(folder.getRoot().toPath(), 4096, 2, 1, SECONDS)) {
+      archive.append("hits", new Sample<>(0, 1L));
+      archive.append("ratio", new Sample<>(0, 0.5));
+      archive.append("hits", new Sample<>(1, 2L));
+      archive.append("name", new Sample<>(1, "foo"));
+      archive.append("ratio", new Sample<>(1, (Double) null));
+
+      assertThat(archive.<Long>getArchive("hits", Long.MIN_VALUE), contains(new Sample<>(0, 1L), new Sample<>(1, 2L)));
+      assertThat(archive.<Double>getArchive("ratio", Long.MIN_VALUE), contains(new Sample<>(0, 0.5), new Sample<>(1, null)));
+      assertThat(archive.<String>getArchive("name", Long.MIN_VALUE), contains(new Sample<>(1, "foo")));
+      assertThat(archive.<Long>getArchive("hits", 1), contains(new Sample<>(1, 2L)));
+      assertThat(archive.getArchive("misses", Long.MIN_VALUE), IsEmptyCollection.empty());
+    }
+  }
+
+  @Test
+  public void testRotationBoundsDiskUsage() throws IOException {
+    Path directory = folder.getRoot().toPath();
+    try (FileArchive archive = new FileArchive(directory, 1024, 3, 1, SECONDS)) {
+      for (long i = 0; i < 1_000; i++) {
+        archive.append("hits", new Sample<>(i, i));
+      }
+      assertThat(segmentCount(directory), is(3L));
+
+      List<Sample<Long>> samples = archive.getArchive("hits", Long.MIN_VALUE);
+      // the retained samples are the most recent, with no gaps
+      assertThat(samples.get(samples.size() - 1).getTimestamp(), is(999L));
+      for (int i = 1; i < samples.size(); i++) {
+        assertThat(samples.get(i).getTimestamp(), is(samples.get(i - 1).getTimestamp() + 1));
+      }
+      // each segment repeats the series definition so that it can be replayed alone
+      assertThat(samples.size() > 100, is(true));
+    }
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testReplayAfterCrash() throws IOException {
+    Path directory = folder.getRoot().toPath();
+    FileArchive crashed = new FileArchive(directory, 4096, 4, 1, SECONDS);
+    crashed.append("hits", new Sample<>(0, 1L));
+    crashed.append("misses", new Sample<>(0, 5L));
+    crashed.append("hits", new Sample<>(1, 2L));
+    crashed.append("hits", new Sample<>(2, 3L));
+    // no close
+
+    List<String> replayed = new ArrayList<>();
+    FileArchive.replay(directory, 1, Long.MAX_VALUE, (name, sample) -> replayed.add(name + "=" + sample));
+    assertThat(replayed, contains("hits=2 @ 1", "hits=3 @ 2"));
+
+    try (FileArchive restarted = new FileArchive(directory, 4096, 4, 1, SECONDS)) {
+      restarted.append("hits", new Sample<>(3, 4L));
+      assertThat(restarted.<Long>getArchive("hits", Long.MIN_VALUE),
+          contains(new Sample<>(0, 1L), new Sample<>(1, 2L), new Sample<>(2, 3L), new Sample<>(3, 4L)));
+      assertThat(segmentCount(directory), is(2L));
+    }
+  }
+
+  @Test
+  public void testCorruptLengthIsATornTail() throws IOException {
+    for (int length : new int[] {-1, Integer.MAX_VALUE}) {
+      Path directory = folder.newFolder().toPath();
+      FileArchive crashed = new FileArchive(directory, 4096, 4, 1, SECONDS);
+      crashed.append("hits", new Sample<>(0, 1L));
+      crashed.append("name", new Sample<>(1, "foo"));
+      // no close
+
+      try (Stream<Path> files = Files.list(directory); FileChannel channel = FileChannel.open(files.findFirst().get(), WRITE)) {
+        // the length of the serialized value, after the two name records, the long record and the object header
+        channel.write((ByteBuffer) ByteBuffer.allocate(Integer.BYTES).putInt(length).flip(), 13 + 21 + 13 + 13);
+      }
+
+      List<String> replayed = new ArrayList<>();
+      FileArchive.replay(directory, Long.MIN_VALUE, Long.MAX_VALUE, (name, sample) -> replayed.add(name + "=" + sample));
+      assertThat(replayed, contains("hits=1 @ 0"));
+    }
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testOverspillSink() throws IOException {
+    try (FileArchive archive = new FileArchive(folder.getRoot().toPath(), 4096, 2, 1, SECONDS)) {
+      StatisticArchive<Long> memory = new StatisticArchive<>(2, archive.sink("hits"));
+      for (long i = 0; i < 5; i++) {
+        memory.add(new Sample<>(i, i));
+      }
+      assertThat(memory.getArchive(), contains(new Sample<>(3, 3L), new Sample<>(4, 4L)));
+      assertThat(archive.<Long>getArchive("hits", Long.MIN_VALUE), contains(new Sample<>(0, 0L), new Sample<>(1, 1L), new Sample<>(2, 2L)));
+    }
+  }
+
+  @Test
+  public void testTableRoundTrip() throws IOException {
+    try (FileArchive archive = new FileArchive(folder.getRoot().toPath(), 4096, 2, 1, SECONDS)) {
+      archive.append("table", new Sample<>(0, Table.newBuilder("count").setStatistic("row", "count", COUNTER, 42L).build()));
+
+      List<Sample<Table>> samples = archive.getArchive("table", Long.MIN_VALUE);
+      assertThat(samples.size(), is(1));
+      assertThat(samples.get(0).getSample().<Long>getStatistic("row", "count").get().value(), is(42L));
+    }
+  }
+
+  @Test(expected = InvalidClassException.class)
+  public void testUnexpectedClassRejected() throws IOException {
+    try (FileArchive archive = new FileArchive(folder.getRoot().toPath(), 4096, 2, 1, SECONDS)) {
+      archive.append("list", new Sample<>(0, new ArrayList<>(Arrays.asList("foo", "bar"))));
+      archive.getArchive("list", Long.MIN_VALUE);
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testOversizedSampleRejected() throws IOException {
+    try (FileArchive archive = new FileArchive(folder.getRoot().toPath(), 64, 2, 1, SECONDS)) {
+      archive.append("big", new Sample<Serializable>(0, new byte[128]));
+    }
+  }
+
+  private static long segmentCount(Path directory) throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files.collect(toList()).size();
+    }
+  }
+}
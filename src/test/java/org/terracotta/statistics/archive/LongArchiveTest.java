@@ -0,0 +1,146 @@
+/*
+ * All content copyright Terracotta, Inc., unless otherwise indicated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.statistics.archive;
+
+import org.hamcrest.collection.IsEmptyCollection;
+import org.junit.Test;
+import org.terracotta.statistics.Sample;
+
+import java.util.ConcurrentModificationException;
+import java.util.List;
+
+import static org.hamcrest.collection.IsIterableContainingInOrder.contains;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class LongArchiveTest {
+
+  @Test
+  public void testEmptyArchive() {
+    LongArchive archive = new LongArchive(2);
+    assertThat(archive.getArchive(), IsEmptyCollection.empty());
+    assertThat(archive.cursor().next(), is(false));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testOccupiedArchive() {
+    LongArchive archive = new LongArchive(2);
+    archive.add(0, 42L);
+    archive.add(new Sample<>(1, 43L));
+    assertThat(archive.getArchive(), contains(new Sample<>(0, 42L), new Sample<>(1, 43L)));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testWrappedArchive() {
+    LongArchive archive = new LongArchive(3);
+    for (int i = 0; i < 5; i++) {
+      archive.add(i, i * 10L);
+    }
+    assertThat(archive.size(), is(3));
+    assertThat(archive.getArchive(), contains(new Sample<>(2, 20L), new Sample<>(3, 30L), new Sample<>(4, 40L)));
+    assertThat(archive.getArchive(3), contains(new Sample<>(3, 30L), new Sample<>(4, 40L)));
+    assertThat(archive.getArchive(5), IsEmptyCollection.empty());
+  }
+
+  @Test
+  public void testCursor() {
+    LongArchive archive = new LongArchive(3);
+    for (int i = 0; i < 5; i++) {
+      archive.add(i, i * 10L);
+    }
+    LongArchive.Cursor cursor = archive.cursor(3);
+    assertThat(cursor.next(), is(true));
+    assertThat(cursor.timestamp(), is(3L));
+    assertThat(cursor.value(), is(30L));
+    assertThat(cursor.next(), is(true));
+    assertThat(cursor.value(), is(40L));
+    assertThat(cursor.next(), is(false));
+
+    archive.add(5, 50L);
+    assertThat(cursor.next(), is(true));
+    assertThat(cursor.value(), is(50L));
+  }
+
+  @Test
+  public void testCursorSkipsOverwrittenSamples() {
+    LongArchive archive = new LongArchive(3);
+    for (int i = 0; i < 3; i++) {
+      archive.add(i, i);
+    }
+    LongArchive.Cursor cursor = archive.cursor();
+    assertThat(cursor.next(), is(true));
+    assertThat(cursor.value(), is(0L));
+    for (int i = 3; i < 8; i++) {
+      archive.add(i, i);
+    }
+    assertThat(cursor.next(), is(true));
+    assertThat(cursor.value(), is(5L));
+  }
+
+  @Test
+  public void testViewDetectsWrap() {
+    LongArchive archive = new LongArchive(2);
+    archive.add(0, 0L);
+    archive.add(1, 1L);
+    List<Sample<Long>> view = archive.getArchive();
+    archive.add(2, 2L);
+    assertThat(view.get(1), is(new Sample<>(1, 1L)));
+    try {
+      view.get(0);
+      fail("Expected ConcurrentModificationException");
+    } catch (ConcurrentModificationException e) {
+      //expected
+    }
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testResize() {
+    LongArchive archive = new LongArchive(4);
+    for (int i = 0; i < 4; i++) {
+      archive.add(i, i);
+    }
+    List<Sample<Long>> view = archive.getArchive();
+    archive.setCapacity(2);
+    assertThat(archive.getArchive(), contains(new Sample<>(2, 2L), new Sample<>(3, 3L)));
+    // views of the previous ring are unaffected
+    assertThat(view.size(), is(4));
+    assertThat(view.get(0), is(new Sample<>(0, 0L)));
+
+    archive.setCapacity(3);
+    archive.add(4, 4L);
+    assertThat(archive.getArchive(), contains(new Sample<>(2, 2L), new Sample<>(3, 3L), new Sample<>(4, 4L)));
+
+    archive.clear();
+    assertThat(archive.getArchive(), IsEmptyCollection.empty());
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testDoubleArchive() {
+    DoubleArchive archive = new DoubleArchive(2);
+    archive.add(0, 0.5);
+    archive.add(new Sample<>(1, Double.NaN));
+    archive.add(2, -1.25);
+    assertThat(archive.getArchive(), contains(new Sample<>(1, Double.NaN), new Sample<>(2, -1.25)));
+    DoubleArchive.Cursor cursor = archive.cursor(2);
+    assertThat(cursor.next(), is(true));
+    assertThat(cursor.value(), is(-1.25));
+  }
+}
@@ -0,0 +1,122 @@
+/*
+ * All content copyright Terracotta, Inc., unless otherwise indicated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.statistics.archive;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.terracotta.statistics.Sample;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * Compares the footprint and read throughput of {@link LongArchive} with a {@link StatisticArchive} of {@code Long}.
+ */
+@Ignore
+public class PrimitiveArchivePerformanceTest {
+
+  private static final int CAPACITY = 100_000;
+  private static final int ARCHIVES = 20;
+  private static final int READS = 200;
+
+  @Test
+  public void testMemory() {
+    long generic = footprint(i -> {
+      StatisticArchive<Long> archive = new StatisticArchive<>(CAPACITY);
+      for (long t = 0; t < CAPACITY; t++) {
+        // values outside the Long cache, as for any real counter
+        archive.add(new Sample<>(t, t + 1_000));
+      }
+      return archive;
+    });
+    long primitive = footprint(i -> {
+      LongArchive archive = new LongArchive(CAPACITY);
+      for (long t = 0; t < CAPACITY; t++) {
+        archive.add(t, t + 1_000);
+      }
+      return archive;
+    });
+    System.out.println("StatisticArchive<Long> bytes/sample: " + ((double) generic) / (ARCHIVES * CAPACITY));
+    System.out.println("LongArchive bytes/sample: " + ((double) primitive) / (ARCHIVES * CAPACITY));
+  }
+
+  @Test
+  public void testReadThroughput() {
+    StatisticArchive<Long> generic = new StatisticArchive<>(CAPACITY);
+    LongArchive primitive = new LongArchive(CAPACITY);
+    for (long t = 0; t < CAPACITY; t++) {
+      generic.add(new Sample<>(t, t + 1_000));
+      primitive.add(t, t + 1_000);
+    }
+
+    for (int round = 0; round < 3; round++) {
+      System.out.println("StatisticArchive.getArchive(since) samples/s: " + throughput(a -> sum(a.getArchive(CAPACITY / 2)), generic));
+      System.out.println("LongArchive.getArchive(since) samples/s: " + throughput(a -> sum(a.getArchive(CAPACITY / 2)), primitive));
+      System.out.println("LongArchive.cursor(since) samples/s: " + throughput(a -> {
+        long sum = 0;
+        LongArchive.Cursor cursor = a.cursor(CAPACITY / 2);
+        while (cursor.next()) {
+          sum += cursor.value();
+        }
+        return sum;
+      }, primitive));
+    }
+  }
+
+  private static long sum(List<Sample<Long>> samples) {
+    long sum = 0;
+    for (Sample<Long> sample : samples) {
+      sum += sample.getSample();
+    }
+    return sum;
+  }
+
+  private static <A> double throughput(ToLongFunction<A> read, A archive) {
+    long blackhole = 0;
+    long start = System.nanoTime();
+    for (int i = 0; i < READS; i++) {
+      blackhole += read.applyAsLong(archive);
+    }
+    long duration = System.nanoTime() - start;
+    if (blackhole == 42) {
+      System.out.println();
+    }
+    return (((double) READS) * (CAPACITY / 2)) / duration * 1_000_000_000L;
+  }
+
+  private static long footprint(IntFunction<Object> factory) {
+    List<Object> retained = new ArrayList<>();
+    long before = usedMemory();
+    for (int i = 0; i < ARCHIVES; i++) {
+      retained.add(factory.apply(i));
+    }
+    long after = usedMemory();
+    if (retained.hashCode() == 42) {
+      System.out.println();
+    }
+    return after - before;
+  }
+
+  private static long usedMemory() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 5; i++) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+}
@@ -0,0 +1,139 @@
+/*
+ * All content copyright Terracotta, Inc., unless otherwise indicated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.statistics.archive;
+
+import org.hamcrest.collection.IsEmptyCollection;
+import org.junit.Test;
+import org.terracotta.statistics.Sample;
+import org.terracotta.statistics.StatisticType;
+
+import java.util.List;
+
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.collection.IsIterableContainingInOrder.contains;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsInstanceOf.instanceOf;
+import static org.junit.Assert.assertThat;
+import static org.terracotta.statistics.archive.RollupArchive.tier;
+
+public class RollupArchiveTest {
+
+  @Test
+  public void testEmptyArchive() {
+    RollupArchive<Long> archive = new RollupArchive<>(StatisticType.GAUGE, 2, tier(10, MILLISECONDS, 2));
+    assertThat(archive.getArchive(), IsEmptyCollection.empty());
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testRawSamplesOnly() {
+    RollupArchive<Long> archive = new RollupArchive<>(StatisticType.GAUGE, 2, tier(10, MILLISECONDS, 2));
+    archive.add(new Sample<>(0, 1L));
+    archive.add(new Sample<>(1, 2L));
+    assertThat(archive.getArchive(), contains(new Sample<>(0, 1L), new Sample<>(1, 2L)));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testGaugeRollsUpToAverage() {
+    RollupArchive<Long> archive = new RollupArchive<>(StatisticType.GAUGE, 2, tier(10, MILLISECONDS, 4));
+    for (long t = 0; t < 22; t++) {
+      archive.add(new Sample<>(t, t));
+    }
+    // 0..9 and 10..19 folded, 20 and 21 raw
+    assertThat(archive.getTier(0, Long.MIN_VALUE), contains(new Sample<>(9, new Rollup(4.5, 0, 9, 10))));
+    assertThat(archive.getArchive(), contains(
+        new Sample<>(9, new Rollup(4.5, 0, 9, 10)),
+        new Sample<>(19, new Rollup(14.5, 10, 19, 10)),
+        new Sample<>(20, 20L),
+        new Sample<>(21, 21L)));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testCounterRollsUpToLastValue() {
+    RollupArchive<Long> archive = new RollupArchive<>(StatisticType.COUNTER, 1, tier(10, MILLISECONDS, 4));
+    for (long t = 0; t < 21; t++) {
+      archive.add(new Sample<>(t, t * 100));
+    }
+    assertThat(archive.getArchive(), contains(
+        new Sample<>(9, new Rollup(900L, 0, 900, 10)),
+        new Sample<>(19, new Rollup(1_900L, 1_000, 1_900, 10)),
+        new Sample<>(20, 2_000L)));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testRollupsCascadeThroughTiers() {
+    RollupArchive<Double> archive = new RollupArchive<>(StatisticType.GAUGE, 1, tier(10, MILLISECONDS, 1), tier(100, MILLISECONDS, 2));
+    for (long t = 0; t < 221; t++) {
+      archive.add(new Sample<>(t, (double) t));
+    }
+    // 0..99 and 100..199 in the coarse tier (the latter still pending), 200..209 and 210..219 (pending) in the fine
+    // tier, 220 raw
+    assertThat(archive.getTier(1, Long.MIN_VALUE), contains(new Sample<>(99, new Rollup(49.5, 0, 99, 100))));
+    assertThat(archive.getArchive(), contains(
+        new Sample<>(99, new Rollup(49.5, 0, 99, 100)),
+        new Sample<>(199, new Rollup(149.5, 100, 199, 100)),
+        new Sample<>(209, new Rollup(204.5, 200, 209, 10)),
+        new Sample<>(219, new Rollup(214.5, 210, 219, 10)),
+        new Sample<>(220, 220.0)));
+  }
+
+  @Test
+  public void testSince() {
+    RollupArchive<Long> archive = new RollupArchive<>(StatisticType.GAUGE, 2, tier(10, MILLISECONDS, 4));
+    for (long t = 0; t < 42; t++) {
+      archive.add(new Sample<>(t, t));
+    }
+    assertThat(timestamps(archive.getArchive(20)), contains(29L, 39L, 40L, 41L));
+    assertThat(timestamps(archive.getArchive(40)), contains(40L, 41L));
+  }
+
+  @Test
+  public void testDayOfSecondsInBoundedMemory() {
+    RollupArchive<Long> archive = new RollupArchive<>(StatisticType.GAUGE, 60,
+        tier(1, MINUTES, 60), tier(1, HOURS, 24));
+    long day = HOURS.toMillis(24);
+    for (long t = 0; t < day; t += SECONDS.toMillis(1)) {
+      archive.add(new Sample<>(t, 1L));
+    }
+    List<Sample<Number>> history = archive.getArchive();
+    assertThat(history.size() <= 60 + 60 + 24 + 2, is(true));
+    assertThat(history.get(0).getTimestamp() < HOURS.toMillis(1), is(true));
+    assertThat(history.get(0).getSample(), instanceOf(Rollup.class));
+    assertThat(history.stream().mapToLong(s -> s.getSample() instanceof Rollup ? ((Rollup) s.getSample()).getCount() : 1).sum(),
+        is(day / 1_000));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testTableRejected() {
+    new RollupArchive<Long>(StatisticType.TABLE, 1, tier(1, SECONDS, 1));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testTiersMustCoarsen() {
+    new RollupArchive<Long>(StatisticType.GAUGE, 1, tier(1, MINUTES, 1), tier(1, SECONDS, 1));
+  }
+
+  private static List<Long> timestamps(List<Sample<Number>> samples) {
+    return samples.stream().map(Sample::getTimestamp).collect(toList());
+  }
+}
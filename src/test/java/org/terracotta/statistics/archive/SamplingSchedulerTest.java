@@ -0,0 +1,221 @@
+/*
+ * All content copyright Terracotta, Inc., unless otherwise indicated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.statistics.archive;
+
+import org.junit.Test;
+import org.terracotta.statistics.Sample;
+import org.terracotta.statistics.ValueStatistics;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.everyItem;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.startsWith;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.terracotta.statistics.StatisticType.GAUGE;
+import static org.terracotta.statistics.ValueStatistics.constant;
+import static org.terracotta.statistics.ValueStatistics.doubleGauge;
+import static org.terracotta.statistics.ValueStatistics.longCounter;
+import static org.terracotta.statistics.ValueStatistics.supply;
+
+public class SamplingSchedulerTest {
+
+  @Test
+  public void testSamplesAlignedToPeriodWithSharedTimestamp() {
+    AtomicLong time = new AtomicLong(1_050);
+    SamplingScheduler scheduler = new SamplingScheduler(100, MILLISECONDS, time::get);
+    List<Sample<Integer>> a = new ArrayList<>();
+    List<Sample<Integer>> b = new ArrayList<>();
+    List<Sample<Integer>> c = new ArrayList<>();
+    scheduler.schedule(1, SECONDS, constant(GAUGE, 1), a::add, false);
+    scheduler.schedule(1, SECONDS, constant(GAUGE, 2), b::add, false);
+    scheduler.schedule(500, MILLISECONDS, constant(GAUGE, 3), c::add, false);
+
+    time.set(1_499);
+    scheduler.tick();
+    assertThat(c, empty());
+
+    time.set(1_503);
+    scheduler.tick();
+    assertThat(timestamps(c), contains(1_503L));
+    assertThat(a, empty());
+
+    time.set(2_001);
+    scheduler.tick();
+    assertThat(timestamps(a), contains(2_001L));
+    assertThat(timestamps(b), contains(2_001L));
+    assertThat(timestamps(c), contains(1_503L, 2_001L));
+  }
+
+  @Test
+  public void testPeriodRoundedUpToTick() {
+    AtomicLong time = new AtomicLong(0);
+    SamplingScheduler scheduler = new SamplingScheduler(100, MILLISECONDS, time::get);
+    List<Sample<Integer>> samples = new ArrayList<>();
+    scheduler.schedule(150, MILLISECONDS, constant(GAUGE, 1), samples::add, false);
+
+    for (long t = 100; t <= 1_000; t += 100) {
+      time.set(t);
+      scheduler.tick();
+    }
+    assertThat(timestamps(samples), contains(200L, 400L, 600L, 800L, 1_000L));
+  }
+
+  @Test
+  public void testStallSamplesOnce() {
+    AtomicLong time = new AtomicLong(0);
+    SamplingScheduler scheduler = new SamplingScheduler(100, MILLISECONDS, time::get);
+    List<Sample<Integer>> fast = new ArrayList<>();
+    List<Sample<Integer>> slow = new ArrayList<>();
+    scheduler.schedule(1, SECONDS, constant(GAUGE, 1), fast::add, false);
+    scheduler.schedule(30, MINUTES, constant(GAUGE, 1), slow::add, false);
+
+    time.set(MINUTES.toMillis(10));
+    scheduler.tick();
+    assertThat(timestamps(fast), contains(MINUTES.toMillis(10)));
+    assertThat(slow, empty());
+
+    time.set(MINUTES.toMillis(10) + 1_000);
+    scheduler.tick();
+    assertThat(fast.size(), is(2));
+
+    time.set(MINUTES.toMillis(31));
+    scheduler.tick();
+    assertThat(timestamps(slow), contains(MINUTES.toMillis(31)));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testPrimitiveSampling() {
+    AtomicLong time = new AtomicLong(0);
+    SamplingScheduler scheduler = new SamplingScheduler(100, MILLISECONDS, time::get);
+    LongArchive longs = new LongArchive(4);
+    DoubleArchive doubles = new DoubleArchive(4);
+    scheduler.schedule(100, MILLISECONDS, longCounter(time::get), longs, false);
+    scheduler.schedule(200, MILLISECONDS, doubleGauge(() -> time.get() / 2.0), doubles, false);
+
+    for (long t = 100; t <= 400; t += 100) {
+      time.set(t);
+      scheduler.tick();
+    }
+    assertThat(longs.getArchive(), contains(new Sample<>(100, 100L), new Sample<>(200, 200L), new Sample<>(300, 300L), new Sample<>(400, 400L)));
+    assertThat(doubles.getArchive(), contains(new Sample<>(200, 100.0), new Sample<>(400, 200.0)));
+  }
+
+  @Test
+  public void testCancellation() {
+    AtomicLong time = new AtomicLong(0);
+    SamplingScheduler scheduler = new SamplingScheduler(100, MILLISECONDS, time::get);
+    List<Sample<Integer>> samples = new ArrayList<>();
+    SamplingScheduler.Registration registration = scheduler.schedule(100, MILLISECONDS, constant(GAUGE, 1), samples::add, false);
+
+    time.set(100);
+    scheduler.tick();
+    registration.cancel();
+    time.set(200);
+    scheduler.tick();
+    assertThat(samples.size(), is(1));
+    assertThat(registration.isCancelled(), is(true));
+  }
+
+  @Test
+  public void testFailingSamplingIsCountedAndKept() {
+    AtomicLong time = new AtomicLong(0);
+    SamplingScheduler scheduler = new SamplingScheduler(100, MILLISECONDS, time::get);
+    List<Sample<Integer>> samples = new ArrayList<>();
+    SamplingScheduler.Registration failing = scheduler.schedule(100, MILLISECONDS, ValueStatistics.<Integer>gauge(() -> {
+      throw new IllegalStateException();
+    }), samples::add, false);
+    scheduler.schedule(100, MILLISECONDS, constant(GAUGE, 1), samples::add, false);
+
+    time.set(100);
+    scheduler.tick();
+    time.set(200);
+    scheduler.tick();
+    assertThat(failing.isCancelled(), is(false));
+    assertThat(failing.getFailureCount(), is(2L));
+    assertThat(scheduler.failures().longValue(), is(2L));
+    assertThat(samples.size(), is(2));
+  }
+
+  @Test
+  public void testParallelSampling() {
+    ExecutorService executor = Executors.newFixedThreadPool(2, r -> new Thread(r, "expensive"));
+    try {
+      AtomicLong time = new AtomicLong(0);
+      SamplingScheduler scheduler = new SamplingScheduler(100, MILLISECONDS, time::get, executor);
+      List<Sample<String>> samples = new ArrayList<>();
+      Consumer<Sample<String>> sink = sample -> {
+        synchronized (samples) {
+          samples.add(sample);
+        }
+      };
+      for (int i = 0; i < 4; i++) {
+        scheduler.schedule(100, MILLISECONDS, supply(GAUGE, () -> Thread.currentThread().getName()), sink, true);
+      }
+      scheduler.schedule(100, MILLISECONDS, supply(GAUGE, () -> Thread.currentThread().getName()), sink, false);
+
+      time.set(100);
+      scheduler.tick();
+      // the batch completes before the tick returns
+      assertThat(samples.size(), is(5));
+      assertThat(samples.stream().filter(s -> s.getSample().equals("expensive")).count(), is(4L));
+      assertThat(timestamps(samples), everyItem(is(100L)));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testWheelThread() throws InterruptedException {
+    SamplingScheduler scheduler = new SamplingScheduler(10, MILLISECONDS, System::currentTimeMillis);
+    List<Sample<String>> samples = new ArrayList<>();
+    scheduler.schedule(50, MILLISECONDS, supply(GAUGE, () -> Thread.currentThread().getName()), sample -> {
+      synchronized (samples) {
+        samples.add(sample);
+      }
+    }, false);
+    scheduler.start();
+    try {
+      TimeUnit.MILLISECONDS.sleep(500);
+    } finally {
+      scheduler.shutdown();
+    }
+    synchronized (samples) {
+      assertThat(samples, not(empty()));
+      assertThat(samples.stream().map(Sample::getSample).collect(toList()), everyItem(startsWith("Statistic Sampler")));
+      assertThat(samples.stream().map(s -> s.getTimestamp() / 50).distinct().count(), is((long) samples.size()));
+    }
+  }
+
+  private static <T extends Serializable> List<Long> timestamps(List<Sample<T>> samples) {
+    return samples.stream().map(Sample::getTimestamp).collect(toList());
+  }
+}
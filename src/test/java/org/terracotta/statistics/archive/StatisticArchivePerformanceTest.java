@@ -0,0 +1,65 @@
+/*
+ * All content copyright Terracotta, Inc., unless otherwise indicated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.statistics.archive;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.terracotta.statistics.Sample;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures a registry style poll of the most recent samples of many archives.
+ */
+@Ignore
+public class StatisticArchivePerformanceTest {
+
+  private static final int ARCHIVES = 5_000;
+  private static final int CAPACITY = 1_000;
+  private static final int POLLS = 50;
+
+  @Test
+  public void testPollRecentSamples() {
+    List<StatisticArchive<Long>> archives = new ArrayList<>(ARCHIVES);
+    for (int i = 0; i < ARCHIVES; i++) {
+      StatisticArchive<Long> archive = new StatisticArchive<>(CAPACITY);
+      for (long t = 0; t < CAPACITY * 2; t++) {
+        archive.add(new Sample<>(t, t));
+      }
+      archives.add(archive);
+    }
+
+    for (int round = 0; round < 5; round++) {
+      long blackhole = 0;
+      long start = System.nanoTime();
+      for (int poll = 0; poll < POLLS; poll++) {
+        for (StatisticArchive<Long> archive : archives) {
+          // the last ten samples
+          List<Sample<Long>> samples = archive.view(CAPACITY * 2 - 10);
+          for (Sample<Long> sample : samples) {
+            blackhole += sample.getSample();
+          }
+        }
+      }
+      long duration = System.nanoTime() - start;
+      if (blackhole == 42) {
+        System.out.println();
+      }
+      System.out.println("Poll of " + ARCHIVES + " archives: " + (duration / POLLS / 1_000) + "us");
+    }
+  }
+}
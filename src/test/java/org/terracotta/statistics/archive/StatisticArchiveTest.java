@@ -19,9 +19,19 @@ import org.hamcrest.collection.IsEmptyCollection;
 import org.junit.Test;
 import org.terracotta.statistics.Sample;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import static org.hamcrest.collection.IsIterableContainingInOrder.contains;
+import static org.hamcrest.core.Is.is;
 import static org.hamcrest.core.IsEqual.equalTo;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 
 /**
  * @author cdennis
@@ -38,6 +48,22 @@ public class StatisticArchiveTest {
     assertThat(archive.getArchive(0).size(), equalTo(2));
   }
 
+  @Test
+  public void testVersionTracksChanges() {
+    StatisticArchive<String> archive = new StatisticArchive<>(2);
+    long version = archive.version();
+    archive.add(new Sample<>(0, "foo"));
+    assertThat(archive.version() == version, is(false));
+    version = archive.version();
+    archive.getArchive();
+    assertThat(archive.version(), is(version));
+    archive.setCapacity(4);
+    assertThat(archive.version() == version, is(false));
+    version = archive.version();
+    archive.clear();
+    assertThat(archive.version() == version, is(false));
+  }
+
   @Test
   public void testEmptyArchive() {
     StatisticArchive<String> archive = new StatisticArchive<>(2);
@@ -68,4 +94,82 @@ public class StatisticArchiveTest {
     assertThat(overspill.getArchive(), contains(sample1));
   }
 
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testSinceOnWrappedArchive() {
+    StatisticArchive<Long> archive = new StatisticArchive<>(3);
+    for (long i = 0; i < 5; i++) {
+      archive.add(new Sample<>(i * 10, i));
+    }
+    assertThat(archive.getArchive(), contains(new Sample<>(20, 2L), new Sample<>(30, 3L), new Sample<>(40, 4L)));
+    assertThat(archive.getArchive(25), contains(new Sample<>(30, 3L), new Sample<>(40, 4L)));
+    assertThat(archive.getArchive(40), contains(new Sample<>(40, 4L)));
+    assertThat(archive.getArchive(41).isEmpty(), is(true));
+  }
+
+  @Test
+  public void testViewDetectsWrap() {
+    StatisticArchive<String> archive = new StatisticArchive<>(2);
+    archive.add(new Sample<>(0, "foo"));
+    archive.add(new Sample<>(1, "bar"));
+    List<Sample<String>> view = archive.view(0);
+    archive.add(new Sample<>(2, "baz"));
+    assertThat(view.get(1), is(new Sample<>(1, "bar")));
+    try {
+      view.get(0);
+      fail("Expected ConcurrentModificationException");
+    } catch (ConcurrentModificationException e) {
+      //expected
+    }
+  }
+
+  @Test
+  public void testReadersDuringWrites() throws InterruptedException {
+    StatisticArchive<Long> archive = new StatisticArchive<>(64);
+    AtomicBoolean done = new AtomicBoolean();
+    Thread writer = new Thread(() -> {
+      for (long i = 0; !done.get(); i++) {
+        archive.add(new Sample<>(i, i));
+      }
+    });
+    writer.start();
+    try {
+      for (int i = 0; i < 100_000; i++) {
+        List<Sample<Long>> view = archive.getArchive(i);
+        try {
+          long previous = Long.MIN_VALUE;
+          for (Sample<Long> sample : view) {
+            assertThat(sample.getTimestamp() >= i, is(true));
+            assertThat(sample.getTimestamp() > previous, is(true));
+            previous = sample.getTimestamp();
+          }
+        } catch (ConcurrentModificationException e) {
+          //the writer lapped this reader
+        }
+      }
+    } finally {
+      done.set(true);
+      writer.join();
+    }
+  }
+
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testGetArchiveIsSerializableCopy() throws Exception {
+    StatisticArchive<String> archive = new StatisticArchive<>(2);
+    archive.add(new Sample<>(0, "foo"));
+    archive.add(new Sample<>(1, "bar"));
+    List<Sample<String>> copy = archive.getArchive(0);
+    archive.add(new Sample<>(2, "baz"));
+    assertThat(copy, contains(new Sample<>(0, "foo"), new Sample<>(1, "bar")));
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(copy);
+    }
+    try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+      assertThat((List<Sample<String>>) in.readObject(), contains(new Sample<>(0, "foo"), new Sample<>(1, "bar")));
+    }
+  }
 }
@@ -29,7 +29,10 @@ import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
+import static org.hamcrest.beans.HasPropertyWithValue.hasProperty;
 import static org.hamcrest.collection.IsCollectionWithSize.hasSize;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsCollectionContaining.hasItem;
 import static org.hamcrest.number.OrderingComparison.greaterThan;
 import static org.hamcrest.number.OrderingComparison.lessThan;
 import static org.junit.Assert.assertThat;
@@ -37,6 +40,7 @@ import static org.terracotta.statistics.ValueStatistics.constant;
 import static org.terracotta.statistics.StatisticType.COUNTER;
 import static org.terracotta.statistics.StatisticType.GAUGE;
 import static org.terracotta.statistics.ValueStatistics.counter;
+import static org.terracotta.statistics.ValueStatistics.longGauge;
 import static org.terracotta.util.RetryAssert.assertBy;
 
 /**
@@ -113,6 +117,46 @@ public class StatisticSamplerTest {
     }
   }
 
+  @Test
+  public void testPrimitiveSampler() throws InterruptedException {
+    LongArchive archive = new LongArchive(20);
+    StatisticSampler<Long> sampler = new StatisticSampler<>(null, 100L, TimeUnit.MILLISECONDS, longGauge(() -> 42L), archive, Time::absoluteTime);
+    try {
+      sampler.start();
+      assertBy(1, TimeUnit.SECONDS, archive::getArchive, hasItem(hasProperty("sample", is(42L))));
+    } finally {
+      sampler.shutdown();
+    }
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testShutdownOfSharedScheduler() throws InterruptedException {
+    SamplingScheduler scheduler = new SamplingScheduler(10, TimeUnit.MILLISECONDS, Time::absoluteTime);
+    StatisticSampler<Integer> sampler = new StatisticSampler<>(scheduler, 1L, TimeUnit.SECONDS, constant(COUNTER, 42), NULL_SINK);
+    sampler.shutdown();
+  }
+
+  @Test
+  public void testStoppingAndStartingScheduledSampler() throws InterruptedException {
+    SamplingScheduler scheduler = new SamplingScheduler(10, TimeUnit.MILLISECONDS, Time::absoluteTime);
+    scheduler.start();
+    try {
+      StatisticArchive<Integer> archive = new StatisticArchive<>(20);
+      StatisticSampler<Integer> sampler = new StatisticSampler<>(scheduler, 200L, TimeUnit.MILLISECONDS, constant(GAUGE, 42), archive::add);
+      sampler.start();
+      assertBy(1, TimeUnit.SECONDS, contentsOf(archive), hasSize(1));
+      sampler.stop();
+      int size = archive.getArchive().size();
+      TimeUnit.SECONDS.sleep(1);
+      assertThat(archive.getArchive(), hasSize(size));
+      sampler.start();
+      assertBy(1, TimeUnit.SECONDS, contentsOf(archive), hasSize(size + 1));
+      sampler.stop();
+    } finally {
+      scheduler.shutdown();
+    }
+  }
+
   private static <T extends Serializable> Callable<List<Sample<T>>> contentsOf(final StatisticArchive<T> archive) {
     return archive::getArchive;
   }
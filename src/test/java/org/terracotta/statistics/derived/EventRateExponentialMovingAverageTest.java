@@ -0,0 +1,94 @@
+/*
+ * All content copyright Terracotta, Inc., unless otherwise indicated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.statistics.derived;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+import org.terracotta.statistics.MutableTimeSource;
+import org.terracotta.statistics.StatisticType;
+import org.terracotta.statistics.Time;
+import org.terracotta.statistics.TimeMocking;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.number.IsCloseTo.closeTo;
+import static org.junit.Assert.assertThat;
+
+public class EventRateExponentialMovingAverageTest {
+
+  public static final MutableTimeSource SOURCE = TimeMocking.push(new MutableTimeSource());
+
+  @AfterClass
+  public static void installTimeSource() {
+    TimeMocking.pop();
+  }
+
+  @Test
+  public void testType() {
+    assertThat(new EventRateExponentialMovingAverage(1, TimeUnit.MINUTES).type(), is(StatisticType.RATE));
+  }
+
+  @Test
+  public void testNoEventBehavior() {
+    EventRateExponentialMovingAverage stat = new EventRateExponentialMovingAverage(1, TimeUnit.MINUTES);
+    assertThat(stat.rateUsingSeconds(), is(0.0));
+    SOURCE.advanceTime(1, TimeUnit.MINUTES);
+    assertThat(stat.rateUsingSeconds(), is(0.0));
+  }
+
+  @Test
+  public void testFirstTickSeedsTheAverage() {
+    EventRateExponentialMovingAverage stat = new EventRateExponentialMovingAverage(1, TimeUnit.MINUTES);
+    for (int i = 0; i < 50; i++) {
+      stat.event(Time.time(), 0);
+      SOURCE.advanceTime(100, TimeUnit.MILLISECONDS);
+    }
+    assertThat(stat.rate(TimeUnit.SECONDS), closeTo(10.0, 0.0001));
+  }
+
+  @Test
+  public void testConvergesToNewRate() {
+    EventRateExponentialMovingAverage stat = new EventRateExponentialMovingAverage(1, TimeUnit.MINUTES);
+    drive(stat, 10, 1, TimeUnit.MINUTES);
+    assertThat(stat.rate(TimeUnit.SECONDS), closeTo(10.0, 0.0001));
+
+    drive(stat, 20, 1, TimeUnit.MINUTES);
+    // one time constant covers 1 - 1/e of the step
+    assertThat(stat.rate(TimeUnit.SECONDS), closeTo(20.0 - 10.0 / Math.E, 0.01));
+
+    drive(stat, 20, 10, TimeUnit.MINUTES);
+    assertThat(stat.rate(TimeUnit.SECONDS), closeTo(20.0, 0.01));
+  }
+
+  @Test
+  public void testIdleDecayIsAppliedLazily() {
+    EventRateExponentialMovingAverage stat = new EventRateExponentialMovingAverage(1, TimeUnit.MINUTES);
+    drive(stat, 10, 1, TimeUnit.MINUTES);
+    assertThat(stat.rate(TimeUnit.SECONDS), closeTo(10.0, 0.0001));
+
+    SOURCE.advanceTime(1, TimeUnit.MINUTES);
+    assertThat(stat.rate(TimeUnit.SECONDS), closeTo(10.0 / Math.E, 0.0001));
+  }
+
+  private static void drive(EventRateExponentialMovingAverage stat, int ratePerSecond, long time, TimeUnit unit) {
+    long period = TimeUnit.SECONDS.toNanos(1) / ratePerSecond;
+    for (long i = 0; i < unit.toNanos(time) / period; i++) {
+      stat.event(Time.time(), 0);
+      SOURCE.advanceTime(period, TimeUnit.NANOSECONDS);
+    }
+  }
+}
@@ -122,6 +122,27 @@ public class EventRateSimpleMovingAverageTest {
     }
   }
 
+  @Test
+  public void testGrowingWindowKeepsRate() {
+    EventRateSimpleMovingAverage stat = new EventRateSimpleMovingAverage(100, TimeUnit.MILLISECONDS);
+    new EventDriver(stat, 10, 10, TimeUnit.MILLISECONDS).call();
+    stat.setWindow(1, TimeUnit.SECONDS);
+    // the 10 events already recorded are now averaged over the whole second
+    assertThat(stat.rate(TimeUnit.SECONDS), closeTo(10.0, EXPECTED_ACCURACY * 10.0));
+
+    double finalRate = new EventDriver(stat, 100, 10, TimeUnit.MILLISECONDS).call();
+    assertThat(stat.rate(TimeUnit.SECONDS), closeTo(finalRate, EXPECTED_ACCURACY * finalRate));
+  }
+
+  @Test
+  public void testShrinkingWindowDropsOldEvents() {
+    EventRateSimpleMovingAverage stat = new EventRateSimpleMovingAverage(1, TimeUnit.SECONDS);
+    new EventDriver(stat, 50, 10, TimeUnit.MILLISECONDS).call();
+    double finalRate = new EventDriver(stat, 50, 5, 10, TimeUnit.MILLISECONDS).call();
+    stat.setWindow(100, TimeUnit.MILLISECONDS);
+    assertThat(stat.rate(TimeUnit.SECONDS), closeTo(finalRate, EXPECTED_ACCURACY * finalRate));
+  }
+
   static class EventDriver implements Callable<Double> {
 
     private final ChainedEventObserver stat;
@@ -0,0 +1,75 @@
+/*
+ * All content copyright Terracotta, Inc., unless otherwise indicated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.statistics.derived;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.hamcrest.core.IsSame.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class SlotRingTest {
+
+  @Test
+  public void testClaimResetsRecycledPartition() {
+    SlotRing<Counting> ring = new SlotRing<>(100, 10, Counting::new);
+    assertThat(ring.length(), is(11));
+    Counting first = ring.claim(5);
+    first.count.incrementAndGet();
+    assertThat(ring.claim(9), sameInstance(first));
+    assertThat(first.count.get(), is(1));
+    assertThat(first.slot(), is(0L));
+
+    // the same partition is reused a whole ring later, and is reset first
+    Counting recycled = ring.claim(110);
+    assertThat(recycled, sameInstance(first));
+    assertThat(recycled.count.get(), is(0));
+    assertThat(recycled.resets, is(2));
+  }
+
+  @Test
+  public void testEventOlderThanRingIsDropped() {
+    SlotRing<Counting> ring = new SlotRing<>(100, 10, Counting::new);
+    ring.claim(110);
+    assertThat(ring.claim(0), nullValue());
+  }
+
+  @Test
+  public void testWindow() {
+    SlotRing<Counting> ring = new SlotRing<>(100, 10, Counting::new);
+    Counting old = ring.claim(15);
+    Counting recent = ring.claim(95);
+    assertThat(ring.inWindow(old, 100), is(true));
+    assertThat(ring.inWindow(old, 125), is(false));
+    assertThat(ring.inWindow(recent, 125), is(true));
+    assertThat(ring.inWindow(ring.get(5), 100), is(false));
+  }
+
+  private static final class Counting extends SlotRing.Partition {
+
+    private final AtomicInteger count = new AtomicInteger();
+    private int resets;
+
+    @Override
+    protected void reset() {
+      count.set(0);
+      resets++;
+    }
+  }
+}
@@ -19,6 +19,7 @@ import org.junit.Test;
 
 import static java.lang.Math.nextUp;
 import static java.util.stream.IntStream.range;
+import static org.hamcrest.Matchers.closeTo;
 import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertThat;
@@ -46,4 +47,27 @@ public class BarSplittingBiasedHistogramTest {
     assertThat(bsbh.getQuantileBounds(0.0)[0], is(Double.NaN));
     assertThat(bsbh.getQuantileBounds(1.0)[1], is(Double.NaN));
   }
+
+  @Test
+  public void testBulkRangeEventMatchesIndividualEvents() {
+    BarSplittingBiasedHistogram individual = new BarSplittingBiasedHistogram(10, Long.MAX_VALUE);
+    BarSplittingBiasedHistogram bulk = new BarSplittingBiasedHistogram(10, Long.MAX_VALUE);
+    range(0, 1000).forEach(i -> {
+      individual.event(i % 100, 0);
+      bulk.event(i % 100, 0);
+    });
+    range(100, 10000).forEach(i -> individual.event(i, 0));
+    bulk.event(100, 9999, 9900, 0);
+
+    assertThat((double) bulk.size(), closeTo(individual.size(), individual.size() * 0.01));
+    assertThat(bulk.getMinimum(), is(0.0));
+    assertThat(bulk.getMaximum(), is(9999.0));
+    for (double quantile : new double[] {0.5, 0.9, 0.99}) {
+      double[] expected = individual.getQuantileBounds(quantile);
+      double[] actual = bulk.getQuantileBounds(quantile);
+      double exact = quantile * 10900 - 900;
+      assertThat(actual[0] <= exact * 1.05 && actual[1] >= exact * 0.95, is(true));
+      assertThat(actual[1] - actual[0], closeTo(expected[1] - expected[0], 0.1 * 10000));
+    }
+  }
 }
@@ -0,0 +1,80 @@
+/*
+ * All content copyright Terracotta, Inc., unless otherwise indicated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.statistics.derived.history;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class LatencyBucketsTest {
+
+  @Test
+  public void testIndexIsMonotonicAndBounded() {
+    int previous = -1;
+    for (long value = 0; value >= 0 && value < Long.MAX_VALUE / 2; value = value * 2 + 1) {
+      int index = LatencyBuckets.index(value);
+      assertThat(index, greaterThanOrEqualTo(previous));
+      assertThat(LatencyBuckets.upperBound(index), greaterThanOrEqualTo(value));
+      previous = index;
+    }
+    assertThat(LatencyBuckets.upperBound(LatencyBuckets.index(Long.MAX_VALUE)), is(Long.MAX_VALUE));
+  }
+
+  @Test
+  public void testSmallValuesAreExact() {
+    LatencyBuckets buckets = new LatencyBuckets();
+    for (long i = 0; i < 8; i++) {
+      buckets.record(i);
+    }
+    assertThat(buckets.quantile(0.0), is(0L));
+    assertThat(buckets.quantile(0.5), is(3L));
+    assertThat(buckets.quantile(1.0), is(7L));
+  }
+
+  @Test
+  public void testQuantileRelativeError() {
+    LatencyBuckets buckets = new LatencyBuckets();
+    Random random = new Random(42);
+    long[] values = new long[10_000];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = (long) Math.abs(random.nextGaussian() * 1_000_000);
+      buckets.record(values[i]);
+    }
+    Arrays.sort(values);
+    for (double quantile : new double[] {0.5, 0.9, 0.99, 0.999}) {
+      long exact = values[(int) Math.ceil(quantile * values.length) - 1];
+      long estimate = buckets.quantile(quantile);
+      assertThat(estimate, greaterThanOrEqualTo(exact));
+      assertThat((estimate - exact) / (double) exact, lessThanOrEqualTo(0.125));
+    }
+    assertThat(buckets.quantile(1.0), is(values[values.length - 1]));
+  }
+
+  @Test
+  public void testReset() {
+    LatencyBuckets buckets = new LatencyBuckets();
+    buckets.record(100);
+    assertThat(buckets.isEmpty(), is(false));
+    buckets.reset();
+    assertThat(buckets.isEmpty(), is(true));
+  }
+}
@@ -0,0 +1,223 @@
+/*
+ * All content copyright Terracotta, Inc., unless otherwise indicated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.statistics.derived.history;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Test;
+import org.terracotta.statistics.MutableTimeSource;
+import org.terracotta.statistics.Sample;
+import org.terracotta.statistics.SampledStatistic;
+import org.terracotta.statistics.StatisticType;
+import org.terracotta.statistics.Time;
+import org.terracotta.statistics.TimeMocking;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class WindowedHistoryTest {
+
+  public static final MutableTimeSource SOURCE = TimeMocking.push(new MutableTimeSource());
+  private static final LongSupplier MILLIS = () -> TimeUnit.NANOSECONDS.toMillis(Time.time());
+
+  @AfterClass
+  public static void installTimeSource() {
+    TimeMocking.pop();
+  }
+
+  @Before
+  public void alignTime() {
+    SOURCE.advanceTime(1000 - MILLIS.getAsLong() % 1000, MILLISECONDS);
+  }
+
+  @Test
+  public void testType() {
+    assertThat(new WindowedHistory<>(Reducers.maximum(), 2, 100, MILLISECONDS, MILLIS).type(), is(StatisticType.GAUGE));
+    assertThat(new WindowedHistory<>(Reducers.count(), 2, 100, MILLISECONDS, MILLIS).type(), is(StatisticType.COUNTER));
+    assertThat(new WindowedHistory<>(Reducers.rate(), 2, 100, MILLISECONDS, MILLIS).type(), is(StatisticType.RATE));
+  }
+
+  @Test
+  public void testValue() {
+    WindowedHistory<Long> history = new WindowedHistory<>(Reducers.maximum(), 2, 100, MILLISECONDS, MILLIS);
+    assertThat(history.value(), nullValue());
+
+    history.event(Time.time(), 1);
+    history.event(Time.time(), 3);
+    assertThat(history.value(), is(3L));
+
+    SOURCE.advanceTime(100, MILLISECONDS);
+    assertThat(history.value(), nullValue());
+
+    history.event(Time.time(), 2);
+    assertThat(history.value(), is(2L));
+  }
+
+  @Test
+  public void testHistoryIncludesOpenPeriods() {
+    WindowedHistory<Long> history = new WindowedHistory<>(Reducers.maximum(), 3, 100, MILLISECONDS, MILLIS);
+    long t0 = MILLIS.getAsLong();
+    history.event(Time.time(), 4);
+    SOURCE.advanceTime(100, MILLISECONDS);
+    history.event(Time.time(), 2);
+
+    assertThat(values(history.history()), contains(4L, 2L));
+    assertThat(timestamps(history.history()), contains(t0, t0 + 100));
+  }
+
+  @Test
+  public void testHistoryIsBounded() {
+    WindowedHistory<Long> history = new WindowedHistory<>(Reducers.maximum(), 3, 100, MILLISECONDS, MILLIS);
+    for (long i = 0; i < 10; i++) {
+      history.event(Time.time(), i);
+      SOURCE.advanceTime(100, MILLISECONDS);
+    }
+    assertThat(values(history.history()), contains(7L, 8L, 9L));
+  }
+
+  @Test
+  public void testEmptyPeriodsAreSkipped() {
+    WindowedHistory<Long> history = new WindowedHistory<>(Reducers.count(), 5, 100, MILLISECONDS, MILLIS);
+    long t0 = MILLIS.getAsLong();
+    history.event(Time.time(), 0);
+    history.event(Time.time(), 0);
+    SOURCE.advanceTime(300, MILLISECONDS);
+    history.event(Time.time(), 0);
+    SOURCE.advanceTime(500, MILLISECONDS);
+    history.event(Time.time(), 0);
+
+    assertThat(values(history.history()), contains(2L, 1L, 1L));
+    assertThat(timestamps(history.history()), contains(t0, t0 + 300, t0 + 800));
+  }
+
+  @Test
+  public void testHistorySince() {
+    WindowedHistory<Long> history = new WindowedHistory<>(Reducers.maximum(), 5, 100, MILLISECONDS, MILLIS);
+    long t0 = MILLIS.getAsLong();
+    for (long i = 0; i < 5; i++) {
+      history.event(Time.time(), i);
+      SOURCE.advanceTime(100, MILLISECONDS);
+    }
+    assertThat(values(history.history(t0 + 150)), contains(2L, 3L, 4L));
+    assertThat(values(history.history(t0 + 400)), contains(4L));
+    assertThat(history.history(t0 + 500), is(empty()));
+  }
+
+  @Test
+  public void testReducers() {
+    WindowedHistory<Double> average = new WindowedHistory<>(Reducers.average(), 2, 1, TimeUnit.SECONDS, MILLIS);
+    WindowedHistory<Double> rate = new WindowedHistory<>(Reducers.rate(), 2, 1, TimeUnit.SECONDS, MILLIS);
+    WindowedHistory<Long> minimum = new WindowedHistory<>(Reducers.minimum(), 2, 1, TimeUnit.SECONDS, MILLIS);
+    for (long i = 1; i <= 10; i++) {
+      average.event(Time.time(), i);
+      rate.event(Time.time(), i);
+      minimum.event(Time.time(), i);
+      SOURCE.advanceTime(100, MILLISECONDS);
+    }
+    SOURCE.advanceTime(1, TimeUnit.SECONDS);
+    average.event(Time.time(), 0);
+    rate.event(Time.time(), 0);
+    minimum.event(Time.time(), 0);
+
+    assertThat(average.history().get(0).getSample(), is(5.5));
+    assertThat(rate.history().get(0).getSample(), is(10.0));
+    assertThat(minimum.history().get(0).getSample(), is(1L));
+  }
+
+  @Test
+  public void testPercentileColumns() {
+    WindowedHistory<Long> history = new WindowedHistory<>(Reducers.percentiles(0.5, 0.99), 2, 1, TimeUnit.SECONDS, MILLIS);
+    for (long i = 1; i <= 1000; i++) {
+      history.event(Time.time(), i * 1000);
+    }
+    SampledStatistic<Long> median = history.column(0);
+    SampledStatistic<Long> p99 = history.column(1);
+
+    assertThat(median.value(), is(history.value()));
+    assertThat(Math.abs(median.value() - 500_000L) / 500_000.0, lessThanOrEqualTo(0.125));
+    assertThat(Math.abs(p99.value() - 990_000L) / 990_000.0, lessThanOrEqualTo(0.125));
+  }
+
+  @Test
+  public void testHistoryIsACopy() {
+    WindowedHistory<Long> history = new WindowedHistory<>(Reducers.maximum(), 4, 100, MILLISECONDS, MILLIS);
+    for (long i = 0; i < 4; i++) {
+      history.event(Time.time(), i);
+      SOURCE.advanceTime(100, MILLISECONDS);
+    }
+    List<Sample<Long>> copy = history.history();
+    for (long i = 10; i < 14; i++) {
+      history.event(Time.time(), i);
+      SOURCE.advanceTime(100, MILLISECONDS);
+    }
+    assertThat(values(copy), contains(0L, 1L, 2L, 3L));
+    assertThat(values(history.history()), contains(10L, 11L, 12L, 13L));
+  }
+
+  @Test
+  public void testFirstEventStamps() {
+    WindowedHistory<Long> history = new WindowedHistory<>(Reducers.maximum(), 3, 100, MILLISECONDS, MILLIS, true);
+    long t0 = MILLIS.getAsLong();
+    SOURCE.advanceTime(30, MILLISECONDS);
+    history.event(Time.time(), 4);
+    SOURCE.advanceTime(100, MILLISECONDS);
+    history.event(Time.time(), 2);
+    SOURCE.advanceTime(100, MILLISECONDS);
+    history.event(Time.time(), 1);
+
+    assertThat(values(history.history()), contains(4L, 2L, 1L));
+    assertThat(timestamps(history.history()), contains(t0 + 30, t0 + 130, t0 + 230));
+    assertThat(values(history.history(t0 + 130)), contains(2L, 1L));
+  }
+
+  @Test
+  public void testDiscardedPeriods() {
+    List<Long> discarded = new ArrayList<>();
+    WindowedHistory<Long> history = new WindowedHistory<Long>(Reducers.maximum(), 2, 100, MILLISECONDS, MILLIS) {
+      @Override
+      protected void discarded(long startNs, long lengthNs, long[] reduced) {
+        discarded.add(reduced[0]);
+      }
+    };
+    for (long i = 0; i < 4; i++) {
+      history.event(Time.time(), i);
+      SOURCE.advanceTime(100, MILLISECONDS);
+    }
+    history.event(Time.time(), 4);
+    assertThat(discarded, contains(0L, 1L));
+    assertThat(values(history.history()), contains(3L, 4L));
+  }
+
+  private static <T extends Serializable> List<T> values(List<Sample<T>> samples) {
+    return samples.stream().map(Sample::getSample).collect(toList());
+  }
+
+  private static List<Long> timestamps(List<? extends Sample<?>> samples) {
+    return samples.stream().map(Sample::getTimestamp).collect(toList());
+  }
+}
@@ -0,0 +1,113 @@
+/*
+ * All content copyright Terracotta, Inc., unless otherwise indicated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.statistics.derived.latency;
+
+import org.junit.Test;
+import org.terracotta.statistics.Time;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class CoordinatedOmissionCorrectionTest {
+
+  @Test
+  public void testNoCorrectionWithinInterval() {
+    List<String> series = new ArrayList<>();
+    CoordinatedOmissionCorrection correction = new CoordinatedOmissionCorrection(10, NANOSECONDS, recorder(series));
+    correction.event(0, 5);
+    correction.event(0, 10);
+    correction.event(0, 19);
+    assertThat(series, empty());
+  }
+
+  @Test
+  public void testMissingOperationsRecordedAsOneSeries() {
+    List<String> series = new ArrayList<>();
+    CoordinatedOmissionCorrection correction = new CoordinatedOmissionCorrection(10, NANOSECONDS, recorder(series));
+    correction.event(0, 20);
+    correction.event(0, 105);
+    assertThat(series, contains("10-10x1", "15-95x9"));
+  }
+
+  @Test
+  public void testCorrectedAccumulator() {
+    LatencyAccumulator accumulator = LatencyAccumulator.empty();
+    CoordinatedOmissionCorrection correction = new CoordinatedOmissionCorrection(1, MILLISECONDS, accumulator);
+    for (int i = 0; i < 99; i++) {
+      correction.event(0, MILLISECONDS.toNanos(1) / 2);
+    }
+    // a 100ms stall hides the 99 operations that should have been issued during it
+    correction.event(0, MILLISECONDS.toNanos(100));
+
+    assertThat(accumulator.count(), is(199L));
+    assertThat(accumulator.minimum(), is(MILLISECONDS.toNanos(1) / 2));
+    assertThat(accumulator.maximum(), is(MILLISECONDS.toNanos(100)));
+    assertThat(accumulator.total(), is(99 * MILLISECONDS.toNanos(1) / 2 + MILLISECONDS.toNanos(5050)));
+  }
+
+  @Test
+  public void testCorrectedHistogram() {
+    DefaultLatencyHistogramStatistic histogram = new DefaultLatencyHistogramStatistic(0.63, 20, Duration.ofMinutes(1), () -> 0L);
+    CoordinatedOmissionCorrection correction = new CoordinatedOmissionCorrection(1, MILLISECONDS, histogram);
+    for (int i = 0; i < 9_900; i++) {
+      correction.event(0, MILLISECONDS.toNanos(1) / 2);
+    }
+    correction.event(0, MILLISECONDS.toNanos(100));
+
+    assertThat((double) histogram.count(), is(closeTo(10_000, 100)));
+    // uncorrected, the 99.5th percentile would be sub-millisecond
+    assertThat(histogram.percentile(0.995), greaterThanOrEqualTo(MILLISECONDS.toNanos(40)));
+    assertThat(histogram.percentile(0.5), lessThan(MILLISECONDS.toNanos(1)));
+  }
+
+  @Test
+  public void testCorrectedThresholdCounter() {
+    LatencyThresholdCounter counter = new LatencyThresholdCounter(5, MINUTES, MILLISECONDS, 2, 50);
+    CoordinatedOmissionCorrection correction = new CoordinatedOmissionCorrection(1, MILLISECONDS, counter);
+    correction.event(Time.time(), MILLISECONDS.toNanos(100));
+
+    // 100ms, then 99ms down to 1ms
+    assertThat(counter.count(), is(100L));
+    assertThat(counter.exceedances(2, MILLISECONDS), is(98L));
+    assertThat(counter.exceedances(50, MILLISECONDS), is(50L));
+  }
+
+  private static LatencySeriesObserver recorder(List<String> series) {
+    return new LatencySeriesObserver() {
+      @Override
+      public void events(long time, long minimumLatency, long maximumLatency, long count) {
+        series.add(minimumLatency + "-" + maximumLatency + "x" + count);
+      }
+
+      @Override
+      public void event(long time, long latency) {
+        //no-op
+      }
+    };
+  }
+}
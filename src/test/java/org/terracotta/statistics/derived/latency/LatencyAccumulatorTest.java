@@ -17,6 +17,7 @@ package org.terracotta.statistics.derived.latency;
 
 import org.junit.Test;
 
+import static org.hamcrest.Matchers.closeTo;
 import static org.hamcrest.core.Is.is;
 import static org.hamcrest.core.IsNull.nullValue;
 import static org.junit.Assert.assertThat;
@@ -93,4 +94,24 @@ public class LatencyAccumulatorTest {
     assertThat(a3.minimum(), is(1L));
     assertThat(a3.maximum(), is(6L));
   }
+
+  @Test
+  public void testSeriesWithLargeLatencies() {
+    LatencyAccumulator stats = LatencyAccumulator.empty();
+    stats.accumulate(Long.MAX_VALUE / 4, Long.MAX_VALUE / 2, 2);
+
+    assertThat(stats.count(), is(2L));
+    assertThat(stats.total(), is(Long.MAX_VALUE / 4 * 2 + (Long.MAX_VALUE / 2 - Long.MAX_VALUE / 4)));
+    assertThat(stats.average(), closeTo(Long.MAX_VALUE * 0.375, Long.MAX_VALUE * 1e-9));
+  }
+
+  @Test
+  public void testSeriesTotalSaturates() {
+    LatencyAccumulator stats = LatencyAccumulator.empty();
+    stats.accumulate(Long.MAX_VALUE / 2, Long.MAX_VALUE, 4);
+
+    assertThat(stats.total(), is(Long.MAX_VALUE));
+    assertThat(stats.minimum(), is(Long.MAX_VALUE / 2));
+    assertThat(stats.maximum(), is(Long.MAX_VALUE));
+  }
 }
@@ -0,0 +1,86 @@
+/*
+ * All content copyright Terracotta, Inc., unless otherwise indicated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.statistics.derived.latency;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+import org.terracotta.statistics.MutableTimeSource;
+import org.terracotta.statistics.StatisticType;
+import org.terracotta.statistics.Time;
+import org.terracotta.statistics.TimeMocking;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.number.IsCloseTo.closeTo;
+import static org.junit.Assert.assertThat;
+
+public class LatencyExponentialMovingAverageTest {
+
+  public static final MutableTimeSource SOURCE = TimeMocking.push(new MutableTimeSource());
+
+  @AfterClass
+  public static void installTimeSource() {
+    TimeMocking.pop();
+  }
+
+  @Test
+  public void testType() {
+    assertThat(new LatencyExponentialMovingAverage(1, TimeUnit.MINUTES).type(), is(StatisticType.GAUGE));
+  }
+
+  @Test
+  public void testNoEventsAverage() {
+    LatencyExponentialMovingAverage average = new LatencyExponentialMovingAverage(1, TimeUnit.MINUTES);
+    assertThat(average.average(), is(Double.NaN));
+    SOURCE.advanceTime(1, TimeUnit.MINUTES);
+    assertThat(average.average(), is(Double.NaN));
+  }
+
+  @Test
+  public void testAverageIsVisibleAfterTick() {
+    LatencyExponentialMovingAverage average = new LatencyExponentialMovingAverage(1, TimeUnit.MINUTES, 5, TimeUnit.SECONDS);
+    average.event(Time.time(), 1L);
+    average.event(Time.time(), 3L);
+    assertThat(average.average(), is(Double.NaN));
+    SOURCE.advanceTime(5, TimeUnit.SECONDS);
+    assertThat(average.average(), is(2.0));
+  }
+
+  @Test
+  public void testIdlePeriodKeepsAverage() {
+    LatencyExponentialMovingAverage average = new LatencyExponentialMovingAverage(1, TimeUnit.MINUTES);
+    average.event(Time.time(), 10L);
+    SOURCE.advanceTime(10, TimeUnit.MINUTES);
+    assertThat(average.average(), closeTo(10.0, 0.0001));
+  }
+
+  @Test
+  public void testAverageMovesTowardsNewLatency() {
+    LatencyExponentialMovingAverage average = new LatencyExponentialMovingAverage(1, TimeUnit.MINUTES, 1, TimeUnit.SECONDS);
+    for (int i = 0; i < 600; i++) {
+      average.event(Time.time(), 100L);
+      SOURCE.advanceTime(1, TimeUnit.SECONDS);
+    }
+    assertThat(average.average(), closeTo(100.0, 0.0001));
+
+    for (int i = 0; i < 60; i++) {
+      average.event(Time.time(), 200L);
+      SOURCE.advanceTime(1, TimeUnit.SECONDS);
+    }
+    assertThat(average.average(), closeTo(200.0 - 100.0 / Math.E, 1.0));
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * All content copyright Terracotta, Inc., unless otherwise indicated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.statistics.derived.latency;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+import org.terracotta.statistics.MutableTimeSource;
+import org.terracotta.statistics.Sample;
+import org.terracotta.statistics.StatisticType;
+import org.terracotta.statistics.Time;
+import org.terracotta.statistics.TimeMocking;
+import org.terracotta.statistics.registry.Statistic;
+import org.terracotta.statistics.registry.StatisticRegistry;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class LatencyPercentileHistoryTest {
+
+  public static final MutableTimeSource SOURCE = TimeMocking.push(new MutableTimeSource());
+  private static final LongSupplier MILLIS = () -> TimeUnit.NANOSECONDS.toMillis(Time.time());
+
+  @AfterClass
+  public static void installTimeSource() {
+    TimeMocking.pop();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUntrackedPercentile() {
+    new LatencyPercentileHistory(6, 10, SECONDS, MILLIS, 0.5, 0.99).percentileStatistic(0.9);
+  }
+
+  @Test
+  public void testPerPeriodPercentiles() {
+    LatencyPercentileHistory history = new LatencyPercentileHistory(6, 10, SECONDS, MILLIS, 0.5, 0.99);
+    assertThat(history.type(), is(StatisticType.GAUGE));
+
+    for (int period = 1; period <= 3; period++) {
+      for (long i = 1; i <= 100; i++) {
+        history.event(Time.time(), i * period * 1000);
+      }
+      SOURCE.advanceTime(10, SECONDS);
+    }
+
+    List<Sample<Long>> median = history.percentileStatistic(0.5).history();
+    List<Sample<Long>> p99 = history.percentileStatistic(0.99).history();
+    assertThat(median.size(), is(3));
+    assertThat(p99.size(), is(3));
+    for (int period = 1; period <= 3; period++) {
+      assertThat((double) median.get(period - 1).getSample(), closeTo(50_000.0 * period, 0.125 * 50_000.0 * period));
+      assertThat((double) p99.get(period - 1).getSample(), closeTo(99_000.0 * period, 0.125 * 99_000.0 * period));
+    }
+    assertThat(history.history(), is(median));
+  }
+
+  @Test
+  public void testRegisteredWithoutSampler() {
+    LatencyPercentileHistory history = new LatencyPercentileHistory(6, 10, SECONDS, MILLIS, 0.99);
+    StatisticRegistry registry = new StatisticRegistry(null, MILLIS);
+    registry.registerStatistic("Cache:GetLatencyP99", history.percentileStatistic(0.99));
+
+    history.event(Time.time(), 1000);
+    SOURCE.advanceTime(10, SECONDS);
+    history.event(Time.time(), 2000);
+
+    Statistic<Long> statistic = registry.<Long>queryStatistic("Cache:GetLatencyP99").get();
+    assertThat(statistic.getSamples().size(), is(2));
+    assertThat(statistic.getLatestSampleValue().get(), is(2000L));
+  }
+}
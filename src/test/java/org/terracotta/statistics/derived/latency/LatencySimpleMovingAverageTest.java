@@ -93,4 +93,34 @@ public class LatencySimpleMovingAverageTest {
     assertThat(average.minimum(), nullValue());
     assertThat(average.maximum(), nullValue());
   }
+
+  @Test
+  public void testSnapshot() {
+    LatencySimpleMovingAverage average = new LatencySimpleMovingAverage(100, TimeUnit.MILLISECONDS);
+    assertThat(average.snapshot().isEmpty(), is(true));
+    average.event(Time.time(), 1L);
+    SOURCE.advanceTime(50, TimeUnit.MILLISECONDS);
+    average.event(Time.time(), 5L);
+    LatencySnapshot snapshot = average.snapshot();
+    assertThat(snapshot.count(), is(2L));
+    assertThat(snapshot.total(), is(6L));
+    assertThat(snapshot.average(), is(3.0));
+    assertThat(snapshot.minimum(), is(1L));
+    assertThat(snapshot.maximum(), is(5L));
+  }
+
+  @Test
+  public void testPartitionsAreReusedAcrossWindows() {
+    LatencySimpleMovingAverage average = new LatencySimpleMovingAverage(100, TimeUnit.MILLISECONDS);
+    for (long latency = 1; latency <= 100; latency++) {
+      average.event(Time.time(), latency);
+      SOURCE.advanceTime(30, TimeUnit.MILLISECONDS);
+    }
+    // the window [now - 100ms, now] now only covers the events at -30ms, -60ms, -90ms
+    LatencySnapshot snapshot = average.snapshot();
+    assertThat(snapshot.count(), is(3L));
+    assertThat(snapshot.minimum(), is(98L));
+    assertThat(snapshot.maximum(), is(100L));
+    assertThat(snapshot.average(), is(99.0));
+  }
 }
@@ -0,0 +1,104 @@
+/*
+ * All content copyright Terracotta, Inc., unless otherwise indicated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.statistics.derived.latency;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+import org.terracotta.statistics.MutableTimeSource;
+import org.terracotta.statistics.StatisticType;
+import org.terracotta.statistics.Time;
+import org.terracotta.statistics.TimeMocking;
+import org.terracotta.statistics.ValueStatistic;
+
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class LatencyThresholdCounterTest {
+
+  public static final MutableTimeSource SOURCE = TimeMocking.push(new MutableTimeSource());
+
+  @AfterClass
+  public static void installTimeSource() {
+    TimeMocking.pop();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUntrackedThreshold() {
+    new LatencyThresholdCounter(5, MINUTES, MILLISECONDS, 2, 10).ratio(5, MILLISECONDS);
+  }
+
+  @Test
+  public void testEmpty() {
+    LatencyThresholdCounter counter = new LatencyThresholdCounter(5, MINUTES, MILLISECONDS, 2);
+    assertThat(counter.count(), is(0L));
+    assertThat(counter.exceedances(2, MILLISECONDS), is(0L));
+    assertThat(Double.isNaN(counter.ratio(2, MILLISECONDS)), is(true));
+  }
+
+  @Test
+  public void testExceedances() {
+    LatencyThresholdCounter counter = new LatencyThresholdCounter(5, MINUTES, MILLISECONDS, 10, 2);
+    for (long latency = 1; latency <= 20; latency++) {
+      counter.event(Time.time(), MILLISECONDS.toNanos(latency));
+    }
+
+    assertThat(counter.count(), is(20L));
+    assertThat(counter.exceedances(2, MILLISECONDS), is(18L));
+    assertThat(counter.exceedances(10, MILLISECONDS), is(10L));
+    assertThat(counter.exceedances(2000, MICROSECONDS), is(18L));
+    assertThat(counter.ratio(2, MILLISECONDS), is(0.9));
+    assertThat(counter.ratio(10, MILLISECONDS), is(0.5));
+  }
+
+  @Test
+  public void testStatistics() {
+    LatencyThresholdCounter counter = new LatencyThresholdCounter(5, MINUTES, MILLISECONDS, 2);
+    ValueStatistic<Double> ratio = counter.ratioStatistic(2, MILLISECONDS);
+    ValueStatistic<Double> burnRate = counter.burnRateStatistic(2, MILLISECONDS, 0.99);
+    assertThat(ratio.type(), is(StatisticType.RATIO));
+    assertThat(burnRate.type(), is(StatisticType.GAUGE));
+
+    for (int i = 0; i < 98; i++) {
+      counter.event(Time.time(), MILLISECONDS.toNanos(1));
+    }
+    counter.event(Time.time(), MILLISECONDS.toNanos(3));
+    counter.event(Time.time(), MILLISECONDS.toNanos(3));
+
+    assertThat(ratio.value(), is(0.02));
+    assertThat(burnRate.value(), closeTo(2.0, 0.000001));
+  }
+
+  @Test
+  public void testWindowExpiry() {
+    LatencyThresholdCounter counter = new LatencyThresholdCounter(10, SECONDS, MILLISECONDS, 2);
+    counter.event(Time.time(), MILLISECONDS.toNanos(3));
+    SOURCE.advanceTime(6, SECONDS);
+    counter.event(Time.time(), MILLISECONDS.toNanos(1));
+    assertThat(counter.ratio(2, MILLISECONDS), is(0.5));
+
+    SOURCE.advanceTime(6, SECONDS);
+    assertThat(counter.count(), is(1L));
+    assertThat(counter.ratio(2, MILLISECONDS), is(0.0));
+
+    SOURCE.advanceTime(20, SECONDS);
+    assertThat(counter.count(), is(0L));
+  }
+}
@@ -20,6 +20,7 @@ import org.terracotta.statistics.Sample;
 import org.terracotta.statistics.StatisticType;
 import org.terracotta.statistics.Time;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.function.Consumer;
 
@@ -89,6 +90,29 @@ public class MaximumLatencyHistoryTest {
     verify(sink, times(1)).accept(any(LatencyPeriodAccumulator.class));
   }
 
+  @Test
+  public void sinkReceivesWholeWindows() throws InterruptedException {
+    List<LatencyPeriodAccumulator> discarded = new ArrayList<>();
+    MaximumLatencyHistory latencyHistory = new MaximumLatencyHistory(2, 100, MILLISECONDS, Time::absoluteTime, discarded::add);
+
+    long t0 = Time.time();
+    latencyHistory.event(t0, 1);
+    latencyHistory.event(Time.time(), 3);
+    latencyHistory.event(Time.time(), 8);
+    sleep(200);
+    latencyHistory.event(Time.time(), 2);
+    sleep(200);
+    latencyHistory.event(Time.time(), 1);
+
+    assertThat(discarded.size(), equalTo(1));
+    LatencyPeriodAccumulator window = discarded.get(0);
+    assertThat(window.start(), equalTo(t0));
+    assertThat(window.minimum(), equalTo(1L));
+    assertThat(window.maximum(), equalTo(8L));
+    assertThat(window.average(), equalTo(4.0));
+    assertThat(window.accumulator().count(), equalTo(3L));
+  }
+
   @Test
   public void history() throws InterruptedException {
     MaximumLatencyHistory latencyHistory = new MaximumLatencyHistory(2, 100, MILLISECONDS, Time::absoluteTime);
@@ -0,0 +1,163 @@
+/*
+ * All content copyright Terracotta, Inc., unless otherwise indicated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.statistics.derived.latency;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+import org.terracotta.statistics.MutableTimeSource;
+import org.terracotta.statistics.OperationStatistic;
+import org.terracotta.statistics.StatisticType;
+import org.terracotta.statistics.StatisticsManager;
+import org.terracotta.statistics.Table;
+import org.terracotta.statistics.Time;
+import org.terracotta.statistics.TimeMocking;
+import org.terracotta.statistics.observer.OperationObserver;
+import org.terracotta.util.Outcome;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.terracotta.statistics.derived.latency.SlowestOperationsTracker.EXEMPLAR;
+import static org.terracotta.statistics.derived.latency.SlowestOperationsTracker.LATENCY;
+import static org.terracotta.statistics.derived.latency.SlowestOperationsTracker.OUTCOME;
+import static org.terracotta.statistics.derived.latency.SlowestOperationsTracker.TIMESTAMP;
+
+public class SlowestOperationsTrackerTest {
+
+  public static final MutableTimeSource SOURCE = TimeMocking.push(new MutableTimeSource());
+  private static final LongSupplier MILLIS = () -> TimeUnit.NANOSECONDS.toMillis(Time.time());
+
+  @AfterClass
+  public static void installTimeSource() {
+    TimeMocking.pop();
+  }
+
+  @Test
+  public void testEmpty() {
+    SlowestOperationsTracker<Outcome> tracker = new SlowestOperationsTracker<>(EnumSet.allOf(Outcome.class), 3, 10, SECONDS, MILLIS);
+    assertThat(tracker.type(), is(StatisticType.TABLE));
+    assertThat(tracker.value().isEmpty(), is(true));
+  }
+
+  @Test
+  public void testKeepsSlowestOperations() {
+    SlowestOperationsTracker<Outcome> tracker = new SlowestOperationsTracker<>(EnumSet.allOf(Outcome.class), 3, 10, SECONDS, MILLIS);
+    long[] latencies = {50L, 10L, 70L, 20L, 90L, 30L, 60L, 80L, 40L};
+    for (long latency : latencies) {
+      tracker.end(Time.time(), latency, latency % 20 == 0 ? Outcome.GOOD : Outcome.BAD);
+    }
+
+    Table table = tracker.value();
+    assertThat(table.getRowLabels(), contains("1", "2", "3"));
+    assertThat(cell(table, "1", LATENCY), is(90L));
+    assertThat(cell(table, "2", LATENCY), is(80L));
+    assertThat(cell(table, "3", LATENCY), is(70L));
+    assertThat(cell(table, "1", OUTCOME), is("BAD"));
+    assertThat(cell(table, "2", OUTCOME), is("GOOD"));
+    assertThat(cell(table, "1", TIMESTAMP), is(MILLIS.getAsLong()));
+    assertThat(cell(table, "1", EXEMPLAR), nullValue());
+  }
+
+  @Test
+  public void testExemplarOnlySuppliedAboveThreshold() {
+    AtomicInteger calls = new AtomicInteger();
+    ThreadLocal<Long> traceId = new ThreadLocal<>();
+    SlowestOperationsTracker<Outcome> tracker = new SlowestOperationsTracker<>(EnumSet.allOf(Outcome.class), 2, 10, SECONDS, MILLIS,
+        () -> {
+          calls.incrementAndGet();
+          return traceId.get();
+        });
+
+    for (long latency = 1; latency <= 100; latency++) {
+      traceId.set(latency * 1000);
+      tracker.end(Time.time(), latency, Outcome.GOOD);
+    }
+    // every event is slower than the last, so the threshold check never rejects
+    assertThat(calls.get(), is(100));
+
+    for (long latency = 1; latency <= 98; latency++) {
+      traceId.set(latency * 1000);
+      tracker.end(Time.time(), latency, Outcome.GOOD);
+    }
+    assertThat(calls.get(), is(100));
+
+    Table table = tracker.value();
+    assertThat(cell(table, "1", EXEMPLAR), is(100_000L));
+    assertThat(cell(table, "2", EXEMPLAR), is(99_000L));
+  }
+
+  @Test
+  public void testTargetsFilterOutcomes() {
+    SlowestOperationsTracker<Outcome> tracker = new SlowestOperationsTracker<>(EnumSet.of(Outcome.BAD), 3, 10, SECONDS, MILLIS);
+    tracker.end(Time.time(), 100L, Outcome.GOOD);
+    tracker.end(Time.time(), 10L, Outcome.BAD);
+
+    Table table = tracker.value();
+    assertThat(table.getRowCount(), is(1));
+    assertThat(cell(table, "1", LATENCY), is(10L));
+  }
+
+  @Test
+  public void testWindowExpiry() {
+    SlowestOperationsTracker<Outcome> tracker = new SlowestOperationsTracker<>(EnumSet.allOf(Outcome.class), 3, 10, SECONDS, MILLIS);
+    tracker.end(Time.time(), 100L, Outcome.GOOD);
+
+    SOURCE.advanceTime(5, SECONDS);
+    tracker.end(Time.time(), 10L, Outcome.GOOD);
+    assertThat(tracker.value().getRowCount(), is(2));
+
+    SOURCE.advanceTime(5, SECONDS);
+    tracker.end(Time.time(), 1L, Outcome.GOOD);
+    Table table = tracker.value();
+    assertThat(table.getRowCount(), is(2));
+    assertThat(cell(table, "1", LATENCY), is(10L));
+    assertThat(cell(table, "2", LATENCY), is(1L));
+
+    SOURCE.advanceTime(20, SECONDS);
+    assertThat(tracker.value().isEmpty(), is(true));
+  }
+
+  @Test
+  public void testDerivedFromOperationStatistic() {
+    OperationObserver<Outcome> observer = StatisticsManager.createOperationStatistic(this, "get", Collections.emptySet(), Outcome.class);
+    OperationStatistic<Outcome> statistic = StatisticsManager.getOperationStatisticFor(observer);
+    SlowestOperationsTracker<Outcome> tracker = new SlowestOperationsTracker<>(EnumSet.of(Outcome.GOOD), 5, 10, SECONDS, MILLIS);
+    statistic.addDerivedStatistic(tracker);
+
+    observer.begin();
+    SOURCE.advanceTime(3, MILLISECONDS);
+    observer.end(Outcome.GOOD);
+
+    Table table = tracker.value();
+    assertThat(table.getRowCount(), is(1));
+    assertThat(cell(table, "1", LATENCY), is(MILLISECONDS.toNanos(3)));
+    assertThat(cell(table, "1", OUTCOME), is("GOOD"));
+  }
+
+  private static Serializable cell(Table table, String row, String column) {
+    return table.<Serializable>getStatistic(row, column).orElseThrow(AssertionError::new).value();
+  }
+}
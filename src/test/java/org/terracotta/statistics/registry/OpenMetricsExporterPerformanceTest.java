@@ -0,0 +1,89 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.statistics.registry;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+/**
+ * Compares an OpenMetrics scrape built from {@link StatisticRegistry#queryStatistics()} with one streamed by
+ * {@link OpenMetricsExporter}, in time and allocation per scrape.
+ */
+@Ignore
+public class OpenMetricsExporterPerformanceTest {
+
+  private static final int CACHES = 500;
+  private static final int STATISTICS_PER_CACHE = 40;
+  private static final int SCRAPES = 100;
+
+  @Test
+  public void testScrape() throws IOException {
+    StatisticRegistry registry = new StatisticRegistry(null, System::currentTimeMillis);
+    for (int c = 0; c < CACHES; c++) {
+      for (int s = 0; s < STATISTICS_PER_CACHE; s++) {
+        Long value = (long) s;
+        if (s % 2 == 0) {
+          registry.registerCounter("Cache" + c + ":Statistic" + s, () -> value);
+        } else {
+          registry.registerGauge("Cache" + c + ":Statistic" + s, () -> value);
+        }
+      }
+    }
+    OpenMetricsExporter exporter = new OpenMetricsExporter(registry);
+    OutputStream sink = new OutputStream() {
+      @Override
+      public void write(int b) {
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) {
+      }
+    };
+
+    for (int round = 0; round < 5; round++) {
+      long allocated = allocatedBytes();
+      long start = System.nanoTime();
+      for (int i = 0; i < SCRAPES; i++) {
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<String, Statistic<? extends Serializable>> e : registry.queryStatistics().entrySet()) {
+          text.append("# TYPE ").append(e.getKey()).append(' ').append(e.getValue().getType()).append('\n');
+          text.append(e.getKey()).append(' ').append(e.getValue().getLatestSampleValue().orElse(null)).append('\n');
+        }
+        sink.write(text.toString().getBytes("UTF-8"));
+      }
+      System.out.println("queryStatistics() and format: " + (System.nanoTime() - start) / SCRAPES / 1_000 + "us, "
+          + (allocatedBytes() - allocated) / SCRAPES / 1024 + "KiB per scrape");
+
+      allocated = allocatedBytes();
+      start = System.nanoTime();
+      for (int i = 0; i < SCRAPES; i++) {
+        exporter.export(sink);
+      }
+      System.out.println("OpenMetricsExporter: " + (System.nanoTime() - start) / SCRAPES / 1_000 + "us, "
+          + (allocatedBytes() - allocated) / SCRAPES / 1024 + "KiB per scrape");
+    }
+  }
+
+  private static long allocatedBytes() {
+    return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.statistics.registry;
+
+import org.junit.Test;
+import org.terracotta.statistics.Table;
+import org.terracotta.statistics.TableValueStatistic;
+import org.terracotta.statistics.derived.latency.DefaultLatencyHistogramStatistic;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.hamcrest.core.StringContains.containsString;
+import static org.junit.Assert.assertThat;
+import static org.terracotta.statistics.StatisticType.COUNTER;
+import static org.terracotta.statistics.StatisticType.GAUGE;
+import static org.terracotta.statistics.ValueStatistics.doubleRatio;
+import static org.terracotta.statistics.ValueStatistics.longCounter;
+import static org.terracotta.statistics.ValueStatistics.table;
+
+public class OpenMetricsExporterTest {
+
+  private final StatisticRegistry registry = new StatisticRegistry(null, System::currentTimeMillis);
+
+  @Test
+  public void testExposition() throws IOException {
+    AtomicLong hits = new AtomicLong(42);
+    registry.registerCounter("Cache:Hits", hits::get);
+    registry.registerGauge("Cache:HitRatio", () -> 0.25);
+    registry.registerGauge("Cache:Size", () -> 1024);
+    registry.registerGauge("Cache:Unavailable", () -> null);
+    registry.registerGauge("Cache:Odd Name-1", () -> -7L);
+    registry.registerTable("Tier:Stats", () -> Table.newBuilder("Hits", "Size")
+        .withRow("heap", row -> row.setStatistic("Hits", COUNTER, 1L).setStatistic("Size", GAUGE, 10L))
+        .withRow("off\"heap", row -> row.setStatistic("Hits", COUNTER, 2L))
+        .build());
+
+    OpenMetricsExporter exporter = new OpenMetricsExporter(registry);
+    assertThat(export(exporter), equalTo(
+        "# TYPE Cache:HitRatio gauge\n" +
+        "Cache:HitRatio 0.25\n" +
+        "# TYPE Cache:Hits counter\n" +
+        "Cache:Hits_total 42\n" +
+        "# TYPE Cache:Odd_Name_1 gauge\n" +
+        "Cache:Odd_Name_1 -7\n" +
+        "# TYPE Cache:Size gauge\n" +
+        "Cache:Size 1024\n" +
+        "# TYPE Tier:Stats_Hits counter\n" +
+        "Tier:Stats_Hits_total{row=\"heap\"} 1\n" +
+        "Tier:Stats_Hits_total{row=\"off\\\"heap\"} 2\n" +
+        "# TYPE Tier:Stats_Size gauge\n" +
+        "Tier:Stats_Size{row=\"heap\"} 10\n" +
+        "# EOF\n"));
+
+    // the cached encodings are reused, but the values are live
+    hits.set(43);
+    assertThat(export(exporter), containsString("Cache:Hits_total 43\n"));
+  }
+
+  @Test
+  public void testCollidingNamesAreDisambiguated() throws IOException {
+    registry.registerGauge("Cache.Size", () -> 1L);
+    registry.registerGauge("Cache-Size", () -> 2L);
+    registry.registerGauge("Tier:Stats.Hits", () -> 3L);
+    registry.registerTable("Tier:Stats", () -> Table.newBuilder("Hits")
+        .withRow("heap", row -> row.setStatistic("Hits", GAUGE, 4L))
+        .build());
+
+    OpenMetricsExporter exporter = new OpenMetricsExporter(registry);
+    String expected = "# TYPE Cache_Size gauge\n" +
+        "Cache_Size 2\n" +
+        "# TYPE Cache_Size_2 gauge\n" +
+        "Cache_Size_2 1\n" +
+        "# TYPE Tier:Stats_Hits gauge\n" +
+        "Tier:Stats_Hits{row=\"heap\"} 4\n" +
+        "# TYPE Tier:Stats_Hits_2 gauge\n" +
+        "Tier:Stats_Hits_2 3\n" +
+        "# EOF\n";
+    assertThat(export(exporter), equalTo(expected));
+    // the names are kept across exports
+    assertThat(export(exporter), equalTo(expected));
+  }
+
+  @Test
+  public void testPrimitiveStatistics() throws IOException {
+    registry.registerStatistic("Cache:Puts", longCounter(() -> 7));
+    registry.registerStatistic("Cache:FillRatio", doubleRatio(() -> 0.5));
+    assertThat(export(new OpenMetricsExporter(registry)), equalTo(
+        "# TYPE Cache:FillRatio gauge\n" +
+        "Cache:FillRatio 0.5\n" +
+        "# TYPE Cache:Puts counter\n" +
+        "Cache:Puts_total 7\n" +
+        "# EOF\n"));
+  }
+
+  @Test
+  public void testTableSnapshotsAreRefreshed() throws IOException {
+    AtomicLong hits = new AtomicLong(1);
+    registry.registerStatistic("Tier:Stats", TableValueStatistic.newBuilder("Hits")
+        .withRow("heap", row -> row.registerStatistic("Hits", longCounter(hits::get)))
+        .build());
+    OpenMetricsExporter exporter = new OpenMetricsExporter(registry);
+    assertThat(export(exporter), containsString("Tier:Stats_Hits_total{row=\"heap\"} 1\n"));
+    hits.set(2);
+    assertThat(export(exporter), containsString("Tier:Stats_Hits_total{row=\"heap\"} 2\n"));
+  }
+
+  @Test
+  public void testLabelsAndChurn() throws IOException {
+    registry.registerCounter("Cache:Hits", () -> 1L);
+    OpenMetricsExporter exporter = new OpenMetricsExporter(registry, Collections.singletonMap("instance", "server-1 é"));
+    assertThat(export(exporter), equalTo(
+        "# TYPE Cache:Hits counter\n" +
+        "Cache:Hits_total{instance=\"server-1 é\"} 1\n" +
+        "# EOF\n"));
+
+    registry.unregisterStatistic("Cache:Hits");
+    registry.registerGauge("Cache:Hits", () -> 2L);
+    assertThat(export(exporter), equalTo(
+        "# TYPE Cache:Hits gauge\n" +
+        "Cache:Hits{instance=\"server-1 é\"} 2\n" +
+        "# EOF\n"));
+  }
+
+  @Test
+  public void testHistogram() throws IOException {
+    AtomicLong time = new AtomicLong();
+    DefaultLatencyHistogramStatistic histogram = new DefaultLatencyHistogramStatistic(0.63, 4, Duration.ofMinutes(1), time::get);
+    OpenMetricsExporter exporter = new OpenMetricsExporter(registry);
+    exporter.registerHistogram("Cache:GetLatency", histogram);
+    assertThat(export(exporter), equalTo(
+        "# TYPE Cache:GetLatency gaugehistogram\n" +
+        "Cache:GetLatency_bucket{le=\"+Inf\"} 0\n" +
+        "Cache:GetLatency_gcount 0\n" +
+        "# EOF\n"));
+
+    for (long latency = 1; latency <= 1000; latency++) {
+      histogram.event(time.get(), latency);
+    }
+    List<String> lines = Arrays.asList(export(exporter).split("\n"));
+    assertThat(lines.get(0), is("# TYPE Cache:GetLatency gaugehistogram"));
+    assertThat(lines.size(), is(7));
+    long previous = 0;
+    double previousBound = Double.NEGATIVE_INFINITY;
+    for (String line : lines.subList(1, 4)) {
+      assertThat(line, containsString("Cache:GetLatency_bucket{le=\""));
+      double bound = Double.parseDouble(line.substring(line.indexOf('"') + 1, line.lastIndexOf('"')));
+      long count = Long.parseLong(line.substring(line.lastIndexOf(' ') + 1));
+      assertThat(bound > previousBound, is(true));
+      assertThat(count >= previous, is(true));
+      previousBound = bound;
+      previous = count;
+    }
+    assertThat(lines.get(4), is("Cache:GetLatency_bucket{le=\"+Inf\"} 1000"));
+    assertThat(lines.get(5), is("Cache:GetLatency_gcount 1000"));
+    assertThat(lines.get(6), is("# EOF"));
+
+    assertThat(exporter.unregisterHistogram("Cache:GetLatency"), is(true));
+    assertThat(export(exporter), equalTo("# EOF\n"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testDuplicateHistogram() {
+    OpenMetricsExporter exporter = new OpenMetricsExporter(registry);
+    exporter.registerHistogram("Latency", new DefaultLatencyHistogramStatistic(0.63, 4, Duration.ofMinutes(1)));
+    exporter.registerHistogram("Latency", new DefaultLatencyHistogramStatistic(0.63, 4, Duration.ofMinutes(1)));
+  }
+
+  @Test
+  public void testEndpoint() throws IOException {
+    registry.registerCounter("Cache:Hits", () -> 42L);
+    OpenMetricsExporter exporter = new OpenMetricsExporter(registry);
+    try (OpenMetricsEndpoint endpoint = new OpenMetricsEndpoint(exporter, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))) {
+      URL url = new URL("http", endpoint.getAddress().getHostString(), endpoint.getAddress().getPort(), "/metrics");
+
+      HttpURLConnection get = (HttpURLConnection) url.openConnection();
+      assertThat(get.getResponseCode(), is(200));
+      assertThat(get.getContentType(), is(OpenMetricsExporter.CONTENT_TYPE));
+      try (InputStream in = get.getInputStream()) {
+        assertThat(read(in), equalTo("# TYPE Cache:Hits counter\nCache:Hits_total 42\n# EOF\n"));
+      }
+
+      HttpURLConnection post = (HttpURLConnection) url.openConnection();
+      post.setRequestMethod("POST");
+      assertThat(post.getResponseCode(), is(405));
+    }
+  }
+
+  private static String export(OpenMetricsExporter exporter) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    exporter.export(out);
+    return out.toString("UTF-8");
+  }
+
+  private static String read(InputStream in) throws IOException, UnsupportedEncodingException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[1024];
+    for (int read; (read = in.read(buffer)) >= 0; ) {
+      out.write(buffer, 0, read);
+    }
+    return out.toString("UTF-8");
+  }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.statistics.registry;
+
+import org.junit.Test;
+import org.terracotta.statistics.Sample;
+import org.terracotta.statistics.StatisticType;
+import org.terracotta.statistics.Table;
+import org.terracotta.statistics.TableValueStatistic;
+import org.terracotta.statistics.ValueStatistic;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.terracotta.statistics.StatisticType.COUNTER;
+import static org.terracotta.statistics.StatisticType.GAUGE;
+import static org.terracotta.statistics.StatisticType.TABLE;
+import static org.terracotta.statistics.ValueStatistics.doubleRatio;
+import static org.terracotta.statistics.ValueStatistics.longCounter;
+
+public class StatisticCodecTest {
+
+  @Test
+  public void testCounterRoundTrip() {
+    List<Sample<Long>> samples = new ArrayList<>();
+    long counter = 1_000_000L;
+    for (long t = 1_540_000_000_000L; samples.size() < 100; t += 1000) {
+      samples.add(new Sample<>(t, counter += samples.size() % 7));
+    }
+    Statistic<Long> statistic = new Statistic<>(COUNTER, samples);
+    assertRoundTrip(statistic);
+  }
+
+  @Test
+  public void testMixedValuesRoundTrip() {
+    assertRoundTrip(new Statistic<>(GAUGE, Arrays.<Sample<Serializable>>asList(
+        new Sample<>(-5, null),
+        new Sample<>(10, Long.MIN_VALUE),
+        new Sample<>(11, Long.MAX_VALUE),
+        new Sample<>(5, 0.25),
+        new Sample<>(Long.MAX_VALUE, Double.NaN),
+        new Sample<>(Long.MIN_VALUE, Integer.MIN_VALUE),
+        new Sample<>(12, "ünïcode"),
+        new Sample<>(13, true),
+        new Sample<>(14, false),
+        new Sample<>(15, TimeUnit.SECONDS),
+        new Sample<>(16, new BigDecimal("1.5")))));
+  }
+
+  @Test
+  public void testEmptyAndTimedOutRoundTrip() {
+    assertRoundTrip(new Statistic<>(StatisticType.RATE));
+    Statistic<? extends Serializable> decoded = roundTrip(Statistic.timedOut(StatisticType.RATIO));
+    assertThat(decoded.isTimedOut(), is(true));
+    assertThat(decoded.getType(), is(StatisticType.RATIO));
+  }
+
+  @Test
+  public void testTableRoundTrip() {
+    Table table = Table.newBuilder("Hits", "Ratio", "Size")
+        .withRow("heap", row -> row.setStatistic("Hits", COUNTER, 10L).setStatistic("Ratio", StatisticType.RATIO, 0.5).setStatistic("Size", GAUGE, 1024))
+        .withRow("offheap", row -> row.setStatistic("Hits", COUNTER, 3L))
+        .build();
+    ByteBuffer buffer = ByteBuffer.allocate(1024);
+    StatisticCodec.encode(table, buffer);
+    buffer.flip();
+    assertTableEquals(StatisticCodec.decodeTable(buffer), table);
+    assertThat(buffer.hasRemaining(), is(false));
+
+    Statistic<? extends Serializable> decoded = roundTrip(new Statistic<>(TABLE, new Sample<>(42, table)));
+    assertThat(decoded.getSamples().get(0).getTimestamp(), is(42L));
+    assertTableEquals((Table) decoded.getSamples().get(0).getSample(), table);
+  }
+
+  @Test
+  public void testColumnarSnapshotRoundTrip() {
+    Table table = TableValueStatistic.newBuilder("Hits", "Ratio")
+        .withRow("heap", row -> row.registerStatistic("Hits", longCounter(() -> 10L)).registerStatistic("Ratio", doubleRatio(() -> 0.5)))
+        .withRow("offheap", row -> row.registerStatistic("Hits", longCounter(() -> 3L)))
+        .build().value();
+    ByteBuffer buffer = ByteBuffer.allocate(1024);
+    StatisticCodec.encode(table, buffer);
+    buffer.flip();
+    assertTableEquals(StatisticCodec.decodeTable(buffer), table);
+    assertThat(buffer.hasRemaining(), is(false));
+  }
+
+  @Test
+  public void testSampleRoundTrip() {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(64);
+    StatisticCodec.encode(new Sample<>(1_540_000_000_000L, "foo"), buffer);
+    buffer.flip();
+    assertThat(StatisticCodec.decodeSample(buffer), equalTo(new Sample<Serializable>(1_540_000_000_000L, "foo")));
+  }
+
+  @Test
+  public void testStatisticsRoundTrip() {
+    Map<String, Statistic<? extends Serializable>> statistics = new HashMap<>();
+    statistics.put("Cache:Hits", new Statistic<>(COUNTER, new Sample<>(1, 10L)));
+    statistics.put("Cache:Size", new Statistic<>(GAUGE, new Sample<>(1, 0.5)));
+    statistics.put("Cache:Slow", Statistic.timedOut(GAUGE));
+    ByteBuffer buffer = ByteBuffer.allocate(1024);
+    StatisticCodec.encodeStatistics(statistics, buffer);
+    buffer.flip();
+    Map<String, Statistic<? extends Serializable>> decoded = StatisticCodec.decodeStatistics(buffer);
+    assertThat(decoded.keySet(), equalTo(statistics.keySet()));
+    for (Map.Entry<String, Statistic<? extends Serializable>> e : statistics.entrySet()) {
+      assertStatisticEquals(decoded.get(e.getKey()), e.getValue());
+    }
+  }
+
+  @Test
+  public void testEncodingIsCompact() throws IOException {
+    List<Sample<Long>> samples = new ArrayList<>();
+    for (long t = 1_540_000_000_000L, counter = 0; samples.size() < 100; t += 1000, counter += 3) {
+      samples.add(new Sample<>(t, counter));
+    }
+    Statistic<Long> statistic = new Statistic<>(COUNTER, samples);
+    ByteBuffer buffer = ByteBuffer.allocate(4096);
+    StatisticCodec.encode(statistic, buffer);
+
+    ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(serialized)) {
+      out.writeObject(statistic);
+    }
+    // 1 byte version, type and flags, 1 byte count, ~10 bytes first sample, then 4 bytes per sample
+    assertThat(buffer.position() < 420, is(true));
+    assertThat(buffer.position() * 5 < serialized.size(), is(true));
+  }
+
+  @Test(expected = BufferOverflowException.class)
+  public void testOverflow() {
+    StatisticCodec.encode(new Statistic<>(GAUGE, new Sample<>(1, "too long for the buffer")), ByteBuffer.allocate(8));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownVersion() {
+    StatisticCodec.decodeStatistic(ByteBuffer.wrap(new byte[]{42, 0, 0, 0}));
+  }
+
+  @Test
+  public void testTruncatedInputFails() {
+    Table table = Table.newBuilder("count").setStatistic("row", "count", COUNTER, 42L).build();
+    ByteBuffer buffer = ByteBuffer.allocate(4096);
+    StatisticCodec.encode(new Statistic<>(GAUGE, Arrays.<Sample<Serializable>>asList(
+        new Sample<>(1, 2L), new Sample<>(2, "foo"), new Sample<>(3, table), new Sample<>(4, new BigDecimal("1.5")))), buffer);
+    buffer.flip();
+    for (int length = 0; length < buffer.limit(); length++) {
+      ByteBuffer truncated = buffer.duplicate();
+      truncated.limit(length);
+      try {
+        StatisticCodec.decodeStatistic(truncated);
+        fail("Decoded a message truncated to " + length + " bytes");
+      } catch (BufferUnderflowException | IllegalArgumentException e) {
+        //expected
+      }
+    }
+  }
+
+  @Test(expected = BufferUnderflowException.class)
+  public void testHugeSampleCountFailsBeforeAllocating() {
+    // version, gauge, no flags, then a sample count of Integer.MAX_VALUE
+    StatisticCodec.decodeStatistic(ByteBuffer.wrap(new byte[]{StatisticCodec.VERSION, 3, 0, -1, -1, -1, -1, 7}));
+  }
+
+  @Test(expected = BufferUnderflowException.class)
+  public void testHugeSerializedLengthFailsBeforeAllocating() {
+    // version, timestamp 0, serialized tag, then a length of Integer.MAX_VALUE
+    StatisticCodec.decodeSample(ByteBuffer.wrap(new byte[]{StatisticCodec.VERSION, 0, 8, -1, -1, -1, -1, 7}));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownValueTag() {
+    StatisticCodec.decodeSample(ByteBuffer.wrap(new byte[]{StatisticCodec.VERSION, 0, 42}));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnexpectedSerializedClassRejected() {
+    ByteBuffer buffer = ByteBuffer.allocate(4096);
+    StatisticCodec.encode(new Sample<>(0, new ArrayList<>(Arrays.asList("foo", "bar"))), buffer);
+    buffer.flip();
+    StatisticCodec.decodeSample(buffer);
+  }
+
+  private static void assertRoundTrip(Statistic<? extends Serializable> statistic) {
+    assertStatisticEquals(roundTrip(statistic), statistic);
+  }
+
+  private static Statistic<? extends Serializable> roundTrip(Statistic<? extends Serializable> statistic) {
+    ByteBuffer buffer = ByteBuffer.allocate(4096);
+    StatisticCodec.encode(statistic, buffer);
+    buffer.flip();
+    Statistic<? extends Serializable> decoded = StatisticCodec.decodeStatistic(buffer);
+    assertThat(buffer.hasRemaining(), is(false));
+    return decoded;
+  }
+
+  private static void assertStatisticEquals(Statistic<? extends Serializable> actual, Statistic<? extends Serializable> expected) {
+    assertThat(actual.getType(), is(expected.getType()));
+    assertThat(actual.isTimedOut(), is(expected.isTimedOut()));
+    assertThat(actual.getSamples(), equalTo(expected.getSamples()));
+  }
+
+  private static void assertTableEquals(Table actual, Table expected) {
+    assertThat(actual.getStatisticNames(), equalTo(expected.getStatisticNames()));
+    assertThat(new ArrayList<>(actual.getRowLabels()), equalTo(new ArrayList<>(expected.getRowLabels())));
+    for (String row : expected.getRowLabels()) {
+      ValueStatistic<? extends Serializable>[] expectedCells = expected.getStatistics(row);
+      ValueStatistic<? extends Serializable>[] actualCells = actual.getStatistics(row);
+      for (int i = 0; i < expectedCells.length; i++) {
+        if (expectedCells[i] == null) {
+          assertThat(actualCells[i], nullValue());
+        } else {
+          assertThat(actualCells[i].type(), is(expectedCells[i].type()));
+          assertThat(actualCells[i].value(), equalTo(expectedCells[i].value()));
+        }
+      }
+    }
+  }
+}
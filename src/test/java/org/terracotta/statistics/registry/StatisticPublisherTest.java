@@ -0,0 +1,302 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.statistics.registry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.terracotta.statistics.MutableTimeSource;
+import org.terracotta.statistics.Sample;
+import org.terracotta.statistics.Time;
+import org.terracotta.statistics.TimeMocking;
+import org.terracotta.statistics.derived.history.Reducers;
+import org.terracotta.statistics.derived.history.WindowedHistory;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.hamcrest.collection.IsEmptyCollection.empty;
+import static org.hamcrest.collection.IsIterableContainingInAnyOrder.containsInAnyOrder;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.hamcrest.core.IsInstanceOf.instanceOf;
+import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class StatisticPublisherTest {
+
+  private final AtomicLong time = new AtomicLong(1000);
+  private final AtomicLong extractions = new AtomicLong();
+  private final StatisticRegistry registry = new StatisticRegistry(null, time::get);
+  private final ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
+  private final ScheduledFuture<?> future = mock(ScheduledFuture.class);
+  private final StatisticPublisher publisher = new StatisticPublisher(registry, executor);
+
+  @Before
+  public void setUp() {
+    doReturn(future).when(executor).scheduleAtFixedRate(any(Runnable.class), anyLong(), anyLong(), any(TimeUnit.class));
+    registry.registerCounter("Cache:Hits", () -> {
+      extractions.incrementAndGet();
+      return 1L;
+    });
+    registry.registerGauge("Cache:Size", () -> 10L);
+    registry.registerGauge("Store:Size", () -> 20L);
+  }
+
+  @Test
+  public void testSubscribersShareExtraction() {
+    Recorder a = subscribe(1, SECONDS, asList("Cache:"), Long.MAX_VALUE);
+    Recorder b = subscribe(1, SECONDS, asList("Cache:Hits", "Store:"), Long.MAX_VALUE);
+    Runnable tick = scheduledTick(1, SECONDS);
+
+    tick.run();
+    time.set(2000);
+    tick.run();
+    assertThat(extractions.get(), is(2L));
+    assertThat(a.batches.size(), is(2));
+    assertThat(a.batches.get(0).keySet(), containsInAnyOrder("Cache:Hits", "Cache:Size"));
+    assertThat(b.batches.get(0).keySet(), containsInAnyOrder("Cache:Hits", "Store:Size"));
+    assertThat(b.batches.get(0).get("Store:Size").getLatestSampleValue().get(), equalTo(20L));
+  }
+
+  @Test
+  public void testPeriodsAreScheduledSeparately() {
+    subscribe(1, SECONDS, singletonList("Cache:"), 1);
+    subscribe(1, SECONDS, singletonList("Store:"), 1);
+    subscribe(5, SECONDS, singletonList("Store:"), 1);
+    verify(executor, times(1)).scheduleAtFixedRate(any(Runnable.class), eq(SECONDS.toNanos(1)), eq(SECONDS.toNanos(1)), eq(NANOSECONDS));
+    verify(executor, times(1)).scheduleAtFixedRate(any(Runnable.class), eq(SECONDS.toNanos(5)), eq(SECONDS.toNanos(5)), eq(NANOSECONDS));
+  }
+
+  @Test
+  public void testBackpressureConflates() throws InterruptedException {
+    Recorder recorder = subscribe(1, SECONDS, singletonList("Cache:Size"), 0);
+    Runnable tick = scheduledTick(1, SECONDS);
+
+    tick.run();
+    time.set(2000);
+    tick.run();
+    assertThat(recorder.batches, is(empty()));
+    assertThat(publisher.droppedBatchesStatistic().value(), is(1L));
+
+    recorder.subscription.request(1);
+    assertThat(recorder.batches.size(), is(1));
+    assertThat(recorder.batches.get(0).get("Cache:Size").getLatestSample().get().getTimestamp(), is(2000L));
+
+    time.set(3000);
+    tick.run();
+    assertThat(recorder.batches.size(), is(1));
+    recorder.subscription.request(1);
+    assertThat(recorder.batches.size(), is(2));
+  }
+
+  @Test
+  public void testCancelStopsScheduleWhenLastSubscriberLeaves() {
+    Recorder a = subscribe(1, SECONDS, singletonList("Cache:"), Long.MAX_VALUE);
+    Recorder b = subscribe(1, SECONDS, singletonList("Cache:"), Long.MAX_VALUE);
+    Runnable tick = scheduledTick(1, SECONDS);
+
+    a.subscription.cancel();
+    tick.run();
+    assertThat(a.batches, is(empty()));
+    assertThat(b.batches.size(), is(1));
+    verify(future, times(0)).cancel(false);
+
+    b.subscription.cancel();
+    verify(future).cancel(false);
+  }
+
+  @Test
+  public void testFailingStatisticFailsSubscription() {
+    registry.registerGauge("Broken:Gauge", () -> {
+      throw new IllegalStateException("broken");
+    });
+    Recorder broken = subscribe(1, SECONDS, singletonList("Broken:"), Long.MAX_VALUE);
+    Recorder healthy = subscribe(1, SECONDS, singletonList("Cache:"), Long.MAX_VALUE);
+    scheduledTick(1, SECONDS).run();
+
+    assertThat(broken.error, instanceOf(IllegalStateException.class));
+    assertThat(healthy.batches.size(), is(1));
+  }
+
+  @Test
+  public void testSubscriberThrowingFromSignalsDoesNotStopTheSchedule() throws InterruptedException {
+    registry.registerGauge("Broken:Gauge", () -> {
+      throw new IllegalStateException("broken");
+    });
+    publisher.publisher(1, SECONDS, singletonList("Broken:")).subscribe(new Recorder(Long.MAX_VALUE) {
+      @Override
+      public void onError(Throwable throwable) {
+        throw new IllegalStateException("onError");
+      }
+    });
+    Recorder healthy = subscribe(1, SECONDS, singletonList("Cache:"), Long.MAX_VALUE);
+    Recorder completing = new Recorder(Long.MAX_VALUE) {
+      @Override
+      public void onComplete() {
+        throw new IllegalStateException("onComplete");
+      }
+    };
+    publisher.publisher(1, SECONDS, singletonList("Store:")).subscribe(completing);
+    Runnable tick = scheduledTick(1, SECONDS);
+
+    tick.run();
+    time.set(2000);
+    tick.run();
+    assertThat(healthy.batches.size(), is(2));
+    assertThat(completing.batches.size(), is(2));
+
+    publisher.shutdown();
+    assertThat(healthy.completed, is(true));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testFinalValueOfAWindowIsPublished() {
+    MutableTimeSource source = TimeMocking.push(new MutableTimeSource());
+    try {
+      LongSupplier millis = () -> NANOSECONDS.toMillis(Time.time());
+      source.advanceTime(1000 - millis.getAsLong() % 1000, MILLISECONDS);
+      WindowedHistory<Long> history = new WindowedHistory<>(Reducers.maximum(), 5, 1, SECONDS, millis);
+      registry.registerStatistic("Window:Maximum", history);
+      Recorder recorder = subscribe(1, SECONDS, singletonList("Window:"), Long.MAX_VALUE);
+      Runnable tick = scheduledTick(1, SECONDS);
+
+      history.event(Time.time(), 1);
+      time.set(millis.getAsLong());
+      tick.run();
+      source.advanceTime(500, MILLISECONDS);
+      history.event(Time.time(), 5);
+      source.advanceTime(500, MILLISECONDS);
+      history.event(Time.time(), 2);
+      time.set(millis.getAsLong());
+      tick.run();
+
+      assertThat(recorder.batches.size(), is(2));
+      List<Sample<Long>> samples = ((Statistic<Long>) recorder.batches.get(1).get("Window:Maximum")).getSamples();
+      assertThat(samples.size(), is(2));
+      assertThat(samples.get(0).getSample(), is(5L));
+      assertThat(samples.get(1).getSample(), is(2L));
+    } finally {
+      TimeMocking.pop();
+    }
+  }
+
+  @Test
+  public void testNonPositiveRequestFailsSubscription() {
+    Recorder recorder = subscribe(1, SECONDS, singletonList("Cache:"), 0);
+    recorder.subscription.request(0);
+    assertThat(recorder.error, instanceOf(IllegalArgumentException.class));
+    verify(future).cancel(false);
+  }
+
+  @Test
+  public void testShutdownCompletesSubscribers() throws InterruptedException {
+    Recorder recorder = subscribe(1, SECONDS, singletonList("Cache:"), Long.MAX_VALUE);
+    publisher.shutdown();
+    assertThat(recorder.completed, is(true));
+    verify(future).cancel(false);
+
+    Recorder late = subscribe(1, SECONDS, singletonList("Cache:"), Long.MAX_VALUE);
+    assertThat(late.completed, is(true));
+  }
+
+  @Test
+  public void testExclusiveThreadPublishes() throws InterruptedException {
+    StatisticRegistry live = new StatisticRegistry(null, System::currentTimeMillis);
+    live.registerGauge("Cache:Size", () -> 10L);
+    StatisticPublisher exclusive = new StatisticPublisher(live);
+    CountDownLatch received = new CountDownLatch(3);
+    try {
+      exclusive.publisher(10, MILLISECONDS, singletonList("Cache:")).subscribe(new Recorder(Long.MAX_VALUE) {
+        @Override
+        public void onNext(Map<String, Statistic<? extends Serializable>> item) {
+          received.countDown();
+        }
+      });
+      assertThat(received.await(10, SECONDS), is(true));
+    } finally {
+      exclusive.shutdown();
+    }
+  }
+
+  private Recorder subscribe(long period, TimeUnit unit, List<String> prefixes, long demand) {
+    Recorder recorder = new Recorder(demand);
+    publisher.publisher(period, unit, prefixes).subscribe(recorder);
+    return recorder;
+  }
+
+  private Runnable scheduledTick(long period, TimeUnit unit) {
+    ArgumentCaptor<Runnable> tick = ArgumentCaptor.forClass(Runnable.class);
+    verify(executor).scheduleAtFixedRate(tick.capture(), eq(unit.toNanos(period)), eq(unit.toNanos(period)), eq(NANOSECONDS));
+    return tick.getValue();
+  }
+
+  private static class Recorder implements Flow.Subscriber<Map<String, Statistic<? extends Serializable>>> {
+
+    private final long initialDemand;
+    private final List<Map<String, Statistic<? extends Serializable>>> batches = new ArrayList<>();
+    private Flow.Subscription subscription;
+    private Throwable error;
+    private boolean completed;
+
+    Recorder(long initialDemand) {
+      this.initialDemand = initialDemand;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+      this.subscription = subscription;
+      if (initialDemand > 0) {
+        subscription.request(initialDemand);
+      }
+    }
+
+    @Override
+    public void onNext(Map<String, Statistic<? extends Serializable>> item) {
+      batches.add(item);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      error = throwable;
+    }
+
+    @Override
+    public void onComplete() {
+      completed = true;
+    }
+  }
+}
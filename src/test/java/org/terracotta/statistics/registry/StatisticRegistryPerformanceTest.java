@@ -0,0 +1,107 @@
+/*
+ * All content copyright Terracotta, Inc., unless otherwise indicated.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.statistics.registry;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.terracotta.statistics.StatisticType;
+import org.terracotta.statistics.StatisticsManager;
+
+import java.util.function.LongSupplier;
+
+import static org.terracotta.statistics.StatisticsManager.properties;
+import static org.terracotta.statistics.StatisticsManager.tags;
+
+/**
+ * Measures registration and query costs of a registry holding 50,000 statistics, and of descriptor registration.
+ */
+@Ignore
+public class StatisticRegistryPerformanceTest {
+
+  private static final int CACHES = 500;
+  private static final int STATISTICS_PER_CACHE = 100;
+
+  @Test
+  public void testQueries() {
+    StatisticRegistry registry = new StatisticRegistry(null, System::currentTimeMillis);
+    long start = System.nanoTime();
+    for (int c = 0; c < CACHES; c++) {
+      for (int s = 0; s < STATISTICS_PER_CACHE; s++) {
+        Long value = (long) s;
+        if (s % 2 == 0) {
+          registry.registerCounter("Cache" + c + ":Statistic" + s, () -> value);
+        } else {
+          registry.registerGauge("Cache" + c + ":Statistic" + s, () -> value);
+        }
+      }
+    }
+    System.out.println("Registration of " + (CACHES * STATISTICS_PER_CACHE) + " statistics: " + (System.nanoTime() - start) / 1_000_000 + "ms");
+
+    for (int round = 0; round < 5; round++) {
+      System.out.println("queryStatistics(): " + time(() -> registry.queryStatistics(0).size(), 10) + "us");
+      System.out.println("queryStatistics(prefix) of " + STATISTICS_PER_CACHE + ": " + time(() -> registry.queryStatistics("Cache42:", 0).size(), 1_000) + "us");
+      System.out.println("queryStatistics(type) of " + (CACHES * STATISTICS_PER_CACHE / 2) + ": " + time(() -> registry.queryStatistics(StatisticType.COUNTER, 0).size(), 10) + "us");
+      System.out.println("queryStatistic(name): " + time(() -> registry.queryStatistic("Cache42:Statistic7").isPresent() ? 1 : 0, 100_000) + "us");
+    }
+  }
+
+  @Test
+  public void testDescriptorRegistration() {
+    int caches = 200;
+    int descriptors = 40;
+    Object context = new Object();
+    for (int c = 0; c < caches; c++) {
+      for (int d = 0; d < descriptors; d++) {
+        StatisticsManager.createPassThroughStatistic(context, "statistic" + d, tags("cache"),
+            properties("discriminator=Cache" + c), StatisticType.GAUGE, () -> 1L);
+      }
+    }
+
+    for (int round = 0; round < 5; round++) {
+      StatisticRegistry individual = new StatisticRegistry(context, System::currentTimeMillis);
+      long start = System.nanoTime();
+      for (int d = 0; d < descriptors; d++) {
+        individual.registerStatistic("Statistic" + d, ValueStatisticDescriptor.descriptor("statistic" + d, "cache"));
+      }
+      long individualTime = System.nanoTime() - start;
+
+      StatisticRegistry batch = new StatisticRegistry(context, System::currentTimeMillis);
+      StatisticRegistry.Registrations registrations = new StatisticRegistry.Registrations();
+      for (int d = 0; d < descriptors; d++) {
+        registrations.value("Statistic" + d, ValueStatisticDescriptor.descriptor("statistic" + d, "cache"));
+      }
+      start = System.nanoTime();
+      batch.registerStatistics(registrations);
+      long batchTime = System.nanoTime() - start;
+
+      System.out.println(descriptors + " descriptors over " + (caches * descriptors) + " statistics: individual "
+          + individualTime / 1_000_000 + "ms, batch " + batchTime / 1_000_000 + "ms");
+    }
+  }
+
+  private static double time(LongSupplier query, int iterations) {
+    long blackhole = 0;
+    long start = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      blackhole += query.getAsLong();
+    }
+    long duration = System.nanoTime() - start;
+    if (blackhole == 42) {
+      System.out.println();
+    }
+    return ((double) duration) / iterations / 1_000;
+  }
+}
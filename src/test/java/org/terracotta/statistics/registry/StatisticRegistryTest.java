@@ -17,27 +17,53 @@ package org.terracotta.statistics.registry;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.terracotta.statistics.MutableTimeSource;
+import org.terracotta.statistics.Sample;
 import org.terracotta.statistics.StatisticType;
 import org.terracotta.statistics.StatisticsManager;
 import org.terracotta.statistics.Time;
+import org.terracotta.statistics.TimeMocking;
+import org.terracotta.statistics.archive.ArchivedStatistic;
+import org.terracotta.statistics.archive.StatisticArchive;
+import org.terracotta.statistics.derived.history.Reducers;
+import org.terracotta.statistics.derived.history.WindowedHistory;
 import org.terracotta.statistics.observer.OperationObserver;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
 
 import static java.util.Collections.singleton;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.collection.IsEmptyCollection.empty;
+import static org.hamcrest.collection.IsIterableContainingInOrder.contains;
 import static org.hamcrest.core.IsCollectionContaining.hasItems;
 import static org.hamcrest.core.IsEqual.equalTo;
 import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.terracotta.statistics.SampledStatisticAdapter.sample;
 import static org.terracotta.statistics.StatisticBuilder.operation;
 import static org.terracotta.statistics.StatisticType.COUNTER;
 import static org.terracotta.statistics.StatisticType.GAUGE;
 import static org.terracotta.statistics.StatisticsManager.properties;
 import static org.terracotta.statistics.StatisticsManager.tags;
+import static org.terracotta.statistics.ValueStatistics.constant;
 import static org.terracotta.statistics.ValueStatistics.gauge;
 
 /**
@@ -102,4 +128,322 @@ public class StatisticRegistryTest {
     registry.registerGauge("Cache:OffHeapMemoryUsed", () -> 2048L);
   }
 
-}
\ No newline at end of file
+  @Test
+  public void registerStatistics() {
+    StatisticRegistry batch = new StatisticRegistry(this, Time::absoluteTime);
+    Set<String> matched = batch.registerStatistics(new StatisticRegistry.Registrations()
+        .value("AllocatedMemory", ValueStatisticDescriptor.descriptor("allocatedMemory", "tier", "OffHeapResource"))
+        .value("Inexisting", ValueStatisticDescriptor.descriptor("inexisting", "tier"))
+        .value("WrongTags", ValueStatisticDescriptor.descriptor("allocatedMemory", "tier", "Heap"))
+        .operation("TimeUnit", OperationStatisticDescriptor.descriptor("timeUnit", singleton("axis"), TimeUnit.class), EnumSet.allOf(TimeUnit.class))
+        .operation("WrongType", OperationStatisticDescriptor.descriptor("timeUnit", singleton("axis"), StatisticType.class), EnumSet.allOf(StatisticType.class)));
+    assertThat(matched, equalTo(asSet("AllocatedMemory", "TimeUnit")));
+    assertThat(batch.queryStatistics().keySet(), equalTo(asSet("OffHeapResource:AllocatedMemory", "Axis:TimeUnit")));
+    assertThat(batch.queryStatistic("OffHeapResource:AllocatedMemory").get().getLatestSampleValue().get(), equalTo(1024L));
+  }
+
+  @Test
+  public void registerStatisticsWithoutContext() {
+    StatisticRegistry batch = new StatisticRegistry(null, Time::absoluteTime);
+    assertThat(batch.registerStatistics(new StatisticRegistry.Registrations()
+        .value("AllocatedMemory", ValueStatisticDescriptor.descriptor("allocatedMemory", "tier", "OffHeapResource"))), is(empty()));
+  }
+
+  @Test
+  public void queryStatisticsByPrefix() {
+    Map<String, Statistic<? extends Serializable>> statistics = registry.queryStatistics("Cache:", 0);
+    assertThat(statistics.keySet(), hasItems(
+        "Cache:Hits",
+        "Cache:OffHeapMemoryUsed",
+        "Cache:GetLatencies",
+        "Cache:PutLatencies",
+        "Cache:ClearLatencies"));
+    assertThat(statistics.size(), equalTo(5));
+    assertThat(registry.queryStatistics("Cache:Hits", 0).keySet(), hasItems("Cache:Hits"));
+    assertThat(registry.queryStatistics("Database:", 0).keySet(), is(empty()));
+    assertThat(registry.queryStatistics("", 0).size(), equalTo(7));
+  }
+
+  @Test
+  public void queryStatisticsByType() {
+    Map<String, Statistic<? extends Serializable>> statistics = registry.queryStatistics(COUNTER, 0);
+    assertThat(statistics.keySet(), hasItems("Cache:Hits", "Axis:TimeUnit"));
+    assertThat(statistics.size(), equalTo(2));
+    for (Statistic<? extends Serializable> statistic : registry.queryStatistics(GAUGE, 0).values()) {
+      assertThat(statistic.getType(), is(GAUGE));
+    }
+  }
+
+  @Test
+  public void unregisterStatistic() {
+    assertThat(registry.unregisterStatistic("Cache:Hits"), is(true));
+    assertThat(registry.unregisterStatistic("Cache:Hits"), is(false));
+    assertThat(registry.queryStatistic("Cache:Hits").isPresent(), is(false));
+    assertThat(registry.queryStatistics("Cache:Hits", 0).keySet(), is(empty()));
+    assertThat(registry.queryStatistics(COUNTER, 0).size(), is(1));
+    registry.registerGauge("Cache:Hits", () -> 2L);
+    assertThat(registry.queryStatistics(GAUGE, 0).keySet(), hasItems("Cache:Hits"));
+  }
+
+  @Test
+  public void registrationChurnDuringQueries() throws InterruptedException, ExecutionException {
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int t = 0; t < 2; t++) {
+        String prefix = "Churn" + t + ":";
+        futures.add(executor.submit(() -> {
+          for (int i = 0; i < 20_000; i++) {
+            String name = prefix + (i % 100);
+            if (!registry.unregisterStatistic(name)) {
+              registry.registerCounter(name, () -> 1L);
+            }
+          }
+        }));
+      }
+      for (int t = 0; t < 2; t++) {
+        futures.add(executor.submit(() -> {
+          for (int i = 0; i < 2_000; i++) {
+            for (Map.Entry<String, Statistic<? extends Serializable>> e : registry.queryStatistics("Churn", 0).entrySet()) {
+              assertThat(e.getKey().startsWith("Churn"), is(true));
+              assertThat(e.getValue().getType(), is(COUNTER));
+            }
+            assertThat(registry.queryStatistics("Cache:", 0).size(), is(5));
+          }
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+    // 20,000 toggles of each of 100 names leaves every name unregistered
+    assertThat(registry.queryStatistics("Churn", 0).keySet(), is(empty()));
+    assertThat(registry.queryStatistics(COUNTER, 0).size(), is(2));
+    assertThat(registry.queryStatistics().size(), is(7));
+  }
+
+  @Test
+  public void parallelQueryStatistics() {
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      Map<String, Statistic<? extends Serializable>> statistics = registry.queryStatistics(0, executor, 10, TimeUnit.SECONDS);
+      Map<String, Statistic<? extends Serializable>> expected = registry.queryStatistics();
+      assertThat(statistics.keySet(), equalTo(expected.keySet()));
+      for (Map.Entry<String, Statistic<? extends Serializable>> e : statistics.entrySet()) {
+        assertThat(e.getValue().isTimedOut(), is(false));
+        assertThat(e.getValue().getLatestSampleValue(), equalTo(expected.get(e.getKey()).getLatestSampleValue()));
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void parallelQueryStatisticsTimesOutSlowStatistic() {
+    CountDownLatch release = new CountDownLatch(1);
+    registry.registerGauge("Slow:Gauge", () -> {
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return 1L;
+    });
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      Map<String, Statistic<? extends Serializable>> statistics = registry.queryStatistics(0, executor, 200, TimeUnit.MILLISECONDS);
+      assertThat(statistics.size(), is(8));
+
+      Statistic<? extends Serializable> slow = statistics.get("Slow:Gauge");
+      assertThat(slow.isTimedOut(), is(true));
+      assertThat(slow.isEmpty(), is(true));
+      assertThat(slow.getType(), is(GAUGE));
+
+      Statistic<? extends Serializable> hits = statistics.get("Cache:Hits");
+      assertThat(hits.isTimedOut(), is(false));
+      assertThat(hits.getLatestSampleValue().get(), equalTo(1L));
+    } finally {
+      release.countDown();
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void parallelQueryStatisticsDeadlineIsPerStatistic() {
+    StatisticRegistry registry = new StatisticRegistry(null, () -> 0);
+    for (int i = 0; i < 2; i++) {
+      registry.registerGauge("Slow:Gauge" + i, () -> {
+        try {
+          TimeUnit.MILLISECONDS.sleep(250);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        return 1L;
+      });
+    }
+    // one thread: the extractions take 500ms in total, but each starts and runs within its own 400ms deadline
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Map<String, Statistic<? extends Serializable>> statistics = registry.queryStatistics(0, executor, 400, TimeUnit.MILLISECONDS);
+      assertThat(statistics.size(), is(2));
+      for (Statistic<? extends Serializable> statistic : statistics.values()) {
+        assertThat(statistic.isTimedOut(), is(false));
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void parallelQueryStatisticsInterruptsAndSkipsStuckExtraction() throws InterruptedException {
+    CountDownLatch interrupted = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicLong extractions = new AtomicLong();
+    registry.registerGauge("Stuck:Gauge", () -> {
+      extractions.incrementAndGet();
+      boolean wasInterrupted = false;
+      while (true) {
+        try {
+          // ignores the interrupt, as a misbehaving statistic might
+          if (release.await(10, TimeUnit.SECONDS)) {
+            break;
+          }
+        } catch (InterruptedException e) {
+          wasInterrupted = true;
+          interrupted.countDown();
+        }
+      }
+      if (wasInterrupted) {
+        Thread.currentThread().interrupt();
+      }
+      return 1L;
+    });
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      assertThat(registry.queryStatistics(0, executor, 100, TimeUnit.MILLISECONDS).get("Stuck:Gauge").isTimedOut(), is(true));
+      assertThat(interrupted.await(10, TimeUnit.SECONDS), is(true));
+
+      Map<String, Statistic<? extends Serializable>> statistics = registry.queryStatistics(0, executor, 100, TimeUnit.MILLISECONDS);
+      assertThat(statistics.get("Stuck:Gauge").isTimedOut(), is(true));
+      assertThat(statistics.get("Cache:Hits").isTimedOut(), is(false));
+      assertThat(extractions.get(), is(1L));
+    } finally {
+      release.countDown();
+      executor.shutdownNow();
+    }
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void parallelQueryStatisticsPropagatesFailure() {
+    registry.registerGauge("Broken:Gauge", () -> {
+      throw new IllegalStateException();
+    });
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      registry.queryStatistics(0, executor, 10, TimeUnit.SECONDS);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void queryChanges() {
+    AtomicLong time = new AtomicLong(1000);
+    AtomicLong hits = new AtomicLong();
+    StatisticArchive<Long> archive = new StatisticArchive<>(10);
+    archive.add(new Sample<>(1000, 1L));
+    StatisticRegistry registry = new StatisticRegistry(null, time::get);
+    registry.registerCounter("Hits", hits::get);
+    registry.registerGauge("Gauge", () -> 5L);
+    registry.registerStatistic("Constant", constant(GAUGE, 1L));
+    registry.registerStatistic("Archived", new ArchivedStatistic<>(GAUGE, archive));
+
+    StatisticRegistry.Cursor cursor = registry.cursor();
+    assertThat(registry.queryChanges(cursor).keySet(), equalTo(asSet("Hits", "Gauge", "Constant", "Archived")));
+    // unversioned statistics are always returned
+    assertThat(registry.queryChanges(cursor).keySet(), equalTo(asSet("Gauge")));
+
+    time.set(2000);
+    hits.incrementAndGet();
+    archive.add(new Sample<>(2000, 2L));
+    Map<String, Statistic<? extends Serializable>> changes = registry.queryChanges(cursor);
+    assertThat(changes.keySet(), equalTo(asSet("Hits", "Gauge", "Archived")));
+    assertThat(changes.get("Hits").getLatestSampleValue().get(), equalTo(1L));
+    // only the new part of the history is returned
+    assertThat(((Statistic<Long>) changes.get("Archived")).getSamples(), contains(new Sample<>(2000, 2L)));
+
+    // re-registration is a change, even with an unchanged value
+    registry.unregisterStatistic("Hits");
+    registry.registerCounter("Hits", hits::get);
+    assertThat(registry.queryChanges(cursor).keySet(), equalTo(asSet("Hits", "Gauge")));
+
+    // a fresh cursor sees everything
+    assertThat(((Statistic<Long>) registry.queryChanges(registry.cursor()).get("Archived")).getSamples(),
+        contains(new Sample<>(1000, 1L), new Sample<>(2000, 2L)));
+  }
+
+  @Test
+  public void queryChangesSkipsIdleArchive() {
+    AtomicLong time = new AtomicLong(1000);
+    StatisticArchive<Long> archive = spy(new StatisticArchive<Long>(10));
+    archive.add(new Sample<>(1000, 1L));
+    StatisticRegistry registry = new StatisticRegistry(null, time::get);
+    registry.registerStatistic("Archived", new ArchivedStatistic<>(GAUGE, archive));
+
+    StatisticRegistry.Cursor cursor = registry.cursor();
+    assertThat(registry.queryChanges(cursor).keySet(), equalTo(asSet("Archived")));
+    verify(archive, times(1)).getArchive(anyLong());
+
+    // nothing was sampled, so the archive is not searched
+    time.set(2000);
+    assertThat(registry.queryChanges(cursor).keySet(), is(empty()));
+    verify(archive, times(1)).getArchive(anyLong());
+
+    archive.add(new Sample<>(2000, 2L));
+    assertThat(registry.queryChanges(cursor).keySet(), equalTo(asSet("Archived")));
+    verify(archive, times(2)).getArchive(anyLong());
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void queryChangesDeliversTheFinalValueOfAWindow() {
+    MutableTimeSource source = TimeMocking.push(new MutableTimeSource());
+    try {
+      LongSupplier millis = () -> TimeUnit.NANOSECONDS.toMillis(Time.time());
+      source.advanceTime(1000 - millis.getAsLong() % 1000, TimeUnit.MILLISECONDS);
+      WindowedHistory<Long> history = new WindowedHistory<>(Reducers.maximum(), 5, 1, TimeUnit.SECONDS, millis);
+      StatisticRegistry registry = new StatisticRegistry(null, millis);
+      registry.registerStatistic("Maximum", history);
+      StatisticRegistry.Cursor cursor = registry.cursor();
+
+      history.event(Time.time(), 1);
+      assertThat(values((Statistic<Long>) registry.queryChanges(cursor).get("Maximum")), contains(1L));
+      // an unchanged window is not returned again
+      assertThat(registry.queryChanges(cursor).keySet(), is(empty()));
+
+      // the window is updated, then closes while a new one opens
+      source.advanceTime(500, TimeUnit.MILLISECONDS);
+      history.event(Time.time(), 5);
+      source.advanceTime(500, TimeUnit.MILLISECONDS);
+      history.event(Time.time(), 2);
+      assertThat(values((Statistic<Long>) registry.queryChanges(cursor).get("Maximum")), contains(5L, 2L));
+    } finally {
+      TimeMocking.pop();
+    }
+  }
+
+  private static List<Long> values(Statistic<Long> statistic) {
+    List<Long> values = new ArrayList<>();
+    statistic.getSamples().forEach(sample -> values.add(sample.getSample()));
+    return values;
+  }
+
+  private static Set<String> asSet(String... names) {
+    return new HashSet<>(Arrays.asList(names));
+  }
+
+
+}